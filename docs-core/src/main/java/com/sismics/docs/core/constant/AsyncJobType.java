@@ -0,0 +1,16 @@
+package com.sismics.docs.core.constant;
+
+/**
+ * Durable asynchronous job types.
+ */
+public enum AsyncJobType {
+    /**
+     * File processing (thumbnails, content extraction and indexing).
+     */
+    FILE_PROCESSING,
+
+    /**
+     * Document export, resumed from its last checkpoint.
+     */
+    DOCUMENT_EXPORT
+}
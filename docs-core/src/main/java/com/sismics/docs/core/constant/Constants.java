@@ -83,6 +83,56 @@ public class Constants {
      */
     public static final String BCRYPT_WORK_ENV = "DOCS_BCRYPT_WORK";
 
+    /**
+     * Lucene searcher refresh interval environment variable (in milliseconds, 0 to refresh before each search).
+     */
+    public static final String LUCENE_REFRESH_INTERVAL_ENV = "DOCS_LUCENE_REFRESH_INTERVAL";
+
+    /**
+     * Lucene commit interval environment variable (in seconds).
+     */
+    public static final String LUCENE_COMMIT_INTERVAL_ENV = "DOCS_LUCENE_COMMIT_INTERVAL";
+
+    /**
+     * Lucene maximum uncommitted operations environment variable.
+     */
+    public static final String LUCENE_COMMIT_OPERATIONS_ENV = "DOCS_LUCENE_COMMIT_OPERATIONS";
+
+    /**
+     * Number of threads of an asynchronous event pool environment variable (formatted with the pool name).
+     */
+    public static final String ASYNC_THREADS_ENV = "DOCS_ASYNC_%s_THREADS";
+
+    /**
+     * Queue capacity of an asynchronous event pool environment variable (formatted with the pool name).
+     */
+    public static final String ASYNC_QUEUE_ENV = "DOCS_ASYNC_%s_QUEUE";
+
+    /**
+     * Node ID environment variable, identifies this instance among the nodes sharing the asynchronous jobs (defaults to the host name).
+     */
+    public static final String NODE_ID_ENV = "DOCS_NODE_ID";
+
+    /**
+     * Maximum number of concurrent OCR processes environment variable (defaults to the number of processors).
+     */
+    public static final String OCR_MAX_PROCESSES_ENV = "DOCS_OCR_MAX_PROCESSES";
+
+    /**
+     * Tesseract command environment variable.
+     */
+    public static final String TESSERACT_PATH_ENV = "DOCS_TESSERACT_PATH";
+
+    /**
+     * Maximum size of the extraction cache in bytes environment variable, 0 to disable it.
+     */
+    public static final String EXTRACTION_CACHE_SIZE_ENV = "DOCS_EXTRACTION_CACHE_SIZE";
+
+    /**
+     * Maximum size of the PDF cache in bytes environment variable, 0 to disable it.
+     */
+    public static final String PDF_CACHE_SIZE_ENV = "DOCS_PDF_CACHE_SIZE";
+
     /**
      * Expiration time of the password recovery in hours.
      */
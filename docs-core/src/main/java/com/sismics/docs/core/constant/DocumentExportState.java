@@ -0,0 +1,21 @@
+package com.sismics.docs.core.constant;
+
+/**
+ * Document export states.
+ */
+public enum DocumentExportState {
+    /**
+     * The archive is being written.
+     */
+    RUNNING,
+
+    /**
+     * The archive is complete and can be downloaded.
+     */
+    COMPLETED,
+
+    /**
+     * The export has been given up.
+     */
+    FAILED
+}
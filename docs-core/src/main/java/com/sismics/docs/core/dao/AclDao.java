@@ -181,5 +181,7 @@ public class AclDao {
         q.setParameter("type", type);
         q.setParameter("dateNow", new Date());
         q.executeUpdate();
+
+        ThreadLocalContext.get().clearEntityManager();
     }
 }
\ No newline at end of file
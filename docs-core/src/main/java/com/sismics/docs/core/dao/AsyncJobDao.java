@@ -0,0 +1,234 @@
+package com.sismics.docs.core.dao;
+
+import com.google.common.base.Strings;
+import com.sismics.docs.core.constant.AsyncJobType;
+import com.sismics.docs.core.dao.dto.AsyncJobDto;
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Durable asynchronous job DAO.
+ * A job is identified by its type and target, and leased by a node while it is processed.
+ */
+public class AsyncJobDao {
+    /**
+     * Returns the idempotency key of a job.
+     *
+     * @param type Job type
+     * @param targetId Target ID
+     * @return Key
+     */
+    public static String getKey(AsyncJobType type, String targetId) {
+        return type.name() + ":" + targetId;
+    }
+
+    /**
+     * Queue a job, leased by the node queuing it.
+     * If the job is already queued, it is queued again with a new version.
+     *
+     * @param type Job type
+     * @param targetId Target ID
+     * @param payload Payload (optional)
+     * @param leaseOwner Node ID
+     * @param leaseExpireDate Lease expiration date
+     * @return Job version
+     */
+    public int enqueue(AsyncJobType type, String targetId, String payload, String leaseOwner, Date leaseExpireDate) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        String key = getKey(type, targetId);
+        payload = Strings.nullToEmpty(payload);
+        Date now = new Date();
+        Query q = em.createNativeQuery("update T_ASYNC_JOB set JOB_PAYLOAD_C = :payload, JOB_VERSION_N = JOB_VERSION_N + 1, JOB_ATTEMPT_N = 0, " +
+                " JOB_NEXTRUN_D = :now, JOB_LEASEOWNER_C = :leaseOwner, JOB_LEASEEXPIRE_D = :leaseExpireDate, JOB_ERROR_C = null where JOB_KEY_C = :key");
+        q.setParameter("payload", payload);
+        q.setParameter("now", now);
+        q.setParameter("leaseOwner", leaseOwner);
+        q.setParameter("leaseExpireDate", leaseExpireDate);
+        q.setParameter("key", key);
+        if (q.executeUpdate() > 0) {
+            return getByKey(key).getVersion();
+        }
+
+        q = em.createNativeQuery("insert into T_ASYNC_JOB(JOB_KEY_C, JOB_TYPE_C, JOB_TARGETID_C, JOB_PAYLOAD_C, JOB_VERSION_N, JOB_ATTEMPT_N, " +
+                " JOB_NEXTRUN_D, JOB_LEASEOWNER_C, JOB_LEASEEXPIRE_D, JOB_CREATEDATE_D) " +
+                " values(:key, :type, :targetId, :payload, 1, 0, :now, :leaseOwner, :leaseExpireDate, :now)");
+        q.setParameter("key", key);
+        q.setParameter("type", type.name());
+        q.setParameter("targetId", targetId);
+        q.setParameter("payload", payload);
+        q.setParameter("now", now);
+        q.setParameter("leaseOwner", leaseOwner);
+        q.setParameter("leaseExpireDate", leaseExpireDate);
+        q.executeUpdate();
+        return 1;
+    }
+
+    /**
+     * Returns a job.
+     *
+     * @param key Key
+     * @return Job, null if it is not queued
+     */
+    @SuppressWarnings("unchecked")
+    public AsyncJobDto getByKey(String key) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select JOB_KEY_C, JOB_TYPE_C, JOB_TARGETID_C, JOB_PAYLOAD_C, JOB_VERSION_N, JOB_ATTEMPT_N " +
+                " from T_ASYNC_JOB where JOB_KEY_C = :key");
+        q.setParameter("key", key);
+        List<Object[]> resultList = q.getResultList();
+        return resultList.isEmpty() ? null : toDto(resultList.get(0));
+    }
+
+    /**
+     * Lease the jobs ready to run and not leased by a live node.
+     *
+     * @param leaseOwner Node ID
+     * @param leaseExpireDate Lease expiration date
+     * @param limit Maximum number of jobs
+     * @return Leased jobs
+     */
+    @SuppressWarnings("unchecked")
+    public List<AsyncJobDto> lease(String leaseOwner, Date leaseExpireDate, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Date now = new Date();
+        Query q = em.createNativeQuery("select JOB_KEY_C, JOB_TYPE_C, JOB_TARGETID_C, JOB_PAYLOAD_C, JOB_VERSION_N, JOB_ATTEMPT_N " +
+                " from T_ASYNC_JOB where JOB_NEXTRUN_D <= :now and (JOB_LEASEOWNER_C is null or JOB_LEASEEXPIRE_D < :now) order by JOB_NEXTRUN_D");
+        q.setParameter("now", now);
+        q.setMaxResults(limit);
+
+        // Another node may lease the same jobs, each one is leased only if it hasn't changed since
+        List<AsyncJobDto> jobList = new ArrayList<>();
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            AsyncJobDto job = toDto(o);
+            Query updateQuery = em.createNativeQuery("update T_ASYNC_JOB set JOB_LEASEOWNER_C = :leaseOwner, JOB_LEASEEXPIRE_D = :leaseExpireDate " +
+                    " where JOB_KEY_C = :key and JOB_VERSION_N = :version and JOB_ATTEMPT_N = :attempt and (JOB_LEASEOWNER_C is null or JOB_LEASEEXPIRE_D < :now)");
+            updateQuery.setParameter("leaseOwner", leaseOwner);
+            updateQuery.setParameter("leaseExpireDate", leaseExpireDate);
+            updateQuery.setParameter("key", job.getKey());
+            updateQuery.setParameter("version", job.getVersion());
+            updateQuery.setParameter("attempt", job.getAttempt());
+            updateQuery.setParameter("now", now);
+            if (updateQuery.executeUpdate() > 0) {
+                jobList.add(job);
+            }
+        }
+        return jobList;
+    }
+
+    /**
+     * Extend the leases of a node on the jobs still in progress.
+     *
+     * @param leaseOwner Node ID
+     * @param type Job type
+     * @param targetIdList Target IDs in progress
+     * @param leaseExpireDate New lease expiration date
+     * @return Number of extended leases
+     */
+    public int renewLeases(String leaseOwner, AsyncJobType type, Collection<String> targetIdList, Date leaseExpireDate) {
+        if (targetIdList.isEmpty()) {
+            return 0;
+        }
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("update T_ASYNC_JOB set JOB_LEASEEXPIRE_D = :leaseExpireDate " +
+                " where JOB_LEASEOWNER_C = :leaseOwner and JOB_TYPE_C = :type and JOB_TARGETID_C in (:targetIds)");
+        q.setParameter("leaseExpireDate", leaseExpireDate);
+        q.setParameter("leaseOwner", leaseOwner);
+        q.setParameter("type", type.name());
+        q.setParameter("targetIds", targetIdList);
+        return q.executeUpdate();
+    }
+
+    /**
+     * Release all the leases of a node.
+     *
+     * @param leaseOwner Node ID
+     * @return Number of released leases
+     */
+    public int releaseLeases(String leaseOwner) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("update T_ASYNC_JOB set JOB_LEASEOWNER_C = null, JOB_LEASEEXPIRE_D = null where JOB_LEASEOWNER_C = :leaseOwner");
+        q.setParameter("leaseOwner", leaseOwner);
+        return q.executeUpdate();
+    }
+
+    /**
+     * Returns the targets of the jobs still to run.
+     *
+     * @param type Job type
+     * @return Target IDs
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> findPendingTargetIdList(AsyncJobType type) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select JOB_TARGETID_C from T_ASYNC_JOB where JOB_TYPE_C = :type and JOB_NEXTRUN_D is not null");
+        q.setParameter("type", type.name());
+        return q.getResultList();
+    }
+
+    /**
+     * Delete a completed job, unless it has been queued again since.
+     *
+     * @param key Key
+     * @param version Version of the completed job
+     * @return True if the job has been deleted
+     */
+    public boolean complete(String key, int version) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("delete from T_ASYNC_JOB where JOB_KEY_C = :key and JOB_VERSION_N = :version");
+        q.setParameter("key", key);
+        q.setParameter("version", version);
+        return q.executeUpdate() > 0;
+    }
+
+    /**
+     * Delete a job, whatever its version.
+     *
+     * @param key Key
+     */
+    public void delete(String key) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("delete from T_ASYNC_JOB where JOB_KEY_C = :key");
+        q.setParameter("key", key);
+        q.executeUpdate();
+    }
+
+    /**
+     * Release a failed job, unless it has been queued again since.
+     *
+     * @param key Key
+     * @param version Version of the failed job
+     * @param error Error message
+     * @param nextRunDate Date of the next attempt, null to give up
+     * @return True if the job has been updated
+     */
+    public boolean fail(String key, int version, String error, Date nextRunDate) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("update T_ASYNC_JOB set JOB_ATTEMPT_N = JOB_ATTEMPT_N + 1, JOB_NEXTRUN_D = " + (nextRunDate == null ? "null" : ":nextRunDate") +
+                ", JOB_ERROR_C = :error, JOB_LEASEOWNER_C = null, JOB_LEASEEXPIRE_D = null where JOB_KEY_C = :key and JOB_VERSION_N = :version");
+        if (nextRunDate != null) {
+            q.setParameter("nextRunDate", nextRunDate);
+        }
+        q.setParameter("error", error);
+        q.setParameter("key", key);
+        q.setParameter("version", version);
+        return q.executeUpdate() > 0;
+    }
+
+    private static AsyncJobDto toDto(Object[] o) {
+        int i = 0;
+        AsyncJobDto job = new AsyncJobDto();
+        job.setKey((String) o[i++]);
+        job.setType((String) o[i++]);
+        job.setTargetId((String) o[i++]);
+        job.setPayload(Strings.emptyToNull((String) o[i++]));
+        job.setVersion(((Number) o[i++]).intValue());
+        job.setAttempt(((Number) o[i]).intValue());
+        return job;
+    }
+}
@@ -1,6 +1,7 @@
 package com.sismics.docs.core.dao;
 
 import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.docs.core.util.authentication.AuthenticationCache;
 import com.sismics.util.context.ThreadLocalContext;
 import org.joda.time.DateTime;
 
@@ -54,6 +55,7 @@ public class AuthenticationTokenDao {
         AuthenticationToken authenticationToken = em.find(AuthenticationToken.class, authenticationTokenId);
         if (authenticationToken != null) {
             em.remove(authenticationToken);
+            AuthenticationCache.invalidateToken(authenticationTokenId);
         } else {
             throw new Exception("Token not found: " + authenticationTokenId);
         }
@@ -76,22 +78,24 @@ public class AuthenticationTokenDao {
         q.setParameter("longLasted", false);
         q.setParameter("minDate", DateTime.now().minusDays(1).toDate());
         q.executeUpdate();
+
+        AuthenticationCache.invalidateUser(userId);
     }
 
     /**
-     * Deletes old short lived tokens.
+     * Updates the last connection date of a token.
      *
-     * @param id Token id
-     * @throws Exception
+     * @param id Token ID
+     * @param lastConnectionDate Last connection date
      */
-    public void updateLastConnectionDate(String id) {
+    public void updateLastConnectionDate(String id, Date lastConnectionDate) {
         StringBuilder sb = new StringBuilder("update T_AUTHENTICATION_TOKEN ato ");
         sb.append(" set AUT_LASTCONNECTIONDATE_D = :currentDate ");
         sb.append(" where ato.AUT_ID_C = :id");
 
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         Query q = em.createNativeQuery(sb.toString());
-        q.setParameter("currentDate", new Date());
+        q.setParameter("currentDate", lastConnectionDate);
         q.setParameter("id", id);
         q.executeUpdate();
     }
@@ -121,5 +125,7 @@ public class AuthenticationTokenDao {
         q.setParameter("userId", userId);
         q.setParameter("id", id);
         q.executeUpdate();
+
+        AuthenticationCache.invalidateUser(userId);
     }
 }
@@ -0,0 +1,224 @@
+package com.sismics.docs.core.dao;
+
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Storage cleaning DAO.
+ * Orphan and soft deleted rows are found and deleted by batches of IDs, in the order of the steps.
+ */
+public class CleanStorageDao {
+    /**
+     * Cleaning steps.
+     */
+    public enum Step {
+        /**
+         * Hard delete orphan audit logs.
+         */
+        ORPHAN_AUDIT_LOG("orphan audit logs",
+                "select al.LOG_ID_C from T_AUDIT_LOG al " +
+                " left join T_DOCUMENT d on d.DOC_ID_C = al.LOG_IDENTITY_C and d.DOC_DELETEDATE_D is null " +
+                " left join T_ACL a on a.ACL_ID_C = al.LOG_IDENTITY_C and a.ACL_DELETEDATE_D is null " +
+                " left join T_COMMENT c on c.COM_ID_C = al.LOG_IDENTITY_C and c.COM_DELETEDATE_D is null " +
+                " left join T_FILE f on f.FIL_ID_C = al.LOG_IDENTITY_C and f.FIL_DELETEDATE_D is null " +
+                " left join T_TAG t on t.TAG_ID_C = al.LOG_IDENTITY_C and t.TAG_DELETEDATE_D is null " +
+                " left join T_USER u on u.USE_ID_C = al.LOG_IDENTITY_C and u.USE_DELETEDATE_D is null " +
+                " left join T_GROUP g on g.GRP_ID_C = al.LOG_IDENTITY_C and g.GRP_DELETEDATE_D is null " +
+                " where al.LOG_ID_C > :afterId and d.DOC_ID_C is null and a.ACL_ID_C is null and c.COM_ID_C is null and f.FIL_ID_C is null " +
+                " and t.TAG_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null order by al.LOG_ID_C",
+                "delete from T_AUDIT_LOG where LOG_ID_C in (:ids)"),
+
+        /**
+         * Soft delete orphan ACLs.
+         */
+        ORPHAN_ACL("orphan ACLs",
+                "select a.ACL_ID_C from T_ACL a " +
+                " left join T_SHARE s on s.SHA_ID_C = a.ACL_TARGETID_C " +
+                " left join T_USER u on u.USE_ID_C = a.ACL_TARGETID_C " +
+                " left join T_GROUP g on g.GRP_ID_C = a.ACL_TARGETID_C " +
+                " left join T_DOCUMENT d on d.DOC_ID_C = a.ACL_SOURCEID_C " +
+                " left join T_TAG t on t.TAG_ID_C = a.ACL_SOURCEID_C " +
+                " where a.ACL_ID_C > :afterId and a.ACL_DELETEDATE_D is null " +
+                " and (s.SHA_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null or d.DOC_ID_C is null and t.TAG_ID_C is null) order by a.ACL_ID_C",
+                "update T_ACL set ACL_DELETEDATE_D = :dateNow where ACL_ID_C in (:ids)"),
+
+        /**
+         * Soft delete orphan comments.
+         */
+        ORPHAN_COMMENT("orphan comments",
+                "select c.COM_ID_C from T_COMMENT c left join T_DOCUMENT d on d.DOC_ID_C = c.COM_IDDOC_C and d.DOC_DELETEDATE_D is null " +
+                " where c.COM_ID_C > :afterId and c.COM_DELETEDATE_D is null and d.DOC_ID_C is null order by c.COM_ID_C",
+                "update T_COMMENT set COM_DELETEDATE_D = :dateNow where COM_ID_C in (:ids)"),
+
+        /**
+         * Soft delete orphan document tag links.
+         */
+        ORPHAN_DOCUMENT_TAG("orphan document tag links",
+                "select dt.DOT_ID_C from T_DOCUMENT_TAG dt left join T_DOCUMENT d on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and d.DOC_DELETEDATE_D is null " +
+                " left join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null " +
+                " where dt.DOT_ID_C > :afterId and dt.DOT_DELETEDATE_D is null and (d.DOC_ID_C is null or t.TAG_ID_C is null) order by dt.DOT_ID_C",
+                "update T_DOCUMENT_TAG set DOT_DELETEDATE_D = :dateNow where DOT_ID_C in (:ids)"),
+
+        /**
+         * Soft delete orphan shares.
+         */
+        ORPHAN_SHARE("orphan shares",
+                "select s.SHA_ID_C from T_SHARE s left join T_ACL a on a.ACL_TARGETID_C = s.SHA_ID_C and a.ACL_DELETEDATE_D is null " +
+                " where s.SHA_ID_C > :afterId and s.SHA_DELETEDATE_D is null and a.ACL_ID_C is null order by s.SHA_ID_C",
+                "update T_SHARE set SHA_DELETEDATE_D = :dateNow where SHA_ID_C in (:ids)"),
+
+        /**
+         * Soft delete orphan tags.
+         */
+        ORPHAN_TAG("orphan tags",
+                "select t.TAG_ID_C from T_TAG t left join T_USER u on u.USE_ID_C = t.TAG_IDUSER_C and u.USE_DELETEDATE_D is null " +
+                " where t.TAG_ID_C > :afterId and t.TAG_DELETEDATE_D is null and u.USE_ID_C is null order by t.TAG_ID_C",
+                "update T_TAG set TAG_DELETEDATE_D = :dateNow where TAG_ID_C in (:ids)"),
+
+        /**
+         * Soft delete orphan documents.
+         */
+        ORPHAN_DOCUMENT("orphan documents",
+                "select d.DOC_ID_C from T_DOCUMENT d left join T_USER u on u.USE_ID_C = d.DOC_IDUSER_C and u.USE_DELETEDATE_D is null " +
+                " where d.DOC_ID_C > :afterId and d.DOC_DELETEDATE_D is null and u.USE_ID_C is null order by d.DOC_ID_C",
+                "update T_DOCUMENT set DOC_DELETEDATE_D = :dateNow where DOC_ID_C in (:ids)"),
+
+        /**
+         * Soft delete orphan files.
+         */
+        ORPHAN_FILE("orphan files",
+                "select f.FIL_ID_C from T_FILE f left join T_USER u on u.USE_ID_C = f.FIL_IDUSER_C and u.USE_DELETEDATE_D is null " +
+                " where f.FIL_ID_C > :afterId and f.FIL_DELETEDATE_D is null and u.USE_ID_C is null order by f.FIL_ID_C",
+                "update T_FILE set FIL_DELETEDATE_D = :dateNow where FIL_ID_C in (:ids)"),
+
+        /**
+         * Hard delete soft deleted document tag links.
+         */
+        DELETED_DOCUMENT_TAG("soft deleted document tag links", selectDeleted("T_DOCUMENT_TAG", "DOT"), hardDelete("T_DOCUMENT_TAG", "DOT")),
+
+        /**
+         * Hard delete soft deleted ACLs.
+         */
+        DELETED_ACL("soft deleted ACLs", selectDeleted("T_ACL", "ACL"), hardDelete("T_ACL", "ACL")),
+
+        /**
+         * Hard delete soft deleted shares.
+         */
+        DELETED_SHARE("soft deleted shares", selectDeleted("T_SHARE", "SHA"), hardDelete("T_SHARE", "SHA")),
+
+        /**
+         * Hard delete soft deleted tags.
+         */
+        DELETED_TAG("soft deleted tags", selectDeleted("T_TAG", "TAG"), hardDelete("T_TAG", "TAG")),
+
+        /**
+         * Hard delete soft deleted comments.
+         */
+        DELETED_COMMENT("soft deleted comments", selectDeleted("T_COMMENT", "COM"), hardDelete("T_COMMENT", "COM")),
+
+        /**
+         * Hard delete soft deleted files.
+         */
+        DELETED_FILE("soft deleted files", selectDeleted("T_FILE", "FIL"), hardDelete("T_FILE", "FIL")),
+
+        /**
+         * Hard delete soft deleted documents.
+         */
+        DELETED_DOCUMENT("soft deleted documents", selectDeleted("T_DOCUMENT", "DOC"), hardDelete("T_DOCUMENT", "DOC")),
+
+        /**
+         * Hard delete soft deleted users.
+         */
+        DELETED_USER("soft deleted users", selectDeleted("T_USER", "USE"), hardDelete("T_USER", "USE")),
+
+        /**
+         * Hard delete soft deleted groups.
+         */
+        DELETED_GROUP("soft deleted groups", selectDeleted("T_GROUP", "GRP"), hardDelete("T_GROUP", "GRP"));
+
+        /**
+         * Description of the deleted rows.
+         */
+        private final String description;
+
+        /**
+         * Query selecting the IDs to delete, after an ID.
+         */
+        private final String selectQuery;
+
+        /**
+         * Query deleting a list of IDs.
+         */
+        private final String deleteQuery;
+
+        Step(String description, String selectQuery, String deleteQuery) {
+            this.description = description;
+            this.selectQuery = selectQuery;
+            this.deleteQuery = deleteQuery;
+        }
+
+        /**
+         * Returns the query selecting the soft deleted rows of a table.
+         *
+         * @param table Table name
+         * @param prefix Column prefix
+         * @return Query
+         */
+        private static String selectDeleted(String table, String prefix) {
+            return "select " + prefix + "_ID_C from " + table + " where " + prefix + "_ID_C > :afterId and " + prefix + "_DELETEDATE_D is not null order by " + prefix + "_ID_C";
+        }
+
+        /**
+         * Returns the query deleting rows of a table.
+         *
+         * @param table Table name
+         * @param prefix Column prefix
+         * @return Query
+         */
+        private static String hardDelete(String table, String prefix) {
+            return "delete from " + table + " where " + prefix + "_ID_C in (:ids)";
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * Returns the next IDs to delete in a step.
+     *
+     * @param step Step
+     * @param afterId Last ID of the previous batch, empty for the first batch
+     * @param limit Maximum number of IDs
+     * @return IDs, ordered
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> findIdList(Step step, String afterId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery(step.selectQuery);
+        q.setParameter("afterId", afterId);
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
+    /**
+     * Deletes rows in a step.
+     *
+     * @param step Step
+     * @param idList IDs
+     * @return Number of deleted rows
+     */
+    public int delete(Step step, List<String> idList) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery(step.deleteQuery);
+        q.setParameter("ids", idList);
+        if (step.deleteQuery.contains(":dateNow")) {
+            q.setParameter("dateNow", new Date());
+        }
+        return q.executeUpdate();
+    }
+}
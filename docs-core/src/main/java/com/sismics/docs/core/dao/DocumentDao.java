@@ -59,6 +59,27 @@ public class DocumentDao {
         return q.getResultList();
     }
 
+    /**
+     * Returns a page of all documents, ordered by ID.
+     * Pages are read by keyset, so reading a page doesn't depend on the number of previous pages.
+     *
+     * @param afterId ID of the last document of the previous page, null for the first page
+     * @param limit Limit
+     * @return List of documents
+     */
+    public List<Document> findAllAfter(String afterId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<Document> q;
+        if (afterId == null) {
+            q = em.createQuery("select d from Document d where d.deleteDate is null order by d.id", Document.class);
+        } else {
+            q = em.createQuery("select d from Document d where d.id > :afterId and d.deleteDate is null order by d.id", Document.class);
+            q.setParameter("afterId", afterId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
+
     /**
      * Returns the list of all active documents from a user.
      * 
@@ -169,6 +190,8 @@ public class DocumentDao {
         
         // Create audit log
         AuditLogUtil.create(documentDb, AuditLogType.DELETE, userId);
+
+        ThreadLocalContext.get().clearEntityManager();
     }
     
     /**
@@ -233,7 +256,8 @@ public class DocumentDao {
     public void updateFileId(Document document) {
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         Query query = em.createNativeQuery("update T_DOCUMENT d set DOC_IDFILE_C = :fileId, DOC_UPDATEDATE_D = :updateDate where d.DOC_ID_C = :id");
-        query.setParameter("updateDate", new Date());
+        document.setUpdateDate(new Date());
+        query.setParameter("updateDate", document.getUpdateDate());
         query.setParameter("fileId", document.getFileId());
         query.setParameter("id", document.getId());
         query.executeUpdate();
@@ -0,0 +1,146 @@
+package com.sismics.docs.core.dao;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.sismics.docs.core.constant.DocumentExportState;
+import com.sismics.docs.core.dao.dto.DocumentExportDto;
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Document export DAO.
+ */
+public class DocumentExportDao {
+    /**
+     * Columns of an export.
+     */
+    private static final String COLUMNS = "EXP_ID_C, EXP_IDUSER_C, EXP_SEARCH_C, EXP_TARGETIDS_C, EXP_STATE_C, EXP_CURSOR_C, EXP_LENGTH_N, " +
+            " EXP_DOCUMENTCOUNT_N, EXP_FILECOUNT_N, EXP_TOTAL_N, EXP_ERROR_C, EXP_CREATEDATE_D, EXP_ENDDATE_D";
+
+    /**
+     * Create a running export.
+     *
+     * @param userId User ID of the requester
+     * @param search Search query (optional)
+     * @param targetIdList Target IDs of the requester
+     * @return New ID
+     */
+    public String create(String userId, String search, List<String> targetIdList) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        String id = UUID.randomUUID().toString();
+        Query q = em.createNativeQuery("insert into T_DOCUMENT_EXPORT(EXP_ID_C, EXP_IDUSER_C, EXP_SEARCH_C, EXP_TARGETIDS_C, EXP_STATE_C, " +
+                " EXP_LENGTH_N, EXP_DOCUMENTCOUNT_N, EXP_FILECOUNT_N, EXP_CREATEDATE_D) values(:id, :userId, :search, :targetIds, :state, 0, 0, 0, :createDate)");
+        q.setParameter("id", id);
+        q.setParameter("userId", userId);
+        q.setParameter("search", Strings.nullToEmpty(search));
+        q.setParameter("targetIds", Joiner.on(',').join(targetIdList));
+        q.setParameter("state", DocumentExportState.RUNNING.name());
+        q.setParameter("createDate", new Date());
+        q.executeUpdate();
+        return id;
+    }
+
+    /**
+     * Returns an export.
+     *
+     * @param id Export ID
+     * @return Export, null if not found
+     */
+    @SuppressWarnings("unchecked")
+    public DocumentExportDto getById(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select " + COLUMNS + " from T_DOCUMENT_EXPORT where EXP_ID_C = :id");
+        q.setParameter("id", id);
+        List<Object[]> resultList = q.getResultList();
+        return resultList.isEmpty() ? null : toDto(resultList.get(0));
+    }
+
+    /**
+     * Save the progress of a running export.
+     *
+     * @param id Export ID
+     * @param cursor ID of the last exported document
+     * @param length Length of the archive
+     * @param documentCount Number of exported documents
+     * @param fileCount Number of exported files
+     * @param total Total number of documents to export
+     * @return True if the export is still running
+     */
+    public boolean checkpoint(String id, String cursor, long length, int documentCount, int fileCount, int total) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("update T_DOCUMENT_EXPORT set EXP_CURSOR_C = :cursor, EXP_LENGTH_N = :length, " +
+                " EXP_DOCUMENTCOUNT_N = :documentCount, EXP_FILECOUNT_N = :fileCount, EXP_TOTAL_N = :total where EXP_ID_C = :id and EXP_STATE_C = :state");
+        q.setParameter("cursor", cursor);
+        q.setParameter("length", length);
+        q.setParameter("documentCount", documentCount);
+        q.setParameter("fileCount", fileCount);
+        q.setParameter("total", total);
+        q.setParameter("id", id);
+        q.setParameter("state", DocumentExportState.RUNNING.name());
+        return q.executeUpdate() > 0;
+    }
+
+    /**
+     * End a running export.
+     *
+     * @param id Export ID
+     * @param state Final state
+     * @param length Length of the archive
+     * @param error Error message (optional)
+     * @return True if the export was running
+     */
+    public boolean end(String id, DocumentExportState state, long length, String error) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("update T_DOCUMENT_EXPORT set EXP_STATE_C = :state, EXP_LENGTH_N = :length, EXP_ERROR_C = " + (error == null ? "null" : ":error") +
+                ", EXP_ENDDATE_D = :endDate where EXP_ID_C = :id and EXP_STATE_C = :runningState");
+        q.setParameter("state", state.name());
+        q.setParameter("length", length);
+        if (error != null) {
+            q.setParameter("error", error);
+        }
+        q.setParameter("endDate", new Date());
+        q.setParameter("id", id);
+        q.setParameter("runningState", DocumentExportState.RUNNING.name());
+        return q.executeUpdate() > 0;
+    }
+
+    /**
+     * Delete an export.
+     *
+     * @param id Export ID
+     */
+    public void delete(String id) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("delete from T_DOCUMENT_EXPORT where EXP_ID_C = :id");
+        q.setParameter("id", id);
+        q.executeUpdate();
+    }
+
+    private static DocumentExportDto toDto(Object[] o) {
+        int i = 0;
+        DocumentExportDto dto = new DocumentExportDto();
+        dto.setId((String) o[i++]);
+        dto.setUserId((String) o[i++]);
+        dto.setSearch(Strings.emptyToNull((String) o[i++]));
+        dto.setTargetIdList(Splitter.on(',').omitEmptyStrings().splitToList((String) o[i++]));
+        dto.setState((String) o[i++]);
+        dto.setCursor((String) o[i++]);
+        dto.setLength(((Number) o[i++]).longValue());
+        dto.setDocumentCount(((Number) o[i++]).intValue());
+        dto.setFileCount(((Number) o[i++]).intValue());
+        Number total = (Number) o[i++];
+        dto.setTotal(total == null ? null : total.intValue());
+        dto.setError((String) o[i++]);
+        dto.setCreateTimestamp(((Timestamp) o[i++]).getTime());
+        Timestamp endDate = (Timestamp) o[i];
+        dto.setEndTimestamp(endDate == null ? null : endDate.getTime());
+        return dto;
+    }
+}
@@ -1,10 +1,13 @@
 package com.sismics.docs.core.dao;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import com.sismics.docs.core.constant.AuditLogType;
@@ -59,6 +62,44 @@ public class FileDao {
         q.setMaxResults(limit);
         return q.getResultList();
     }
+
+    /**
+     * Returns the IDs of the active files among a list of IDs.
+     *
+     * @param idList File IDs
+     * @return Active file IDs
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> getActiveIdSet(Collection<String> idList) {
+        if (idList.isEmpty()) {
+            return new HashSet<>();
+        }
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select f.FIL_ID_C from T_FILE f where f.FIL_ID_C in (:ids) and f.FIL_DELETEDATE_D is null");
+        q.setParameter("ids", idList);
+        return new HashSet<>((List<String>) q.getResultList());
+    }
+
+    /**
+     * Returns a page of all files, ordered by ID.
+     * Pages are read by keyset, so reading a page doesn't depend on the number of previous pages.
+     *
+     * @param afterId ID of the last file of the previous page, null for the first page
+     * @param limit Limit
+     * @return List of files
+     */
+    public List<File> findAllAfter(String afterId, int limit) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        TypedQuery<File> q;
+        if (afterId == null) {
+            q = em.createQuery("select f from File f where f.deleteDate is null order by f.id", File.class);
+        } else {
+            q = em.createQuery("select f from File f where f.id > :afterId and f.deleteDate is null order by f.id", File.class);
+            q.setParameter("afterId", afterId);
+        }
+        q.setMaxResults(limit);
+        return q.getResultList();
+    }
     
     /**
      * Returns the list of all files from a user.
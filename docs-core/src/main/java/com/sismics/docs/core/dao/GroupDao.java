@@ -7,6 +7,7 @@ import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.Group;
 import com.sismics.docs.core.model.jpa.UserGroup;
 import com.sismics.docs.core.util.AuditLogUtil;
+import com.sismics.docs.core.util.authentication.AuthenticationCache;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
@@ -71,6 +72,14 @@ public class GroupDao {
         // Create the group
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(group);
+
+        // Add the group to the closure, below the ancestors of its parent
+        Query q = em.createNativeQuery("insert into T_GROUP_CLOSURE (GCL_IDANCESTOR_C, GCL_IDDESCENDANT_C, GCL_DEPTH_N) values (:id, :id, 0)");
+        q.setParameter("id", group.getId());
+        q.executeUpdate();
+        if (group.getParentId() != null) {
+            attachSubtree(group.getId(), group.getParentId());
+        }
         
         // Create audit log
         AuditLogUtil.create(group, AuditLogType.CREATE, userId);
@@ -111,8 +120,16 @@ public class GroupDao {
         q.setParameter("groupId", groupDb.getId());
         q.executeUpdate();
 
+        // The subgroups become roots of the closure
+        detachSubtree(groupId, true);
+
         // Create audit log
         AuditLogUtil.create(groupDb, AuditLogType.DELETE, userId);
+
+        // The members of the group and of its subgroups are affected
+        AuthenticationCache.invalidateAll();
+
+        ThreadLocalContext.get().clearEntityManager();
     }
     
     /**
@@ -128,6 +145,8 @@ public class GroupDao {
         // Create the user group
         EntityManager em = ThreadLocalContext.get().getEntityManager();
         em.persist(userGroup);
+
+        AuthenticationCache.invalidateUser(userGroup.getUserId());
         
         return userGroup.getId();
     }
@@ -150,6 +169,8 @@ public class GroupDao {
         // Delete the user group
         Date dateNow = new Date();
         userGroupDb.setDeleteDate(dateNow);
+
+        AuthenticationCache.invalidateUser(userId);
     }
     
     /**
@@ -164,9 +185,6 @@ public class GroupDao {
         List<String> criteriaList = new ArrayList<>();
         
         StringBuilder sb = new StringBuilder("select g.GRP_ID_C as c0, g.GRP_NAME_C as c1, g.GRP_IDPARENT_C as c2, gp.GRP_NAME_C as c3, g.GRP_IDROLE_C ");
-        if (criteria.getUserId() != null) {
-            sb.append(" , ug.UGP_ID_C ");
-        }
         sb.append(" from T_GROUP g ");
         sb.append(" left join T_GROUP gp on g.GRP_IDPARENT_C = gp.GRP_ID_C ");
         
@@ -176,9 +194,13 @@ public class GroupDao {
             parameterMap.put("search", "%" + criteria.getSearch() + "%");
         }
         if (criteria.getUserId() != null) {
-            // Left join and post-filtering for recursive groups
-            sb.append(criteria.isRecursive() ? " left " : "");
-            sb.append(" join T_USER_GROUP ug on ug.UGP_IDGROUP_C = g.GRP_ID_C and ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null ");
+            if (criteria.isRecursive()) {
+                // Groups of the user and all their ancestors
+                criteriaList.add("g.GRP_ID_C in (select gc.GCL_IDANCESTOR_C from T_GROUP_CLOSURE gc " +
+                        " join T_USER_GROUP ug on ug.UGP_IDGROUP_C = gc.GCL_IDDESCENDANT_C and ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null)");
+            } else {
+                sb.append(" join T_USER_GROUP ug on ug.UGP_IDGROUP_C = g.GRP_ID_C and ug.UGP_IDUSER_C = :userId and ug.UGP_DELETEDATE_D is null ");
+            }
             parameterMap.put("userId", criteria.getUserId());
         }
         
@@ -194,7 +216,6 @@ public class GroupDao {
         
         // Assemble results
         List<GroupDto> groupDtoList = new ArrayList<>();
-        List<GroupDto> userGroupDtoList = new ArrayList<>();
         for (Object[] o : l) {
             int i = 0;
             GroupDto groupDto = new GroupDto()
@@ -204,43 +225,66 @@ public class GroupDao {
                 .setParentName((String) o[i++])
                 .setRoleId((String) o[i++]);
             groupDtoList.add(groupDto);
-            if (criteria.getUserId() != null && o[i] != null) {
-                userGroupDtoList.add(groupDto);
-            }
-        }
-        
-        // Post-query filtering for recursive groups
-        if (criteria.getUserId() != null && criteria.isRecursive()) {
-            Set<GroupDto> filteredGroupDtoSet = new HashSet<>();
-            for (GroupDto userGroupDto : userGroupDtoList) {
-                filteredGroupDtoSet.add(userGroupDto); // Direct group
-                findGroupParentHierarchy(filteredGroupDtoSet, groupDtoList, userGroupDto, 0); // Indirect groups
-            }
-            groupDtoList = new ArrayList<>(filteredGroupDtoSet);
         }
         
         return groupDtoList;
     }
     
     /**
-     * Recursively search group's parents.
-     * 
-     * @param parentGroupDtoSet Resulting parents
-     * @param groupDtoList All groups
-     * @param userGroupDto Reference group to search from
-     * @param depth Depth
+     * Returns true if a group is an ancestor of another group, or the same group.
+     *
+     * @param ancestorId Ancestor group ID
+     * @param groupId Group ID
+     * @return True if the group is below the ancestor
+     */
+    public boolean isAncestor(String ancestorId, String groupId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select count(*) from T_GROUP_CLOSURE where GCL_IDANCESTOR_C = :ancestorId and GCL_IDDESCENDANT_C = :groupId");
+        q.setParameter("ancestorId", ancestorId);
+        q.setParameter("groupId", groupId);
+        return ((Number) q.getSingleResult()).intValue() > 0;
+    }
+
+    /**
+     * Link a subtree to a parent and all its ancestors in the closure.
+     *
+     * @param groupId Root group ID of the subtree
+     * @param parentId Parent group ID
      */
-    private void findGroupParentHierarchy(Set<GroupDto> parentGroupDtoSet, List<GroupDto> groupDtoList, GroupDto userGroupDto, int depth) {
-        if (userGroupDto.getParentId() == null || depth == 10) { // Max depth 10 to avoid infinite loop
+    private void attachSubtree(String groupId, String parentId) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("insert into T_GROUP_CLOSURE (GCL_IDANCESTOR_C, GCL_IDDESCENDANT_C, GCL_DEPTH_N) " +
+                " select a.GCL_IDANCESTOR_C, d.GCL_IDDESCENDANT_C, a.GCL_DEPTH_N + d.GCL_DEPTH_N + 1 from T_GROUP_CLOSURE a, T_GROUP_CLOSURE d " +
+                " where a.GCL_IDDESCENDANT_C = :parentId and d.GCL_IDANCESTOR_C = :groupId");
+        q.setParameter("parentId", parentId);
+        q.setParameter("groupId", groupId);
+        q.executeUpdate();
+    }
+
+    /**
+     * Unlink a subtree from its ancestors in the closure.
+     *
+     * @param groupId Root group ID of the subtree
+     * @param removeRoot True to remove the root group from the closure too
+     */
+    @SuppressWarnings("unchecked")
+    private void detachSubtree(String groupId, boolean removeRoot) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select GCL_IDDESCENDANT_C from T_GROUP_CLOSURE where GCL_IDANCESTOR_C = :groupId");
+        q.setParameter("groupId", groupId);
+        List<String> descendantIdList = q.getResultList();
+        q = em.createNativeQuery("select GCL_IDANCESTOR_C from T_GROUP_CLOSURE where GCL_IDDESCENDANT_C = :groupId" +
+                (removeRoot ? "" : " and GCL_DEPTH_N > 0"));
+        q.setParameter("groupId", groupId);
+        List<String> ancestorIdList = q.getResultList();
+        if (descendantIdList.isEmpty() || ancestorIdList.isEmpty()) {
             return;
         }
-        
-        for (GroupDto groupDto : groupDtoList) {
-            if (groupDto.getId().equals(userGroupDto.getParentId())) {
-                parentGroupDtoSet.add(groupDto); // Add parent
-                findGroupParentHierarchy(parentGroupDtoSet, groupDtoList, groupDto, depth + 1); // Find parent's parents
-            }
-        }
+
+        q = em.createNativeQuery("delete from T_GROUP_CLOSURE where GCL_IDANCESTOR_C in (:ancestorIdList) and GCL_IDDESCENDANT_C in (:descendantIdList)");
+        q.setParameter("ancestorIdList", ancestorIdList);
+        q.setParameter("descendantIdList", descendantIdList);
+        q.executeUpdate();
     }
     
     /**
@@ -260,6 +304,16 @@ public class GroupDao {
         
         // Update the group
         groupDb.setName(group.getName());
+        if (!Objects.equals(groupDb.getParentId(), group.getParentId())) {
+            // Move the group and its subgroups in the closure
+            detachSubtree(groupDb.getId(), false);
+            if (group.getParentId() != null) {
+                attachSubtree(groupDb.getId(), group.getParentId());
+            }
+
+            // The members of the group and of its subgroups are affected by a new parent
+            AuthenticationCache.invalidateAll();
+        }
         groupDb.setParentId(group.getParentId());
         
         // Create audit log
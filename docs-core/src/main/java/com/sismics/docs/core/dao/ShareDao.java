@@ -54,5 +54,7 @@ public class ShareDao {
         q.setParameter("targetId", id);
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
+
+        ThreadLocalContext.get().clearEntityManager();
     }
 }
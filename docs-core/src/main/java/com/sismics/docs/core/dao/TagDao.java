@@ -1,6 +1,7 @@
 package com.sismics.docs.core.dao;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -145,6 +146,8 @@ public class TagDao {
         
         // Create audit log
         AuditLogUtil.create(tagDb, AuditLogType.DELETE, userId);
+
+        ThreadLocalContext.get().clearEntityManager();
     }
     
     /**
@@ -233,5 +236,53 @@ public class TagDao {
 
         return tagDtoList;
     }
-}
 
+    /**
+     * Returns the tags of several documents in one query.
+     *
+     * @param documentIdList Document IDs
+     * @param targetIdList Targets reading the tags, null to return all tags
+     * @return Tags sorted by name, by document ID
+     */
+    public Map<String, List<TagDto>> findByDocumentIdList(Collection<String> documentIdList, List<String> targetIdList) {
+        Map<String, List<TagDto>> tagDtoMap = new HashMap<>();
+        if (documentIdList.isEmpty()) {
+            return tagDtoMap;
+        }
+
+        StringBuilder sb = new StringBuilder("select distinct dt.DOT_IDDOCUMENT_C, t.TAG_ID_C, t.TAG_NAME_C, t.TAG_COLOR_C, t.TAG_IDPARENT_C, u.USE_USERNAME_C ");
+        sb.append(" from T_TAG t ");
+        sb.append(" join T_USER u on t.TAG_IDUSER_C = u.USE_ID_C ");
+        sb.append(" join T_DOCUMENT_TAG dt on dt.DOT_IDTAG_C = t.TAG_ID_C and dt.DOT_DELETEDATE_D is null ");
+        boolean aclCheck = targetIdList != null && !SecurityUtil.skipAclCheck(targetIdList);
+        if (aclCheck) {
+            sb.append(" join T_ACL a on a.ACL_TARGETID_C in (:targetIdList) and a.ACL_SOURCEID_C = t.TAG_ID_C and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null ");
+        }
+        sb.append(" where dt.DOT_IDDOCUMENT_C in (:documentIdList) and t.TAG_DELETEDATE_D is null ");
+        sb.append(" order by t.TAG_NAME_C asc ");
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery(sb.toString());
+        q.setParameter("documentIdList", documentIdList);
+        if (aclCheck) {
+            q.setParameter("targetIdList", targetIdList);
+        }
+
+        // Assemble results
+        @SuppressWarnings("unchecked")
+        List<Object[]> l = q.getResultList();
+        for (Object[] o : l) {
+            int i = 0;
+            String documentId = (String) o[i++];
+            TagDto tagDto = new TagDto()
+                    .setId((String) o[i++])
+                    .setName((String) o[i++])
+                    .setColor((String) o[i++])
+                    .setParentId((String) o[i++])
+                    .setCreator((String) o[i]);
+            tagDtoMap.computeIfAbsent(documentId, id -> new ArrayList<>()).add(tagDto);
+        }
+
+        return tagDtoMap;
+    }
+}
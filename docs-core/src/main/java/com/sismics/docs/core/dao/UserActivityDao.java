@@ -1,147 +1,274 @@
 package com.sismics.docs.core.dao;
 
+import com.sismics.docs.core.constant.AuditLogType;
+import com.sismics.docs.core.dao.dto.UserActivityDayDto;
 import com.sismics.docs.core.dao.dto.UserActivityDto;
-import com.sismics.docs.core.util.jpa.PaginatedList;
-import com.sismics.docs.core.util.jpa.PaginatedLists;
-import com.sismics.docs.core.util.jpa.QueryParam;
-import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.util.context.ThreadLocalContext;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.Query;
-import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * User activity DAO.
- * 
+ * The audit logs are rolled up into daily counters by user and entity class,
+ * each audit log being marked with the ID of the rollup which counted it.
+ *
  * @author admin-dashboard
  */
 public class UserActivityDao {
     /**
-     * Get user activities by criteria.
-     * 
-     * @param paginatedList Paginated list
-     * @param sortCriteria Sort criteria
+     * Get a page of user activities, most recent first, after a cursor.
+     *
      * @param fromDate From date
-     * @param toDate To date
      * @param userId User ID for filtering (optional)
+     * @param cursor Last activity of the previous page (optional)
+     * @param asc If true, oldest activities first
+     * @param limit Maximum number of activities
      * @return User activities
      */
-    public PaginatedList<UserActivityDto> findByCriteria(PaginatedList<UserActivityDto> paginatedList,
-            SortCriteria sortCriteria, Date fromDate, Date toDate, String userId) {
-        Map<String, Object> parameterMap = new HashMap<>();
-        
+    @SuppressWarnings("unchecked")
+    public List<UserActivityDto> findByCursor(Date fromDate, String userId, UserActivityDto cursor, boolean asc, int limit) {
         StringBuilder sb = new StringBuilder(
                 "select l.LOG_ID_C, l.LOG_IDUSER_C, l.LOG_IDENTITY_C, l.LOG_CLASSENTITY_C, l.LOG_TYPE_C, l.LOG_MESSAGE_C, l.LOG_CREATEDATE_D, u.USE_USERNAME_C ");
         sb.append(" from T_AUDIT_LOG l ");
         sb.append(" join T_USER u on l.LOG_IDUSER_C = u.USE_ID_C ");
-        sb.append(" where 1=1 ");
-        
-        if (fromDate != null) {
-            sb.append(" and l.LOG_CREATEDATE_D >= :fromDate ");
-            parameterMap.put("fromDate", fromDate);
-        }
-        
-        if (toDate != null) {
-            sb.append(" and l.LOG_CREATEDATE_D <= :toDate ");
-            parameterMap.put("toDate", toDate);
-        }
-        
+        sb.append(" where l.LOG_CREATEDATE_D >= :fromDate ");
         if (userId != null) {
             sb.append(" and l.LOG_IDUSER_C = :userId ");
-            parameterMap.put("userId", userId);
         }
-        
-        // Create the paginated list
+        if (cursor != null) {
+            String operator = asc ? ">" : "<";
+            sb.append(" and (l.LOG_CREATEDATE_D ").append(operator).append(" :cursorDate");
+            sb.append(" or (l.LOG_CREATEDATE_D = :cursorDate and l.LOG_ID_C ").append(operator).append(" :cursorId)) ");
+        }
+        String order = asc ? "asc" : "desc";
+        sb.append(" order by l.LOG_CREATEDATE_D ").append(order).append(", l.LOG_ID_C ").append(order);
+
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        
-        // Create the QueryParam
-        QueryParam queryParam = new QueryParam(sb.toString(), parameterMap);
-        
-        // Execute paginated query
-        @SuppressWarnings("unchecked")
-        List<Object[]> resultList = PaginatedLists.executePaginatedQuery(paginatedList, queryParam, sortCriteria);
-        
-        // Transform the result to DTO
+        Query q = em.createNativeQuery(sb.toString());
+        q.setParameter("fromDate", fromDate);
+        if (userId != null) {
+            q.setParameter("userId", userId);
+        }
+        if (cursor != null) {
+            q.setParameter("cursorDate", cursor.getCreateDate());
+            q.setParameter("cursorId", cursor.getId());
+        }
+        q.setMaxResults(limit);
+
         List<UserActivityDto> activitiesList = new ArrayList<>();
-        
-        for (Object[] o : resultList) {
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
             int i = 0;
             UserActivityDto activityDto = new UserActivityDto();
-            activityDto.setUserId((String) o[1]);
-            activityDto.setEntityId((String) o[2]);
-            activityDto.setEntityName((String) o[3]);
-            activityDto.setType((String) o[4]);
-            activityDto.setMessage((String) o[5]);
-            activityDto.setCreateDate(((Timestamp) o[6]).getTime() > 0 ? new Date(((Timestamp) o[6]).getTime()) : null);
-            activityDto.setUsername((String) o[7]);
+            activityDto.setId((String) o[i++]);
+            activityDto.setUserId((String) o[i++]);
+            activityDto.setEntityId((String) o[i++]);
+            activityDto.setEntityClass((String) o[i++]);
+            activityDto.setType((String) o[i++]);
+            activityDto.setMessage((String) o[i++]);
+            activityDto.setCreateDate(new Date(((Date) o[i++]).getTime()));
+            activityDto.setUsername((String) o[i]);
             activitiesList.add(activityDto);
         }
-        
-        paginatedList.setResultList(activitiesList);
-        return paginatedList;
+        return activitiesList;
     }
-    
+
     /**
-     * Find user activities by user for Gantt chart display.
-     * 
-     * @param fromDate From date
-     * @param toDate To date
-     * @return User activities
+     * Get the daily activities of the users, from the rollups and from the audit logs not yet rolled up.
+     *
+     * @param fromDate From date, at the start of a day
+     * @param userId User ID for filtering (optional)
+     * @return Daily activities, by day
      */
-    public List<UserActivityDto> findActivitiesForGantt(Date fromDate, Date toDate) {
-        Map<String, Object> parameterMap = new HashMap<>();
-        
-        StringBuilder sb = new StringBuilder(
-                "select l.LOG_IDUSER_C, u.USE_USERNAME_C, l.LOG_CLASSENTITY_C, count(l.LOG_ID_C) as activity_count, min(l.LOG_CREATEDATE_D) as start_date, max(l.LOG_CREATEDATE_D) as end_date ");
+    @SuppressWarnings("unchecked")
+    public List<UserActivityDayDto> findByDay(Date fromDate, String userId) {
+        StringBuilder sb = new StringBuilder("select r.ALR_IDUSER_C, u.USE_USERNAME_C, r.ALR_DAY_D, r.ALR_CLASSENTITY_C, ");
+        sb.append(" r.ALR_CREATE_N, r.ALR_UPDATE_N, r.ALR_DELETE_N, r.ALR_FIRSTDATE_D, r.ALR_LASTDATE_D ");
+        sb.append(" from T_AUDIT_LOG_ROLLUP r ");
+        sb.append(" join T_USER u on r.ALR_IDUSER_C = u.USE_ID_C ");
+        sb.append(" where r.ALR_DAY_D >= :fromDate ");
+        if (userId != null) {
+            sb.append(" and r.ALR_IDUSER_C = :userId ");
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery(sb.toString());
+        q.setParameter("fromDate", fromDate);
+        if (userId != null) {
+            q.setParameter("userId", userId);
+        }
+
+        Map<String, UserActivityDayDto> dayDtoMap = new LinkedHashMap<>();
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            int i = 0;
+            UserActivityDayDto dayDto = new UserActivityDayDto();
+            dayDto.setUserId((String) o[i++]);
+            dayDto.setUsername((String) o[i++]);
+            dayDto.setDay((Date) o[i++]);
+            dayDto.setEntityClass((String) o[i++]);
+            dayDto.setCreateCount(((Number) o[i++]).intValue());
+            dayDto.setUpdateCount(((Number) o[i++]).intValue());
+            dayDto.setDeleteCount(((Number) o[i++]).intValue());
+            dayDto.setFirstDate(new Date(((Date) o[i++]).getTime()));
+            dayDto.setLastDate(new Date(((Date) o[i]).getTime()));
+            dayDtoMap.put(getKey(dayDto), dayDto);
+        }
+
+        // Add the audit logs not yet rolled up
+        for (UserActivityDayDto dayDto : aggregate(null, fromDate, userId)) {
+            UserActivityDayDto rolledUpDto = dayDtoMap.get(getKey(dayDto));
+            if (rolledUpDto == null) {
+                dayDtoMap.put(getKey(dayDto), dayDto);
+            } else {
+                rolledUpDto.add(dayDto);
+            }
+        }
+
+        List<UserActivityDayDto> dayDtoList = new ArrayList<>(dayDtoMap.values());
+        dayDtoList.sort(Comparator.comparing(UserActivityDayDto::getDay)
+                .thenComparing(UserActivityDayDto::getUsername)
+                .thenComparing(UserActivityDayDto::getEntityClass));
+        return dayDtoList;
+    }
+
+    /**
+     * Returns the date of the first audit log not yet rolled up.
+     *
+     * @return Creation date, null if all the audit logs are rolled up
+     */
+    public Date getNextLogDate() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select min(l.LOG_CREATEDATE_D) from T_AUDIT_LOG l where l.LOG_IDROLLUP_C is null");
+        Date nextLogDate = (Date) q.getSingleResult();
+        return nextLogDate == null ? null : new Date(nextLogDate.getTime());
+    }
+
+    /**
+     * Roll up the audit logs not yet rolled up, created up to a date.
+     * The audit logs are claimed first with a new rollup ID: an audit log committed after a rollup
+     * is left to the next one whatever its creation date, and a concurrent rollup doesn't claim it twice.
+     *
+     * @param toDate Date
+     * @return Number of audit logs rolled up
+     */
+    public int rollup(Date toDate) {
+        String rollupId = UUID.randomUUID().toString();
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("update T_AUDIT_LOG set LOG_IDROLLUP_C = :rollupId where LOG_IDROLLUP_C is null and LOG_CREATEDATE_D <= :toDate");
+        q.setParameter("rollupId", rollupId);
+        q.setParameter("toDate", toDate);
+        int logCount = q.executeUpdate();
+        if (logCount == 0) {
+            return 0;
+        }
+
+        Query updateQuery = em.createNativeQuery("update T_AUDIT_LOG_ROLLUP set ALR_CREATE_N = ALR_CREATE_N + :createCount, " +
+                " ALR_UPDATE_N = ALR_UPDATE_N + :updateCount, ALR_DELETE_N = ALR_DELETE_N + :deleteCount, " +
+                " ALR_FIRSTDATE_D = least(ALR_FIRSTDATE_D, :firstDate), ALR_LASTDATE_D = greatest(ALR_LASTDATE_D, :lastDate) " +
+                " where ALR_DAY_D = :day and ALR_IDUSER_C = :userId and ALR_CLASSENTITY_C = :entityClass");
+        Query insertQuery = em.createNativeQuery("insert into T_AUDIT_LOG_ROLLUP (ALR_DAY_D, ALR_IDUSER_C, ALR_CLASSENTITY_C, " +
+                " ALR_CREATE_N, ALR_UPDATE_N, ALR_DELETE_N, ALR_FIRSTDATE_D, ALR_LASTDATE_D) " +
+                " values (:day, :userId, :entityClass, :createCount, :updateCount, :deleteCount, :firstDate, :lastDate)");
+        for (UserActivityDayDto dayDto : aggregate(rollupId, null, null)) {
+            q = updateQuery;
+            for (int i = 0; i < 2; i++) {
+                q.setParameter("day", dayDto.getDay());
+                q.setParameter("userId", dayDto.getUserId());
+                q.setParameter("entityClass", dayDto.getEntityClass());
+                q.setParameter("createCount", dayDto.getCreateCount());
+                q.setParameter("updateCount", dayDto.getUpdateCount());
+                q.setParameter("deleteCount", dayDto.getDeleteCount());
+                q.setParameter("firstDate", dayDto.getFirstDate());
+                q.setParameter("lastDate", dayDto.getLastDate());
+                if (q.executeUpdate() > 0) {
+                    break;
+                }
+                q = insertQuery;
+            }
+        }
+        return logCount;
+    }
+
+    /**
+     * Count the audit logs by user, day and entity class.
+     *
+     * @param rollupId Audit logs of this rollup, null for the audit logs not yet rolled up
+     * @param fromDate Audit logs created from this date (optional)
+     * @param userId User ID for filtering (optional)
+     * @return Daily activities
+     */
+    @SuppressWarnings("unchecked")
+    private List<UserActivityDayDto> aggregate(String rollupId, Date fromDate, String userId) {
+        StringBuilder sb = new StringBuilder("select l.LOG_IDUSER_C, u.USE_USERNAME_C, cast(l.LOG_CREATEDATE_D as date), l.LOG_CLASSENTITY_C, l.LOG_TYPE_C, ");
+        sb.append(" count(l.LOG_ID_C), min(l.LOG_CREATEDATE_D), max(l.LOG_CREATEDATE_D) ");
         sb.append(" from T_AUDIT_LOG l ");
         sb.append(" join T_USER u on l.LOG_IDUSER_C = u.USE_ID_C ");
-        sb.append(" where 1=1 ");
-        
+        if (rollupId == null) {
+            sb.append(" where l.LOG_IDROLLUP_C is null ");
+        } else {
+            sb.append(" where l.LOG_IDROLLUP_C = :rollupId ");
+        }
         if (fromDate != null) {
             sb.append(" and l.LOG_CREATEDATE_D >= :fromDate ");
-            parameterMap.put("fromDate", fromDate);
         }
-        
-        if (toDate != null) {
-            sb.append(" and l.LOG_CREATEDATE_D <= :toDate ");
-            parameterMap.put("toDate", toDate);
+        if (userId != null) {
+            sb.append(" and l.LOG_IDUSER_C = :userId ");
         }
-        
-        sb.append(" group by l.LOG_IDUSER_C, u.USE_USERNAME_C, l.LOG_CLASSENTITY_C ");
-        sb.append(" order by u.USE_USERNAME_C, l.LOG_CLASSENTITY_C ");
-        
+        sb.append(" group by l.LOG_IDUSER_C, u.USE_USERNAME_C, cast(l.LOG_CREATEDATE_D as date), l.LOG_CLASSENTITY_C, l.LOG_TYPE_C ");
+
         EntityManager em = ThreadLocalContext.get().getEntityManager();
-        
-        // Create the query
         Query q = em.createNativeQuery(sb.toString());
-        
-        // Populate the parameters
-        for (Map.Entry<String, Object> entry : parameterMap.entrySet()) {
-            q.setParameter(entry.getKey(), entry.getValue());
-        }
-        
-        // Get the results
-        @SuppressWarnings("unchecked")
-        List<Object[]> resultList = q.getResultList();
-        List<UserActivityDto> activitiesList = new ArrayList<>();
-        
-        for (Object[] o : resultList) {
+        if (rollupId != null) {
+            q.setParameter("rollupId", rollupId);
+        }
+        if (fromDate != null) {
+            q.setParameter("fromDate", fromDate);
+        }
+        if (userId != null) {
+            q.setParameter("userId", userId);
+        }
+
+        // One row by audit log type
+        Map<String, UserActivityDayDto> dayDtoMap = new LinkedHashMap<>();
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
             int i = 0;
-            UserActivityDto activityDto = new UserActivityDto();
-            activityDto.setUserId((String) o[0]);
-            activityDto.setUsername((String) o[1]);
-            activityDto.setEntityName((String) o[2]);
-            activityDto.setCreateDate(((Timestamp) o[4]).getTime() > 0 ? new Date(((Timestamp) o[4]).getTime()) : null);
-            activityDto.setMessage("Count: " + o[3] + " - From: " + o[4] + " To: " + o[5]);
-            activitiesList.add(activityDto);
+            UserActivityDayDto dayDto = new UserActivityDayDto();
+            dayDto.setUserId((String) o[i++]);
+            dayDto.setUsername((String) o[i++]);
+            dayDto.setDay((Date) o[i++]);
+            dayDto.setEntityClass((String) o[i++]);
+            AuditLogType type = AuditLogType.valueOf((String) o[i++]);
+            int count = ((Number) o[i++]).intValue();
+            dayDto.setCreateCount(type == AuditLogType.CREATE ? count : 0);
+            dayDto.setUpdateCount(type == AuditLogType.UPDATE ? count : 0);
+            dayDto.setDeleteCount(type == AuditLogType.DELETE ? count : 0);
+            dayDto.setFirstDate(new Date(((Date) o[i++]).getTime()));
+            dayDto.setLastDate(new Date(((Date) o[i]).getTime()));
+
+            UserActivityDayDto otherDto = dayDtoMap.get(getKey(dayDto));
+            if (otherDto == null) {
+                dayDtoMap.put(getKey(dayDto), dayDto);
+            } else {
+                otherDto.add(dayDto);
+            }
         }
-        
-        return activitiesList;
+        return new ArrayList<>(dayDtoMap.values());
+    }
+
+    /**
+     * Returns the key of a daily activity.
+     *
+     * @param dayDto Daily activity
+     * @return Key
+     */
+    private String getKey(UserActivityDayDto dayDto) {
+        return dayDto.getDay() + "/" + dayDto.getUserId() + "/" + dayDto.getEntityClass();
     }
-} 
\ No newline at end of file
+}
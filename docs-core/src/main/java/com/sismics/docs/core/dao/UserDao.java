@@ -2,6 +2,7 @@ package com.sismics.docs.core.dao;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -19,6 +20,7 @@ import com.sismics.docs.core.dao.dto.UserDto;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.util.AuditLogUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.authentication.AuthenticationCache;
 import com.sismics.docs.core.util.authentication.AuthenticationUtil;
 import com.sismics.docs.core.util.jpa.QueryParam;
 import com.sismics.docs.core.util.jpa.QueryUtil;
@@ -117,6 +119,9 @@ public class UserDao {
         userDb.setEmail(user.getEmail());
         userDb.setDisableDate(user.getDisableDate());
         userDb.setStorageQuota(user.getStorageQuota());
+
+        // The sessions of the user get the new email or are disabled
+        AuthenticationCache.invalidateUser(userDb.getId());
         
         // Create audit log
         AuditLogUtil.create(userDb, AuditLogType.UPDATE, userId);
@@ -300,8 +305,14 @@ public class UserDao {
         q.setParameter("dateNow", dateNow);
         q.executeUpdate();
         
+        // Forget the encryption key and the sessions of the user
+        EncryptionUtil.invalidateKey(userDb.getPrivateKey());
+        AuthenticationCache.invalidateUser(userDb.getId());
+
         // Create audit log
         AuditLogUtil.create(userDb, AuditLogType.DELETE, userId);
+
+        ThreadLocalContext.get().clearEntityManager();
     }
 
     /**
@@ -393,4 +404,25 @@ public class UserDao {
         query.setParameter("toDate", toDate.toDate());
         return ((Number) query.getSingleResult()).longValue();
     }
+
+    /**
+     * Returns the private keys of users.
+     *
+     * @param idList User IDs
+     * @return Private keys, by user ID
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, String> getPrivateKeyMap(Collection<String> idList) {
+        Map<String, String> privateKeyMap = new HashMap<>();
+        if (idList.isEmpty()) {
+            return privateKeyMap;
+        }
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select u.USE_ID_C, u.USE_PRIVATEKEY_C from T_USER u where u.USE_ID_C in (:ids)");
+        q.setParameter("ids", idList);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            privateKeyMap.put((String) o[0], (String) o[1]);
+        }
+        return privateKeyMap;
+    }
 }
@@ -88,6 +88,11 @@ public class DocumentCriteria {
      */
     private List<String> titleList = new ArrayList<>();
 
+    /**
+     * Only the documents with a greater ID, to read the results by keyset.
+     */
+    private String afterId;
+
     public List<String> getTargetIdList() {
         return targetIdList;
     }
@@ -195,4 +200,12 @@ public class DocumentCriteria {
     public List<String> getTitleList() {
         return titleList;
     }
+
+    public String getAfterId() {
+        return afterId;
+    }
+
+    public void setAfterId(String afterId) {
+        this.afterId = afterId;
+    }
 }
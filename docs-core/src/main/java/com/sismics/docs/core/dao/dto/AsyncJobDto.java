@@ -0,0 +1,84 @@
+package com.sismics.docs.core.dao.dto;
+
+/**
+ * Durable asynchronous job.
+ */
+public class AsyncJobDto {
+    /**
+     * Idempotency key.
+     */
+    private String key;
+
+    /**
+     * Job type.
+     */
+    private String type;
+
+    /**
+     * Target ID.
+     */
+    private String targetId;
+
+    /**
+     * Payload.
+     */
+    private String payload;
+
+    /**
+     * Version, incremented each time the job is queued again.
+     */
+    private int version;
+
+    /**
+     * Number of failed attempts.
+     */
+    private int attempt;
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+
+    public void setTargetId(String targetId) {
+        this.targetId = targetId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+}
@@ -0,0 +1,177 @@
+package com.sismics.docs.core.dao.dto;
+
+import java.util.List;
+
+/**
+ * Document export.
+ */
+public class DocumentExportDto {
+    /**
+     * ID.
+     */
+    private String id;
+
+    /**
+     * User ID of the requester.
+     */
+    private String userId;
+
+    /**
+     * Search query (optional).
+     */
+    private String search;
+
+    /**
+     * Target IDs of the requester when the export was requested.
+     */
+    private List<String> targetIdList;
+
+    /**
+     * State.
+     */
+    private String state;
+
+    /**
+     * ID of the last exported document.
+     */
+    private String cursor;
+
+    /**
+     * Length of the TAR archive at the last checkpoint, without the IV stored before it.
+     */
+    private long length;
+
+    /**
+     * Number of exported documents.
+     */
+    private int documentCount;
+
+    /**
+     * Number of exported files.
+     */
+    private int fileCount;
+
+    /**
+     * Total number of documents to export, known after the first page.
+     */
+    private Integer total;
+
+    /**
+     * Error message.
+     */
+    private String error;
+
+    /**
+     * Creation date.
+     */
+    private Long createTimestamp;
+
+    /**
+     * End date.
+     */
+    private Long endTimestamp;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getSearch() {
+        return search;
+    }
+
+    public void setSearch(String search) {
+        this.search = search;
+    }
+
+    public List<String> getTargetIdList() {
+        return targetIdList;
+    }
+
+    public void setTargetIdList(List<String> targetIdList) {
+        this.targetIdList = targetIdList;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    public void setDocumentCount(int documentCount) {
+        this.documentCount = documentCount;
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public void setFileCount(int fileCount) {
+        this.fileCount = fileCount;
+    }
+
+    public Integer getTotal() {
+        return total;
+    }
+
+    public void setTotal(Integer total) {
+        this.total = total;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Long getCreateTimestamp() {
+        return createTimestamp;
+    }
+
+    public void setCreateTimestamp(Long createTimestamp) {
+        this.createTimestamp = createTimestamp;
+    }
+
+    public Long getEndTimestamp() {
+        return endTimestamp;
+    }
+
+    public void setEndTimestamp(Long endTimestamp) {
+        this.endTimestamp = endTimestamp;
+    }
+}
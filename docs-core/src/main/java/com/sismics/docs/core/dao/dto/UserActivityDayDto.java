@@ -0,0 +1,151 @@
+package com.sismics.docs.core.dao.dto;
+
+import java.util.Date;
+
+/**
+ * Activity of a user on a type of entity during a day.
+ */
+public class UserActivityDayDto {
+    /**
+     * User ID.
+     */
+    private String userId;
+
+    /**
+     * Username.
+     */
+    private String username;
+
+    /**
+     * Day.
+     */
+    private Date day;
+
+    /**
+     * Entity class.
+     */
+    private String entityClass;
+
+    /**
+     * Number of creations.
+     */
+    private int createCount;
+
+    /**
+     * Number of updates.
+     */
+    private int updateCount;
+
+    /**
+     * Number of deletions.
+     */
+    private int deleteCount;
+
+    /**
+     * Date of the first activity.
+     */
+    private Date firstDate;
+
+    /**
+     * Date of the last activity.
+     */
+    private Date lastDate;
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public Date getDay() {
+        return day;
+    }
+
+    public void setDay(Date day) {
+        this.day = day;
+    }
+
+    public String getEntityClass() {
+        return entityClass;
+    }
+
+    public void setEntityClass(String entityClass) {
+        this.entityClass = entityClass;
+    }
+
+    public int getCreateCount() {
+        return createCount;
+    }
+
+    public void setCreateCount(int createCount) {
+        this.createCount = createCount;
+    }
+
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    public void setUpdateCount(int updateCount) {
+        this.updateCount = updateCount;
+    }
+
+    public int getDeleteCount() {
+        return deleteCount;
+    }
+
+    public void setDeleteCount(int deleteCount) {
+        this.deleteCount = deleteCount;
+    }
+
+    public Date getFirstDate() {
+        return firstDate;
+    }
+
+    public void setFirstDate(Date firstDate) {
+        this.firstDate = firstDate;
+    }
+
+    public Date getLastDate() {
+        return lastDate;
+    }
+
+    public void setLastDate(Date lastDate) {
+        this.lastDate = lastDate;
+    }
+
+    /**
+     * Returns the total number of activities.
+     *
+     * @return Number of activities
+     */
+    public int getCount() {
+        return createCount + updateCount + deleteCount;
+    }
+
+    /**
+     * Add the activities of the same user, day and entity class.
+     *
+     * @param other Other activities
+     */
+    public void add(UserActivityDayDto other) {
+        createCount += other.createCount;
+        updateCount += other.updateCount;
+        deleteCount += other.deleteCount;
+        if (firstDate == null || other.firstDate.before(firstDate)) {
+            firstDate = other.firstDate;
+        }
+        if (lastDate == null || other.lastDate.after(lastDate)) {
+            lastDate = other.lastDate;
+        }
+    }
+}
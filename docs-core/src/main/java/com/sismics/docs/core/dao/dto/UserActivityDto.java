@@ -8,6 +8,11 @@ import java.util.Date;
  * @author admin-dashboard
  */
 public class UserActivityDto {
+    /**
+     * Audit log ID.
+     */
+    private String id;
+
     /**
      * User ID.
      */
@@ -24,9 +29,9 @@ public class UserActivityDto {
     private String entityId;
     
     /**
-     * Entity name.
+     * Entity class.
      */
-    private String entityName;
+    private String entityClass;
     
     /**
      * Activity type.
@@ -43,6 +48,14 @@ public class UserActivityDto {
      */
     private String message;
 
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
     public String getUserId() {
         return userId;
     }
@@ -67,12 +80,12 @@ public class UserActivityDto {
         this.entityId = entityId;
     }
 
-    public String getEntityName() {
-        return entityName;
+    public String getEntityClass() {
+        return entityClass;
     }
 
-    public void setEntityName(String entityName) {
-        this.entityName = entityName;
+    public void setEntityClass(String entityClass) {
+        this.entityClass = entityClass;
     }
 
     public String getType() {
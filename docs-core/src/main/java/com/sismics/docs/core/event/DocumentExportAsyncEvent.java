@@ -0,0 +1,42 @@
+package com.sismics.docs.core.event;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Document export event.
+ */
+public class DocumentExportAsyncEvent {
+    /**
+     * Export ID.
+     */
+    private String exportId;
+
+    /**
+     * Version of the durable job of this export.
+     */
+    private Integer jobVersion;
+
+    public String getExportId() {
+        return exportId;
+    }
+
+    public void setExportId(String exportId) {
+        this.exportId = exportId;
+    }
+
+    public Integer getJobVersion() {
+        return jobVersion;
+    }
+
+    public void setJobVersion(Integer jobVersion) {
+        this.jobVersion = jobVersion;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("exportId", exportId)
+                .add("jobVersion", jobVersion)
+                .toString();
+    }
+}
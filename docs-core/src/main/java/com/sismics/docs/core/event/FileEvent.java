@@ -1,6 +1,7 @@
 package com.sismics.docs.core.event;
 
 import com.google.common.base.MoreObjects;
+import com.sismics.docs.core.util.FileUploadContext;
 
 import java.nio.file.Path;
 
@@ -25,6 +26,16 @@ public abstract class FileEvent extends UserEvent {
      */
     private Path unencryptedFile;
 
+    /**
+     * Upload of the file, released by the processing (optional).
+     */
+    private FileUploadContext uploadContext;
+
+    /**
+     * Version of the durable job of this processing (optional).
+     */
+    private Integer jobVersion;
+
     public String getFileId() {
         return fileId;
     }
@@ -50,6 +61,22 @@ public abstract class FileEvent extends UserEvent {
         return this;
     }
 
+    public FileUploadContext getUploadContext() {
+        return uploadContext;
+    }
+
+    public void setUploadContext(FileUploadContext uploadContext) {
+        this.uploadContext = uploadContext;
+    }
+
+    public Integer getJobVersion() {
+        return jobVersion;
+    }
+
+    public void setJobVersion(Integer jobVersion) {
+        this.jobVersion = jobVersion;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
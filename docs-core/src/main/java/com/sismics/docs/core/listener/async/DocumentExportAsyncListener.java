@@ -0,0 +1,459 @@
+package com.sismics.docs.core.listener.async;
+
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.io.CountingOutputStream;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.AsyncJobType;
+import com.sismics.docs.core.constant.DocumentExportState;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.DocumentExportDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.RelationDao;
+import com.sismics.docs.core.dao.TagDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.dao.criteria.DocumentCriteria;
+import com.sismics.docs.core.dao.criteria.TagCriteria;
+import com.sismics.docs.core.dao.dto.AclDto;
+import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.dao.dto.DocumentExportDto;
+import com.sismics.docs.core.dao.dto.RelationDto;
+import com.sismics.docs.core.dao.dto.TagDto;
+import com.sismics.docs.core.event.DocumentExportAsyncEvent;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.AsyncJobUtil;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.DocumentExportUtil;
+import com.sismics.docs.core.util.DocumentSearchCriteriaUtil;
+import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.MetadataUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.jpa.PaginatedList;
+import com.sismics.docs.core.util.jpa.PaginatedLists;
+import com.sismics.docs.core.util.jpa.SortCriteria;
+import com.sismics.util.JsonUtil;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObjectBuilder;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Listener on document export.
+ */
+public class DocumentExportAsyncListener {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(DocumentExportAsyncListener.class);
+
+    /**
+     * Number of documents exported in each page.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Write the archive of an export, from its last checkpoint.
+     * Each page of documents is read in its own transaction, then written with its files and checkpointed.
+     *
+     * @param event Document export event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final DocumentExportAsyncEvent event) {
+        if (log.isInfoEnabled()) {
+            log.info("Document export event: " + event.toString());
+        }
+
+        String exportId = event.getExportId();
+        try {
+            export(event);
+        } catch (Exception e) {
+            log.error("Error exporting the documents of the export " + exportId, e);
+            TransactionUtil.handle(() -> {
+                new DocumentExportDao().end(exportId, DocumentExportState.FAILED, 0, "Error exporting the documents: " + e.getMessage());
+                AsyncJobUtil.complete(AsyncJobType.DOCUMENT_EXPORT, exportId, event.getJobVersion());
+            });
+            deleteArchive(exportId);
+        } finally {
+            DocumentExportUtil.endExport(exportId);
+        }
+    }
+
+    /**
+     * Write the archive of an export.
+     *
+     * @param event Document export event
+     * @throws Exception e
+     */
+    private void export(DocumentExportAsyncEvent event) throws Exception {
+        String exportId = event.getExportId();
+        AtomicReference<DocumentExportDto> exportReference = new AtomicReference<>();
+        AtomicReference<String> privateKey = new AtomicReference<>();
+        TransactionUtil.handle(() -> {
+            DocumentExportDto export = new DocumentExportDao().getById(exportId);
+            if (export == null || !DocumentExportState.RUNNING.name().equals(export.getState())) {
+                // Deleted or ended in the meantime
+                AsyncJobUtil.complete(AsyncJobType.DOCUMENT_EXPORT, exportId, event.getJobVersion());
+                return;
+            }
+            User user = new UserDao().getById(export.getUserId());
+            exportReference.set(export);
+            privateKey.set(user.getPrivateKey());
+        });
+        DocumentExportDto export = exportReference.get();
+        if (export == null) {
+            // The archive of an export deleted while waiting to resume
+            deleteArchive(exportId);
+            return;
+        }
+
+        // Append to the archive from the last checkpoint, the entries written after it are overwritten
+        Path archive = DocumentExportUtil.getArchive(exportId);
+        String cursor = export.getCursor();
+        int documentCount = export.getDocumentCount();
+        int fileCount = export.getFileCount();
+        Integer total = export.getTotal();
+        long length = export.getLength();
+        boolean deleted = false;
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // A new archive gets its own IV, the stored files of the requester are encrypted with the same key
+            byte[] iv;
+            if (length == 0) {
+                iv = EncryptionUtil.generateIv();
+                channel.truncate(0);
+                ByteBuffer ivBuffer = ByteBuffer.wrap(iv);
+                while (ivBuffer.hasRemaining()) {
+                    channel.write(ivBuffer);
+                }
+            } else {
+                iv = DocumentExportUtil.readIv(channel);
+            }
+            if (channel.size() < EncryptionUtil.IV_LENGTH + length) {
+                throw new IOException("The archive is shorter than its last checkpoint");
+            }
+            channel.truncate(EncryptionUtil.IV_LENGTH + length);
+            channel.position(EncryptionUtil.IV_LENGTH + length);
+            CountingOutputStream countingOutputStream = new CountingOutputStream(Channels.newOutputStream(channel));
+            OutputStream outputStream = EncryptionUtil.encryptOutputStream(
+                    new BufferedOutputStream(countingOutputStream), privateKey.get(), iv, length);
+
+            // One record per block, a checkpoint always ends on a block of the cipher
+            TarArchiveOutputStream tarOutputStream = new TarArchiveOutputStream(outputStream, TarArchiveEntry.DEFAULT_RCDSIZE);
+            tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tarOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+            while (true) {
+                ExportPage page = readPage(export, cursor);
+                if (page == null) {
+                    deleted = true;
+                    break;
+                }
+                if (total == null) {
+                    total = page.total;
+                }
+                if (page.documentIdList.isEmpty()) {
+                    break;
+                }
+
+                // Write the page of documents and their files
+                writeEntry(tarOutputStream, String.format("documents-%08d.ndjson", documentCount),
+                        page.manifest.getBytes(StandardCharsets.UTF_8), new Date());
+                for (int i = 0; i < page.fileList.size(); i++) {
+                    writeFile(tarOutputStream, page.nameList.get(i), page.fileList.get(i));
+                }
+                cursor = page.documentIdList.get(page.documentIdList.size() - 1);
+                documentCount += page.documentIdList.size();
+                fileCount += page.fileList.size();
+
+                // Checkpoint the archive once written to the disk, the TAR stream doesn't flush its output
+                tarOutputStream.flush();
+                outputStream.flush();
+                channel.force(false);
+                if (!checkpoint(exportId, cursor, export.getLength() + countingOutputStream.getCount(), documentCount, fileCount, total)) {
+                    deleted = true;
+                    break;
+                }
+                if (page.documentIdList.size() < PAGE_SIZE) {
+                    break;
+                }
+            }
+
+            if (!deleted) {
+                tarOutputStream.finish();
+                tarOutputStream.flush();
+                outputStream.flush();
+                channel.force(false);
+                length = export.getLength() + countingOutputStream.getCount();
+            }
+        }
+
+        if (deleted) {
+            deleteArchive(exportId);
+            TransactionUtil.handle(() -> AsyncJobUtil.complete(AsyncJobType.DOCUMENT_EXPORT, exportId, event.getJobVersion()));
+            return;
+        }
+        long archiveLength = length;
+        AtomicBoolean completed = new AtomicBoolean();
+        TransactionUtil.handle(() -> {
+            completed.set(new DocumentExportDao().end(exportId, DocumentExportState.COMPLETED, archiveLength, null));
+            AsyncJobUtil.complete(AsyncJobType.DOCUMENT_EXPORT, exportId, event.getJobVersion());
+        });
+        if (!completed.get()) {
+            // Deleted after the last page
+            deleteArchive(exportId);
+            return;
+        }
+        if (log.isInfoEnabled()) {
+            log.info("Document export " + exportId + " done: " + documentCount + " documents, " + fileCount + " files, " + length + " bytes");
+        }
+    }
+
+    /**
+     * Read the next page of documents of an export, with their metadata and files.
+     *
+     * @param export Export
+     * @param cursor ID of the last exported document, null to start from the first one
+     * @return Page, null if the export has been deleted
+     * @throws Exception e
+     */
+    private ExportPage readPage(DocumentExportDto export, String cursor) throws Exception {
+        AtomicReference<ExportPage> pageReference = new AtomicReference<>();
+        AtomicReference<Exception> exception = new AtomicReference<>();
+        TransactionUtil.handle(() -> {
+            try {
+                if (new DocumentExportDao().getById(export.getId()) != null) {
+                    pageReference.set(buildPage(export, cursor));
+                }
+            } catch (Exception e) {
+                exception.set(e);
+            }
+        });
+        if (exception.get() != null) {
+            throw exception.get();
+        }
+        return pageReference.get();
+    }
+
+    /**
+     * Build the next page of documents of an export.
+     *
+     * @param export Export
+     * @param cursor ID of the last exported document, null to start from the first one
+     * @return Page
+     * @throws Exception e
+     */
+    private ExportPage buildPage(DocumentExportDto export, String cursor) throws Exception {
+        List<String> targetIdList = export.getTargetIdList();
+
+        // Search the documents, in ID order after the cursor
+        TagDao tagDao = new TagDao();
+        List<TagDto> allTagDtoList = tagDao.findByCriteria(new TagCriteria().setTargetIdList(targetIdList), null);
+        DocumentCriteria documentCriteria = DocumentSearchCriteriaUtil.parseSearchQuery(export.getSearch(), allTagDtoList);
+        documentCriteria.setTargetIdList(targetIdList);
+        documentCriteria.setAfterId(cursor);
+        PaginatedList<DocumentDto> paginatedList = PaginatedLists.create(PAGE_SIZE, 0);
+        AppContext.getInstance().getIndexingHandler().findByCriteria(paginatedList, Lists.newArrayList(), documentCriteria, new SortCriteria(0, true));
+
+        ExportPage page = new ExportPage();
+        page.total = paginatedList.getResultCount();
+        for (DocumentDto documentDto : paginatedList.getResultList()) {
+            page.documentIdList.add(documentDto.getId());
+        }
+        if (page.documentIdList.isEmpty()) {
+            return page;
+        }
+
+        DocumentDao documentDao = new DocumentDao();
+        AclDao aclDao = new AclDao();
+        RelationDao relationDao = new RelationDao();
+        Map<String, List<TagDto>> tagDtoMap = tagDao.findByDocumentIdList(page.documentIdList, targetIdList);
+        List<File> allFileList = new FileDao().getByDocumentsIds(page.documentIdList);
+        FileUtil.loadPrivateKeys(allFileList);
+
+        StringBuilder manifest = new StringBuilder();
+        for (String documentId : page.documentIdList) {
+            DocumentDto documentDto = documentDao.getDocument(documentId, PermType.READ, targetIdList);
+            if (documentDto == null) {
+                // Deleted since it has been indexed
+                continue;
+            }
+            JsonObjectBuilder document = Json.createObjectBuilder()
+                    .add("id", documentDto.getId())
+                    .add("title", documentDto.getTitle())
+                    .add("description", JsonUtil.nullable(documentDto.getDescription()))
+                    .add("subject", JsonUtil.nullable(documentDto.getSubject()))
+                    .add("identifier", JsonUtil.nullable(documentDto.getIdentifier()))
+                    .add("publisher", JsonUtil.nullable(documentDto.getPublisher()))
+                    .add("format", JsonUtil.nullable(documentDto.getFormat()))
+                    .add("source", JsonUtil.nullable(documentDto.getSource()))
+                    .add("type", JsonUtil.nullable(documentDto.getType()))
+                    .add("coverage", JsonUtil.nullable(documentDto.getCoverage()))
+                    .add("rights", JsonUtil.nullable(documentDto.getRights()))
+                    .add("language", documentDto.getLanguage())
+                    .add("creator", documentDto.getCreator())
+                    .add("create_date", documentDto.getCreateTimestamp())
+                    .add("update_date", documentDto.getUpdateTimestamp());
+
+            JsonArrayBuilder tags = Json.createArrayBuilder();
+            for (TagDto tagDto : tagDtoMap.getOrDefault(documentId, Collections.emptyList())) {
+                tags.add(Json.createObjectBuilder()
+                        .add("id", tagDto.getId())
+                        .add("name", tagDto.getName())
+                        .add("color", tagDto.getColor()));
+            }
+            document.add("tags", tags);
+
+            JsonArrayBuilder relations = Json.createArrayBuilder();
+            for (RelationDto relationDto : relationDao.getByDocumentId(documentId)) {
+                relations.add(Json.createObjectBuilder()
+                        .add("id", relationDto.getId())
+                        .add("title", relationDto.getTitle())
+                        .add("source", relationDto.isSource()));
+            }
+            document.add("relations", relations);
+
+            JsonArrayBuilder acls = Json.createArrayBuilder();
+            for (AclDto aclDto : aclDao.getBySourceId(documentId, AclType.USER)) {
+                acls.add(Json.createObjectBuilder()
+                        .add("perm", aclDto.getPerm().name())
+                        .add("id", aclDto.getTargetId())
+                        .add("name", JsonUtil.nullable(aclDto.getTargetName()))
+                        .add("type", aclDto.getTargetType()));
+            }
+            document.add("acls", acls);
+
+            MetadataUtil.addMetadata(document, documentId);
+
+            // Files, stored in the archive next to the manifest
+            JsonArrayBuilder files = Json.createArrayBuilder();
+            int index = 0;
+            for (File file : allFileList) {
+                if (!documentId.equals(file.getDocumentId())) {
+                    continue;
+                }
+                JsonObjectBuilder fileJson = Json.createObjectBuilder()
+                        .add("id", file.getId())
+                        .add("name", JsonUtil.nullable(file.getName()))
+                        .add("mimetype", file.getMimeType())
+                        .add("version", file.getVersion())
+                        .add("create_date", file.getCreateDate().getTime());
+                Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+                if (file.getPrivateKey() == null) {
+                    // The stored file is always encrypted, it would be written as is
+                    log.error("Missing private key of the file " + file.getId() + ", it is not exported");
+                } else if (Files.exists(storedFile)) {
+                    String name = "files/" + documentId + "/" + index + "-" + file.getFullName(Integer.toString(index));
+                    fileJson.add("path", name);
+                    page.fileList.add(file);
+                    page.nameList.add(name);
+                } else {
+                    log.warn("File " + file.getId() + " not found in the storage, it is not exported");
+                }
+                files.add(fileJson);
+                index++;
+            }
+            document.add("files", files);
+
+            manifest.append(document.build().toString()).append('\n');
+        }
+        page.manifest = manifest.toString();
+        return page;
+    }
+
+    /**
+     * Save the progress of an export.
+     *
+     * @return True if the export is still running
+     */
+    private boolean checkpoint(String exportId, String cursor, long length, int documentCount, int fileCount, int total) {
+        AtomicBoolean running = new AtomicBoolean();
+        TransactionUtil.handle(() -> running.set(new DocumentExportDao().checkpoint(exportId, cursor, length, documentCount, fileCount, total)));
+        return running.get();
+    }
+
+    /**
+     * Write an entry to the archive.
+     *
+     * @param tarOutputStream Archive
+     * @param name Entry name
+     * @param data Entry data
+     * @param modTime Modification time
+     * @throws IOException e
+     */
+    private static void writeEntry(TarArchiveOutputStream tarOutputStream, String name, byte[] data, Date modTime) throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(data.length);
+        entry.setModTime(modTime);
+        tarOutputStream.putArchiveEntry(entry);
+        tarOutputStream.write(data);
+        tarOutputStream.closeArchiveEntry();
+    }
+
+    /**
+     * Write a decrypted stored file to the archive.
+     * The files are encrypted in CTR mode, the decrypted size is the stored size.
+     * The private key of the file must be set.
+     *
+     * @param tarOutputStream Archive
+     * @param name Entry name
+     * @param file File
+     * @throws Exception e
+     */
+    private static void writeFile(TarArchiveOutputStream tarOutputStream, String name, File file) throws Exception {
+        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setSize(Files.size(storedFile));
+        entry.setModTime(file.getCreateDate());
+        tarOutputStream.putArchiveEntry(entry);
+        try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(Files.newInputStream(storedFile), file.getPrivateKey())) {
+            decryptedStream.transferTo(tarOutputStream);
+        }
+        tarOutputStream.closeArchiveEntry();
+    }
+
+    private static void deleteArchive(String exportId) {
+        try {
+            Files.deleteIfExists(DocumentExportUtil.getArchive(exportId));
+        } catch (IOException e) {
+            log.error("Error deleting the archive of the export " + exportId, e);
+        }
+    }
+
+    /**
+     * Page of documents of an export.
+     */
+    private static class ExportPage {
+        private int total;
+        private final List<String> documentIdList = Lists.newArrayList();
+        private String manifest;
+        private final List<File> fileList = Lists.newArrayList();
+        private final List<String> nameList = Lists.newArrayList();
+    }
+}
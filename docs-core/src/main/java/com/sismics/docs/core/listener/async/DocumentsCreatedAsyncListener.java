@@ -0,0 +1,63 @@
+package com.sismics.docs.core.listener.async;
+
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.dao.ContributorDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.event.DocumentsCreatedAsyncEvent;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.Contributor;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Listener on documents created in bulk.
+ */
+public class DocumentsCreatedAsyncListener {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(DocumentsCreatedAsyncListener.class);
+
+    /**
+     * Documents created.
+     *
+     * @param event Documents created event
+     */
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final DocumentsCreatedAsyncEvent event) {
+        if (log.isInfoEnabled()) {
+            log.info("Documents created event: " + event.toString());
+        }
+
+        TransactionUtil.handle(() -> {
+            DocumentDao documentDao = new DocumentDao();
+            ContributorDao contributorDao = new ContributorDao();
+            List<Document> documentList = Lists.newArrayList();
+            for (String documentId : event.getDocumentIdList()) {
+                // Fetch a fresh document
+                Document document = documentDao.getById(documentId);
+                if (document == null) {
+                    // The document has been deleted since
+                    continue;
+                }
+
+                // Add the first contributor (the creator of the document)
+                Contributor contributor = new Contributor();
+                contributor.setDocumentId(documentId);
+                contributor.setUserId(event.getUserId());
+                contributorDao.create(contributor);
+                documentList.add(document);
+            }
+
+            // Update index, in one batch
+            AppContext.getInstance().getIndexingHandler().createDocuments(documentList);
+        });
+    }
+}
@@ -2,6 +2,8 @@ package com.sismics.docs.core.listener.async;
 
 import com.google.common.eventbus.AllowConcurrentEvents;
 import com.google.common.eventbus.Subscribe;
+import com.sismics.docs.core.constant.AsyncJobType;
+import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.FileCreatedAsyncEvent;
@@ -10,8 +12,11 @@ import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.AsyncJobUtil;
+import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.ExtractionCache;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.format.FormatHandler;
@@ -24,10 +29,13 @@ import org.slf4j.LoggerFactory;
 import javax.crypto.Cipher;
 import javax.crypto.CipherOutputStream;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.MessageFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -41,6 +49,16 @@ public class FileProcessingAsyncListener {
      */
     private static final Logger log = LoggerFactory.getLogger(FileProcessingAsyncListener.class);
 
+    /**
+     * Size of the web image.
+     */
+    private static final int WEB_SIZE = 1280;
+
+    /**
+     * Size of the thumbnail image.
+     */
+    private static final int THUMB_SIZE = 256;
+
     /**
      * File created.
      *
@@ -53,7 +71,11 @@ public class FileProcessingAsyncListener {
             log.info("File created event: " + event.toString());
         }
 
-        processFile(event, true);
+        try {
+            processFile(event, true);
+        } finally {
+            releaseUpload(event);
+        }
     }
 
     /**
@@ -66,7 +88,25 @@ public class FileProcessingAsyncListener {
     public void on(final FileUpdatedAsyncEvent event) {
         log.info("File updated event: " + event.toString());
 
-        processFile(event, false);
+        // The PDF fragments of the file are converted again on the next export
+        AppContext.getInstance().getPdfCache().invalidate(event.getFileId());
+
+        try {
+            processFile(event, false);
+        } finally {
+            releaseUpload(event);
+        }
+    }
+
+    /**
+     * Release the upload of a file, its unencrypted file is deleted if no other stage uses it.
+     *
+     * @param event File event
+     */
+    private void releaseUpload(FileEvent event) {
+        if (event.getUploadContext() != null) {
+            event.getUploadContext().close();
+        }
     }
 
     /**
@@ -80,6 +120,7 @@ public class FileProcessingAsyncListener {
     private void processFile(FileEvent event, boolean isFileCreated) {
         AtomicReference<File> file = new AtomicReference<>();
         AtomicReference<User> user = new AtomicReference<>();
+        AtomicBoolean ocrEnabled = new AtomicBoolean();
 
         // Open a first transaction to get what we need to start the processing
         TransactionUtil.handle(() -> {
@@ -93,23 +134,29 @@ public class FileProcessingAsyncListener {
             // Get the creating user from the database for its private key
             UserDao userDao = new UserDao();
             user.set(userDao.getById(file.get().getUserId()));
+            ocrEnabled.set(ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true));
         });
 
         // Process the file outside of a transaction
         if (user.get() == null || file.get() == null) {
             // The user or file has been deleted
+            TransactionUtil.handle(() -> AsyncJobUtil.complete(AsyncJobType.FILE_PROCESSING, event.getFileId(), event.getJobVersion()));
             FileUtil.endProcessingFile(event.getFileId());
             return;
         }
-        String content = extractContent(event, user.get(), file.get());
+        String content = extractContent(event, user.get(), file.get(), ocrEnabled.get());
 
-        // Open a new transaction to save the file content
+        // Open a new transaction to save the file content, and complete the durable job with it
+        AtomicBoolean saved = new AtomicBoolean();
         TransactionUtil.handle(() -> {
+            AsyncJobUtil.complete(AsyncJobType.FILE_PROCESSING, event.getFileId(), event.getJobVersion());
+
             // Save the file to database
             FileDao fileDao = new FileDao();
             File freshFile = fileDao.getActiveById(event.getFileId());
             if (freshFile == null) {
                 // The file has been deleted since the text extraction started, ignore the result
+                saved.set(true);
                 return;
             }
 
@@ -122,7 +169,12 @@ public class FileProcessingAsyncListener {
             } else {
                 AppContext.getInstance().getIndexingHandler().updateFile(freshFile);
             }
+            saved.set(true);
         });
+        if (!saved.get()) {
+            // The durable job will be retried later
+            TransactionUtil.handle(() -> AsyncJobUtil.fail(AsyncJobType.FILE_PROCESSING, event.getFileId(), event.getJobVersion(), "Error saving the file content"));
+        }
 
         FileUtil.endProcessingFile(event.getFileId());
     }
@@ -130,13 +182,15 @@ public class FileProcessingAsyncListener {
     /**
      * Extract text content from a file.
      * This is executed outside of a transaction.
+     * The thumbnails and content of a file already processed are taken from the extraction cache.
      *
      * @param event File event
      * @param user User whom created the file
      * @param file Fresh file
+     * @param ocrEnabled True if OCR is enabled
      * @return Text content
      */
-    private String extractContent(FileEvent event, User user, File file) {
+    private String extractContent(FileEvent event, User user, File file, boolean ocrEnabled) {
         // Find a format handler
         FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
         if (formatHandler == null) {
@@ -144,35 +198,56 @@ public class FileProcessingAsyncListener {
             return null;
         }
 
+        // Hash the file content if not done on upload, identical files share their extraction cache entry
+        ExtractionCache extractionCache = AppContext.getInstance().getExtractionCache();
+        byte[] contentHash = event.getUploadContext() == null ? null : event.getUploadContext().getContentHash();
+        if (contentHash == null) {
+            try {
+                contentHash = ExtractionCache.hash(event.getUnencryptedFile());
+            } catch (Throwable e) {
+                log.error("Error hashing the file: " + file, e);
+            }
+        }
+
         // Generate file variations
         try {
-            Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-            BufferedImage image = formatHandler.generateThumbnail(event.getUnencryptedFile());
-            if (image != null) {
-                // Generate thumbnails from image
-                BufferedImage web = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
-                BufferedImage thumbnail = Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
-                image.flush();
-
-                // Write "web" encrypted image
-                Path outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_web");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(web, outputStream);
+            byte[] web = contentHash == null ? null : extractionCache.get(contentHash, ExtractionCache.WEB);
+            byte[] thumbnail = contentHash == null ? null : extractionCache.get(contentHash, ExtractionCache.THUMB);
+            if (web == null || thumbnail == null) {
+                BufferedImage image = formatHandler.generateThumbnail(event.getUnencryptedFile(), WEB_SIZE);
+                if (image != null) {
+                    // Generate thumbnails from image, the thumbnail is scaled down from the web image
+                    BufferedImage webImage = Scalr.resize(image, Scalr.Method.QUALITY, Scalr.Mode.AUTOMATIC, WEB_SIZE);
+                    image.flush();
+                    BufferedImage thumbnailImage = Scalr.resize(webImage, Scalr.Method.QUALITY, Scalr.Mode.AUTOMATIC, THUMB_SIZE);
+                    web = toJpeg(webImage);
+                    thumbnail = toJpeg(thumbnailImage);
+                    if (contentHash != null) {
+                        extractionCache.put(contentHash, ExtractionCache.WEB, web);
+                        extractionCache.put(contentHash, ExtractionCache.THUMB, thumbnail);
+                    }
                 }
+            }
 
-                // Write "thumb" encrypted image
-                outputFile = DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_thumb");
-                try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
-                    ImageUtil.writeJpeg(thumbnail, outputStream);
-                }
+            if (web != null && thumbnail != null) {
+                // Write "web" and "thumb" encrypted images
+                writeEncrypted(web, DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_web"), user);
+                writeEncrypted(thumbnail, DirectoryUtil.getStorageDirectory().resolve(file.getId() + "_thumb"), user);
             }
         } catch (Throwable e) {
             log.error("Unable to generate thumbnails for: " + file, e);
         }
 
+        // The content depends on the language and OCR settings
+        String contentItem = ExtractionCache.getContentItem(event.getLanguage(), ocrEnabled);
+        String content = contentHash == null ? null : extractionCache.getContent(contentHash, contentItem);
+        if (content != null) {
+            log.info("File content found in the extraction cache: " + file.getId());
+            return content;
+        }
+
         // Extract text content from the file
         long startTime = System.currentTimeMillis();
-        String content = null;
         log.info("Start extracting content from: " + file);
         try {
             content = formatHandler.extractContent(event.getLanguage(), event.getUnencryptedFile());
@@ -181,6 +256,39 @@ public class FileProcessingAsyncListener {
         }
         log.info(MessageFormat.format("File content extracted in {0}ms: " + file.getId(), System.currentTimeMillis() - startTime));
 
+        // A blank content may come from a failed OCR, it is extracted again next time
+        if (contentHash != null && content != null && !content.isBlank()) {
+            extractionCache.putContent(contentHash, contentItem, content);
+        }
+
         return content;
     }
+
+    /**
+     * Encode an image to JPEG.
+     *
+     * @param image Image
+     * @return JPEG data
+     * @throws IOException e
+     */
+    private static byte[] toJpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageUtil.writeJpeg(image, outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Write data encrypted with a user key.
+     *
+     * @param data Data
+     * @param outputFile Output file
+     * @param user User
+     * @throws Exception e
+     */
+    private static void writeEncrypted(byte[] data, Path outputFile, User user) throws Exception {
+        Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
+        try (OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(outputFile), cipher)) {
+            outputStream.write(data);
+        }
+    }
 }
@@ -9,10 +9,14 @@ import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.docs.core.util.indexing.IndexRebuild;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 /**
  * Listener on rebuild index.
@@ -25,8 +29,19 @@ public class RebuildIndexAsyncListener {
      */
     private static final Logger log = LoggerFactory.getLogger(RebuildIndexAsyncListener.class);
 
+    /**
+     * Number of documents or files read in each page.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    /**
+     * Number of pages indexed between two checkpoints.
+     */
+    private static final int CHECKPOINT_PAGE_COUNT = 50;
+
     /**
      * Rebuild Lucene index.
+     * The current index stays searchable until the rebuilt index replaces it.
      * 
      * @param event Index rebuild event
      */
@@ -37,35 +52,101 @@ public class RebuildIndexAsyncListener {
             log.info("Rebuild index event: " + event.toString());
         }
 
-        // Clear the index
-        AppContext.getInstance().getIndexingHandler().clearIndex();
+        IndexRebuild rebuild;
+        try {
+            rebuild = AppContext.getInstance().getIndexingHandler().startRebuild();
+        } catch (Exception e) {
+            log.error("Unable to start rebuilding the index", e);
+            return;
+        }
+        if (rebuild == null) {
+            log.info("The index is already being rebuilt");
+            return;
+        }
 
-        // Index all documents
-        TransactionUtil.handle(() -> {
-            int offset = 0;
-            DocumentDao documentDao = new DocumentDao();
-            List<Document> documentList;
-            do {
-                documentList = documentDao.findAll(offset, 100);
-                AppContext.getInstance().getIndexingHandler().createDocuments(documentList);
-                offset += 100;
-            } while (documentList.size() > 0);
-        });
+        // Index all documents, then all files, from the last checkpoint
+        boolean indexed;
+        if (rebuild.getPhase() == IndexRebuild.Phase.DOCUMENTS) {
+            indexed = index(rebuild, IndexRebuild.Phase.DOCUMENTS, rebuild.getCursor())
+                    && index(rebuild, IndexRebuild.Phase.FILES, null);
+        } else {
+            indexed = index(rebuild, IndexRebuild.Phase.FILES, rebuild.getCursor());
+        }
 
-        // Index all files
-        TransactionUtil.handle(() -> {
-            int offset = 0;
-            FileDao fileDao = new FileDao();
-            List<File> fileList;
-            do {
-                fileList = fileDao.findAll(offset, 100);
-                AppContext.getInstance().getIndexingHandler().createFiles(fileList);
-                offset += 100;
-            } while (fileList.size() > 0);
-        });
+        // Replace the current index
+        AtomicBoolean finished = new AtomicBoolean();
+        if (indexed) {
+            TransactionUtil.handle(() -> {
+                try {
+                    rebuild.finish();
+                    finished.set(true);
+                } catch (Exception e) {
+                    log.error("Error replacing the index", e);
+                }
+            });
+        }
+        if (!finished.get()) {
+            rebuild.abort();
+            log.error("Rebuilding index interrupted, it will resume from the last checkpoint");
+            return;
+        }
 
         if (log.isInfoEnabled()) {
             log.info("Rebuilding index done");
         }
     }
+
+    /**
+     * Index all documents or files, page by page in ID order.
+     * Each page is read in its own transaction.
+     *
+     * @param rebuild Index rebuild
+     * @param phase Phase
+     * @param startCursor ID after which to start, null to start from the first one
+     * @return True if everything is indexed
+     */
+    private boolean index(IndexRebuild rebuild, IndexRebuild.Phase phase, String startCursor) {
+        AtomicReference<String> cursor = new AtomicReference<>(startCursor);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean failed = new AtomicBoolean();
+        int pageCount = 0;
+        while (!done.get()) {
+            failed.set(true);
+            TransactionUtil.handle(() -> {
+                try {
+                    List<String> idList;
+                    if (phase == IndexRebuild.Phase.DOCUMENTS) {
+                        List<Document> documentList = new DocumentDao().findAllAfter(cursor.get(), PAGE_SIZE);
+                        rebuild.addDocuments(documentList);
+                        idList = documentList.stream().map(Document::getId).collect(Collectors.toList());
+                    } else {
+                        List<File> fileList = new FileDao().findAllAfter(cursor.get(), PAGE_SIZE);
+                        rebuild.addFiles(fileList);
+                        idList = fileList.stream().map(File::getId).collect(Collectors.toList());
+                    }
+                    if (!idList.isEmpty()) {
+                        cursor.set(idList.get(idList.size() - 1));
+                    }
+                    done.set(idList.size() < PAGE_SIZE);
+                    failed.set(false);
+                } catch (Exception e) {
+                    log.error("Error indexing after " + cursor.get(), e);
+                }
+            });
+            if (failed.get()) {
+                return false;
+            }
+
+            pageCount++;
+            if (done.get() || pageCount % CHECKPOINT_PAGE_COUNT == 0) {
+                try {
+                    rebuild.checkpoint(phase, cursor.get());
+                } catch (Exception e) {
+                    log.error("Error saving the index rebuild checkpoint", e);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 }
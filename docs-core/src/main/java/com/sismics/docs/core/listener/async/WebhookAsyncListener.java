@@ -39,6 +39,12 @@ public class WebhookAsyncListener {
         triggerWebhook(WebhookEvent.DOCUMENT_CREATED, event.getDocumentId());
     }
 
+    @Subscribe
+    @AllowConcurrentEvents
+    public void on(final DocumentsCreatedAsyncEvent event) {
+        triggerWebhook(WebhookEvent.DOCUMENT_CREATED, event.getDocumentIdList());
+    }
+
     @Subscribe
     @AllowConcurrentEvents
     public void on(final DocumentUpdatedAsyncEvent event) {
@@ -76,6 +82,16 @@ public class WebhookAsyncListener {
      * @param id ID
      */
     private void triggerWebhook(WebhookEvent event, String id) {
+        triggerWebhook(event, Lists.newArrayList(id));
+    }
+
+    /**
+     * Trigger the webhooks for the specified event, once per ID.
+     *
+     * @param event Event
+     * @param idList IDs
+     */
+    private void triggerWebhook(WebhookEvent event, List<String> idList) {
         List<String> webhookUrlList = Lists.newArrayList();
 
         TransactionUtil.handle(() -> {
@@ -86,17 +102,19 @@ public class WebhookAsyncListener {
             }
         });
 
-        RequestBody body = RequestBody.create("{\"event\": \"" + event.name() + "\", \"id\": \"" + id + "\"}", JSON);
-
-        for (String webhookUrl : webhookUrlList) {
-            Request request = new Request.Builder()
-                    .url(webhookUrl)
-                    .post(body)
-                    .build();
-            try (Response response = client.newCall(request).execute()) {
-                log.info("Successfully called the webhook at: " + webhookUrl + " - " + response.code());
-            } catch (IOException e) {
-                log.error("Error calling the webhook at: " + webhookUrl, e);
+        for (String id : idList) {
+            RequestBody body = RequestBody.create("{\"event\": \"" + event.name() + "\", \"id\": \"" + id + "\"}", JSON);
+
+            for (String webhookUrl : webhookUrlList) {
+                Request request = new Request.Builder()
+                        .url(webhookUrl)
+                        .post(body)
+                        .build();
+                try (Response response = client.newCall(request).execute()) {
+                    log.info("Successfully called the webhook at: " + webhookUrl + " - " + response.code());
+                } catch (IOException e) {
+                    log.error("Error calling the webhook at: " + webhookUrl, e);
+                }
             }
         }
     }
@@ -2,15 +2,21 @@ package com.sismics.docs.core.model.context;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.eventbus.AsyncEventBus;
-import com.google.common.eventbus.EventBus;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.event.DocumentExportAsyncEvent;
 import com.sismics.docs.core.listener.async.*;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.service.AsyncJobService;
+import com.sismics.docs.core.service.CleanStorageService;
 import com.sismics.docs.core.service.FileService;
 import com.sismics.docs.core.service.FileSizeService;
 import com.sismics.docs.core.service.InboxService;
+import com.sismics.docs.core.service.LastConnectionService;
+import com.sismics.docs.core.service.UserActivityService;
+import com.sismics.docs.core.util.DocumentExportUtil;
+import com.sismics.docs.core.util.ExtractionCache;
+import com.sismics.docs.core.util.PdfCache;
 import com.sismics.docs.core.util.PdfUtil;
 import com.sismics.docs.core.util.indexing.IndexingHandler;
 import com.sismics.util.ClasspathScanner;
@@ -18,11 +24,7 @@ import com.sismics.util.EnvironmentUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -42,14 +44,39 @@ public class AppContext {
     private static AppContext instance;
 
     /**
-     * Generic asynchronous event bus.
+     * Asynchronous event pool for file processing (OCR, thumbnails).
      */
-    private EventBus asyncEventBus;
+    private AsyncEventPool processingEventPool;
 
     /**
-     * Asynchronous bus for email sending.
+     * Asynchronous event pool for indexing.
      */
-    private EventBus mailEventBus;
+    private AsyncEventPool indexingEventPool;
+
+    /**
+     * Asynchronous event pool for webhooks.
+     */
+    private AsyncEventPool webhookEventPool;
+
+    /**
+     * Asynchronous event pool for email sending.
+     */
+    private AsyncEventPool mailEventPool;
+
+    /**
+     * Asynchronous event pool for document exports.
+     */
+    private AsyncEventPool exportEventPool;
+
+    /**
+     * Cache of the extracted thumbnails and contents.
+     */
+    private ExtractionCache extractionCache;
+
+    /**
+     * Cache of the PDF fragments of the files.
+     */
+    private PdfCache pdfCache;
 
     /**
      * Indexing handler.
@@ -72,9 +99,24 @@ public class AppContext {
     private FileSizeService fileSizeService;
 
     /**
-     * Asynchronous executors.
+     * Last connection service.
      */
-    private List<ThreadPoolExecutor> asyncExecutorList;
+    private LastConnectionService lastConnectionService;
+
+    /**
+     * User activity service.
+     */
+    private UserActivityService userActivityService;
+
+    /**
+     * Clean storage service.
+     */
+    private CleanStorageService cleanStorageService;
+
+    /**
+     * Async job service.
+     */
+    private AsyncJobService asyncJobService;
 
     /**
      * Start the application context.
@@ -98,6 +140,9 @@ public class AppContext {
             log.error("Error starting the indexing handler", e);
         }
 
+        extractionCache = ExtractionCache.fromEnv();
+        pdfCache = PdfCache.fromEnv();
+
         // Start file service
         fileService = new FileService();
         fileService.startAsync();
@@ -108,10 +153,29 @@ public class AppContext {
         inboxService.startAsync();
         inboxService.awaitRunning();
 
-        // Start file size service
+        // Start file size service, it stops by itself when all the sizes are known
         fileSizeService = new FileSizeService();
         fileSizeService.startAsync();
-        fileSizeService.awaitRunning();
+
+        // Start last connection service
+        lastConnectionService = new LastConnectionService();
+        lastConnectionService.startAsync();
+        lastConnectionService.awaitRunning();
+
+        // Start user activity service
+        userActivityService = new UserActivityService();
+        userActivityService.startAsync();
+        userActivityService.awaitRunning();
+
+        // Start clean storage service
+        cleanStorageService = new CleanStorageService();
+        cleanStorageService.startAsync();
+        cleanStorageService.awaitRunning();
+
+        // Start async job service
+        asyncJobService = new AsyncJobService();
+        asyncJobService.startAsync();
+        asyncJobService.awaitRunning();
 
         // Register fonts
         PdfUtil.registerFonts();
@@ -140,25 +204,38 @@ public class AppContext {
     }
 
     /**
-     * (Re)-initializes the event buses.
+     * (Re)-initializes the event pools.
      */
     private void resetEventBus() {
-        asyncExecutorList = new ArrayList<>();
-
-        asyncEventBus = newAsyncEventBus();
-        asyncEventBus.register(new FileProcessingAsyncListener());
-        asyncEventBus.register(new FileDeletedAsyncListener());
-        asyncEventBus.register(new DocumentCreatedAsyncListener());
-        asyncEventBus.register(new DocumentUpdatedAsyncListener());
-        asyncEventBus.register(new DocumentDeletedAsyncListener());
-        asyncEventBus.register(new RebuildIndexAsyncListener());
-        asyncEventBus.register(new AclCreatedAsyncListener());
-        asyncEventBus.register(new AclDeletedAsyncListener());
-        asyncEventBus.register(new WebhookAsyncListener());
-
-        mailEventBus = newAsyncEventBus();
-        mailEventBus.register(new PasswordLostAsyncListener());
-        mailEventBus.register(new RouteStepValidateAsyncListener());
+        boolean synchronous = EnvironmentUtil.isUnitTest();
+        int processingThreadCount = Math.max(Runtime.getRuntime().availableProcessors() / 2, 2);
+
+        processingEventPool = AsyncEventPool.fromEnv("processing", processingThreadCount, 1000, synchronous);
+        processingEventPool.register(new FileProcessingAsyncListener());
+
+        indexingEventPool = AsyncEventPool.fromEnv("indexing", 2, 10000, synchronous);
+        indexingEventPool.register(new FileDeletedAsyncListener());
+        indexingEventPool.register(new DocumentCreatedAsyncListener());
+        indexingEventPool.register(new DocumentsCreatedAsyncListener());
+        indexingEventPool.register(new DocumentUpdatedAsyncListener());
+        indexingEventPool.register(new DocumentDeletedAsyncListener());
+        indexingEventPool.register(new RebuildIndexAsyncListener());
+        indexingEventPool.register(new AclCreatedAsyncListener());
+        indexingEventPool.register(new AclDeletedAsyncListener());
+
+        webhookEventPool = AsyncEventPool.fromEnv("webhook", 2, 1000, synchronous);
+        webhookEventPool.register(new WebhookAsyncListener());
+
+        mailEventPool = AsyncEventPool.fromEnv("mail", 1, 1000, synchronous);
+        mailEventPool.register(new PasswordLostAsyncListener());
+        mailEventPool.register(new RouteStepValidateAsyncListener());
+
+        exportEventPool = AsyncEventPool.fromEnv("export", 1, 100, synchronous);
+        exportEventPool.register(new DocumentExportAsyncListener());
+        exportEventPool.setOverflowHandler(event -> {
+            // Not renewed anymore, the lease of the durable job expires and the export is resumed later
+            DocumentExportUtil.endExport(((DocumentExportAsyncEvent) event).getExportId());
+        });
     }
 
     /**
@@ -175,48 +252,57 @@ public class AppContext {
     }
 
     /**
-     * Creates a new asynchronous event bus.
+     * Return the current number of tasks waiting to be processed or being processed.
      *
-     * @return Async event bus
+     * @return Number of queued tasks
      */
-    private EventBus newAsyncEventBus() {
-        if (EnvironmentUtil.isUnitTest()) {
-            return new EventBus();
-        } else {
-            int threadCount = Math.max(Runtime.getRuntime().availableProcessors() / 2, 2);
-            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
-                    1L, TimeUnit.MINUTES,
-                    new LinkedBlockingQueue<>());
-            asyncExecutorList.add(executor);
-            return new AsyncEventBus(executor);
+    public int getQueuedTaskCount() {
+        int queueSize = 0;
+        for (AsyncEventPool eventPool : getAsyncEventPoolList()) {
+            queueSize += eventPool.getQueueSize() + eventPool.getActiveCount();
         }
+        return queueSize;
     }
 
     /**
-     * Return the current number of queued tasks waiting to be processed.
+     * Post an event to the asynchronous event pools handling it.
      *
-     * @return Number of queued tasks
+     * @param event Event
+     * @param interactive True if the event is posted by a user request
      */
-    public int getQueuedTaskCount() {
-        int queueSize = 0;
-        for (ThreadPoolExecutor executor : asyncExecutorList) {
-            queueSize += executor.getTaskCount() - executor.getCompletedTaskCount();
+    public void postAsyncEvent(Object event, boolean interactive) {
+        for (AsyncEventPool eventPool : Lists.newArrayList(processingEventPool, indexingEventPool, webhookEventPool, exportEventPool)) {
+            if (eventPool.accept(event)) {
+                eventPool.post(event, interactive);
+            }
         }
-        return queueSize;
     }
 
-    public EventBus getAsyncEventBus() {
-        return asyncEventBus;
+    /**
+     * Post an email sending event.
+     *
+     * @param event Event
+     */
+    public void postMailEvent(Object event) {
+        mailEventPool.post(event, true);
     }
 
-    public EventBus getMailEventBus() {
-        return mailEventBus;
+    public List<AsyncEventPool> getAsyncEventPoolList() {
+        return Lists.newArrayList(processingEventPool, indexingEventPool, webhookEventPool, mailEventPool, exportEventPool);
     }
 
     public IndexingHandler getIndexingHandler() {
         return indexingHandler;
     }
 
+    public ExtractionCache getExtractionCache() {
+        return extractionCache;
+    }
+
+    public PdfCache getPdfCache() {
+        return pdfCache;
+    }
+
     public InboxService getInboxService() {
         return inboxService;
     }
@@ -225,15 +311,18 @@ public class AppContext {
         return fileService;
     }
 
+    public LastConnectionService getLastConnectionService() {
+        return lastConnectionService;
+    }
+
+    public CleanStorageService getCleanStorageService() {
+        return cleanStorageService;
+    }
+
     public void shutDown() {
-        for (ExecutorService executor : asyncExecutorList) {
-            // Shutdown executor, don't accept any more tasks (can cause error with nested events)
-            try {
-                executor.shutdown();
-                executor.awaitTermination(1, TimeUnit.MINUTES);
-            } catch (InterruptedException e) {
-                // NOP
-            }
+        for (AsyncEventPool eventPool : getAsyncEventPoolList()) {
+            // Shutdown the pool, don't accept any more tasks (nested events are dropped)
+            eventPool.shutDown(1, TimeUnit.MINUTES);
         }
 
         if (indexingHandler != null) {
@@ -253,6 +342,25 @@ public class AppContext {
             fileSizeService.stopAsync();
         }
 
+        if (lastConnectionService != null) {
+            lastConnectionService.stopAsync();
+            lastConnectionService.awaitTerminated();
+        }
+
+        if (userActivityService != null) {
+            userActivityService.stopAsync();
+        }
+
+        if (asyncJobService != null) {
+            asyncJobService.stopAsync();
+            asyncJobService.awaitTerminated();
+        }
+
+        if (cleanStorageService != null) {
+            cleanStorageService.stopAsync();
+            cleanStorageService.awaitTerminated();
+        }
+
         instance = null;
     }
 }
@@ -0,0 +1,362 @@
+package com.sismics.docs.core.model.context;
+
+import com.google.common.base.Strings;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.constant.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Pool of threads processing a family of asynchronous events.
+ * The queue is bounded and ordered by priority, interactive events first.
+ * When the queue is full, the event is processed by the posting thread,
+ * or handed to the overflow handler of the pool if it has one.
+ */
+public class AsyncEventPool {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AsyncEventPool.class);
+
+    /**
+     * Upper bounds of the latency histogram buckets, in milliseconds.
+     */
+    public static final long[] LATENCY_BUCKETS = { 10, 100, 1000, 10000, 60000, Long.MAX_VALUE };
+
+    /**
+     * Pool name.
+     */
+    private final String name;
+
+    /**
+     * Event bus dispatching the events to the listeners.
+     */
+    private final EventBus eventBus;
+
+    /**
+     * Event types handled by the registered listeners.
+     */
+    private final Set<Class<?>> eventClassSet = new CopyOnWriteArraySet<>();
+
+    /**
+     * Executor, null to process the events synchronously.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Maximum number of queued events.
+     */
+    private final int queueCapacity;
+
+    /**
+     * Sequence of the posted events, to keep the order within a priority.
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Number of processed events.
+     */
+    private final AtomicLong completedCount = new AtomicLong();
+
+    /**
+     * Number of events processed by the posting thread because the queue was full.
+     */
+    private final AtomicLong callerRunCount = new AtomicLong();
+
+    /**
+     * Number of events handed to the overflow handler because the queue was full.
+     */
+    private final AtomicLong deferredCount = new AtomicLong();
+
+    /**
+     * Handler of the events refused by a full queue, null to process them in the posting thread.
+     */
+    private volatile Consumer<Object> overflowHandler;
+
+    /**
+     * Histogram of the time spent in the queue.
+     */
+    private final AtomicLongArray waitHistogram = new AtomicLongArray(LATENCY_BUCKETS.length);
+
+    /**
+     * Histogram of the processing time.
+     */
+    private final AtomicLongArray runHistogram = new AtomicLongArray(LATENCY_BUCKETS.length);
+
+    /**
+     * Create a new pool.
+     *
+     * @param name Pool name
+     * @param threadCount Number of threads, 0 to process the events synchronously
+     * @param queueCapacity Maximum number of queued events
+     */
+    public AsyncEventPool(String name, int threadCount, int queueCapacity) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.eventBus = new EventBus(name);
+        if (threadCount <= 0) {
+            executor = null;
+        } else {
+            executor = new ThreadPoolExecutor(threadCount, threadCount,
+                    1L, TimeUnit.MINUTES,
+                    new BoundedPriorityBlockingQueue(queueCapacity),
+                    new ThreadFactoryBuilder().setNameFormat("async-" + name + "-%d").build(),
+                    (runnable, executor) -> {
+                        // Backpressure: the posting thread processes the event itself
+                        if (executor.isShutdown()) {
+                            log.warn("Event dropped by the pool " + name + " shutting down");
+                        } else if (overflowHandler != null) {
+                            Object event = ((EventTask) runnable).event;
+                            log.warn("Event " + event + " deferred by the pool " + name + ", the queue is full");
+                            deferredCount.incrementAndGet();
+                            overflowHandler.accept(event);
+                        } else {
+                            callerRunCount.incrementAndGet();
+                            runnable.run();
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Create a new pool configured from the environment.
+     *
+     * @param name Pool name, used in the environment variable names
+     * @param defaultThreadCount Default number of threads
+     * @param defaultQueueCapacity Default maximum number of queued events
+     * @param synchronous Process the events synchronously
+     * @return Pool
+     */
+    public static AsyncEventPool fromEnv(String name, int defaultThreadCount, int defaultQueueCapacity, boolean synchronous) {
+        int threadCount = getEnvIntValue(String.format(Constants.ASYNC_THREADS_ENV, name.toUpperCase()), defaultThreadCount);
+        int queueCapacity = getEnvIntValue(String.format(Constants.ASYNC_QUEUE_ENV, name.toUpperCase()), defaultQueueCapacity);
+        return new AsyncEventPool(name, synchronous ? 0 : Math.max(threadCount, 1), Math.max(queueCapacity, 1));
+    }
+
+    /**
+     * Register a listener.
+     *
+     * @param listener Listener
+     */
+    public void register(Object listener) {
+        eventBus.register(listener);
+        for (Method method : listener.getClass().getMethods()) {
+            if (method.isAnnotationPresent(Subscribe.class) && method.getParameterCount() == 1) {
+                eventClassSet.add(method.getParameterTypes()[0]);
+            }
+        }
+    }
+
+    /**
+     * Handle the events refused by a full queue, instead of processing them in the posting thread.
+     * Used by the events too long to run in a user request, and backed by a durable job.
+     *
+     * @param overflowHandler Overflow handler
+     */
+    public void setOverflowHandler(Consumer<Object> overflowHandler) {
+        this.overflowHandler = overflowHandler;
+    }
+
+    /**
+     * Returns true if a registered listener handles this event.
+     *
+     * @param event Event
+     * @return True if the event is handled
+     */
+    public boolean accept(Object event) {
+        for (Class<?> eventClass : eventClassSet) {
+            if (eventClass.isInstance(event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Post an event to the listeners.
+     *
+     * @param event Event
+     * @param interactive True if a user is waiting for this event, it goes before the background events
+     */
+    public void post(Object event, boolean interactive) {
+        EventTask task = new EventTask(event, interactive, sequence.incrementAndGet());
+        if (executor == null) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Stop accepting events and wait for the queued events to be processed.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Time unit
+     */
+    public void shutDown(long timeout, TimeUnit unit) {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreadCount() {
+        return executor == null ? 0 : executor.getMaximumPoolSize();
+    }
+
+    public int getActiveCount() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    public int getQueueSize() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getCallerRunCount() {
+        return callerRunCount.get();
+    }
+
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    /**
+     * Returns the histogram of the time spent in the queue.
+     *
+     * @return Number of events by bucket of LATENCY_BUCKETS
+     */
+    public long[] getWaitHistogram() {
+        return toArray(waitHistogram);
+    }
+
+    /**
+     * Returns the histogram of the processing time.
+     *
+     * @return Number of events by bucket of LATENCY_BUCKETS
+     */
+    public long[] getRunHistogram() {
+        return toArray(runHistogram);
+    }
+
+    /**
+     * Count a duration in a histogram.
+     *
+     * @param histogram Histogram
+     * @param duration Duration in milliseconds
+     */
+    private static void record(AtomicLongArray histogram, long duration) {
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            if (duration < LATENCY_BUCKETS[i]) {
+                histogram.incrementAndGet(i);
+                return;
+            }
+        }
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] values = new long[histogram.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = histogram.get(i);
+        }
+        return values;
+    }
+
+    private static int getEnvIntValue(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (Strings.isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * An event waiting to be dispatched.
+     */
+    private class EventTask implements Runnable, Comparable<EventTask> {
+        private final Object event;
+        private final boolean interactive;
+        private final long sequence;
+        private final long postTime = System.nanoTime();
+
+        EventTask(Object event, boolean interactive, long sequence) {
+            this.event = event;
+            this.interactive = interactive;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            record(waitHistogram, TimeUnit.NANOSECONDS.toMillis(startTime - postTime));
+            try {
+                eventBus.post(event);
+            } catch (Exception e) {
+                log.error("Error dispatching the event " + event + " in the pool " + name, e);
+            } finally {
+                record(runHistogram, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                completedCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(EventTask other) {
+            if (interactive != other.interactive) {
+                return interactive ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Priority queue refusing new elements above its capacity, so the executor applies its rejection policy.
+     */
+    private static class BoundedPriorityBlockingQueue extends PriorityBlockingQueue<Runnable> {
+        private final int capacity;
+
+        BoundedPriorityBlockingQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public synchronized boolean offer(Runnable runnable) {
+            if (size() >= capacity) {
+                return false;
+            }
+            return super.offer(runnable);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Math.max(capacity - size(), 0);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.constant.AsyncJobType;
+import com.sismics.docs.core.dao.AsyncJobDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.dao.dto.AsyncJobDto;
+import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.AsyncJobUtil;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.DocumentExportUtil;
+import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that resumes the durable asynchronous jobs.
+ * The jobs in progress on this node keep their leases, the jobs left by a stopped node
+ * or scheduled for a retry are leased and processed again.
+ */
+public class AsyncJobService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AsyncJobService.class);
+
+    /**
+     * Maximum number of jobs leased by iteration.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    @Override
+    protected void startUp() {
+        log.info("Async job service starting up");
+
+        // The leases of this node come from a previous run, the files still to process are marked as processing
+        TransactionUtil.handle(() -> {
+            AsyncJobDao asyncJobDao = new AsyncJobDao();
+            int releasedCount = asyncJobDao.releaseLeases(AsyncJobUtil.getNodeId());
+            if (releasedCount > 0) {
+                log.info("Released " + releasedCount + " async jobs interrupted on this node");
+            }
+            for (String fileId : asyncJobDao.findPendingTargetIdList(AsyncJobType.FILE_PROCESSING)) {
+                FileUtil.startProcessingFile(fileId);
+            }
+        });
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Async job service shutting down");
+    }
+
+    @Override
+    protected void runOneIteration() {
+        try {
+            renewLeases();
+            resumeJobs();
+        } catch (Throwable e) {
+            log.error("Error resuming the async jobs", e);
+        }
+    }
+
+    /**
+     * Extend the leases of the files processing and the documents exporting on this node.
+     */
+    void renewLeases() {
+        List<String> fileIdList = new ArrayList<>(FileUtil.getProcessingFileIdSet());
+        List<String> exportIdList = new ArrayList<>(DocumentExportUtil.getRunningExportIdSet());
+        TransactionUtil.handle(() -> {
+            AsyncJobDao asyncJobDao = new AsyncJobDao();
+            for (List<String> fileIdPartition : Iterables.partition(fileIdList, 1000)) {
+                asyncJobDao.renewLeases(AsyncJobUtil.getNodeId(), AsyncJobType.FILE_PROCESSING, fileIdPartition, AsyncJobUtil.getLeaseExpireDate());
+            }
+            asyncJobDao.renewLeases(AsyncJobUtil.getNodeId(), AsyncJobType.DOCUMENT_EXPORT, exportIdList, AsyncJobUtil.getLeaseExpireDate());
+        });
+    }
+
+    /**
+     * Lease and process the jobs ready to run.
+     *
+     * @return Number of leased jobs
+     */
+    int resumeJobs() {
+        List<AsyncJobDto> jobList = new ArrayList<>();
+        TransactionUtil.handle(() -> jobList.addAll(new AsyncJobDao().lease(AsyncJobUtil.getNodeId(), AsyncJobUtil.getLeaseExpireDate(), BATCH_SIZE)));
+        for (AsyncJobDto job : jobList) {
+            log.info("Resuming the async job " + job.getKey() + " (attempt " + (job.getAttempt() + 1) + ")");
+            if (AsyncJobType.FILE_PROCESSING.name().equals(job.getType())) {
+                TransactionUtil.handle(() -> resumeFileProcessing(job));
+            } else if (AsyncJobType.DOCUMENT_EXPORT.name().equals(job.getType())) {
+                // Resumed from its last checkpoint, after this transaction
+                TransactionUtil.handle(() -> DocumentExportUtil.startExport(job.getTargetId(), job.getVersion()));
+            }
+        }
+        return jobList.size();
+    }
+
+    /**
+     * Process a file again.
+     * The file is indexed as updated, in case the interrupted processing has already indexed it.
+     *
+     * @param job File processing job
+     */
+    private void resumeFileProcessing(AsyncJobDto job) {
+        File file = new FileDao().getActiveById(job.getTargetId());
+        if (file == null) {
+            AsyncJobUtil.complete(AsyncJobType.FILE_PROCESSING, job.getTargetId(), job.getVersion());
+            return;
+        }
+
+        Path unencryptedFile;
+        try {
+            User user = new UserDao().getById(file.getUserId());
+            Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+            unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
+        } catch (Exception e) {
+            log.error("Error decrypting the file " + file.getId(), e);
+            AsyncJobUtil.fail(AsyncJobType.FILE_PROCESSING, job.getTargetId(), job.getVersion(), "Error decrypting the file: " + e.getMessage());
+            return;
+        }
+
+        // Processed after this transaction, as a background event
+        FileUtil.startProcessingFile(file.getId());
+        FileUpdatedAsyncEvent event = new FileUpdatedAsyncEvent();
+        event.setUserId(file.getUserId());
+        event.setLanguage(job.getPayload());
+        event.setFileId(file.getId());
+        event.setUnencryptedFile(unencryptedFile);
+        event.setJobVersion(job.getVersion());
+        ThreadLocalContext.get().addAsyncEvent(event);
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,255 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.sismics.docs.core.dao.CleanStorageDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Service that cleans the file and DB storage in the background.
+ * The storage directory and the orphan rows are processed by batches, each batch in its own transaction,
+ * with a pause between the batches to leave room for the requests.
+ */
+public class CleanStorageService extends AbstractIdleService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(CleanStorageService.class);
+
+    /**
+     * Default number of files or rows by batch.
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Default pause between two batches, in milliseconds.
+     */
+    private static final long THROTTLE_DELAY = 200;
+
+    /**
+     * Minimum age of a deleted orphan file, younger files may belong to an upload in progress.
+     */
+    private static final long MIN_FILE_AGE = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Number of files or rows by batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Pause between two batches, in milliseconds.
+     */
+    private final long throttleDelay;
+
+    /**
+     * Executor running the jobs.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Status of the last job.
+     */
+    private CleanStorageStatus status;
+
+    public CleanStorageService() {
+        this(BATCH_SIZE, THROTTLE_DELAY);
+    }
+
+    CleanStorageService(int batchSize, long throttleDelay) {
+        this.batchSize = batchSize;
+        this.throttleDelay = throttleDelay;
+    }
+
+    @Override
+    protected void startUp() {
+        log.info("Clean storage service starting up");
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void shutDown() throws InterruptedException {
+        log.info("Clean storage service shutting down");
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Start a cleaning job.
+     *
+     * @return Status of the new job, null if a job is already running
+     */
+    public synchronized CleanStorageStatus start() {
+        if (status != null && status.isRunning()) {
+            return null;
+        }
+        CleanStorageStatus jobStatus = new CleanStorageStatus();
+        status = jobStatus;
+        executor.submit(() -> clean(jobStatus));
+        return jobStatus;
+    }
+
+    /**
+     * Returns the status of the last job.
+     *
+     * @return Status, null if no job has been started
+     */
+    public synchronized CleanStorageStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Clean the storage.
+     *
+     * @param status Job status
+     */
+    void clean(CleanStorageStatus status) {
+        log.info("Cleaning the storage");
+        try {
+            cleanStoredFiles(status);
+            for (CleanStorageDao.Step step : CleanStorageDao.Step.values()) {
+                cleanStep(status, step);
+            }
+            status.end(CleanStorageStatus.State.COMPLETED, null);
+            log.info("Storage cleaned");
+        } catch (InterruptedException e) {
+            log.info("Storage cleaning cancelled");
+            status.end(CleanStorageStatus.State.CANCELLED, null);
+        } catch (Exception e) {
+            log.error("Error cleaning the storage", e);
+            status.end(CleanStorageStatus.State.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the stored files without an active file.
+     *
+     * @param status Job status
+     * @throws IOException e
+     * @throws InterruptedException e
+     */
+    private void cleanStoredFiles(CleanStorageStatus status) throws IOException, InterruptedException {
+        status.startStep("orphan stored files");
+        long maxModifiedTime = System.currentTimeMillis() - MIN_FILE_AGE;
+        Map<String, List<Path>> storedFileMap = new HashMap<>();
+        try (DirectoryStream<Path> storedFileList = Files.newDirectoryStream(DirectoryUtil.getStorageDirectory())) {
+            for (Path storedFile : storedFileList) {
+                // Stored files are named after their file ID, with an optional suffix
+                String fileId = storedFile.getFileName().toString().split("_")[0];
+                storedFileMap.computeIfAbsent(fileId, id -> new ArrayList<>()).add(storedFile);
+                if (storedFileMap.size() >= batchSize) {
+                    deleteOrphanFiles(status, storedFileMap, maxModifiedTime);
+                    storedFileMap.clear();
+                    throttle();
+                }
+            }
+        }
+        deleteOrphanFiles(status, storedFileMap, maxModifiedTime);
+        log.info("Deleted {} orphan stored files", status.getDeletedCountMap().get("orphan stored files"));
+    }
+
+    /**
+     * Delete a batch of stored files if they have no active file.
+     *
+     * @param status Job status
+     * @param storedFileMap Stored files, by file ID
+     * @param maxModifiedTime Files modified after this time are kept
+     * @throws IOException e
+     */
+    private void deleteOrphanFiles(CleanStorageStatus status, Map<String, List<Path>> storedFileMap, long maxModifiedTime) throws IOException {
+        Set<String> activeIdSet = transaction(() -> new FileDao().getActiveIdSet(storedFileMap.keySet()));
+        for (Map.Entry<String, List<Path>> entry : storedFileMap.entrySet()) {
+            status.addCheckedFiles(entry.getValue().size());
+            if (activeIdSet.contains(entry.getKey())) {
+                continue;
+            }
+            for (Path storedFile : entry.getValue()) {
+                if (Files.getLastModifiedTime(storedFile).toMillis() < maxModifiedTime) {
+                    log.info("Deleting orphan files at this location: {}", storedFile);
+                    Files.deleteIfExists(storedFile);
+                    status.addDeleted(1);
+                }
+            }
+            AppContext.getInstance().getPdfCache().invalidate(entry.getKey());
+        }
+    }
+
+    /**
+     * Delete the rows of a step, by batches.
+     *
+     * @param status Job status
+     * @param step Step
+     * @throws InterruptedException e
+     */
+    private void cleanStep(CleanStorageStatus status, CleanStorageDao.Step step) throws InterruptedException {
+        status.startStep(step.getDescription());
+        String afterId = "";
+        while (true) {
+            String lastId = afterId;
+            List<String> idList = transaction(() -> {
+                CleanStorageDao cleanStorageDao = new CleanStorageDao();
+                List<String> batchIdList = cleanStorageDao.findIdList(step, lastId, batchSize);
+                if (!batchIdList.isEmpty()) {
+                    cleanStorageDao.delete(step, batchIdList);
+                }
+                return batchIdList;
+            });
+            status.addDeleted(idList.size());
+            if (idList.size() < batchSize) {
+                break;
+            }
+            afterId = idList.get(idList.size() - 1);
+            throttle();
+        }
+        log.info("Deleted {} {}", status.getDeletedCountMap().get(step.getDescription()), step.getDescription());
+    }
+
+    /**
+     * Pause between two batches.
+     *
+     * @throws InterruptedException e
+     */
+    private void throttle() throws InterruptedException {
+        if (throttleDelay > 0) {
+            Thread.sleep(throttleDelay);
+        }
+    }
+
+    /**
+     * Run a batch in a transaction.
+     *
+     * @param supplier Batch
+     * @return Batch result
+     */
+    private static <T> T transaction(Supplier<T> supplier) {
+        AtomicReference<T> result = new AtomicReference<>();
+        AtomicBoolean committed = new AtomicBoolean();
+        TransactionUtil.handle(() -> {
+            result.set(supplier.get());
+            committed.set(true);
+        });
+        if (!committed.get()) {
+            throw new IllegalStateException("The batch has been rolled back");
+        }
+        return result.get();
+    }
+}
@@ -0,0 +1,126 @@
+package com.sismics.docs.core.service;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Status of a storage cleaning job.
+ * Updated by the job thread, read by the requests.
+ */
+public class CleanStorageStatus {
+    /**
+     * Job state.
+     */
+    public enum State {
+        RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    /**
+     * State.
+     */
+    private State state = State.RUNNING;
+
+    /**
+     * Description of the current step.
+     */
+    private String step;
+
+    /**
+     * Start date.
+     */
+    private final Date startDate = new Date();
+
+    /**
+     * End date.
+     */
+    private Date endDate;
+
+    /**
+     * Number of stored files checked.
+     */
+    private long checkedFileCount;
+
+    /**
+     * Number of deleted rows and files, by step description.
+     */
+    private final Map<String, Long> deletedCountMap = new LinkedHashMap<>();
+
+    /**
+     * Error message of a failed job.
+     */
+    private String error;
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isRunning() {
+        return state == State.RUNNING;
+    }
+
+    public synchronized String getStep() {
+        return step;
+    }
+
+    public synchronized Date getStartDate() {
+        return startDate;
+    }
+
+    public synchronized Date getEndDate() {
+        return endDate;
+    }
+
+    public synchronized long getCheckedFileCount() {
+        return checkedFileCount;
+    }
+
+    public synchronized Map<String, Long> getDeletedCountMap() {
+        return new LinkedHashMap<>(deletedCountMap);
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    /**
+     * Start a step.
+     *
+     * @param step Step description
+     */
+    synchronized void startStep(String step) {
+        this.step = step;
+        deletedCountMap.putIfAbsent(step, 0L);
+    }
+
+    /**
+     * Count stored files checked in the current step.
+     *
+     * @param count Number of files
+     */
+    synchronized void addCheckedFiles(long count) {
+        checkedFileCount += count;
+    }
+
+    /**
+     * Count deleted rows or files in the current step.
+     *
+     * @param count Number of rows or files
+     */
+    synchronized void addDeleted(long count) {
+        deletedCountMap.merge(step, count, Long::sum);
+    }
+
+    /**
+     * End the job.
+     *
+     * @param state Final state
+     * @param error Error message (optional)
+     */
+    synchronized void end(State state, String error) {
+        this.state = state;
+        this.error = error;
+        this.endDate = new Date();
+        this.step = null;
+    }
+}
@@ -55,11 +55,12 @@ public class FileService extends AbstractScheduledService {
 
     /**
      * Delete unreferenced temporary files.
+     * Some of them are already deleted by their owner.
      */
     private void deleteTemporaryFiles() throws Exception {
         TemporaryPathReference ref;
         while ((ref = (TemporaryPathReference) referenceQueue.poll()) != null) {
-            Files.delete(Paths.get(ref.path));
+            Files.deleteIfExists(Paths.get(ref.path));
             referenceSet.remove(ref);
         }
     }
@@ -0,0 +1,86 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.dao.AuthenticationTokenDao;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that writes the last connection dates of the authentication tokens.
+ * The connections are recorded in memory, and each token is updated once per iteration.
+ */
+public class LastConnectionService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(LastConnectionService.class);
+
+    /**
+     * Last connection dates not yet written, by authentication token ID.
+     */
+    private final Map<String, Date> connectionDateMap = new ConcurrentHashMap<>();
+
+    @Override
+    protected void startUp() {
+        log.info("Last connection service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("Last connection service shutting down");
+        flush();
+    }
+
+    @Override
+    protected void runOneIteration() {
+        flush();
+    }
+
+    /**
+     * Record a connection with an authentication token.
+     *
+     * @param authTokenId Authentication token ID
+     */
+    public void recordConnection(String authTokenId) {
+        connectionDateMap.put(authTokenId, new Date());
+    }
+
+    /**
+     * Write the recorded connection dates.
+     */
+    public void flush() {
+        Map<String, Date> dateMap = new HashMap<>();
+        for (String authTokenId : connectionDateMap.keySet()) {
+            Date date = connectionDateMap.remove(authTokenId);
+            if (date != null) {
+                dateMap.put(authTokenId, date);
+            }
+        }
+        if (dateMap.isEmpty()) {
+            return;
+        }
+
+        try {
+            TransactionUtil.handle(() -> {
+                AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
+                for (Map.Entry<String, Date> entry : dateMap.entrySet()) {
+                    authenticationTokenDao.updateLastConnectionDate(entry.getKey(), entry.getValue());
+                }
+            });
+        } catch (Throwable e) {
+            log.error("Error writing the last connection dates", e);
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 30, TimeUnit.SECONDS);
+    }
+}
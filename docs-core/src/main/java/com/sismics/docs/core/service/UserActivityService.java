@@ -0,0 +1,80 @@
+package com.sismics.docs.core.service;
+
+import com.google.common.util.concurrent.AbstractScheduledService;
+import com.sismics.docs.core.dao.UserActivityDao;
+import com.sismics.docs.core.util.TransactionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Service that rolls up the audit logs into daily user activities.
+ * The audit logs are rolled up by windows, once committed: an audit log
+ * committed late is rolled up by the next iteration.
+ */
+public class UserActivityService extends AbstractScheduledService {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(UserActivityService.class);
+
+    /**
+     * Maximum period of audit logs rolled up in one transaction, in milliseconds.
+     */
+    private static final long ROLLUP_WINDOW = TimeUnit.DAYS.toMillis(7);
+
+    @Override
+    protected void startUp() {
+        log.info("User activity service starting up");
+    }
+
+    @Override
+    protected void shutDown() {
+        log.info("User activity service shutting down");
+    }
+
+    @Override
+    protected void runOneIteration() {
+        rollup(new Date());
+    }
+
+    /**
+     * Roll up the audit logs up to a date.
+     *
+     * @param toDate Date
+     */
+    public void rollup(Date toDate) {
+        AtomicBoolean progress = new AtomicBoolean(true);
+        while (progress.get()) {
+            progress.set(false);
+            try {
+                TransactionUtil.handle(() -> {
+                    UserActivityDao userActivityDao = new UserActivityDao();
+                    Date nextLogDate = userActivityDao.getNextLogDate();
+                    if (nextLogDate == null || nextLogDate.after(toDate)) {
+                        return;
+                    }
+
+                    // Skip the periods without audit logs
+                    Date windowDate = toDate;
+                    if (nextLogDate.getTime() + ROLLUP_WINDOW < toDate.getTime()) {
+                        windowDate = new Date(nextLogDate.getTime() + ROLLUP_WINDOW);
+                    }
+                    userActivityDao.rollup(windowDate);
+                    progress.set(windowDate.before(toDate));
+                });
+            } catch (Throwable e) {
+                log.error("Error rolling up the audit logs", e);
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected Scheduler scheduler() {
+        return Scheduler.newFixedDelaySchedule(0, 1, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,148 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.base.Strings;
+import com.sismics.docs.core.constant.AsyncJobType;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.AsyncJobDao;
+import com.sismics.docs.core.dao.dto.AsyncJobDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable asynchronous job utilities.
+ * The jobs are written in the same transaction as the entity change, and deleted when processed,
+ * so that the work lost by a restart is resumed by the AsyncJobService.
+ */
+public class AsyncJobUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(AsyncJobUtil.class);
+
+    /**
+     * Duration of a lease, renewed while the job is in progress.
+     */
+    public static final long LEASE_DURATION = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Maximum number of attempts of a job.
+     */
+    public static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * Delay before the first retry, doubled after each attempt.
+     */
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Maximum delay between two attempts.
+     */
+    private static final long MAX_RETRY_DELAY = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * ID of this node.
+     */
+    private static final String NODE_ID = resolveNodeId();
+
+    /**
+     * Returns the ID of this node.
+     *
+     * @return Node ID
+     */
+    public static String getNodeId() {
+        return NODE_ID;
+    }
+
+    /**
+     * Returns the lease expiration date of a lease starting now.
+     *
+     * @return Lease expiration date
+     */
+    public static Date getLeaseExpireDate() {
+        return new Date(System.currentTimeMillis() + LEASE_DURATION);
+    }
+
+    /**
+     * Queue a job, leased by this node which processes it right after the transaction.
+     *
+     * @param type Job type
+     * @param targetId Target ID
+     * @param payload Payload (optional)
+     * @return Job version
+     */
+    public static int enqueue(AsyncJobType type, String targetId, String payload) {
+        return new AsyncJobDao().enqueue(type, targetId, payload, NODE_ID, getLeaseExpireDate());
+    }
+
+    /**
+     * Delete a processed job.
+     *
+     * @param type Job type
+     * @param targetId Target ID
+     * @param version Job version, null if the work doesn't come from a job
+     */
+    public static void complete(AsyncJobType type, String targetId, Integer version) {
+        if (version == null) {
+            return;
+        }
+        new AsyncJobDao().complete(AsyncJobDao.getKey(type, targetId), version);
+    }
+
+    /**
+     * Delete the job of a deleted target, it won't be resumed.
+     *
+     * @param type Job type
+     * @param targetId Target ID
+     */
+    public static void cancel(AsyncJobType type, String targetId) {
+        new AsyncJobDao().delete(AsyncJobDao.getKey(type, targetId));
+    }
+
+    /**
+     * Schedule the next attempt of a failed job, with an exponential backoff.
+     *
+     * @param type Job type
+     * @param targetId Target ID
+     * @param version Job version, null if the work doesn't come from a job
+     * @param error Error message
+     */
+    public static void fail(AsyncJobType type, String targetId, Integer version, String error) {
+        if (version == null) {
+            return;
+        }
+        AsyncJobDao asyncJobDao = new AsyncJobDao();
+        String key = AsyncJobDao.getKey(type, targetId);
+        AsyncJobDto job = asyncJobDao.getByKey(key);
+        if (job == null || job.getVersion() != version) {
+            // Queued again since, the new version will run
+            return;
+        }
+
+        Date nextRunDate = null;
+        int attempt = job.getAttempt() + 1;
+        if (attempt < MAX_ATTEMPTS) {
+            long delay = Math.min(RETRY_DELAY << (attempt - 1), MAX_RETRY_DELAY);
+            nextRunDate = new Date(System.currentTimeMillis() + delay);
+        } else {
+            log.error("Giving up the job " + key + " after " + attempt + " attempts: " + error);
+        }
+        asyncJobDao.fail(key, version, error, nextRunDate);
+    }
+
+    private static String resolveNodeId() {
+        String nodeId = System.getenv(Constants.NODE_ID_ENV);
+        if (!Strings.isNullOrEmpty(nodeId)) {
+            return nodeId;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+}
@@ -68,6 +68,24 @@ public class DirectoryUtil {
         return getDataSubDirectory("lucene");
     }
     
+    /**
+     * Returns the lucene suggester directory.
+     *
+     * @return Lucene suggester directory.
+     */
+    public static Path getLuceneSuggestDirectory() {
+        return getDataSubDirectory("lucene-suggest");
+    }
+
+    /**
+     * Returns the lucene rebuild directory.
+     *
+     * @return Lucene rebuild directory.
+     */
+    public static Path getLuceneRebuildDirectory() {
+        return getDataSubDirectory("lucene-rebuild");
+    }
+
     /**
      * Returns the storage directory.
      * 
@@ -95,6 +113,33 @@ public class DirectoryUtil {
         return getDataSubDirectory("theme");
     }
 
+    /**
+     * Returns the extraction cache directory.
+     *
+     * @return Extraction cache directory.
+     */
+    public static Path getExtractionCacheDirectory() {
+        return getDataSubDirectory("extraction-cache");
+    }
+
+    /**
+     * Returns the PDF cache directory.
+     *
+     * @return PDF cache directory.
+     */
+    public static Path getPdfCacheDirectory() {
+        return getDataSubDirectory("pdf-cache");
+    }
+
+    /**
+     * Returns the document export directory.
+     *
+     * @return Document export directory.
+     */
+    public static Path getExportDirectory() {
+        return getDataSubDirectory("export");
+    }
+
     /**
      * Returns a subdirectory of the base data directory
      * 
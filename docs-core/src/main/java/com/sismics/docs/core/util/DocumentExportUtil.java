@@ -0,0 +1,91 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.docs.core.constant.AsyncJobType;
+import com.sismics.docs.core.event.DocumentExportAsyncEvent;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Document export utilities.
+ * An export writes a TAR archive encrypted with the private key of its requester, page by page,
+ * so that an interrupted export is resumed by appending to the archive from its last checkpoint.
+ * Each archive has its own random IV, stored at the beginning of the archive file before the encrypted data.
+ */
+public class DocumentExportUtil {
+    /**
+     * ID of the exports currently running on this node.
+     */
+    private static final Set<String> runningExportSet = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * Returns the archive of an export.
+     *
+     * @param exportId Export ID
+     * @return Archive
+     */
+    public static Path getArchive(String exportId) {
+        return DirectoryUtil.getExportDirectory().resolve(exportId + ".tar");
+    }
+
+    /**
+     * Read the IV of an archive.
+     *
+     * @param channel Archive file
+     * @return Initialization vector
+     * @throws IOException e
+     */
+    public static byte[] readIv(SeekableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(EncryptionUtil.IV_LENGTH);
+        channel.position(0);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("The archive is shorter than its IV");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Queue an export, it runs in the background after the current transaction.
+     *
+     * @param exportId Export ID
+     * @param jobVersion Version of the durable job, null to queue a new job
+     */
+    public static void startExport(String exportId, Integer jobVersion) {
+        if (jobVersion == null) {
+            jobVersion = AsyncJobUtil.enqueue(AsyncJobType.DOCUMENT_EXPORT, exportId, null);
+        }
+        runningExportSet.add(exportId);
+        DocumentExportAsyncEvent event = new DocumentExportAsyncEvent();
+        event.setExportId(exportId);
+        event.setJobVersion(jobVersion);
+        ThreadLocalContext.get().addAsyncEvent(event);
+    }
+
+    /**
+     * Mark an export as stopped on this node.
+     *
+     * @param exportId Export ID
+     */
+    public static void endExport(String exportId) {
+        runningExportSet.remove(exportId);
+    }
+
+    /**
+     * Returns the ID of the exports running on this node.
+     *
+     * @return Export IDs
+     */
+    public static Set<String> getRunningExportIdSet() {
+        synchronized (runningExportSet) {
+            return new HashSet<>(runningExportSet);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.TagDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.event.DocumentsCreatedAsyncEvent;
+import com.sismics.docs.core.event.FileCreatedAsyncEvent;
+import com.sismics.docs.core.event.FileEvent;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.util.context.ThreadLocalContext;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bulk document import utilities.
+ */
+public class DocumentImportUtil {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(DocumentImportUtil.class);
+
+    /**
+     * Number of documents created in one transaction.
+     */
+    public static final int CHUNK_SIZE = 50;
+
+    /**
+     * Import a chunk of documents with their files, and commit them.
+     * The quota is updated once and the documents are indexed in one batch.
+     * Items already in error are skipped, the others get their result or error.
+     * The events of the chunk are fired as soon as it is committed, without waiting for the end of the import.
+     * If the chunk cannot be saved, it is rolled back and all its items are in error.
+     *
+     * @param itemList Items to import
+     * @param userId User ID of the importer
+     */
+    public static void importChunk(List<Item> itemList, String userId) {
+        ThreadLocalContext context = ThreadLocalContext.get();
+        int eventCount = context.getAsyncEventCount();
+        List<String> storedFileIdList = Lists.newArrayList();
+        try {
+            importItems(itemList, userId, storedFileIdList);
+            TransactionUtil.commit();
+        } catch (Exception e) {
+            log.error("Error importing a chunk of documents, rolling it back", e);
+            TransactionUtil.rollback();
+
+            // The queued events and the stored files of this chunk are not needed anymore
+            for (Object event : context.removeAsyncEvents(eventCount)) {
+                if (event instanceof FileEvent) {
+                    FileEvent fileEvent = (FileEvent) event;
+                    FileUtil.endProcessingFile(fileEvent.getFileId());
+                    if (fileEvent.getUploadContext() != null) {
+                        fileEvent.getUploadContext().close();
+                    }
+                }
+            }
+            for (String fileId : storedFileIdList) {
+                try {
+                    Files.deleteIfExists(DirectoryUtil.getStorageDirectory().resolve(fileId));
+                } catch (IOException ioe) {
+                    log.error("Error deleting the stored file " + fileId, ioe);
+                }
+            }
+
+            for (Item item : itemList) {
+                item.getFileIdList().clear();
+                if (item.getError() == null) {
+                    item.setError("ImportError", "Error importing the document");
+                }
+            }
+            return;
+        }
+
+        context.fireAsyncEvents(eventCount, true);
+    }
+
+    /**
+     * Create the documents and files of a chunk.
+     *
+     * @param itemList Items to import
+     * @param userId User ID of the importer
+     * @param storedFileIdList Receives the IDs of the stored files
+     * @throws Exception e
+     */
+    private static void importItems(List<Item> itemList, String userId, List<String> storedFileIdList) throws Exception {
+        // Quotas are read and updated once for the whole chunk
+        UserDao userDao = new UserDao();
+        User user = userDao.getById(userId);
+        long storageCurrent = user.getStorageCurrent();
+        Long globalStorageQuota = null;
+        long globalStorageCurrent = 0;
+        String globalStorageQuotaStr = System.getenv(Constants.GLOBAL_QUOTA_ENV);
+        if (!Strings.isNullOrEmpty(globalStorageQuotaStr)) {
+            globalStorageQuota = Long.parseLong(globalStorageQuotaStr);
+            globalStorageCurrent = userDao.getGlobalStorageCurrent();
+        }
+
+        FileDao fileDao = new FileDao();
+        TagDao tagDao = new TagDao();
+        List<String> documentIdList = Lists.newArrayList();
+        for (Item item : itemList) {
+            if (item.getError() != null) {
+                continue;
+            }
+
+            // Validate the files before creating anything
+            long size = 0;
+            List<String> mimeTypeList = Lists.newArrayList();
+            try {
+                for (FileUploadContext upload : item.getUploadList()) {
+                    mimeTypeList.add(upload.getMimeType());
+                    size += upload.getSize();
+                }
+            } catch (IOException e) {
+                item.setError("ErrorGuessMime", "Error guessing mime type");
+                continue;
+            }
+            if (storageCurrent + size > user.getStorageQuota()
+                    || globalStorageQuota != null && globalStorageCurrent + size > globalStorageQuota) {
+                item.setError("QuotaReached", "Quota limit reached");
+                continue;
+            }
+
+            // Save the document, create the base ACLs and the tags
+            Document document = item.getDocument();
+            document.setUserId(userId);
+            DocumentUtil.createDocument(document, userId);
+            if (!item.getTagIdSet().isEmpty()) {
+                tagDao.updateTagList(document.getId(), item.getTagIdSet());
+            }
+            documentIdList.add(document.getId());
+
+            // Save the files in order, their processing starts after the commit
+            for (int i = 0; i < item.getUploadList().size(); i++) {
+                FileUploadContext upload = item.getUploadList().get(i);
+                File file = new File();
+                file.setOrder(i);
+                file.setVersion(0);
+                file.setLatestVersion(true);
+                file.setDocumentId(document.getId());
+                file.setName(StringUtils.abbreviate(upload.getName(), 200));
+                file.setMimeType(mimeTypeList.get(i));
+                file.setUserId(userId);
+                file.setSize(upload.getSize());
+                String fileId = fileDao.create(file, userId);
+                upload.store(fileId, user.getPrivateKey());
+                storedFileIdList.add(fileId);
+                item.getFileIdList().add(fileId);
+
+                FileCreatedAsyncEvent fileCreatedAsyncEvent = new FileCreatedAsyncEvent();
+                fileCreatedAsyncEvent.setUserId(userId);
+                fileCreatedAsyncEvent.setLanguage(document.getLanguage());
+                fileCreatedAsyncEvent.setFileId(fileId);
+                fileCreatedAsyncEvent.setUnencryptedFile(upload.getUnencryptedFile());
+                fileCreatedAsyncEvent.setUploadContext(upload.retain());
+                FileUtil.startProcessingFile(fileCreatedAsyncEvent);
+            }
+
+            storageCurrent += size;
+            globalStorageCurrent += size;
+        }
+
+        // Update the user quota
+        if (storageCurrent != user.getStorageCurrent()) {
+            user.setStorageCurrent(storageCurrent);
+            userDao.updateQuota(user);
+        }
+
+        // Raise one event for all the created documents
+        if (!documentIdList.isEmpty()) {
+            DocumentsCreatedAsyncEvent documentsCreatedAsyncEvent = new DocumentsCreatedAsyncEvent();
+            documentsCreatedAsyncEvent.setUserId(userId);
+            documentsCreatedAsyncEvent.setDocumentIdList(documentIdList);
+            ThreadLocalContext.get().addAsyncEvent(documentsCreatedAsyncEvent);
+        }
+    }
+
+    /**
+     * Document to import.
+     */
+    public static class Item {
+        /**
+         * Document to create.
+         */
+        private Document document;
+
+        /**
+         * Tag IDs of the document.
+         */
+        private Set<String> tagIdSet = Sets.newHashSet();
+
+        /**
+         * Files of the document, in order.
+         */
+        private List<FileUploadContext> uploadList = Lists.newArrayList();
+
+        /**
+         * IDs of the created files.
+         */
+        private List<String> fileIdList = Lists.newArrayList();
+
+        /**
+         * Error type, null if the item is imported.
+         */
+        private String error;
+
+        /**
+         * Error message.
+         */
+        private String errorMessage;
+
+        public Document getDocument() {
+            return document;
+        }
+
+        public Item setDocument(Document document) {
+            this.document = document;
+            return this;
+        }
+
+        public Set<String> getTagIdSet() {
+            return tagIdSet;
+        }
+
+        public Item setTagIdSet(Set<String> tagIdSet) {
+            this.tagIdSet = tagIdSet;
+            return this;
+        }
+
+        public List<FileUploadContext> getUploadList() {
+            return uploadList;
+        }
+
+        public List<String> getFileIdList() {
+            return fileIdList;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        public Item setError(String error, String errorMessage) {
+            this.error = error;
+            this.errorMessage = errorMessage;
+            return this;
+        }
+    }
+}
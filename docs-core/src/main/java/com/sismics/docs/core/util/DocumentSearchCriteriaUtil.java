@@ -1,4 +1,4 @@
-package com.sismics.docs.rest.util;
+package com.sismics.docs.core.util;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
@@ -1,15 +1,26 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.model.context.AppContext;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -17,6 +28,7 @@ import java.nio.file.StandardCopyOption;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Encryption utilities.
@@ -28,6 +40,31 @@ public class EncryptionUtil {
      * Salt.
      */
     private static final String SALT = "LEpxZmm2SMu2PeKzPNrar2rhVAS6LrrgvXKeL9uyXC4vgKHg";
+
+    /**
+     * Length of an IV, the AES block size.
+     */
+    public static final int IV_LENGTH = 16;
+
+    /**
+     * Random generator of the IVs.
+     */
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * Keys derived from the users private keys.
+     * Deriving a key is expensive, and done for each encrypted or decrypted file.
+     */
+    private static final LoadingCache<String, SecretKey> keyCache = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .recordStats()
+            .build(new CacheLoader<String, SecretKey>() {
+                @Override
+                public SecretKey load(String privateKey) throws Exception {
+                    return deriveKey(privateKey);
+                }
+            });
     
     static {
         // Initialize Bouncy Castle provider
@@ -61,6 +98,80 @@ public class EncryptionUtil {
         return new CipherInputStream(is, getCipher(privateKey, Cipher.DECRYPT_MODE));
     }
 
+    /**
+     * Decrypt an InputStream starting at an offset of the encrypted data.
+     * Files are encrypted in CTR mode, so the counter is set to the block containing the offset
+     * instead of decrypting all the previous blocks.
+     *
+     * @param is InputStream to decrypt, positioned at the offset
+     * @param privateKey Private key
+     * @param offset Offset of the first byte to decrypt
+     * @return Decrypted stream
+     * @throws Exception e
+     */
+    public static InputStream decryptInputStream(InputStream is, String privateKey, long offset) throws Exception {
+        Cipher cipher = getCipher(privateKey, Cipher.DECRYPT_MODE);
+        if (offset == 0) {
+            return new CipherInputStream(is, cipher);
+        }
+        return decryptInputStream(is, privateKey, cipher.getIV(), offset);
+    }
+
+    /**
+     * Decrypt an InputStream encrypted with its own IV, starting at an offset of the encrypted data.
+     *
+     * @param is InputStream to decrypt, positioned at the offset
+     * @param privateKey Private key
+     * @param iv Initialization vector of the data
+     * @param offset Offset of the first byte to decrypt
+     * @return Decrypted stream
+     * @throws Exception e
+     */
+    public static InputStream decryptInputStream(InputStream is, String privateKey, byte[] iv, long offset) throws Exception {
+        Cipher cipher = getCipher(privateKey, Cipher.DECRYPT_MODE, iv, offset / iv.length);
+        int blockSize = cipher.getBlockSize();
+
+        // Pad the stream to the beginning of the block, and skip the decrypted padding
+        int padding = (int) (offset % blockSize);
+        InputStream decryptedStream = new CipherInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(new byte[padding]), is), cipher);
+        ByteStreams.skipFully(decryptedStream, padding);
+        return decryptedStream;
+    }
+
+    /**
+     * Encrypt an OutputStream with its own IV, appending to encrypted data of a given length.
+     * The data is encrypted in CTR mode, so the counter is set to the block following the existing data.
+     * The IV must not be the one of the stored files, which share the key of the private key.
+     *
+     * @param os OutputStream to encrypt, positioned at the offset
+     * @param privateKey Private key
+     * @param iv Initialization vector of the data, random
+     * @param offset Length of the existing encrypted data, a multiple of the block size
+     * @return Encrypting stream
+     * @throws Exception e
+     */
+    public static OutputStream encryptOutputStream(OutputStream os, String privateKey, byte[] iv, long offset) throws Exception {
+        if (Strings.isNullOrEmpty(privateKey)) {
+            throw new IllegalArgumentException("The private key is null or empty");
+        }
+        if (offset % iv.length != 0) {
+            throw new IllegalArgumentException("The offset " + offset + " is not a multiple of the block size");
+        }
+        return new CipherOutputStream(os, getCipher(privateKey, Cipher.ENCRYPT_MODE, iv, offset / iv.length));
+    }
+
+    /**
+     * Generate a random IV, to encrypt data with a private key without reusing the IV of the stored files.
+     *
+     * @return Initialization vector
+     */
+    public static byte[] generateIv() {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        return iv;
+    }
+
     /**
      * Decrypt a file to a temporary file using the specified private key.
      *
@@ -96,6 +207,22 @@ public class EncryptionUtil {
         return getCipher(privateKey, Cipher.ENCRYPT_MODE);
     }
     
+    /**
+     * Return a cipher keyed by the hash of the content it encrypts.
+     * The content hash is already a secret of 256 bits, the key isn't derived with PBE.
+     *
+     * @param contentHash SHA-256 hash of the content
+     * @param iv Initialization vector, distinct for each data encrypted with the same content hash
+     * @param mode Mode (encrypt or decrypt)
+     * @return Cipher
+     * @throws Exception e
+     */
+    public static Cipher getContentCipher(byte[] contentHash, byte[] iv, int mode) throws Exception {
+        Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
+        cipher.init(mode, new SecretKeySpec(contentHash, "AES"), new IvParameterSpec(iv, 0, cipher.getBlockSize()));
+        return cipher;
+    }
+
     /**
      * Initialize a Cipher.
      * 
@@ -105,11 +232,74 @@ public class EncryptionUtil {
      * @throws Exception e
      */
     private static Cipher getCipher(String privateKey, int mode) throws Exception {
-        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
-        SecretKey desKey = skf.generateSecret(keySpec);
         Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
-        cipher.init(mode, desKey);
+        cipher.init(mode, getKey(privateKey));
         return cipher;
     }
+
+    /**
+     * Initialize a Cipher at a block of the data.
+     *
+     * @param privateKey Private key
+     * @param mode Mode (encrypt or decrypt)
+     * @param iv Initialization vector of the data
+     * @param blockIndex Index of the block
+     * @return Cipher
+     * @throws Exception e
+     */
+    private static Cipher getCipher(String privateKey, int mode, byte[] iv, long blockIndex) throws Exception {
+        // Counter of the block, modulo 2^128
+        byte[] counter = new BigInteger(1, iv).add(BigInteger.valueOf(blockIndex)).toByteArray();
+        byte[] blockIv = new byte[iv.length];
+        int length = Math.min(counter.length, blockIv.length);
+        System.arraycopy(counter, counter.length - length, blockIv, blockIv.length - length, length);
+
+        Cipher cipher = Cipher.getInstance("AES/CTR/NOPADDING");
+        cipher.init(mode, getKey(privateKey), new IvParameterSpec(blockIv));
+        return cipher;
+    }
+
+    /**
+     * Returns the key derived from a private key, from the cache if possible.
+     *
+     * @param privateKey Private key
+     * @return Derived key
+     * @throws Exception e
+     */
+    static SecretKey getKey(String privateKey) throws Exception {
+        return keyCache.get(privateKey);
+    }
+
+    /**
+     * Returns the statistics of the derived keys cache.
+     *
+     * @return Cache statistics
+     */
+    static CacheStats getKeyCacheStats() {
+        return keyCache.stats();
+    }
+
+    /**
+     * Derive a key from a private key.
+     *
+     * @param privateKey Private key
+     * @return Derived key
+     * @throws Exception e
+     */
+    static SecretKey deriveKey(String privateKey) throws Exception {
+        PBEKeySpec keySpec = new PBEKeySpec(privateKey.toCharArray(), SALT.getBytes(), 2000, 256);
+        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBEWITHSHA256AND256BITAES-CBC-BC");
+        return skf.generateSecret(keySpec);
+    }
+
+    /**
+     * Remove the key derived from a private key from the cache.
+     *
+     * @param privateKey Private key
+     */
+    public static void invalidateKey(String privateKey) {
+        if (privateKey != null) {
+            keyCache.invalidate(privateKey);
+        }
+    }
 }
@@ -0,0 +1,318 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.sismics.docs.core.constant.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Cache of the thumbnails and contents extracted from the files, by hash of the file content.
+ * Identical files are processed once. The entries are encrypted with a key derived from the content hash,
+ * so only the holders of the original content can read them. Each entry has its own random IV,
+ * stored before the encrypted data. The least recently used entries are evicted when the cache
+ * grows over its maximum size.
+ */
+public class ExtractionCache {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ExtractionCache.class);
+
+    /**
+     * Web image item.
+     */
+    public static final String WEB = "web";
+
+    /**
+     * Thumbnail image item.
+     */
+    public static final String THUMB = "thumb";
+
+    /**
+     * Default maximum size of the cache in bytes.
+     */
+    private static final long DEFAULT_MAX_SIZE = 1024L * 1024L * 1024L;
+
+    /**
+     * Length of the IV stored at the beginning of each item.
+     */
+    private static final int IV_LENGTH = 16;
+
+    /**
+     * Random generator of the IVs.
+     */
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * Cache directory.
+     */
+    private final Path directory;
+
+    /**
+     * Maximum size of the cache in bytes, 0 to disable it.
+     */
+    private final long maxSize;
+
+    /**
+     * Current size of the cache in bytes.
+     */
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Number of items found in the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Number of items not found in the cache.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Number of evicted entries.
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Create the cache.
+     *
+     * @param directory Cache directory
+     * @param maxSize Maximum size of the cache in bytes, 0 to disable it
+     */
+    public ExtractionCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        if (maxSize > 0) {
+            try (Stream<Path> pathStream = Files.walk(directory)) {
+                size.set(pathStream.filter(Files::isRegularFile).mapToLong(ExtractionCache::fileSize).sum());
+            } catch (IOException e) {
+                log.error("Error computing the size of the extraction cache", e);
+            }
+        }
+    }
+
+    /**
+     * Create the cache in the data directory, with a maximum size from the environment.
+     *
+     * @return Extraction cache
+     */
+    public static ExtractionCache fromEnv() {
+        String value = System.getenv(Constants.EXTRACTION_CACHE_SIZE_ENV);
+        long maxSize = Strings.isNullOrEmpty(value) ? DEFAULT_MAX_SIZE : Long.parseLong(value);
+        return new ExtractionCache(DirectoryUtil.getExtractionCacheDirectory(), maxSize);
+    }
+
+    /**
+     * Hash a file content.
+     *
+     * @param file File
+     * @return SHA-256 hash
+     * @throws IOException e
+     */
+    public static byte[] hash(Path file) throws IOException {
+        return MoreFiles.asByteSource(file).hash(Hashing.sha256()).asBytes();
+    }
+
+    /**
+     * Returns the item name of a content.
+     *
+     * @param language Language of the content
+     * @param ocr True if the content is extracted with OCR enabled
+     * @return Item name
+     */
+    public static String getContentItem(String language, boolean ocr) {
+        return "content_" + (language == null ? "none" : language.replaceAll("[^A-Za-z_]", "")) + (ocr ? "_ocr" : "");
+    }
+
+    /**
+     * Returns an item.
+     *
+     * @param contentHash Hash of the file content
+     * @param item Item name
+     * @return Item data, null if not cached
+     */
+    public byte[] get(byte[] contentHash, String item) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        Path entryDirectory = getEntryDirectory(contentHash);
+        Path itemFile = entryDirectory.resolve(item);
+        try {
+            if (!Files.exists(itemFile)) {
+                missCount.incrementAndGet();
+                return null;
+            }
+            byte[] itemData = Files.readAllBytes(itemFile);
+            if (itemData.length < IV_LENGTH) {
+                throw new IOException("Truncated item");
+            }
+            byte[] iv = Arrays.copyOf(itemData, IV_LENGTH);
+            byte[] data = EncryptionUtil.getContentCipher(contentHash, iv, Cipher.DECRYPT_MODE)
+                    .doFinal(itemData, IV_LENGTH, itemData.length - IV_LENGTH);
+            Files.setLastModifiedTime(entryDirectory, FileTime.fromMillis(System.currentTimeMillis()));
+            hitCount.incrementAndGet();
+            return data;
+        } catch (Exception e) {
+            // Evicted in the meantime
+            log.warn("Error reading the extraction cache item " + itemFile, e);
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Returns a content.
+     *
+     * @param contentHash Hash of the file content
+     * @param item Content item name
+     * @return Content, null if not cached
+     */
+    public String getContent(byte[] contentHash, String item) {
+        byte[] data = get(contentHash, item);
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Add an item.
+     *
+     * @param contentHash Hash of the file content
+     * @param item Item name
+     * @param data Item data
+     */
+    public void put(byte[] contentHash, String item, byte[] data) {
+        if (maxSize <= 0 || IV_LENGTH + data.length > maxSize) {
+            return;
+        }
+        Path entryDirectory = getEntryDirectory(contentHash);
+        Path itemFile = entryDirectory.resolve(item);
+        try {
+            Files.createDirectories(entryDirectory);
+            long previousSize = fileSize(itemFile);
+
+            // Written aside then moved, the readers never see a partial item
+            // A new IV for each write, the same content hash and item may be written again with other data
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            byte[] itemData = Arrays.copyOf(iv, IV_LENGTH + data.length);
+            EncryptionUtil.getContentCipher(contentHash, iv, Cipher.ENCRYPT_MODE).doFinal(data, 0, data.length, itemData, IV_LENGTH);
+            Path tmpFile = Files.createTempFile(entryDirectory, item, ".tmp");
+            Files.write(tmpFile, itemData);
+            Files.move(tmpFile, itemFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.setLastModifiedTime(entryDirectory, FileTime.fromMillis(System.currentTimeMillis()));
+            if (size.addAndGet(itemData.length - previousSize) > maxSize) {
+                evict();
+            }
+        } catch (Exception e) {
+            log.error("Error writing the extraction cache item " + itemFile, e);
+        }
+    }
+
+    /**
+     * Add a content.
+     *
+     * @param contentHash Hash of the file content
+     * @param item Content item name
+     * @param content Content
+     */
+    public void putContent(byte[] contentHash, String item, String content) {
+        put(contentHash, item, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Evict the least recently used entries, down to 90% of the maximum size.
+     */
+    private synchronized void evict() {
+        if (size.get() <= maxSize) {
+            return;
+        }
+        List<Path> entryDirectoryList = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+            directoryStream.forEach(entryDirectoryList::add);
+        } catch (IOException e) {
+            log.error("Error listing the extraction cache", e);
+            return;
+        }
+        entryDirectoryList.sort(Comparator.comparingLong(ExtractionCache::lastModifiedTime));
+
+        long targetSize = maxSize * 9 / 10;
+        for (Path entryDirectory : entryDirectoryList) {
+            if (size.get() <= targetSize) {
+                break;
+            }
+            try (Stream<Path> pathStream = Files.list(entryDirectory)) {
+                long entrySize = pathStream.mapToLong(ExtractionCache::fileSize).sum();
+                MoreFiles.deleteRecursively(entryDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+                size.addAndGet(-entrySize);
+                evictionCount.incrementAndGet();
+            } catch (IOException e) {
+                log.error("Error evicting the extraction cache entry " + entryDirectory, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the directory of an entry.
+     * It is named after a hash of the content hash, which must not be found from the directory name.
+     *
+     * @param contentHash Hash of the file content
+     * @return Entry directory
+     */
+    private Path getEntryDirectory(byte[] contentHash) {
+        return directory.resolve(Hashing.sha256().hashBytes(contentHash).toString());
+    }
+
+    private static long fileSize(Path file) {
+        try {
+            return Files.isRegularFile(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+}
@@ -0,0 +1,249 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.util.mime.MimeTypeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processing context of an uploaded file.
+ * The upload is read once: it is written in plain to a temporary file and encrypted to the storage
+ * directory, while hashed and sized. The MIME type is guessed once, and the plain file is shared by all
+ * the stages processing the upload, then deleted when the last one releases it.
+ */
+public class FileUploadContext implements Closeable {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(FileUploadContext.class);
+
+    /**
+     * Size of the copy buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * File name.
+     */
+    private final String name;
+
+    /**
+     * Unencrypted file.
+     */
+    private final Path unencryptedFile;
+
+    /**
+     * True if the unencrypted file is deleted with this context.
+     */
+    private final boolean owned;
+
+    /**
+     * File size.
+     */
+    private long size;
+
+    /**
+     * SHA-256 hash of the content, null until the content is read.
+     */
+    private byte[] contentHash;
+
+    /**
+     * MIME type, null until guessed.
+     */
+    private String mimeType;
+
+    /**
+     * Encrypted copy waiting for its file ID.
+     */
+    private Path encryptedFile;
+
+    /**
+     * Private key of the encrypted copy.
+     */
+    private String encryptionKey;
+
+    /**
+     * Number of stages using this context.
+     */
+    private final AtomicInteger referenceCount = new AtomicInteger(1);
+
+    private FileUploadContext(String name, Path unencryptedFile, boolean owned) {
+        this.name = name;
+        this.unencryptedFile = unencryptedFile;
+        this.owned = owned;
+    }
+
+    /**
+     * Receive an upload.
+     *
+     * @param inputStream Uploaded data
+     * @param name File name
+     * @param privateKey Private key of the uploading user, null to encrypt later
+     * @return Upload context
+     * @throws Exception e
+     */
+    public static FileUploadContext receive(InputStream inputStream, String name, String privateKey) throws Exception {
+        FileUploadContext context = new FileUploadContext(name, AppContext.getInstance().getFileService().createTemporaryFile(name), true);
+        try (OutputStream unencryptedOutputStream = Files.newOutputStream(context.unencryptedFile);
+             OutputStream encryptedOutputStream = context.newEncryptedOutputStream(privateKey)) {
+            context.copy(inputStream, unencryptedOutputStream, encryptedOutputStream);
+        } catch (Exception e) {
+            context.close();
+            throw e;
+        }
+        return context;
+    }
+
+    /**
+     * Create the context of a file already on disk, which is left in place.
+     *
+     * @param unencryptedFile Unencrypted file
+     * @param name File name
+     * @return Upload context
+     * @throws IOException e
+     */
+    public static FileUploadContext of(Path unencryptedFile, String name) throws IOException {
+        FileUploadContext context = new FileUploadContext(name, unencryptedFile, false);
+        context.size = Files.size(unencryptedFile);
+        return context;
+    }
+
+    /**
+     * Open the encrypted copy of the upload.
+     *
+     * @param privateKey Private key, null to encrypt later
+     * @return Output stream, null if there is no private key
+     * @throws Exception e
+     */
+    private OutputStream newEncryptedOutputStream(String privateKey) throws Exception {
+        if (privateKey == null) {
+            return null;
+        }
+
+        // Named after a random file ID, the storage cleaning deletes it if the upload is abandoned
+        encryptedFile = DirectoryUtil.getStorageDirectory().resolve(UUID.randomUUID() + "_upload");
+        encryptionKey = privateKey;
+        return new CipherOutputStream(Files.newOutputStream(encryptedFile), EncryptionUtil.getEncryptionCipher(privateKey));
+    }
+
+    /**
+     * Store the encrypted file.
+     * The encrypted copy is moved in place, or the file is encrypted if it was received for another key.
+     *
+     * @param fileId File ID
+     * @param privateKey Private key of the file owner
+     * @throws Exception e
+     */
+    public void store(String fileId, String privateKey) throws Exception {
+        Path path = DirectoryUtil.getStorageDirectory().resolve(fileId);
+        if (encryptedFile != null && privateKey.equals(encryptionKey)) {
+            Files.move(encryptedFile, path, StandardCopyOption.ATOMIC_MOVE);
+            encryptedFile = null;
+            return;
+        }
+
+        Cipher cipher = EncryptionUtil.getEncryptionCipher(privateKey);
+        try (InputStream inputStream = Files.newInputStream(unencryptedFile);
+             OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(path), cipher)) {
+            copy(inputStream, outputStream, null);
+        }
+    }
+
+    /**
+     * Copy the content, hashing and sizing it.
+     *
+     * @param inputStream Content
+     * @param outputStream Output stream
+     * @param secondOutputStream Other output stream (optional)
+     * @throws IOException e
+     */
+    private void copy(InputStream inputStream, OutputStream outputStream, OutputStream secondOutputStream) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long count = 0;
+        int n;
+        while ((n = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, n);
+            if (secondOutputStream != null) {
+                secondOutputStream.write(buffer, 0, n);
+            }
+            hasher.putBytes(buffer, 0, n);
+            count += n;
+        }
+        size = count;
+        contentHash = hasher.hash().asBytes();
+    }
+
+    /**
+     * Returns the MIME type, guessed on the first call.
+     *
+     * @return MIME type
+     * @throws IOException e
+     */
+    public synchronized String getMimeType() throws IOException {
+        if (mimeType == null) {
+            mimeType = MimeTypeUtil.guessMimeType(unencryptedFile, name);
+        }
+        return mimeType;
+    }
+
+    /**
+     * Use this context in another stage, which must close it.
+     *
+     * @return This context
+     */
+    public FileUploadContext retain() {
+        referenceCount.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Release this context, the files are deleted when no stage uses it anymore.
+     */
+    @Override
+    public void close() {
+        if (referenceCount.decrementAndGet() > 0) {
+            return;
+        }
+        try {
+            if (encryptedFile != null) {
+                Files.deleteIfExists(encryptedFile);
+            }
+            if (owned) {
+                Files.deleteIfExists(unencryptedFile);
+            }
+        } catch (IOException e) {
+            log.error("Error deleting the uploaded file " + unencryptedFile, e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Path getUnencryptedFile() {
+        return unencryptedFile;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public byte[] getContentHash() {
+        return contentHash;
+    }
+}
@@ -1,13 +1,15 @@
 package com.sismics.docs.core.util;
 
+import com.google.common.base.MoreObjects;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.io.CharStreams;
+import com.sismics.docs.core.constant.AsyncJobType;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
 import com.sismics.docs.core.event.FileCreatedAsyncEvent;
+import com.sismics.docs.core.event.FileEvent;
 import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
@@ -15,7 +17,6 @@ import com.sismics.util.ImageDeskew;
 import com.sismics.util.Scalr;
 import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.io.InputStreamReaderThread;
-import com.sismics.util.mime.MimeTypeUtil;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.io.output.NullOutputStream;
@@ -23,17 +24,16 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * File entity utilities.
@@ -50,9 +50,35 @@ public class FileUtil {
      * File ID of files currently being processed.
      */
     private static final Set<String> processingFileSet = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * Maximum number of concurrent OCR processes.
+     */
+    private static final int OCR_MAX_PROCESSES = getOcrMaxProcesses();
+
+    /**
+     * Permits to run an OCR process.
+     */
+    private static final Semaphore ocrProcessSemaphore = new Semaphore(OCR_MAX_PROCESSES, true);
+
+    /**
+     * Number of OCR processes run.
+     */
+    private static final AtomicLong ocrCount = new AtomicLong();
+
+    /**
+     * Time spent in OCR processes, in milliseconds.
+     */
+    private static final AtomicLong ocrTime = new AtomicLong();
+
+    /**
+     * Tesseract command.
+     */
+    private static String tesseractCommand = MoreObjects.firstNonNull(Strings.emptyToNull(System.getenv(Constants.TESSERACT_PATH_ENV)), "tesseract");
     
     /**
      * Optical character recognition on an image.
+     * The number of concurrent OCR processes is limited for all the files.
      *
      * @param language Language to OCR
      * @param image Buffered image
@@ -68,19 +94,77 @@ public class FileUtil {
         resizedImage.flush();
         Path tmpFile = AppContext.getInstance().getFileService().createTemporaryFile();
         ImageIO.write(deskewedImage, "tiff", tmpFile.toFile());
+        deskewedImage.flush();
 
-        List<String> result = Lists.newLinkedList(Arrays.asList("tesseract", tmpFile.toAbsolutePath().toString(), "stdout", "-l", language));
-        ProcessBuilder pb = new ProcessBuilder(result);
-        Process process = pb.start();
+        ocrProcessSemaphore.acquire();
+        long startTime = System.currentTimeMillis();
+        try {
+            // The text is written to a file, so that waiting for the process can be interrupted
+            Path outputFile = AppContext.getInstance().getFileService().createTemporaryFile();
+            List<String> result = Lists.newLinkedList(Arrays.asList(tesseractCommand, tmpFile.toAbsolutePath().toString(), "stdout", "-l", language));
+            ProcessBuilder pb = new ProcessBuilder(result).redirectOutput(outputFile.toFile());
+            Process process = pb.start();
+            try {
+                // Consume the process error stream
+                final String commandName = pb.command().get(0);
+                new InputStreamReaderThread(process.getErrorStream(), commandName).start();
+                process.waitFor();
+            } finally {
+                // Interrupted when the OCR is cancelled, the process must not keep running
+                if (process.isAlive()) {
+                    process.destroyForcibly();
+                }
+            }
+            return new String(Files.readAllBytes(outputFile), StandardCharsets.UTF_8);
+        } finally {
+            ocrProcessSemaphore.release();
+            ocrCount.incrementAndGet();
+            ocrTime.addAndGet(System.currentTimeMillis() - startTime);
+        }
+    }
 
-        // Consume the process error stream
-        final String commandName = pb.command().get(0);
-        new InputStreamReaderThread(process.getErrorStream(), commandName).start();
+    /**
+     * Returns the number of OCR processes running.
+     *
+     * @return Number of processes
+     */
+    public static int getOcrRunningCount() {
+        return OCR_MAX_PROCESSES - ocrProcessSemaphore.availablePermits();
+    }
 
-        // Consume the data as text
-        try (InputStream is = process.getInputStream()) {
-            return CharStreams.toString(new InputStreamReader(is, StandardCharsets.UTF_8));
+    /**
+     * Returns the number of OCR processes run since the startup.
+     *
+     * @return Number of processes
+     */
+    public static long getOcrCount() {
+        return ocrCount.get();
+    }
+
+    /**
+     * Returns the time spent in OCR processes since the startup.
+     *
+     * @return Time in milliseconds
+     */
+    public static long getOcrTime() {
+        return ocrTime.get();
+    }
+
+    private static int getOcrMaxProcesses() {
+        String value = System.getenv(Constants.OCR_MAX_PROCESSES_ENV);
+        if (Strings.isNullOrEmpty(value)) {
+            return Runtime.getRuntime().availableProcessors();
         }
+        return Math.max(Integer.parseInt(value), 1);
+    }
+
+    /**
+     * Set the Tesseract command, a fake one can stand in for the tests.
+     *
+     * @param command Tesseract command
+     */
+    static void setTesseractCommand(String command) {
+        tesseractCommand = command;
     }
 
     /**
@@ -102,26 +186,29 @@ public class FileUtil {
         if (Files.exists(thumbnailFile)) {
             Files.delete(thumbnailFile);
         }
+        AppContext.getInstance().getPdfCache().invalidate(fileId);
     }
 
     /**
      * Create a new file.
+     * The upload is retained until the file is processed.
      *
-     * @param name File name, can be null
+     * @param upload Uploaded file
      * @param previousFileId ID of the previous version of the file, if the new file is a new version
-     * @param unencryptedFile Path to the unencrypted file
-     * @param fileSize File size
      * @param language File language, can be null if associated to no document
      * @param userId User ID creating the file
      * @param documentId Associated document ID or null if no document
      * @return File ID
      * @throws Exception e
      */
-    public static String createFile(String name, String previousFileId, Path unencryptedFile, long fileSize, String language, String userId, String documentId) throws Exception {
+    public static String createFile(FileUploadContext upload, String previousFileId, String language, String userId, String documentId) throws Exception {
+        String name = upload.getName();
+        long fileSize = upload.getSize();
+
         // Validate mime type
         String mimeType;
         try {
-            mimeType = MimeTypeUtil.guessMimeType(unencryptedFile, name);
+            mimeType = upload.getMimeType();
         } catch (IOException e) {
             throw new IOException("ErrorGuessMime", e);
         }
@@ -186,24 +273,20 @@ public class FileUtil {
         String fileId = fileDao.create(file, userId);
 
         // Save the file
-        Cipher cipher = EncryptionUtil.getEncryptionCipher(user.getPrivateKey());
-        Path path = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-        try (InputStream inputStream = Files.newInputStream(unencryptedFile)) {
-            Files.copy(new CipherInputStream(inputStream, cipher), path);
-        }
+        upload.store(file.getId(), user.getPrivateKey());
 
         // Update the user quota
         user.setStorageCurrent(user.getStorageCurrent() + fileSize);
         userDao.updateQuota(user);
 
         // Raise a new file created event and document updated event if we have a document
-        startProcessingFile(fileId);
         FileCreatedAsyncEvent fileCreatedAsyncEvent = new FileCreatedAsyncEvent();
         fileCreatedAsyncEvent.setUserId(userId);
         fileCreatedAsyncEvent.setLanguage(language);
         fileCreatedAsyncEvent.setFileId(file.getId());
-        fileCreatedAsyncEvent.setUnencryptedFile(unencryptedFile);
-        ThreadLocalContext.get().addAsyncEvent(fileCreatedAsyncEvent);
+        fileCreatedAsyncEvent.setUnencryptedFile(upload.getUnencryptedFile());
+        fileCreatedAsyncEvent.setUploadContext(upload.retain());
+        startProcessingFile(fileCreatedAsyncEvent);
 
         if (documentId != null) {
             DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
@@ -216,7 +299,19 @@ public class FileUtil {
     }
 
     /**
-     * Start processing a file.
+     * Start processing a file after the current transaction.
+     * A durable job is queued in the current transaction, in case the processing is interrupted.
+     *
+     * @param event File created or updated event
+     */
+    public static void startProcessingFile(FileEvent event) {
+        startProcessingFile(event.getFileId());
+        event.setJobVersion(AsyncJobUtil.enqueue(AsyncJobType.FILE_PROCESSING, event.getFileId(), event.getLanguage()));
+        ThreadLocalContext.get().addAsyncEvent(event);
+    }
+
+    /**
+     * Mark a file as processing.
      *
      * @param fileId File ID
      */
@@ -235,6 +330,17 @@ public class FileUtil {
         log.info("Processing ended for file: " + fileId);
     }
 
+    /**
+     * Returns the files currently processing.
+     *
+     * @return File IDs
+     */
+    public static Set<String> getProcessingFileIdSet() {
+        synchronized (processingFileSet) {
+            return new HashSet<>(processingFileSet);
+        }
+    }
+
     /**
      * Return true if a file is currently processing.
      *
@@ -245,6 +351,23 @@ public class FileUtil {
         return processingFileSet.contains(fileId);
     }
 
+    /**
+     * Set the private keys of files, to decrypt them.
+     * A file is always encrypted by its creator, the keys are loaded in one query.
+     *
+     * @param fileList Files
+     */
+    public static void loadPrivateKeys(List<File> fileList) {
+        Set<String> userIdSet = new HashSet<>();
+        for (File file : fileList) {
+            userIdSet.add(file.getUserId());
+        }
+        Map<String, String> privateKeyMap = new UserDao().getPrivateKeyMap(userIdSet);
+        for (File file : fileList) {
+            file.setPrivateKey(privateKeyMap.get(file.getUserId()));
+        }
+    }
+
     /**
      * Get the size of a file on disk.
      *
@@ -0,0 +1,291 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.base.Strings;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.sismics.docs.core.constant.Constants;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Cache of the PDF fragments of the files, by file ID and export options.
+ * A stored file never changes, a new version is a new file, so a fragment is valid until its file is deleted.
+ * The fragments are encrypted with the private key of the file owner. Each fragment has its own random IV,
+ * stored before the encrypted data, so it doesn't share the IV of the stored files.
+ * The least recently used entries are evicted when the cache grows over its maximum size.
+ */
+public class PdfCache {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(PdfCache.class);
+
+    /**
+     * Default maximum size of the cache in bytes.
+     */
+    private static final long DEFAULT_MAX_SIZE = 1024L * 1024L * 1024L;
+
+    /**
+     * Cache directory.
+     */
+    private final Path directory;
+
+    /**
+     * Maximum size of the cache in bytes, 0 to disable it.
+     */
+    private final long maxSize;
+
+    /**
+     * Current size of the cache in bytes.
+     */
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Number of fragments found in the cache.
+     */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /**
+     * Number of fragments not found in the cache.
+     */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Number of evicted entries.
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Create the cache.
+     *
+     * @param directory Cache directory
+     * @param maxSize Maximum size of the cache in bytes, 0 to disable it
+     */
+    public PdfCache(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        if (maxSize > 0) {
+            try (Stream<Path> pathStream = Files.walk(directory)) {
+                size.set(pathStream.filter(Files::isRegularFile).mapToLong(PdfCache::fileSize).sum());
+            } catch (IOException e) {
+                log.error("Error computing the size of the PDF cache", e);
+            }
+        }
+    }
+
+    /**
+     * Create the cache in the data directory, with a maximum size from the environment.
+     *
+     * @return PDF cache
+     */
+    public static PdfCache fromEnv() {
+        String value = System.getenv(Constants.PDF_CACHE_SIZE_ENV);
+        long maxSize = Strings.isNullOrEmpty(value) ? DEFAULT_MAX_SIZE : Long.parseLong(value);
+        return new PdfCache(DirectoryUtil.getPdfCacheDirectory(), maxSize);
+    }
+
+    /**
+     * Returns the item name of a fragment.
+     *
+     * @param fitImageToPage Fit images to the page
+     * @param margin Margins in millimeters
+     * @return Item name
+     */
+    public static String getItem(boolean fitImageToPage, int margin) {
+        return (fitImageToPage ? "fit" : "nofit") + "_" + margin + ".pdf";
+    }
+
+    /**
+     * Load a fragment.
+     *
+     * @param fileId File ID
+     * @param privateKey Private key of the file owner
+     * @param item Item name
+     * @param memUsageSettings Memory usage of the loaded document
+     * @return Fragment, to be closed by the caller, null if not cached
+     */
+    public PDDocument load(String fileId, String privateKey, String item, MemoryUsageSetting memUsageSettings) {
+        if (maxSize <= 0 || privateKey == null) {
+            return null;
+        }
+        Path entryDirectory = directory.resolve(fileId);
+        Path itemFile = entryDirectory.resolve(item);
+        if (!Files.exists(itemFile)) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        try (InputStream itemInputStream = Files.newInputStream(itemFile)) {
+            byte[] iv = itemInputStream.readNBytes(EncryptionUtil.IV_LENGTH);
+            if (iv.length < EncryptionUtil.IV_LENGTH) {
+                throw new IOException("Truncated item");
+            }
+            PDDocument fragment = PDDocument.load(
+                    EncryptionUtil.decryptInputStream(itemInputStream, privateKey, iv, 0), memUsageSettings);
+            Files.setLastModifiedTime(entryDirectory, FileTime.fromMillis(System.currentTimeMillis()));
+            hitCount.incrementAndGet();
+            return fragment;
+        } catch (Exception e) {
+            // Evicted in the meantime
+            log.warn("Error reading the PDF cache item " + itemFile, e);
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Add a fragment.
+     *
+     * @param fileId File ID
+     * @param privateKey Private key of the file owner
+     * @param item Item name
+     * @param fragment Fragment, left open
+     */
+    public void put(String fileId, String privateKey, String item, PDDocument fragment) {
+        if (maxSize <= 0 || privateKey == null) {
+            return;
+        }
+        Path entryDirectory = directory.resolve(fileId);
+        Path itemFile = entryDirectory.resolve(item);
+        try {
+            Files.createDirectories(entryDirectory);
+            long previousSize = fileSize(itemFile);
+
+            // Written aside then moved, the readers never see a partial item
+            Path tmpFile = Files.createTempFile(entryDirectory, item, ".tmp");
+            byte[] iv = EncryptionUtil.generateIv();
+            try (OutputStream itemOutputStream = Files.newOutputStream(tmpFile)) {
+                itemOutputStream.write(iv);
+                try (OutputStream outputStream = EncryptionUtil.encryptOutputStream(itemOutputStream, privateKey, iv, 0)) {
+                    fragment.save(outputStream);
+                }
+            }
+            long itemSize = Files.size(tmpFile);
+            if (itemSize > maxSize) {
+                Files.delete(tmpFile);
+                return;
+            }
+            Files.move(tmpFile, itemFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.setLastModifiedTime(entryDirectory, FileTime.fromMillis(System.currentTimeMillis()));
+            if (size.addAndGet(itemSize - previousSize) > maxSize) {
+                evict();
+            }
+        } catch (Exception e) {
+            log.error("Error writing the PDF cache item " + itemFile, e);
+        }
+    }
+
+    /**
+     * Invalidate the fragments of a file.
+     *
+     * @param fileId File ID
+     */
+    public void invalidate(String fileId) {
+        Path entryDirectory = directory.resolve(fileId);
+        if (!Files.isDirectory(entryDirectory)) {
+            return;
+        }
+        try {
+            size.addAndGet(-deleteEntry(entryDirectory));
+        } catch (IOException e) {
+            log.error("Error invalidating the PDF cache entry " + entryDirectory, e);
+        }
+    }
+
+    /**
+     * Evict the least recently used entries, down to 90% of the maximum size.
+     */
+    private synchronized void evict() {
+        if (size.get() <= maxSize) {
+            return;
+        }
+        List<Path> entryDirectoryList = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory)) {
+            directoryStream.forEach(entryDirectoryList::add);
+        } catch (IOException e) {
+            log.error("Error listing the PDF cache", e);
+            return;
+        }
+        entryDirectoryList.sort(Comparator.comparingLong(PdfCache::lastModifiedTime));
+
+        long targetSize = maxSize * 9 / 10;
+        for (Path entryDirectory : entryDirectoryList) {
+            if (size.get() <= targetSize) {
+                break;
+            }
+            try {
+                size.addAndGet(-deleteEntry(entryDirectory));
+                evictionCount.incrementAndGet();
+            } catch (IOException e) {
+                log.error("Error evicting the PDF cache entry " + entryDirectory, e);
+            }
+        }
+    }
+
+    /**
+     * Delete an entry.
+     *
+     * @param entryDirectory Entry directory
+     * @return Size of the deleted entry
+     * @throws IOException e
+     */
+    private static long deleteEntry(Path entryDirectory) throws IOException {
+        long entrySize;
+        try (Stream<Path> pathStream = Files.list(entryDirectory)) {
+            entrySize = pathStream.mapToLong(PdfCache::fileSize).sum();
+        }
+        MoreFiles.deleteRecursively(entryDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+        return entrySize;
+    }
+
+    private static long fileSize(Path file) {
+        try {
+            return Files.isRegularFile(file) ? Files.size(file) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+}
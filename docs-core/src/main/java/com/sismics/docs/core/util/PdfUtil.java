@@ -7,11 +7,13 @@ import com.google.common.io.Resources;
 import com.lowagie.text.FontFactory;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.format.FormatHandler;
 import com.sismics.docs.core.util.format.FormatHandlerUtil;
 import com.sismics.docs.core.util.pdf.PdfPage;
 import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.font.DocsPDType1Font;
@@ -41,6 +43,7 @@ public class PdfUtil {
 
     /**
      * Convert a document and its files to a merged PDF file.
+     * The metadata page is rendered on each call, the files are merged from their cached PDF fragments.
      * 
      * @param documentDto Document DTO
      * @param fileList List of files
@@ -101,16 +104,21 @@ public class PdfUtil {
                 }
             }
             
-            // Add files
+            // Add files, from their cached fragment if possible
+            PdfCache pdfCache = AppContext.getInstance().getPdfCache();
+            String item = PdfCache.getItem(fitImageToPage, margin);
+            PDFMergerUtility pdfMergerUtility = new PDFMergerUtility();
             for (File file : fileList) {
-                Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-
-                // Decrypt the file to a temporary file
-                Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, file.getPrivateKey());
-                FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
-                if (formatHandler != null) {
-                    formatHandler.appendToPdf(unencryptedFile, doc, fitImageToPage, margin, memUsageSettings, closer);
+                PDDocument fragment = pdfCache.load(file.getId(), file.getPrivateKey(), item, memUsageSettings);
+                if (fragment == null) {
+                    fragment = convertToPdf(file, fitImageToPage, margin, memUsageSettings, closer);
+                    if (fragment == null) {
+                        continue;
+                    }
+                    pdfCache.put(file.getId(), file.getPrivateKey(), item, fragment);
                 }
+                closer.register(fragment);
+                pdfMergerUtility.appendDocument(doc, fragment);
             }
             
             doc.save(outputStream); // Write to the output stream
@@ -118,6 +126,36 @@ public class PdfUtil {
         }
     }
 
+    /**
+     * Convert a file to a PDF fragment.
+     *
+     * @param file File
+     * @param fitImageToPage Fit images to the page
+     * @param margin Margins in millimeters
+     * @param memUsageSettings Memory usage of the fragment
+     * @param closer Closer of the documents merged in the fragment
+     * @return Fragment, to be closed by the caller, null if the file format can't be converted
+     */
+    private static PDDocument convertToPdf(File file, boolean fitImageToPage, int margin,
+            MemoryUsageSetting memUsageSettings, Closer closer) throws Exception {
+        FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
+        if (formatHandler == null) {
+            return null;
+        }
+
+        // Decrypt the file to a temporary file
+        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+        Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, file.getPrivateKey());
+        PDDocument fragment = new PDDocument(memUsageSettings);
+        try {
+            formatHandler.appendToPdf(unencryptedFile, fragment, fitImageToPage, margin, memUsageSettings, closer);
+        } catch (Exception e) {
+            fragment.close();
+            throw e;
+        }
+        return fragment;
+    }
+
     /**
      * Register fonts.
      */
@@ -1,4 +1,4 @@
-package com.sismics.docs.rest.util;
+package com.sismics.docs.core.util;
 
 import com.sismics.docs.core.dao.dto.TagDto;
 
@@ -69,6 +69,7 @@ public class TransactionUtil {
         if (em.isOpen()) {
             if (em.getTransaction() != null && em.getTransaction().isActive()) {
                 em.getTransaction().commit();
+                context.runAfterCommitActions();
                 
                 try {
                     em.close();
@@ -80,7 +81,7 @@ public class TransactionUtil {
 
         // Fire all pending async events after request transaction commit.
         // This way, all modifications done during this request are available in the listeners.
-        context.fireAllAsyncEvents();
+        context.fireAllAsyncEvents(false);
 
         ThreadLocalContext.cleanup();
     }
@@ -89,8 +90,21 @@ public class TransactionUtil {
      * Commits the current transaction, and flushes the changes to the database.
      */
     public static void commit() {
-        EntityTransaction tx = ThreadLocalContext.get().getEntityManager().getTransaction();
+        ThreadLocalContext context = ThreadLocalContext.get();
+        EntityTransaction tx = context.getEntityManager().getTransaction();
         tx.commit();
+        context.runAfterCommitActions();
+        tx.begin();
+    }
+
+    /**
+     * Rolls back the current transaction, and starts a new one.
+     */
+    public static void rollback() {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        tx.rollback();
+        em.clear();
         tx.begin();
     }
 }
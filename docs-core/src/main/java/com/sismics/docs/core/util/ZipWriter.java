@@ -0,0 +1,254 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.util.mime.MimeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ZIP stream of stored files.
+ * The next files are decrypted in parallel to temporary files while the current one is written. Already
+ * compressed formats are stored as is, with the size and CRC computed while decrypting.
+ */
+public class ZipWriter implements Closeable {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ZipWriter.class);
+
+    /**
+     * MIME types stored without compression, they would not shrink.
+     */
+    private static final Set<String> STORED_MIME_TYPES = Sets.newHashSet(
+            MimeType.IMAGE_JPEG, MimeType.IMAGE_PNG, MimeType.IMAGE_GIF, MimeType.APPLICATION_ZIP,
+            MimeType.OPEN_DOCUMENT_TEXT, MimeType.OFFICE_DOCUMENT, MimeType.OFFICE_PRESENTATION, MimeType.OFFICE_SHEET,
+            MimeType.VIDEO_WEBM, MimeType.VIDEO_MP4);
+
+    /**
+     * Number of files decrypted in parallel, for all the ZIP streams.
+     */
+    private static final int DECRYPT_THREAD_COUNT = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Number of files decrypted ahead of the current one, for each ZIP stream.
+     */
+    private static final int PREFETCH_COUNT = Math.min(4, DECRYPT_THREAD_COUNT);
+
+    /**
+     * Executor decrypting the files.
+     */
+    private static final ExecutorService decryptExecutor = Executors.newFixedThreadPool(DECRYPT_THREAD_COUNT,
+            new ThreadFactoryBuilder().setNameFormat("zip-decrypt-%d").setDaemon(true).build());
+
+    /**
+     * ZIP output stream.
+     */
+    private final ZipOutputStream zipOutputStream;
+
+    /**
+     * Start time.
+     */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Number of uncompressed bytes written.
+     */
+    private long byteCount;
+
+    /**
+     * Number of entries written.
+     */
+    private int entryCount;
+
+    /**
+     * Create a ZIP stream.
+     *
+     * @param outputStream Output stream, closed with this ZIP stream
+     */
+    public ZipWriter(OutputStream outputStream) {
+        zipOutputStream = new ZipOutputStream(outputStream);
+    }
+
+    /**
+     * Add a compressed entry.
+     *
+     * @param name Entry name
+     * @param data Entry data
+     * @throws IOException e
+     */
+    public void putEntry(String name, byte[] data) throws IOException {
+        zipOutputStream.putNextEntry(new ZipEntry(name));
+        zipOutputStream.write(data);
+        zipOutputStream.closeEntry();
+        byteCount += data.length;
+        entryCount++;
+    }
+
+    /**
+     * Add stored files.
+     * The private keys of the files must be set, a file without private key cannot be decrypted and is skipped.
+     *
+     * @param fileList Files
+     * @param nameList Entry name of each file
+     * @throws IOException e
+     */
+    public void putFiles(List<File> fileList, List<String> nameList) throws IOException {
+        Deque<Future<DecryptedFile>> futureDeque = new ArrayDeque<>();
+        int submitted = 0;
+        try {
+            for (int i = 0; i < fileList.size(); i++) {
+                // Keep the next files decrypting
+                while (submitted < fileList.size() && submitted <= i + PREFETCH_COUNT) {
+                    File file = fileList.get(submitted++);
+                    futureDeque.add(decryptExecutor.submit(() -> decrypt(file)));
+                }
+
+                DecryptedFile decryptedFile = get(futureDeque.poll());
+                if (decryptedFile == null) {
+                    continue;
+                }
+                try {
+                    putFile(nameList.get(i), fileList.get(i), decryptedFile);
+                } finally {
+                    Files.deleteIfExists(decryptedFile.path);
+                }
+            }
+        } finally {
+            // Clean the files decrypted ahead of a failure
+            for (Future<DecryptedFile> future : futureDeque) {
+                if (!future.cancel(true)) {
+                    try {
+                        DecryptedFile decryptedFile = get(future);
+                        if (decryptedFile != null) {
+                            Files.deleteIfExists(decryptedFile.path);
+                        }
+                    } catch (IOException e) {
+                        // The file was not decrypted
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a decrypted file.
+     *
+     * @param name Entry name
+     * @param file File
+     * @param decryptedFile Decrypted file
+     * @throws IOException e
+     */
+    private void putFile(String name, File file, DecryptedFile decryptedFile) throws IOException {
+        ZipEntry zipEntry = new ZipEntry(name);
+        if (file.getMimeType() != null && STORED_MIME_TYPES.contains(file.getMimeType())) {
+            zipEntry.setMethod(ZipEntry.STORED);
+            zipEntry.setSize(decryptedFile.size);
+            zipEntry.setCompressedSize(decryptedFile.size);
+            zipEntry.setCrc(decryptedFile.crc);
+        }
+        zipOutputStream.putNextEntry(zipEntry);
+        Files.copy(decryptedFile.path, zipOutputStream);
+        zipOutputStream.closeEntry();
+        byteCount += decryptedFile.size;
+        entryCount++;
+    }
+
+    /**
+     * Decrypt a stored file to a temporary file, computing its size and CRC.
+     *
+     * @param file File
+     * @return Decrypted file, null if the private key of the file is missing
+     * @throws Exception e
+     */
+    private static DecryptedFile decrypt(File file) throws Exception {
+        if (file.getPrivateKey() == null) {
+            // The stored file is always encrypted, it would be written as is
+            log.error("Missing private key of the file {}, skipping it", file.getId());
+            return null;
+        }
+        Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
+        Path path = AppContext.getInstance().getFileService().createTemporaryFile();
+        InputStream inputStream = EncryptionUtil.decryptInputStream(Files.newInputStream(storedFile), file.getPrivateKey());
+        try (CheckedInputStream checkedInputStream = new CheckedInputStream(inputStream, new CRC32());
+             OutputStream outputStream = Files.newOutputStream(path)) {
+            long size = ByteStreams.copy(checkedInputStream, outputStream);
+            return new DecryptedFile(path, size, checkedInputStream.getChecksum().getValue());
+        } catch (Exception e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for a file decryption.
+     *
+     * @param future Decryption
+     * @return Decrypted file
+     * @throws IOException e
+     */
+    private static DecryptedFile get(Future<DecryptedFile> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error decrypting a file", e.getCause());
+        }
+    }
+
+    /**
+     * Finish the ZIP stream, and log its throughput.
+     *
+     * @throws IOException e
+     */
+    @Override
+    public void close() throws IOException {
+        zipOutputStream.close();
+        long duration = Math.max(1, System.currentTimeMillis() - startTime);
+        log.info("ZIP of {} entries, {} bytes written in {} ms ({} bytes/s)",
+                entryCount, byteCount, duration, byteCount * 1000 / duration);
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * File decrypted to a temporary file.
+     */
+    private static class DecryptedFile {
+        private final Path path;
+        private final long size;
+        private final long crc;
+
+        DecryptedFile(Path path, long size, long crc) {
+            this.path = path;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+}
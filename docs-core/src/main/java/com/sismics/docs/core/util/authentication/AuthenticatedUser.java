@@ -0,0 +1,72 @@
+package com.sismics.docs.core.util.authentication;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * Authenticated user, with the data needed to authorize its requests.
+ */
+public class AuthenticatedUser {
+    /**
+     * User ID.
+     */
+    private final String id;
+
+    /**
+     * Username.
+     */
+    private final String username;
+
+    /**
+     * Email.
+     */
+    private final String email;
+
+    /**
+     * IDs of the groups of the user, including the parent groups.
+     */
+    private final Set<String> groupIdSet;
+
+    /**
+     * Base functions of the user and of its groups.
+     */
+    private final Set<String> baseFunctionSet;
+
+    /**
+     * Constructor of AuthenticatedUser.
+     *
+     * @param id User ID
+     * @param username Username
+     * @param email Email
+     * @param groupIdSet IDs of the groups of the user, including the parent groups
+     * @param baseFunctionSet Base functions of the user and of its groups
+     */
+    public AuthenticatedUser(String id, String username, String email, Set<String> groupIdSet, Set<String> baseFunctionSet) {
+        this.id = id;
+        this.username = username;
+        this.email = email;
+        this.groupIdSet = ImmutableSet.copyOf(groupIdSet);
+        this.baseFunctionSet = ImmutableSet.copyOf(baseFunctionSet);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Set<String> getGroupIdSet() {
+        return groupIdSet;
+    }
+
+    public Set<String> getBaseFunctionSet() {
+        return baseFunctionSet;
+    }
+}
@@ -0,0 +1,131 @@
+package com.sismics.docs.core.util.authentication;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sismics.util.context.ThreadLocalContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authenticated users, by authentication token ID.
+ * Saves loading the token, the user, its groups and its base functions on each request.
+ * The entries are invalidated by the DAOs changing these data, once their transaction is committed,
+ * and expire after a few minutes for the changes made by other instances.
+ */
+public class AuthenticationCache {
+    /**
+     * Cached entries, by authentication token ID.
+     */
+    private static final Cache<String, Entry> cache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * Version of the cached data, incremented by each invalidation.
+     */
+    private static long version;
+
+    /**
+     * Returns the user authenticated by a token.
+     *
+     * @param authTokenId Authentication token ID
+     * @return Authenticated user, null if not cached or if the token is expired
+     */
+    public static AuthenticatedUser get(String authTokenId) {
+        Entry entry = cache.getIfPresent(authTokenId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expiryTime) {
+            cache.invalidate(authTokenId);
+            return null;
+        }
+        return entry.authenticatedUser;
+    }
+
+    /**
+     * Returns the version of the cached data, to read before loading an authenticated user.
+     *
+     * @return Version
+     */
+    public static synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Cache the user authenticated by a token.
+     * The user is not cached if an invalidation happened since it has been loaded,
+     * it may have been read before the commit of the change.
+     *
+     * @param authTokenId Authentication token ID
+     * @param authenticatedUser Authenticated user
+     * @param expiryTime Expiry time of the token (timestamp)
+     * @param loadVersion Version of the cached data read before loading the user
+     */
+    public static synchronized void put(String authTokenId, AuthenticatedUser authenticatedUser, long expiryTime, long loadVersion) {
+        if (loadVersion == version) {
+            cache.put(authTokenId, new Entry(authenticatedUser, expiryTime));
+        }
+    }
+
+    /**
+     * Remove a token from the cache, after the current transaction.
+     *
+     * @param authTokenId Authentication token ID
+     */
+    public static void invalidateToken(String authTokenId) {
+        afterCommit(() -> cache.invalidate(authTokenId));
+    }
+
+    /**
+     * Remove all the tokens of a user from the cache, after the current transaction.
+     *
+     * @param userId User ID
+     */
+    public static void invalidateUser(String userId) {
+        afterCommit(() -> cache.asMap().values().removeIf(entry -> entry.authenticatedUser.getId().equals(userId)));
+    }
+
+    /**
+     * Remove all the tokens from the cache, after the current transaction.
+     */
+    public static void invalidateAll() {
+        afterCommit(cache::invalidateAll);
+    }
+
+    /**
+     * Run an invalidation once the current transaction is committed.
+     * Invalidating before would let a concurrent request cache the data not committed yet.
+     *
+     * @param invalidation Invalidation
+     */
+    private static void afterCommit(Runnable invalidation) {
+        ThreadLocalContext.get().addAfterCommitAction(() -> {
+            synchronized (AuthenticationCache.class) {
+                version++;
+                invalidation.run();
+            }
+        });
+    }
+
+    /**
+     * Cached entry.
+     */
+    private static class Entry {
+        /**
+         * Authenticated user.
+         */
+        private final AuthenticatedUser authenticatedUser;
+
+        /**
+         * Expiry time of the token (timestamp).
+         */
+        private final long expiryTime;
+
+        private Entry(AuthenticatedUser authenticatedUser, long expiryTime) {
+            this.authenticatedUser = authenticatedUser;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -32,9 +32,9 @@ public class DocxFormatHandler implements FormatHandler {
     }
 
     @Override
-    public BufferedImage generateThumbnail(Path file) throws Exception {
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
         // Use the PDF format handler
-        return new PdfFormatHandler().generateThumbnail(getGeneratedPdf(file));
+        return new PdfFormatHandler().generateThumbnail(getGeneratedPdf(file), size);
     }
 
     @Override
@@ -23,12 +23,14 @@ public interface FormatHandler {
 
     /**
      * Generate a thumbnail.
+     * The handlers decoding or rendering at a chosen resolution produce just enough pixels for the requested size.
      *
      * @param file File
+     * @param size Size of the larger side of the final thumbnail, the returned image may be larger or smaller
      * @return Thumbnail
      * @throws Exception e
      */
-    BufferedImage generateThumbnail(Path file) throws Exception;
+    BufferedImage generateThumbnail(Path file, int size) throws Exception;
 
     /**
      * Extract text content.
@@ -5,6 +5,7 @@ import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.util.ImageUtil;
 import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -38,10 +39,8 @@ public class ImageFormatHandler implements FormatHandler {
     }
 
     @Override
-    public BufferedImage generateThumbnail(Path file) throws Exception {
-        try (InputStream inputStream = Files.newInputStream(file)) {
-            return ImageIO.read(inputStream);
-        }
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
+        return ImageUtil.readImage(file, size);
     }
 
     @Override
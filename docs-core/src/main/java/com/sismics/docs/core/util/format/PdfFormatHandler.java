@@ -1,6 +1,7 @@
 package com.sismics.docs.core.util.format;
 
 import com.google.common.io.Closer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.ConfigUtil;
 import com.sismics.docs.core.constant.ConfigType;
@@ -8,6 +9,7 @@ import com.sismics.util.mime.MimeType;
 import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.apache.pdfbox.text.PDFTextStripper;
@@ -18,6 +20,14 @@ import java.awt.image.BufferedImage;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 /**
  * PDF format handler.
@@ -30,17 +40,43 @@ public class PdfFormatHandler implements FormatHandler {
      */
     private static final Logger log = LoggerFactory.getLogger(PdfFormatHandler.class);
 
+    /**
+     * Estimated memory used by a page in the OCR pipeline (rendered, upscaled and deskewed images).
+     */
+    private static final long OCR_PAGE_MEMORY = 150L * 1024 * 1024;
+
+    /**
+     * Number of pages processed in parallel, for all the files.
+     */
+    private static final int OCR_THREAD_COUNT = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().maxMemory() / OCR_PAGE_MEMORY));
+
+    /**
+     * Executor processing the pages to OCR.
+     */
+    private static final ExecutorService ocrExecutor = Executors.newFixedThreadPool(OCR_THREAD_COUNT,
+            new ThreadFactoryBuilder().setNameFormat("pdf-ocr-%d").setDaemon(true).build());
+
+    /**
+     * Permits to render a page to OCR, for all the files.
+     * A permit is released when the page is processed or cancelled, so that only a few rendered pages are in memory.
+     */
+    private static final Semaphore renderedPageSemaphore = new Semaphore(OCR_THREAD_COUNT);
+
     @Override
     public boolean accept(String mimeType) {
         return mimeType.equals(MimeType.APPLICATION_PDF);
     }
 
     @Override
-    public BufferedImage generateThumbnail(Path file) throws Exception {
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
         try (InputStream inputStream = Files.newInputStream(file);
              PDDocument pdfDocument = PDDocument.load(inputStream)) {
+            // Render the first page at the resolution giving the requested size
+            PDRectangle cropBox = pdfDocument.getPage(0).getCropBox();
+            float scale = size / Math.max(cropBox.getWidth(), cropBox.getHeight());
             PDFRenderer renderer = new PDFRenderer(pdfDocument);
-            return renderer.renderImage(0);
+            return renderer.renderImage(0, scale);
         }
     }
 
@@ -56,16 +92,9 @@ public class PdfFormatHandler implements FormatHandler {
 
         // No text content, try to OCR it
         if (language != null && content != null && content.trim().isEmpty() && ConfigUtil.getConfigBooleanValue(ConfigType.OCR_ENABLED, true)) {
-            StringBuilder sb = new StringBuilder();
             try (InputStream inputStream = Files.newInputStream(file);
                  PDDocument pdfDocument = PDDocument.load(inputStream)) {
-                PDFRenderer renderer = new PDFRenderer(pdfDocument);
-                for (int pageIndex = 0; pageIndex < pdfDocument.getNumberOfPages(); pageIndex++) {
-                    log.info("OCR page " + (pageIndex + 1) + "/" + pdfDocument.getNumberOfPages() + " of PDF file containing only images");
-                    sb.append(" ");
-                    sb.append(FileUtil.ocrFile(language, renderer.renderImageWithDPI(pageIndex, 300, ImageType.GRAY)));
-                }
-                return sb.toString();
+                return ocr(language, pdfDocument);
             } catch (Exception e) {
                 log.error("Error while OCR-izing the PDF", e);
             }
@@ -74,6 +103,67 @@ public class PdfFormatHandler implements FormatHandler {
         return content;
     }
 
+    /**
+     * OCR the pages of a PDF in parallel.
+     * The pages are rendered one by one in this thread, and no more pages are rendered
+     * than the OCR threads can process, whatever the number of files processed at the same time.
+     *
+     * @param language Language to OCR
+     * @param pdfDocument PDF document
+     * @return Content of the pages, in order
+     * @throws Exception e
+     */
+    private String ocr(String language, PDDocument pdfDocument) throws Exception {
+        int pageCount = pdfDocument.getNumberOfPages();
+        PDFRenderer renderer = new PDFRenderer(pdfDocument);
+        List<Future<String>> pageContentList = new ArrayList<>();
+        long startTime = System.currentTimeMillis();
+        try {
+            for (int pageIndex = 0; pageIndex < pageCount; pageIndex++) {
+                renderedPageSemaphore.acquire();
+                BufferedImage image;
+                long renderStartTime = System.currentTimeMillis();
+                try {
+                    image = renderer.renderImageWithDPI(pageIndex, 300, ImageType.GRAY);
+                } catch (Exception e) {
+                    renderedPageSemaphore.release();
+                    throw e;
+                }
+                long renderTime = System.currentTimeMillis() - renderStartTime;
+
+                int pageNumber = pageIndex + 1;
+                FutureTask<String> pageTask = new FutureTask<String>(() -> {
+                    long ocrStartTime = System.currentTimeMillis();
+                    String pageContent = FileUtil.ocrFile(language, image);
+                    log.info(MessageFormat.format("OCR page {0}/{1} of PDF file containing only images: rendered in {2}ms, OCR in {3}ms",
+                            pageNumber, pageCount, renderTime, System.currentTimeMillis() - ocrStartTime));
+                    return pageContent;
+                }) {
+                    @Override
+                    protected void done() {
+                        // Also called for a page cancelled before being processed
+                        renderedPageSemaphore.release();
+                    }
+                };
+                pageContentList.add(pageTask);
+                ocrExecutor.execute(pageTask);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (Future<String> pageContent : pageContentList) {
+                sb.append(" ");
+                sb.append(pageContent.get());
+            }
+            log.info(MessageFormat.format("OCR of {0} pages done in {1}ms", pageCount, System.currentTimeMillis() - startTime));
+            return sb.toString();
+        } finally {
+            // Stop the remaining pages on error
+            for (Future<String> pageContent : pageContentList) {
+                pageContent.cancel(true);
+            }
+        }
+    }
+
     @Override
     public void appendToPdf(Path file, PDDocument doc, boolean fitImageToPage, int margin, MemoryUsageSetting memUsageSettings, Closer closer) throws Exception {
         PDDocument mergeDoc = PDDocument.load(file.toFile(), memUsageSettings);
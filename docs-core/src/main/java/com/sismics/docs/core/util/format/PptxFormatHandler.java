@@ -38,7 +38,7 @@ public class PptxFormatHandler implements FormatHandler {
     }
 
     @Override
-    public BufferedImage generateThumbnail(Path file) throws Exception {
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
         XMLSlideShow pptx = loadPPtxFile(file);
         if (pptx.getSlides().size() > 0) {
             return generateImageFromSlide(pptx, 0);
@@ -26,7 +26,7 @@ public class TextPlainFormatHandler implements FormatHandler {
     }
 
     @Override
-    public BufferedImage generateThumbnail(Path file) throws Exception {
+    public BufferedImage generateThumbnail(Path file, int size) throws Exception {
         Document output = new Document(PageSize.A4, 40, 40, 40, 40);
         Path tempFile = AppContext.getInstance().getFileService().createTemporaryFile();
         OutputStream pdfOutputStream = Files.newOutputStream(tempFile);
@@ -41,7 +41,7 @@ public class TextPlainFormatHandler implements FormatHandler {
         output.close();
 
         // Use the PDF format handler
-        return new PdfFormatHandler().generateThumbnail(tempFile);
+        return new PdfFormatHandler().generateThumbnail(tempFile, size);
     }
 
     @Override
@@ -0,0 +1,141 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.sismics.util.context.ThreadLocalContext;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Filtering data of documents stored in the index beside their metadata:
+ * ACL targets, tags, files MIME types and shares.
+ * The data of several documents is loaded from the database in a few queries.
+ */
+class DocumentFilterFields {
+    /**
+     * Targets having the read permission, by document ID.
+     */
+    private final ListMultimap<String, String> aclTargetIdMap = ArrayListMultimap.create();
+
+    /**
+     * Tags, by document ID.
+     */
+    private final ListMultimap<String, String> tagIdMap = ArrayListMultimap.create();
+
+    /**
+     * Files MIME types, by document ID.
+     */
+    private final ListMultimap<String, String> mimeTypeMap = ArrayListMultimap.create();
+
+    /**
+     * IDs of the shared documents.
+     */
+    private final Set<String> sharedDocumentIdSet = new HashSet<>();
+
+    /**
+     * Load the filtering data of some documents.
+     *
+     * @param documentIdList Document IDs
+     * @return Filtering data
+     */
+    @SuppressWarnings("unchecked")
+    static DocumentFilterFields load(Collection<String> documentIdList) {
+        DocumentFilterFields fields = new DocumentFilterFields();
+        if (documentIdList.isEmpty()) {
+            return fields;
+        }
+
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select a.ACL_SOURCEID_C, a.ACL_TARGETID_C from T_ACL a " +
+                " where a.ACL_SOURCEID_C in (:documentIdList) and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null");
+        q.setParameter("documentIdList", documentIdList);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            fields.aclTargetIdMap.put((String) o[0], (String) o[1]);
+        }
+
+        q = em.createNativeQuery("select dt.DOT_IDDOCUMENT_C, dt.DOT_IDTAG_C from T_DOCUMENT_TAG dt " +
+                " where dt.DOT_IDDOCUMENT_C in (:documentIdList) and dt.DOT_DELETEDATE_D is null");
+        q.setParameter("documentIdList", documentIdList);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            fields.tagIdMap.put((String) o[0], (String) o[1]);
+        }
+
+        q = em.createNativeQuery("select distinct f.FIL_IDDOC_C, f.FIL_MIMETYPE_C from T_FILE f " +
+                " where f.FIL_IDDOC_C in (:documentIdList) and f.FIL_MIMETYPE_C is not null and f.FIL_DELETEDATE_D is null");
+        q.setParameter("documentIdList", documentIdList);
+        for (Object[] o : (List<Object[]>) q.getResultList()) {
+            fields.mimeTypeMap.put((String) o[0], (String) o[1]);
+        }
+
+        q = em.createNativeQuery("select distinct a.ACL_SOURCEID_C from T_SHARE s, T_ACL a " +
+                " where a.ACL_TARGETID_C = s.SHA_ID_C and a.ACL_SOURCEID_C in (:documentIdList) " +
+                " and a.ACL_DELETEDATE_D is null and s.SHA_DELETEDATE_D is null");
+        q.setParameter("documentIdList", documentIdList);
+        fields.sharedDocumentIdSet.addAll((List<String>) q.getResultList());
+
+        return fields;
+    }
+
+    /**
+     * Returns the IDs of the tags readable by some targets.
+     * Documents tagged with these tags are readable by the targets.
+     *
+     * @param targetIdList Targets
+     * @return Tag IDs
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> getReadableTagIdList(List<String> targetIdList) {
+        EntityManager em = ThreadLocalContext.get().getEntityManager();
+        Query q = em.createNativeQuery("select distinct a.ACL_SOURCEID_C from T_ACL a " +
+                " join T_TAG t on t.TAG_ID_C = a.ACL_SOURCEID_C and t.TAG_DELETEDATE_D is null " +
+                " where a.ACL_TARGETID_C in (:targetIdList) and a.ACL_PERM_C = 'READ' and a.ACL_DELETEDATE_D is null");
+        q.setParameter("targetIdList", targetIdList);
+        return new ArrayList<>((List<String>) q.getResultList());
+    }
+
+    /**
+     * Returns the targets having the read permission on a document.
+     *
+     * @param documentId Document ID
+     * @return Target IDs
+     */
+    List<String> getAclTargetIdList(String documentId) {
+        return aclTargetIdMap.get(documentId);
+    }
+
+    /**
+     * Returns the tags of a document.
+     *
+     * @param documentId Document ID
+     * @return Tag IDs
+     */
+    List<String> getTagIdList(String documentId) {
+        return tagIdMap.get(documentId);
+    }
+
+    /**
+     * Returns the MIME types of the files of a document.
+     *
+     * @param documentId Document ID
+     * @return MIME types
+     */
+    List<String> getMimeTypeList(String documentId) {
+        return mimeTypeMap.get(documentId);
+    }
+
+    /**
+     * Returns true if a document is shared.
+     *
+     * @param documentId Document ID
+     * @return True if shared
+     */
+    boolean isShared(String documentId) {
+        return sharedDocumentIdSet.contains(documentId);
+    }
+}
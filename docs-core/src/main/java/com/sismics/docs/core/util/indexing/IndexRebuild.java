@@ -0,0 +1,74 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+
+import java.util.List;
+
+/**
+ * Rebuild of the index.
+ * The index is rebuilt beside the current one, which stays searchable until the rebuilt index replaces it.
+ * The progress is saved at each checkpoint, an interrupted rebuild resumes from the last checkpoint.
+ */
+public interface IndexRebuild {
+    /**
+     * Rebuild phases, documents are indexed before files.
+     */
+    enum Phase {
+        DOCUMENTS,
+        FILES
+    }
+
+    /**
+     * Returns the phase of the last checkpoint.
+     *
+     * @return Phase
+     */
+    Phase getPhase();
+
+    /**
+     * Returns the ID of the last document or file indexed at the last checkpoint.
+     *
+     * @return ID, null if nothing is indexed yet in this phase
+     */
+    String getCursor();
+
+    /**
+     * Index documents, in a transactional context.
+     *
+     * @param documentList Documents
+     * @throws Exception e
+     */
+    void addDocuments(List<Document> documentList) throws Exception;
+
+    /**
+     * Index files.
+     *
+     * @param fileList Files
+     * @throws Exception e
+     */
+    void addFiles(List<File> fileList) throws Exception;
+
+    /**
+     * Save the progress of the rebuild.
+     * Everything indexed so far is made durable.
+     *
+     * @param phase Current phase
+     * @param cursor ID of the last document or file indexed in this phase
+     * @throws Exception e
+     */
+    void checkpoint(Phase phase, String cursor) throws Exception;
+
+    /**
+     * Replace the current index by the rebuilt one, in a transactional context.
+     *
+     * @throws Exception e
+     */
+    void finish() throws Exception;
+
+    /**
+     * Stop the rebuild without replacing the current index.
+     * The rebuild can be resumed from the last checkpoint.
+     */
+    void abort();
+}
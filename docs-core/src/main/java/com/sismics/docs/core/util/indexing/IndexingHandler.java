@@ -35,11 +35,38 @@ public interface IndexingHandler {
      */
     void shutDown();
 
+    /**
+     * Durably commit all pending index operations.
+     */
+    void commit();
+
+    /**
+     * Returns the number of index operations not yet committed.
+     *
+     * @return Number of pending operations
+     */
+    long getPendingOperationCount();
+
+    /**
+     * Returns the date of the last durable commit.
+     *
+     * @return Last commit date (timestamp)
+     */
+    long getLastCommitDate();
+
     /**
      * Clear the index.
      */
     void clearIndex();
 
+    /**
+     * Start rebuilding the index beside the current one, or resume an interrupted rebuild.
+     *
+     * @return Index rebuild, null if a rebuild is already running
+     * @throws Exception e
+     */
+    IndexRebuild startRebuild() throws Exception;
+
     /**
      * Index a list of documents.
      *
@@ -117,4 +144,14 @@ public interface IndexingHandler {
      * @throws Exception e
      */
     void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception;
+
+    /**
+     * Suggest search terms completing the last word of a query, from the documents readable by the user.
+     *
+     * @param search Search query
+     * @param targetIdList List of targets of the user
+     * @param suggestionList Suggestion of search query (updated by side effects)
+     * @throws Exception e
+     */
+    void suggest(String search, List<String> targetIdList, List<String> suggestionList) throws Exception;
 }
@@ -0,0 +1,401 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NoLockFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Lucene index rebuild, written in a shadow directory.
+ * Documents are analyzed by several indexing threads.
+ * The checkpoint is stored in the commit data of the shadow index.
+ * The IDs changed in the current index during the rebuild are indexed again before replacing the current index.
+ * They are appended to a file of the shadow directory, which is not rolled back with the shadow index,
+ * so a resumed rebuild also indexes again the IDs changed after its last checkpoint.
+ */
+class LuceneIndexRebuild implements IndexRebuild {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(LuceneIndexRebuild.class);
+
+    /**
+     * Name of the file of the changed IDs, in the shadow directory.
+     */
+    private static final String TOUCHED_FILE_NAME = "touched_ids";
+
+    /**
+     * Indexing handler owning the current index.
+     */
+    private final LuceneIndexingHandler indexingHandler;
+
+    /**
+     * Shadow directory.
+     */
+    private final Directory directory;
+
+    /**
+     * Path of the shadow directory, null if stored in RAM.
+     */
+    private final Path path;
+
+    /**
+     * Index writer of the shadow directory.
+     */
+    private final IndexWriter indexWriter;
+
+    /**
+     * Indexing threads, the caller indexes itself when they are all busy.
+     * Tasks submitted once the rebuild is closed are rejected, instead of leaving their future incomplete.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Indexing tasks not yet checkpointed.
+     */
+    private final List<Future<?>> pendingList = new ArrayList<>();
+
+    /**
+     * IDs changed in the current index since the rebuild started.
+     */
+    private final Set<String> touchedIdSet = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Phase of the last checkpoint.
+     */
+    private Phase phase = Phase.DOCUMENTS;
+
+    /**
+     * Cursor of the last checkpoint.
+     */
+    private String cursor;
+
+    /**
+     * True if the rebuild is finished or aborted.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Start a rebuild, or resume it from the checkpoint stored in the shadow directory.
+     *
+     * @param indexingHandler Indexing handler owning the current index
+     * @param directory Shadow directory
+     * @param path Path of the shadow directory, null if stored in RAM
+     * @throws IOException e
+     */
+    LuceneIndexRebuild(LuceneIndexingHandler indexingHandler, Directory directory, Path path) throws IOException {
+        this.indexingHandler = indexingHandler;
+        this.directory = directory;
+        this.path = path;
+
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setCommitOnClose(false);
+        config.setRAMBufferSizeMB(64);
+        Map<String, String> checkpoint = readCheckpoint(directory);
+        if (checkpoint == null) {
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            if (path != null) {
+                Files.deleteIfExists(path.resolve(TOUCHED_FILE_NAME));
+            }
+        } else {
+            config.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
+            phase = Phase.valueOf(checkpoint.get("rebuild_phase"));
+            cursor = checkpoint.get("rebuild_cursor");
+            Path touchedFile = path.resolve(TOUCHED_FILE_NAME);
+            if (Files.exists(touchedFile)) {
+                for (String id : Files.readAllLines(touchedFile, StandardCharsets.UTF_8)) {
+                    if (!id.isEmpty()) {
+                        touchedIdSet.add(id);
+                    }
+                }
+            }
+            log.info("Resuming the index rebuild from {} {}, with {} changed IDs", phase, cursor, touchedIdSet.size());
+        }
+        indexWriter = new IndexWriter(directory, config);
+
+        int threadCount = Math.max(Runtime.getRuntime().availableProcessors() / 2, 2);
+        AtomicInteger threadIndex = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threadCount, threadCount,
+                1L, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<>(threadCount * 2),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "lucene-rebuild-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("The index rebuild is closed");
+                    }
+                    runnable.run();
+                });
+    }
+
+    /**
+     * Returns true if a directory contains the checkpoint of an interrupted rebuild.
+     *
+     * @param path Directory
+     * @return True if a rebuild can be resumed
+     */
+    static boolean hasCheckpoint(Path path) {
+        try (Directory directory = new NIOFSDirectory(path, NoLockFactory.INSTANCE)) {
+            return readCheckpoint(directory) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read the checkpoint of the last commit of a shadow directory.
+     *
+     * @param directory Shadow directory
+     * @return Commit data, null if there is no checkpoint of the current index version
+     */
+    private static Map<String, String> readCheckpoint(Directory directory) {
+        try {
+            if (!DirectoryReader.indexExists(directory)) {
+                return null;
+            }
+            Map<String, String> userData = SegmentInfos.readLatestCommit(directory).getUserData();
+            if (!LuceneIndexingHandler.INDEX_VERSION.equals(userData.get("version")) || !userData.containsKey("rebuild_phase")) {
+                return null;
+            }
+            return userData;
+        } catch (IOException e) {
+            log.info("Unreadable index rebuild checkpoint, starting over: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Phase getPhase() {
+        return phase;
+    }
+
+    @Override
+    public String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public void addDocuments(List<Document> documentList) {
+        DocumentFilterFields filterFields = DocumentFilterFields.load(
+                documentList.stream().map(Document::getId).collect(Collectors.toList()));
+        List<org.apache.lucene.document.Document> luceneDocumentList = new ArrayList<>();
+        for (Document document : documentList) {
+            luceneDocumentList.add(indexingHandler.getDocumentFromDocument(document, filterFields));
+        }
+        submit(luceneDocumentList);
+    }
+
+    @Override
+    public void addFiles(List<File> fileList) {
+        List<org.apache.lucene.document.Document> luceneDocumentList = new ArrayList<>();
+        for (File file : fileList) {
+            luceneDocumentList.add(indexingHandler.getDocumentFromFile(file));
+        }
+        submit(luceneDocumentList);
+    }
+
+    /**
+     * Add documents to the shadow index from an indexing thread.
+     *
+     * @param luceneDocumentList Lucene documents
+     */
+    private void submit(List<org.apache.lucene.document.Document> luceneDocumentList) {
+        if (luceneDocumentList.isEmpty()) {
+            return;
+        }
+        if (closed) {
+            throw new RejectedExecutionException("The index rebuild is closed");
+        }
+        pendingList.add(executor.submit(() -> {
+            indexWriter.addDocuments(luceneDocumentList);
+            return null;
+        }));
+    }
+
+    /**
+     * Wait for all the indexing tasks.
+     *
+     * @throws Exception e
+     */
+    private void waitPending() throws Exception {
+        try {
+            for (Future<?> future : pendingList) {
+                future.get();
+            }
+        } finally {
+            pendingList.clear();
+        }
+    }
+
+    @Override
+    public void checkpoint(Phase phase, String cursor) throws Exception {
+        waitPending();
+        Map<String, String> commitData = new HashMap<>();
+        commitData.put("version", LuceneIndexingHandler.INDEX_VERSION);
+        commitData.put("rebuild_phase", phase.name());
+        if (cursor != null) {
+            commitData.put("rebuild_cursor", cursor);
+        }
+        indexWriter.setLiveCommitData(commitData.entrySet());
+        indexWriter.commit();
+        this.phase = phase;
+        this.cursor = cursor;
+    }
+
+    @Override
+    public void finish() throws Exception {
+        waitPending();
+        indexingHandler.replaceIndex(this);
+    }
+
+    @Override
+    public synchronized void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            // NOP
+        }
+        try {
+            // Keep the last checkpoint, the IDs changed since are kept in their own file
+            indexWriter.rollback();
+            directory.close();
+        } catch (IOException e) {
+            log.error("Error closing the index rebuild", e);
+        }
+        indexingHandler.endRebuild(this);
+    }
+
+    /**
+     * Record a change of the current index.
+     *
+     * @param id Changed document or file ID
+     */
+    void touch(String id) {
+        if (touchedIdSet.add(id) && path != null) {
+            appendTouched(path, id);
+        }
+    }
+
+    /**
+     * Record a change of the current index for an interrupted rebuild, which will index it again when resumed.
+     *
+     * @param path Path of the shadow directory
+     * @param id Changed document or file ID
+     */
+    static synchronized void appendTouched(Path path, String id) {
+        try {
+            Files.write(path.resolve(TOUCHED_FILE_NAME), (id + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.error("Error recording the changed ID " + id + " for the index rebuild", e);
+        }
+    }
+
+    /**
+     * Index again the documents and files changed in the current index during the rebuild.
+     *
+     * @throws IOException e
+     */
+    void reindexTouched() throws IOException {
+        for (String id : touchedIdSet) {
+            indexingHandler.reindex(indexWriter, id);
+        }
+    }
+
+    /**
+     * Getter of touchedIdSet.
+     *
+     * @return touchedIdSet
+     */
+    Set<String> getTouchedIdSet() {
+        return touchedIdSet;
+    }
+
+    /**
+     * Getter of indexWriter.
+     *
+     * @return indexWriter
+     */
+    IndexWriter getIndexWriter() {
+        return indexWriter;
+    }
+
+    /**
+     * Getter of directory.
+     *
+     * @return directory
+     */
+    Directory getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Commit the rebuilt index without checkpoint, and close the writer.
+     *
+     * @throws IOException e
+     */
+    synchronized void close() throws IOException {
+        closed = true;
+        executor.shutdown();
+        indexWriter.setLiveCommitData(Collections.singletonMap("version", LuceneIndexingHandler.INDEX_VERSION).entrySet());
+        indexWriter.commit();
+        indexWriter.close();
+    }
+
+    /**
+     * Delete the shadow directory, once copied into the current index.
+     */
+    void delete() {
+        try {
+            directory.close();
+            if (path != null) {
+                try (Stream<Path> pathStream = Files.walk(path)) {
+                    pathStream.sorted(Comparator.reverseOrder())
+                            .filter(file -> !file.equals(path))
+                            .map(Path::toFile)
+                            .forEach(java.io.File::delete);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error deleting the index rebuild directory", e);
+        }
+    }
+}
@@ -3,10 +3,13 @@ package com.sismics.docs.core.util.indexing;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.sismics.docs.core.constant.ConfigType;
+import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.ConfigDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
 import com.sismics.docs.core.dao.dto.DocumentDto;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
@@ -16,39 +19,65 @@ import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.SecurityUtil;
+import com.sismics.docs.core.util.TransactionUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.QueryParam;
+import com.sismics.docs.core.util.jpa.QueryUtil;
 import com.sismics.docs.core.util.jpa.SortCriteria;
 import com.sismics.util.ClasspathScanner;
+import com.sismics.util.EnvironmentUtil;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.CheckIndex;
 import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.simple.SimpleQueryParser;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.highlight.Highlighter;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
-import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
-import org.apache.lucene.search.spell.LuceneDictionary;
-import org.apache.lucene.search.suggest.Lookup;
-import org.apache.lucene.search.suggest.analyzing.FuzzySuggester;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.LengthGoalBreakIterator;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.store.NoLockFactory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,17 +85,33 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Timestamp;
+import java.text.BreakIterator;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
 
 /**
  * Lucene indexing handler.
- * Documents and files are indexed in Lucene, but only used for fulltext search.
- * Other search criteria are still using the database.
+ * Documents are indexed with their ACLs, tags, dates, language, files MIME types and creator,
+ * so fulltext searches are filtered, sorted and paginated by Lucene.
+ * The database only fetches the page of results, and handles the searches on criteria not indexed.
  *
  * @author bgamard
  */
@@ -78,20 +123,131 @@ public class LuceneIndexingHandler implements IndexingHandler {
     private static final Logger log = LoggerFactory.getLogger(LuceneIndexingHandler.class);
 
     /**
-     * Lucene directory.
+     * Field type of the file content, offsets are indexed for highlighting.
      */
-    private Directory directory;
+    private static final FieldType CONTENT_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+    static {
+        CONTENT_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        CONTENT_FIELD_TYPE.freeze();
+    }
+
+    /**
+     * Stored fields identifying the owning document.
+     */
+    private static final Set<String> STORED_ID_FIELDS = Sets.newHashSet("id", "doctype", "document_id");
+
+    /**
+     * Version of the indexed fields, stored in the commit data.
+     * An index with another version is rebuilt on startup.
+     */
+    static final String INDEX_VERSION = "2";
 
     /**
-     * Directory reader.
+     * Maximum number of documents matched by their files which are searched with a terms query.
+     * Over it, the documents are filtered on their ID while they are collected.
      */
-    private DirectoryReader directoryReader;
+    private static final int MAX_FILE_DOCUMENT_TERM_COUNT = 1024;
+
+    /**
+     * Number of documents read in each page when building the suggester.
+     */
+    private static final int SUGGESTER_PAGE_SIZE = 1000;
+
+    /**
+     * Indexed sort fields, by column of the sort criteria.
+     */
+    private static final Map<Integer, SortField> SORT_FIELD_MAP = new HashMap<>();
+    static {
+        SORT_FIELD_MAP.put(0, new SortField("document_id", SortField.Type.STRING));
+        SORT_FIELD_MAP.put(1, new SortField("title_raw", SortField.Type.STRING));
+        SORT_FIELD_MAP.put(3, new SortField("create_date", SortField.Type.LONG));
+        SORT_FIELD_MAP.put(4, new SortField("language", SortField.Type.STRING));
+        SORT_FIELD_MAP.put(8, new SortField("update_date", SortField.Type.LONG));
+    }
+
+    /**
+     * Lucene directory.
+     */
+    private Directory directory;
 
     /**
      * Index writer.
      */
     private IndexWriter indexWriter;
 
+    /**
+     * Search terms suggester.
+     */
+    private TitleSuggester titleSuggester;
+
+    /**
+     * Near-real-time searcher manager, opened on the index writer.
+     */
+    private SearcherManager searcherManager;
+
+    /**
+     * Factory warming the searchers opened by the searcher manager.
+     */
+    private WarmingSearcherFactory searcherFactory;
+
+    /**
+     * Background thread reopening the searcher manager.
+     * Null if the searcher manager is refreshed before each search.
+     */
+    private volatile ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+
+    /**
+     * Interval between two refreshes of the searcher manager (in milliseconds), 0 to refresh before each search.
+     */
+    private long refreshInterval;
+
+    /**
+     * Index writes are done with the read lock, the index is replaced with the write lock.
+     */
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    /**
+     * Path of the index rebuild directory, null if stored in RAM.
+     */
+    private Path rebuildPath;
+
+    /**
+     * Index rebuild in progress, null if none.
+     */
+    private volatile LuceneIndexRebuild currentRebuild;
+
+    /**
+     * True if an interrupted rebuild can be resumed from the rebuild directory.
+     * The changes done while it is not running are recorded for it.
+     */
+    private volatile boolean rebuildResumable;
+
+    /**
+     * Changes are recorded and index rebuilds are started or ended with this lock,
+     * so that a change is recorded either before a rebuild reads the recorded changes or in this rebuild.
+     */
+    private final Object touchLock = new Object();
+
+    /**
+     * Scheduler for periodic commits.
+     */
+    private ScheduledExecutorService commitExecutor;
+
+    /**
+     * Maximum number of uncommitted operations before a commit is forced.
+     */
+    private long commitOperationCount;
+
+    /**
+     * Number of index operations since the last commit.
+     */
+    private final AtomicLong pendingOperationCount = new AtomicLong();
+
+    /**
+     * Date of the last commit (timestamp).
+     */
+    private volatile long lastCommitDate;
+
     @Override
     public boolean accept() {
         // Embedded Lucene can always start
@@ -114,7 +270,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
             // Re-initialize and schedule a full reindex
             initLucene();
             RebuildIndexAsyncEvent rebuildIndexAsyncEvent = new RebuildIndexAsyncEvent();
-            AppContext.getInstance().getAsyncEventBus().post(rebuildIndexAsyncEvent);
+            AppContext.getInstance().postAsyncEvent(rebuildIndexAsyncEvent, false);
         }
     }
 
@@ -124,13 +280,25 @@ public class LuceneIndexingHandler implements IndexingHandler {
         String luceneStorage = luceneStorageConfig == null ? null : luceneStorageConfig.getValue();
 
         // RAM directory storage by default
+        Directory suggestDirectory = null;
         if (luceneStorage == null || luceneStorage.equals("RAM")) {
             directory = new RAMDirectory();
+            suggestDirectory = new RAMDirectory();
+            rebuildPath = null;
             log.info("Using RAM Lucene storage");
         } else if (luceneStorage.equals("FILE")) {
             Path luceneDirectory = DirectoryUtil.getLuceneDirectory();
             log.info("Using file Lucene storage: {}", luceneDirectory);
             directory = new NIOFSDirectory(luceneDirectory, NoLockFactory.INSTANCE);
+            suggestDirectory = new NIOFSDirectory(DirectoryUtil.getLuceneSuggestDirectory(), NoLockFactory.INSTANCE);
+            rebuildPath = DirectoryUtil.getLuceneRebuildDirectory();
+        }
+
+        // Rebuild the index if its fields are outdated
+        if (DirectoryReader.indexExists(directory)
+                && !INDEX_VERSION.equals(SegmentInfos.readLatestCommit(directory).getUserData().get("version"))) {
+            directory.close();
+            throw new Exception("Index version is outdated");
         }
 
         // Create an index writer
@@ -138,6 +306,8 @@ public class LuceneIndexingHandler implements IndexingHandler {
         config.setCommitOnClose(true);
         config.setMergeScheduler(new ConcurrentMergeScheduler());
         indexWriter = new IndexWriter(directory, config);
+        indexWriter.setLiveCommitData(Collections.singletonMap("version", INDEX_VERSION).entrySet());
+        lastCommitDate = System.currentTimeMillis();
 
         // Check index version and rebuild it if necessary
         if (DirectoryReader.indexExists(directory)) {
@@ -149,18 +319,142 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 }
             }
         }
+
+        // Open a near-real-time searcher manager on the index writer,
+        // new searchers are warmed by the reopen thread before being used by requests
+        searcherFactory = new WarmingSearcherFactory();
+        searcherManager = new SearcherManager(indexWriter, searcherFactory);
+        refreshInterval = getEnvLongValue(Constants.LUCENE_REFRESH_INTERVAL_ENV, EnvironmentUtil.isUnitTest() ? 0 : 1000);
+        startReopenThread();
+
+        // Commit periodically, or when too many operations are pending
+        commitOperationCount = getEnvLongValue(Constants.LUCENE_COMMIT_OPERATIONS_ENV, 1000);
+        long commitInterval = getEnvLongValue(Constants.LUCENE_COMMIT_INTERVAL_ENV, 60);
+        commitExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lucene-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        commitExecutor.scheduleWithFixedDelay(this::commit, commitInterval, commitInterval, TimeUnit.SECONDS);
+
+        // Open the persisted suggester, build it in the background the first time
+        titleSuggester = new TitleSuggester(suggestDirectory);
+        if (titleSuggester.isEmpty()) {
+            commitExecutor.execute(this::buildSuggester);
+        }
+
+        // Resume an interrupted index rebuild
+        if (rebuildPath != null && LuceneIndexRebuild.hasCheckpoint(rebuildPath)) {
+            log.info("Resuming the interrupted index rebuild");
+            rebuildResumable = true;
+            AppContext.getInstance().postAsyncEvent(new RebuildIndexAsyncEvent(), false);
+        }
+    }
+
+    /**
+     * Start the thread refreshing the searcher manager in the background, if enabled.
+     */
+    private void startReopenThread() {
+        if (refreshInterval > 0) {
+            ControlledRealTimeReopenThread<IndexSearcher> thread = new ControlledRealTimeReopenThread<>(indexWriter, searcherManager, refreshInterval / 1000.0, 0);
+            thread.setName("lucene-reopen");
+            thread.setDaemon(true);
+            thread.start();
+            reopenThread = thread;
+        }
+    }
+
+    /**
+     * Build the suggester from the documents in the database, page by page.
+     */
+    private void buildSuggester() {
+        try {
+            titleSuggester.clear();
+        } catch (IOException e) {
+            log.error("Error building the suggester", e);
+            return;
+        }
+
+        AtomicReference<String> cursor = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean();
+        while (!done.get()) {
+            done.set(true);
+            TransactionUtil.handle(() -> {
+                List<Document> documentList = new DocumentDao().findAllAfter(cursor.get(), SUGGESTER_PAGE_SIZE);
+                DocumentFilterFields filterFields = DocumentFilterFields.load(
+                        documentList.stream().map(Document::getId).collect(Collectors.toList()));
+                try {
+                    for (Document document : documentList) {
+                        titleSuggester.update(document, filterFields);
+                    }
+                } catch (IOException e) {
+                    log.error("Error building the suggester", e);
+                    return;
+                }
+                if (documentList.size() == SUGGESTER_PAGE_SIZE) {
+                    cursor.set(documentList.get(documentList.size() - 1).getId());
+                    done.set(false);
+                }
+            });
+        }
+        try {
+            titleSuggester.commit();
+        } catch (IOException e) {
+            log.error("Error committing the suggester", e);
+        }
+    }
+
+    /**
+     * Returns a numeric setting from the environment.
+     *
+     * @param name Environment variable name
+     * @param defaultValue Default value if the variable is undefined
+     * @return Numeric value
+     */
+    private static long getEnvLongValue(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (Strings.isNullOrEmpty(value)) {
+            return defaultValue;
+        }
+        return Long.parseLong(value);
     }
 
     @Override
     public void shutDown() {
-        if (directoryReader != null) {
+        LuceneIndexRebuild rebuild = currentRebuild;
+        if (rebuild != null) {
+            // The rebuild will resume from its last checkpoint
+            rebuild.abort();
+        }
+        if (commitExecutor != null) {
+            // Don't interrupt a running commit, the index writer would be closed
+            commitExecutor.shutdown();
             try {
-                directoryReader.close();
+                commitExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                // NOP
+            }
+        }
+        if (reopenThread != null) {
+            reopenThread.close();
+        }
+        if (searcherManager != null) {
+            try {
+                searcherManager.close();
             } catch (IOException e) {
-                log.error("Error closing the index reader", e);
+                log.error("Error closing the searcher manager", e);
+            }
+        }
+        if (titleSuggester != null) {
+            try {
+                titleSuggester.commit();
+                titleSuggester.close();
+            } catch (IOException e) {
+                log.error("Error closing the suggester", e);
             }
         }
         if (indexWriter != null) {
+            commit();
             try {
                 indexWriter.close();
             } catch (IOException e) {
@@ -176,17 +470,141 @@ public class LuceneIndexingHandler implements IndexingHandler {
         }
     }
 
+    @Override
+    public synchronized void commit() {
+        if (indexWriter == null || !indexWriter.isOpen()) {
+            return;
+        }
+        try {
+            long operationCount = pendingOperationCount.getAndSet(0);
+            indexWriter.commit();
+            titleSuggester.commit();
+            lastCommitDate = System.currentTimeMillis();
+            if (operationCount > 0) {
+                log.debug("Committed {} index operations", operationCount);
+            }
+        } catch (IOException e) {
+            log.error("Cannot commit index writer", e);
+        }
+    }
+
+    @Override
+    public long getPendingOperationCount() {
+        return pendingOperationCount.get();
+    }
+
+    @Override
+    public long getLastCommitDate() {
+        return lastCommitDate;
+    }
+
+    @Override
+    public synchronized IndexRebuild startRebuild() throws Exception {
+        if (currentRebuild != null) {
+            return null;
+        }
+        Directory rebuildDirectory = rebuildPath == null ? new RAMDirectory() : new NIOFSDirectory(rebuildPath, NoLockFactory.INSTANCE);
+        synchronized (touchLock) {
+            currentRebuild = new LuceneIndexRebuild(this, rebuildDirectory, rebuildPath);
+            rebuildResumable = false;
+        }
+        return currentRebuild;
+    }
+
+    /**
+     * Replace the current index by a rebuilt index.
+     * The changes done on the current index during the rebuild are applied to the rebuilt index first.
+     * Index writes wait while the documents are replaced, searches are served by the current searchers
+     * until the rebuilt index is committed and published in one refresh.
+     *
+     * @param rebuild Index rebuild
+     * @throws IOException e
+     */
+    void replaceIndex(LuceneIndexRebuild rebuild) throws IOException {
+        indexLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                rebuild.reindexTouched();
+                rebuild.close();
+
+                ControlledRealTimeReopenThread<IndexSearcher> thread = reopenThread;
+                if (thread != null) {
+                    reopenThread = null;
+                    thread.close();
+                }
+                indexWriter.deleteAll();
+                indexWriter.addIndexes(rebuild.getDirectory());
+                commit();
+                searcherManager.maybeRefreshBlocking();
+                startReopenThread();
+                synchronized (touchLock) {
+                    currentRebuild = null;
+                    rebuildResumable = false;
+                }
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+
+        rebuild.delete();
+        commitExecutor.execute(this::buildSuggester);
+        log.info("Index replaced by the rebuilt index");
+    }
+
+    /**
+     * Forget an aborted index rebuild.
+     *
+     * @param rebuild Index rebuild
+     */
+    synchronized void endRebuild(LuceneIndexRebuild rebuild) {
+        synchronized (touchLock) {
+            if (currentRebuild == rebuild) {
+                currentRebuild = null;
+                rebuildResumable = rebuildPath != null && LuceneIndexRebuild.hasCheckpoint(rebuildPath);
+            }
+        }
+    }
+
+    /**
+     * Record a change of the current index, to apply it again on the rebuilt index.
+     * The change is also recorded while an interrupted rebuild waits to be resumed.
+     *
+     * @param id Changed document or file ID
+     */
+    private void touch(String id) {
+        if (id == null || currentRebuild == null && !rebuildResumable) {
+            return;
+        }
+        synchronized (touchLock) {
+            LuceneIndexRebuild rebuild = currentRebuild;
+            if (rebuild != null) {
+                rebuild.touch(id);
+            } else if (rebuildResumable) {
+                LuceneIndexRebuild.appendTouched(rebuildPath, id);
+            }
+        }
+    }
+
     @Override
     public void clearIndex() {
-        handle(IndexWriter::deleteAll);
+        handle(indexWriter -> {
+            indexWriter.deleteAll();
+            titleSuggester.clear();
+        });
     }
 
     @Override
     public void createDocuments(List<Document> documentList) {
         handle(indexWriter -> {
+            DocumentFilterFields filterFields = DocumentFilterFields.load(
+                    documentList.stream().map(Document::getId).collect(Collectors.toList()));
             for (Document document : documentList) {
-                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-                indexWriter.addDocument(luceneDocument);
+                touch(document.getId());
+
+                // The document may already be indexed by a file or ACL event
+                org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document, filterFields);
+                indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
+                titleSuggester.update(document, filterFields);
             }
         });
     }
@@ -195,6 +613,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
     public void createFiles(List<File> fileList) {
         handle(indexWriter -> {
             for (File file : fileList) {
+                touch(file.getId());
                 org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
                 indexWriter.addDocument(luceneDocument);
             }
@@ -203,69 +622,305 @@ public class LuceneIndexingHandler implements IndexingHandler {
 
     @Override
     public void createDocument(final Document document) {
-        handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
-            indexWriter.addDocument(luceneDocument);
-        });
+        // The document may already be indexed by a file or ACL event
+        updateDocument(document);
     }
 
     @Override
     public void createFile(final File file) {
         handle(indexWriter -> {
+            touch(file.getId());
+            touch(file.getDocumentId());
             org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
             indexWriter.addDocument(luceneDocument);
+
+            // Index the MIME type on the document
+            if (file.getDocumentId() != null) {
+                reindexDocument(indexWriter, file.getDocumentId());
+            }
         });
     }
 
     @Override
     public void updateFile(final File file) {
         handle(indexWriter -> {
+            String previousDocumentId = getFileDocumentId(file.getId());
+            touch(file.getId());
+            touch(file.getDocumentId());
+            touch(previousDocumentId);
             org.apache.lucene.document.Document luceneDocument = getDocumentFromFile(file);
             indexWriter.updateDocument(new Term("id", file.getId()), luceneDocument);
+
+            // Index the MIME types on the documents
+            if (file.getDocumentId() != null) {
+                reindexDocument(indexWriter, file.getDocumentId());
+            }
+            if (previousDocumentId != null && !previousDocumentId.equals(file.getDocumentId())) {
+                reindexDocument(indexWriter, previousDocumentId);
+            }
         });
     }
 
     @Override
     public void updateDocument(final Document document) {
         handle(indexWriter -> {
-            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document);
+            touch(document.getId());
+            DocumentFilterFields filterFields = DocumentFilterFields.load(Collections.singletonList(document.getId()));
+            org.apache.lucene.document.Document luceneDocument = getDocumentFromDocument(document, filterFields);
             indexWriter.updateDocument(new Term("id", document.getId()), luceneDocument);
+            titleSuggester.update(document, filterFields);
         });
     }
 
     @Override
     public void deleteDocument(final String id) {
-        handle(indexWriter -> indexWriter.deleteDocuments(new Term("id", id)));
+        handle(indexWriter -> {
+            String documentId = getFileDocumentId(id);
+            touch(id);
+            touch(documentId);
+            indexWriter.deleteDocuments(new Term("id", id));
+            titleSuggester.delete(id);
+
+            // Remove the MIME type of a deleted file from its document
+            if (documentId != null) {
+                reindexDocument(indexWriter, documentId);
+            }
+        });
     }
 
     @Override
     public void createAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        // ACLs on tags are resolved when searching, only ACLs on documents are indexed
+        handle(indexWriter -> {
+            touch(sourceId);
+            reindexDocument(indexWriter, sourceId);
+        });
     }
 
     @Override
     public void deleteAcl(String sourceId, PermType perm, String targetId) {
-        // Lucene does not index ACLs
+        handle(indexWriter -> {
+            touch(sourceId);
+            reindexDocument(indexWriter, sourceId);
+        });
     }
 
     @Override
     public void findByCriteria(PaginatedList<DocumentDto> paginatedList, List<String> suggestionList, DocumentCriteria criteria, SortCriteria sortCriteria) throws Exception {
+        Query fullTextQuery = null;
+        if (!Strings.isNullOrEmpty(criteria.getSimpleSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch())) {
+            fullTextQuery = buildSearchQuery(criteria.getSimpleSearch(), criteria.getFullSearch());
+            if (criteria.getFullSearch() != null) {
+                suggest(criteria.getFullSearch(), criteria.getTargetIdList(), suggestionList);
+            }
+        }
+
+        // Fulltext searches are done by Lucene, unless a criteria is not indexed
+        List<DocumentDto> documentDtoList;
+        if (fullTextQuery != null && isIndexed(criteria, sortCriteria)) {
+            documentDtoList = findByIndex(paginatedList, fullTextQuery, criteria, sortCriteria);
+        } else {
+            documentDtoList = findByDatabase(paginatedList, fullTextQuery, criteria, sortCriteria);
+        }
+
+        // Highlight only the documents of this page
+        if (fullTextQuery != null && !documentDtoList.isEmpty()) {
+            highlight(fullTextQuery, documentDtoList);
+        }
+
+        paginatedList.setResultList(documentDtoList);
+    }
+
+    /**
+     * Returns true if a search can be done entirely by Lucene.
+     * Active routes depend on the route steps and are only searchable in the database.
+     *
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @return True if all criteria are indexed
+     */
+    private boolean isIndexed(DocumentCriteria criteria, SortCriteria sortCriteria) {
+        if (criteria.getActiveRoute() != null && criteria.getActiveRoute()) {
+            return false;
+        }
+        return sortCriteria == null || SORT_FIELD_MAP.containsKey(sortCriteria.getColumn());
+    }
+
+    /**
+     * Search documents with Lucene.
+     * The documents are filtered, sorted and paginated in the index,
+     * only the documents of the page are fetched from the database.
+     *
+     * @param paginatedList List of documents (updated by side effects)
+     * @param fullTextQuery Fulltext query
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @return Documents of the page
+     * @throws IOException e
+     */
+    @SuppressWarnings("unchecked")
+    private List<DocumentDto> findByIndex(PaginatedList<DocumentDto> paginatedList, Query fullTextQuery, DocumentCriteria criteria, SortCriteria sortCriteria) throws IOException {
+        List<String> documentIdList = new ArrayList<>();
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            // A document matches on its own fields or on the fields of one of its files
+            Query fileQuery = new BooleanQuery.Builder()
+                    .add(fullTextQuery, BooleanClause.Occur.MUST)
+                    .add(new TermQuery(new Term("doctype", "file")), BooleanClause.Occur.FILTER)
+                    .build();
+            Set<String> fileDocumentIdSet = search(searcher, fileQuery);
+
+            // Count all hits, but only keep the ones up to this page
+            TopFieldCollector collector = TopFieldCollector.create(buildSort(sortCriteria),
+                    Math.max(1, paginatedList.getOffset() + paginatedList.getLimit()), Integer.MAX_VALUE);
+            if (fileDocumentIdSet.size() <= MAX_FILE_DOCUMENT_TERM_COUNT) {
+                BooleanQuery.Builder matchQuery = new BooleanQuery.Builder()
+                        .add(fullTextQuery, BooleanClause.Occur.SHOULD);
+                if (!fileDocumentIdSet.isEmpty()) {
+                    matchQuery.add(new TermInSetQuery("id", toBytesRefList(fileDocumentIdSet)), BooleanClause.Occur.SHOULD);
+                }
+                Query query = buildFilterQuery(criteria)
+                        .add(matchQuery.build(), BooleanClause.Occur.FILTER)
+                        .build();
+                searcher.search(query, collector);
+            } else {
+                // Too many documents for a terms query, the filtered documents are collected if their ID matches
+                Query documentQuery = new BooleanQuery.Builder()
+                        .add(fullTextQuery, BooleanClause.Occur.MUST)
+                        .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER)
+                        .build();
+                Set<String> matchingDocumentIdSet = new HashSet<>(fileDocumentIdSet);
+                matchingDocumentIdSet.addAll(search(searcher, documentQuery));
+                searcher.search(buildFilterQuery(criteria).build(), new DocumentIdFilterCollector(collector, matchingDocumentIdSet));
+            }
+            paginatedList.setResultCount(collector.getTotalHits());
+            for (ScoreDoc scoreDoc : collector.topDocs(paginatedList.getOffset(), paginatedList.getLimit()).scoreDocs) {
+                documentIdList.add(searcher.doc(scoreDoc.doc, Collections.singleton("id")).get("id"));
+            }
+        } finally {
+            releaseSearcher(searcher);
+        }
+        if (documentIdList.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Fetch the documents of the page
         Map<String, Object> parameterMap = new HashMap<>();
-        List<String> criteriaList = new ArrayList<>();
-        Map<String, String> documentSearchMap = Maps.newHashMap();
+        StringBuilder sb = buildSelectQuery();
+        sb.append(" where d.DOC_ID_C in (:documentIdList) and d.DOC_DELETEDATE_D is null");
+        parameterMap.put("targetIdList", criteria.getTargetIdList());
+        parameterMap.put("documentIdList", documentIdList);
+        List<Object[]> l = QueryUtil.getNativeQuery(new QueryParam(sb.toString(), parameterMap)).getResultList();
+        Map<String, DocumentDto> documentDtoMap = new HashMap<>();
+        for (Object[] o : l) {
+            DocumentDto documentDto = getDocumentDto(o);
+            documentDtoMap.put(documentDto.getId(), documentDto);
+        }
 
-        StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
-        sb.append(" s.count c5, ");
-        sb.append(" rs2.RTP_ID_C c7, rs2.RTP_NAME_C, d.DOC_UPDATEDATE_D c8 ");
-        sb.append(" from T_DOCUMENT d ");
-        sb.append(" left join (SELECT count(s.SHA_ID_C) count, ac.ACL_SOURCEID_C " +
-                "   FROM T_SHARE s, T_ACL ac " +
-                "   WHERE ac.ACL_TARGETID_C = s.SHA_ID_C AND ac.ACL_DELETEDATE_D IS NULL AND " +
-                "         s.SHA_DELETEDATE_D IS NULL group by ac.ACL_SOURCEID_C) s on s.ACL_SOURCEID_C = d.DOC_ID_C ");
-        sb.append(" left join (select rs.*, rs3.idDocument " +
-                "from T_ROUTE_STEP rs " +
-                "join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder " +
-                "where rs.RTP_IDTARGET_C in (:targetIdList)) rs2 on rs2.idDocument = d.DOC_ID_C ");
+        // Keep the order of the index, documents deleted since their indexing are skipped
+        List<DocumentDto> documentDtoList = new ArrayList<>();
+        for (String documentId : documentIdList) {
+            DocumentDto documentDto = documentDtoMap.get(documentId);
+            if (documentDto != null) {
+                documentDtoList.add(documentDto);
+            }
+        }
+        return documentDtoList;
+    }
+
+    /**
+     * Build the query filtering the documents on the search criteria.
+     *
+     * @param criteria Search criteria
+     * @return Query builder
+     */
+    private BooleanQuery.Builder buildFilterQuery(DocumentCriteria criteria) {
+        BooleanQuery.Builder query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term("doctype", "document")), BooleanClause.Occur.FILTER);
+
+        if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
+            // Read permission on the document or on one of its tags is enough for searching
+            BooleanQuery.Builder aclQuery = new BooleanQuery.Builder()
+                    .add(new TermInSetQuery("acl_read", toBytesRefList(criteria.getTargetIdList())), BooleanClause.Occur.SHOULD);
+            List<String> tagIdList = DocumentFilterFields.getReadableTagIdList(criteria.getTargetIdList());
+            if (!tagIdList.isEmpty()) {
+                aclQuery.add(new TermInSetQuery("tag_id", toBytesRefList(tagIdList)), BooleanClause.Occur.SHOULD);
+            }
+            query.add(aclQuery.build(), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getCreateDateMin() != null || criteria.getCreateDateMax() != null) {
+            query.add(LongPoint.newRangeQuery("create_date",
+                    criteria.getCreateDateMin() == null ? Long.MIN_VALUE : criteria.getCreateDateMin().getTime(),
+                    criteria.getCreateDateMax() == null ? Long.MAX_VALUE : criteria.getCreateDateMax().getTime()), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getUpdateDateMin() != null || criteria.getUpdateDateMax() != null) {
+            query.add(LongPoint.newRangeQuery("update_date",
+                    criteria.getUpdateDateMin() == null ? Long.MIN_VALUE : criteria.getUpdateDateMin().getTime(),
+                    criteria.getUpdateDateMax() == null ? Long.MAX_VALUE : criteria.getUpdateDateMax().getTime()), BooleanClause.Occur.FILTER);
+        }
+        if (!criteria.getTitleList().isEmpty()) {
+            query.add(new TermInSetQuery("title_raw", toBytesRefList(criteria.getTitleList())), BooleanClause.Occur.FILTER);
+        }
+        for (List<String> tagIdList : criteria.getTagIdList()) {
+            // One of the tags of each list
+            query.add(new TermInSetQuery("tag_id", toBytesRefList(tagIdList)), BooleanClause.Occur.FILTER);
+        }
+        for (List<String> tagIdList : criteria.getExcludedTagIdList()) {
+            for (String tagId : tagIdList) {
+                query.add(new TermQuery(new Term("tag_id", tagId)), BooleanClause.Occur.MUST_NOT);
+            }
+        }
+        if (criteria.getShared() != null && criteria.getShared()) {
+            query.add(new TermQuery(new Term("shared", "true")), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getMimeType() != null) {
+            query.add(new TermQuery(new Term("mimetype", criteria.getMimeType())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getLanguage() != null) {
+            query.add(new TermQuery(new Term("language", criteria.getLanguage())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getCreatorId() != null) {
+            query.add(new TermQuery(new Term("creator_id", criteria.getCreatorId())), BooleanClause.Occur.FILTER);
+        }
+        if (criteria.getAfterId() != null) {
+            query.add(TermRangeQuery.newStringRange("id", criteria.getAfterId(), null, false, false), BooleanClause.Occur.FILTER);
+        }
+
+        return query;
+    }
+
+    /**
+     * Build the sort of the indexed documents.
+     * Documents are finally sorted by ID, for a stable pagination.
+     *
+     * @param sortCriteria Sort criteria
+     * @return Sort
+     */
+    private Sort buildSort(SortCriteria sortCriteria) {
+        SortField idSortField = SORT_FIELD_MAP.get(0);
+        if (sortCriteria == null) {
+            return new Sort(idSortField);
+        }
+        SortField sortField = SORT_FIELD_MAP.get(sortCriteria.getColumn());
+        sortField = new SortField(sortField.getField(), sortField.getType(), !sortCriteria.isAsc());
+        return new Sort(sortField, idSortField);
+    }
+
+    /**
+     * Search documents in the database.
+     * The IDs of the documents matching the fulltext query are searched with Lucene.
+     *
+     * @param paginatedList List of documents (updated by side effects)
+     * @param fullTextQuery Fulltext query, null if not searching
+     * @param criteria Search criteria
+     * @param sortCriteria Sort criteria
+     * @return Documents of the page
+     * @throws IOException e
+     */
+    private List<DocumentDto> findByDatabase(PaginatedList<DocumentDto> paginatedList, Query fullTextQuery, DocumentCriteria criteria, SortCriteria sortCriteria) throws IOException {
+        Map<String, Object> parameterMap = new HashMap<>();
+        List<String> criteriaList = new ArrayList<>();
+        StringBuilder sb = buildSelectQuery();
 
         // Add search criterias
         if (!SecurityUtil.skipAclCheck(criteria.getTargetIdList())) {
@@ -276,16 +931,20 @@ public class LuceneIndexingHandler implements IndexingHandler {
             criteriaList.add("(a.ACL_ID_C is not null or a2.ACL_ID_C is not null)");
         }
         parameterMap.put("targetIdList", criteria.getTargetIdList());
-        if (!Strings.isNullOrEmpty(criteria.getSimpleSearch()) || !Strings.isNullOrEmpty(criteria.getFullSearch())) {
-            documentSearchMap = search(criteria.getSimpleSearch(), criteria.getFullSearch());
-            if (documentSearchMap.isEmpty()) {
+        if (fullTextQuery != null) {
+            Set<String> documentIdSet;
+            IndexSearcher searcher = acquireSearcher();
+            try {
+                documentIdSet = search(searcher, fullTextQuery);
+            } finally {
+                releaseSearcher(searcher);
+            }
+            if (documentIdSet.isEmpty()) {
                 // If the search doesn't find any document, the request should return nothing
-                documentSearchMap.put(UUID.randomUUID().toString(), null);
+                documentIdSet.add(UUID.randomUUID().toString());
             }
             criteriaList.add("d.DOC_ID_C in :documentIdList");
-            parameterMap.put("documentIdList", documentSearchMap.keySet());
-
-            suggestSearchTerms(criteria.getFullSearch(), suggestionList);
+            parameterMap.put("documentIdList", documentIdSet);
         }
         if (criteria.getCreateDateMin() != null) {
             criteriaList.add("d.DOC_CREATEDATE_D >= :createDateMin");
@@ -349,6 +1008,10 @@ public class LuceneIndexingHandler implements IndexingHandler {
             criteriaList.add("d.DOC_IDUSER_C = :creatorId");
             parameterMap.put("creatorId", criteria.getCreatorId());
         }
+        if (criteria.getAfterId() != null) {
+            criteriaList.add("d.DOC_ID_C > :afterId");
+            parameterMap.put("afterId", criteria.getAfterId());
+        }
         if (criteria.getActiveRoute() != null && criteria.getActiveRoute()) {
             criteriaList.add("rs2.RTP_ID_C is not null");
         }
@@ -365,59 +1028,73 @@ public class LuceneIndexingHandler implements IndexingHandler {
         // Assemble results
         List<DocumentDto> documentDtoList = new ArrayList<>();
         for (Object[] o : l) {
-            int i = 0;
-            DocumentDto documentDto = new DocumentDto();
-            documentDto.setId((String) o[i++]);
-            documentDto.setTitle((String) o[i++]);
-            documentDto.setDescription((String) o[i++]);
-            documentDto.setCreateTimestamp(((Timestamp) o[i++]).getTime());
-            documentDto.setLanguage((String) o[i++]);
-            documentDto.setFileId((String) o[i++]);
-            Number shareCount = (Number) o[i++];
-            documentDto.setShared(shareCount != null && shareCount.intValue() > 0);
-            documentDto.setActiveRoute(o[i++] != null);
-            documentDto.setCurrentStepName((String) o[i++]);
-            documentDto.setUpdateTimestamp(((Timestamp) o[i]).getTime());
-            documentDto.setHighlight(documentSearchMap.get(documentDto.getId()));
-            documentDtoList.add(documentDto);
+            documentDtoList.add(getDocumentDto(o));
         }
+        return documentDtoList;
+    }
 
-        paginatedList.setResultList(documentDtoList);
+    /**
+     * Build the select part of the documents query.
+     *
+     * @return Query
+     */
+    private StringBuilder buildSelectQuery() {
+        StringBuilder sb = new StringBuilder("select distinct d.DOC_ID_C c0, d.DOC_TITLE_C c1, d.DOC_DESCRIPTION_C c2, d.DOC_CREATEDATE_D c3, d.DOC_LANGUAGE_C c4, d.DOC_IDFILE_C, ");
+        sb.append(" s.count c5, ");
+        sb.append(" rs2.RTP_ID_C c7, rs2.RTP_NAME_C, d.DOC_UPDATEDATE_D c8 ");
+        sb.append(" from T_DOCUMENT d ");
+        sb.append(" left join (SELECT count(s.SHA_ID_C) count, ac.ACL_SOURCEID_C " +
+                "   FROM T_SHARE s, T_ACL ac " +
+                "   WHERE ac.ACL_TARGETID_C = s.SHA_ID_C AND ac.ACL_DELETEDATE_D IS NULL AND " +
+                "         s.SHA_DELETEDATE_D IS NULL group by ac.ACL_SOURCEID_C) s on s.ACL_SOURCEID_C = d.DOC_ID_C ");
+        sb.append(" left join (select rs.*, rs3.idDocument " +
+                "from T_ROUTE_STEP rs " +
+                "join (select r.RTE_IDDOCUMENT_C idDocument, rs.RTP_IDROUTE_C idRoute, min(rs.RTP_ORDER_N) minOrder from T_ROUTE_STEP rs join T_ROUTE r on r.RTE_ID_C = rs.RTP_IDROUTE_C and r.RTE_DELETEDATE_D is null where rs.RTP_DELETEDATE_D is null and rs.RTP_ENDDATE_D is null group by rs.RTP_IDROUTE_C, r.RTE_IDDOCUMENT_C) rs3 on rs.RTP_IDROUTE_C = rs3.idRoute and rs.RTP_ORDER_N = rs3.minOrder " +
+                "where rs.RTP_IDTARGET_C in (:targetIdList)) rs2 on rs2.idDocument = d.DOC_ID_C ");
+        return sb;
     }
 
     /**
-     * Suggest search terms according to the user query.
+     * Assemble a document from a row of the documents query.
      *
-     * @param search User search query
-     * @param suggestionList Suggestion of search query (updated by side effects)
-     * @throws Exception e
+     * @param o Row
+     * @return Document
      */
-    private void suggestSearchTerms(String search, List<String> suggestionList) throws Exception {
-        DirectoryReader directoryReader = getDirectoryReader();
-        if (directoryReader == null) {
-            return;
-        }
+    private DocumentDto getDocumentDto(Object[] o) {
+        int i = 0;
+        DocumentDto documentDto = new DocumentDto();
+        documentDto.setId((String) o[i++]);
+        documentDto.setTitle((String) o[i++]);
+        documentDto.setDescription((String) o[i++]);
+        documentDto.setCreateTimestamp(((Timestamp) o[i++]).getTime());
+        documentDto.setLanguage((String) o[i++]);
+        documentDto.setFileId((String) o[i++]);
+        Number shareCount = (Number) o[i++];
+        documentDto.setShared(shareCount != null && shareCount.intValue() > 0);
+        documentDto.setActiveRoute(o[i++] != null);
+        documentDto.setCurrentStepName((String) o[i++]);
+        documentDto.setUpdateTimestamp(((Timestamp) o[i]).getTime());
+        return documentDto;
+    }
 
-        FuzzySuggester suggester = new FuzzySuggester(directory, "", new StandardAnalyzer());
-        LuceneDictionary dictionary = new LuceneDictionary(directoryReader, "title");
-        suggester.build(dictionary);
-        int lastIndex = search.lastIndexOf(' ');
-        String suggestQuery = search.substring(Math.max(lastIndex, 0));
-        List<Lookup.LookupResult> lookupResultList = suggester.lookup(suggestQuery, false, 10);
-        for (Lookup.LookupResult lookupResult : lookupResultList) {
-            suggestionList.add(lookupResult.key.toString());
+    @Override
+    public void suggest(String search, List<String> targetIdList, List<String> suggestionList) throws Exception {
+        if (SecurityUtil.skipAclCheck(targetIdList)) {
+            suggestionList.addAll(titleSuggester.lookup(search, null, null, 10));
+        } else {
+            suggestionList.addAll(titleSuggester.lookup(search, targetIdList,
+                    DocumentFilterFields.getReadableTagIdList(targetIdList), 10));
         }
     }
 
     /**
-     * Fulltext search in files and documents.
+     * Build the fulltext query on files and documents.
      *
      * @param simpleSearchQuery Search query on metadatas
      * @param fullSearchQuery Search query on all fields
-     * @return Map of document IDs as key and highlight as value
-     * @throws Exception e
+     * @return Query
      */
-    private Map<String, String> search(String simpleSearchQuery, String fullSearchQuery) throws Exception {
+    private Query buildSearchQuery(String simpleSearchQuery, String fullSearchQuery) {
         // The fulltext query searches in all fields
         String searchQuery = simpleSearchQuery + " " + fullSearchQuery;
 
@@ -425,7 +1102,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
         Analyzer analyzer = new StandardAnalyzer();
 
         // Search on documents and files
-        BooleanQuery query = new BooleanQuery.Builder()
+        return new BooleanQuery.Builder()
                 .add(buildQueryParser(analyzer, "title").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "description").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "subject").parse(searchQuery), BooleanClause.Occur.SHOULD)
@@ -439,44 +1116,90 @@ public class LuceneIndexingHandler implements IndexingHandler {
                 .add(buildQueryParser(analyzer, "filename").parse(searchQuery), BooleanClause.Occur.SHOULD)
                 .add(buildQueryParser(analyzer, "content").parse(fullSearchQuery), BooleanClause.Occur.SHOULD)
                 .build();
+    }
+
+    /**
+     * Fulltext search in files and documents.
+     * Hits are not scored nor sorted, only the owning document IDs are collected.
+     *
+     * @param searcher Index searcher
+     * @param query Fulltext query
+     * @return Set of matching document IDs
+     * @throws IOException e
+     */
+    private Set<String> search(IndexSearcher searcher, Query query) throws IOException {
+        searcherFactory.addRecentQuery(query);
+        DocumentIdCollector collector = new DocumentIdCollector();
+        searcher.search(query, collector);
+        return collector.getDocumentIdSet();
+    }
 
-        // Search
-        DirectoryReader directoryReader = getDirectoryReader();
-        Map<String, String> documentMap = Maps.newHashMap();
-        if (directoryReader == null) {
-            // The directory reader is not yet initialized (probably because there is nothing indexed)
-            return documentMap;
-        }
-        IndexSearcher searcher = new IndexSearcher(directoryReader);
-        TopDocs topDocs = searcher.search(query, Integer.MAX_VALUE);
-        ScoreDoc[] docs = topDocs.scoreDocs;
-
-        SimpleHTMLFormatter simpleHTMLFormatter = new SimpleHTMLFormatter("<strong>", "</strong>");
-        SimpleHTMLEncoder simpleHTMLEncoder = new SimpleHTMLEncoder();
-        Highlighter highlighter = new Highlighter(simpleHTMLFormatter, simpleHTMLEncoder, new QueryScorer(query));
-
-        // Extract document IDs and highlights
-        for (ScoreDoc doc : docs) {
-            org.apache.lucene.document.Document document = searcher.doc(doc.doc);
-            String type = document.get("doctype");
-            String documentId = null;
-            String highlight = null;
-            if (type.equals("document")) {
-                documentId = document.get("id");
-            } else if (type.equals("file")) {
-                documentId = document.get("document_id");
-                String content = document.get("content");
-                if (content != null) {
-                    highlight = highlighter.getBestFragment(analyzer, "content", content);
+    /**
+     * Compute the highlights of some documents.
+     * Only the files of these documents are highlighted, using the offsets stored in the index.
+     *
+     * @param query Fulltext query
+     * @param documentDtoList Documents to highlight (updated by side effects)
+     * @throws IOException e
+     */
+    private void highlight(Query query, List<DocumentDto> documentDtoList) throws IOException {
+        List<BytesRef> documentIdList = new ArrayList<>();
+        for (DocumentDto documentDto : documentDtoList) {
+            documentIdList.add(new BytesRef(documentDto.getId()));
+        }
+
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            // Find the matching files of these documents
+            Query fileQuery = new BooleanQuery.Builder()
+                    .add(query, BooleanClause.Occur.MUST)
+                    .add(new TermInSetQuery("document_id", documentIdList), BooleanClause.Occur.FILTER)
+                    .build();
+            List<Integer> docIdList = new ArrayList<>();
+            searcher.search(fileQuery, new SimpleCollector() {
+                private int docBase;
+
+                @Override
+                protected void doSetNextReader(LeafReaderContext context) {
+                    docBase = context.docBase;
+                }
+
+                @Override
+                public void collect(int doc) {
+                    docIdList.add(docBase + doc);
                 }
+
+                @Override
+                public ScoreMode scoreMode() {
+                    return ScoreMode.COMPLETE_NO_SCORES;
+                }
+            });
+            if (docIdList.isEmpty()) {
+                return;
             }
 
-            if (documentId != null) {
-                documentMap.put(documentId, highlight);
+            // Highlight the content of each file
+            int[] docIds = docIdList.stream().mapToInt(Integer::intValue).toArray();
+            UnifiedHighlighter highlighter = new UnifiedHighlighter(searcher, new StandardAnalyzer());
+            highlighter.setFormatter(new DefaultPassageFormatter("<strong>", "</strong>", "... ", true));
+            highlighter.setBreakIterator(() -> LengthGoalBreakIterator.createClosestToLength(BreakIterator.getWordInstance(Locale.ROOT), 100));
+            highlighter.setMaxNoHighlightPassages(0);
+            String[] highlights = highlighter.highlightFields(new String[] { "content" }, query, docIds, new int[] { 1 }).get("content");
+
+            // Keep the first highlight found for each document
+            Map<String, String> highlightMap = new HashMap<>();
+            for (int i = 0; i < docIds.length; i++) {
+                if (highlights[i] != null) {
+                    String documentId = searcher.doc(docIds[i], Collections.singleton("document_id")).get("document_id");
+                    highlightMap.putIfAbsent(documentId, highlights[i]);
+                }
             }
+            for (DocumentDto documentDto : documentDtoList) {
+                documentDto.setHighlight(highlightMap.get(documentDto.getId()));
+            }
+        } finally {
+            releaseSearcher(searcher);
         }
-
-        return documentMap;
     }
 
     /**
@@ -492,17 +1215,116 @@ public class LuceneIndexingHandler implements IndexingHandler {
         return simpleQueryParser;
     }
 
+    /**
+     * Convert strings to terms.
+     *
+     * @param valueList Values
+     * @return Terms
+     */
+    private static List<BytesRef> toBytesRefList(Collection<String> valueList) {
+        return valueList.stream().map(BytesRef::new).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the ID of the document owning an indexed file.
+     *
+     * @param id File ID
+     * @return Document ID, null if not an indexed file or not attached to a document
+     * @throws IOException e
+     */
+    private String getFileDocumentId(String id) throws IOException {
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            TopDocs topDocs = searcher.search(new TermQuery(new Term("id", id)), 1);
+            if (topDocs.scoreDocs.length == 0) {
+                return null;
+            }
+            return searcher.doc(topDocs.scoreDocs[0].doc, STORED_ID_FIELDS).get("document_id");
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
+
+    /**
+     * Index a document again from the database, to update its filtering fields and its suggestions.
+     *
+     * @param indexWriter Index writer
+     * @param documentId Document ID
+     * @return True if the document exists
+     * @throws IOException e
+     */
+    private boolean reindexDocument(IndexWriter indexWriter, String documentId) throws IOException {
+        Document document = new DocumentDao().getById(documentId);
+        if (document == null) {
+            // Not a document, or deleted since
+            return false;
+        }
+        DocumentFilterFields filterFields = DocumentFilterFields.load(Collections.singletonList(documentId));
+        indexWriter.updateDocument(new Term("id", documentId), getDocumentFromDocument(document, filterFields));
+        titleSuggester.update(document, filterFields);
+        return true;
+    }
+
+    /**
+     * Index a document or a file again from the database, or delete it if it doesn't exist anymore.
+     *
+     * @param indexWriter Index writer
+     * @param id Document or file ID
+     * @throws IOException e
+     */
+    void reindex(IndexWriter indexWriter, String id) throws IOException {
+        if (reindexDocument(indexWriter, id)) {
+            return;
+        }
+        File file = new FileDao().getActiveById(id);
+        if (file == null) {
+            indexWriter.deleteDocuments(new Term("id", id));
+        } else {
+            indexWriter.updateDocument(new Term("id", id), getDocumentFromFile(file));
+        }
+    }
+
     /**
      * Build Lucene document from database document.
      *
      * @param document Document
+     * @param filterFields Filtering data of the document
      * @return Document
      */
-    private org.apache.lucene.document.Document getDocumentFromDocument(Document document) {
+    org.apache.lucene.document.Document getDocumentFromDocument(Document document, DocumentFilterFields filterFields) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", document.getId(), Field.Store.YES));
         luceneDocument.add(new StringField("doctype", "document", Field.Store.YES));
+        luceneDocument.add(new SortedDocValuesField("document_id", new BytesRef(document.getId())));
         luceneDocument.add(new TextField("title", document.getTitle(), Field.Store.NO));
+
+        // Filtering and sorting fields
+        luceneDocument.add(new StringField("title_raw", document.getTitle(), Field.Store.NO));
+        luceneDocument.add(new SortedDocValuesField("title_raw", new BytesRef(document.getTitle())));
+        if (document.getLanguage() != null) {
+            luceneDocument.add(new StringField("language", document.getLanguage(), Field.Store.NO));
+            luceneDocument.add(new SortedDocValuesField("language", new BytesRef(document.getLanguage())));
+        }
+        luceneDocument.add(new StringField("creator_id", document.getUserId(), Field.Store.NO));
+        luceneDocument.add(new LongPoint("create_date", document.getCreateDate().getTime()));
+        luceneDocument.add(new NumericDocValuesField("create_date", document.getCreateDate().getTime()));
+        if (document.getUpdateDate() != null) {
+            luceneDocument.add(new LongPoint("update_date", document.getUpdateDate().getTime()));
+            luceneDocument.add(new NumericDocValuesField("update_date", document.getUpdateDate().getTime()));
+        }
+        for (String targetId : filterFields.getAclTargetIdList(document.getId())) {
+            luceneDocument.add(new StringField("acl_read", targetId, Field.Store.NO));
+        }
+        for (String tagId : filterFields.getTagIdList(document.getId())) {
+            luceneDocument.add(new StringField("tag_id", tagId, Field.Store.NO));
+        }
+        for (String mimeType : filterFields.getMimeTypeList(document.getId())) {
+            luceneDocument.add(new StringField("mimetype", mimeType, Field.Store.NO));
+        }
+        if (filterFields.isShared(document.getId())) {
+            luceneDocument.add(new StringField("shared", "true", Field.Store.NO));
+        }
+
         if (document.getDescription() != null) {
             luceneDocument.add(new TextField("description", document.getDescription(), Field.Store.NO));
         }
@@ -540,7 +1362,7 @@ public class LuceneIndexingHandler implements IndexingHandler {
      * @param file File
      * @return Document
      */
-    private org.apache.lucene.document.Document getDocumentFromFile(File file) {
+    org.apache.lucene.document.Document getDocumentFromFile(File file) {
         org.apache.lucene.document.Document luceneDocument = new org.apache.lucene.document.Document();
         luceneDocument.add(new StringField("id", file.getId(), Field.Store.YES));
         luceneDocument.add(new StringField("doctype", "file", Field.Store.YES));
@@ -549,61 +1371,176 @@ public class LuceneIndexingHandler implements IndexingHandler {
         }
         if (file.getDocumentId() != null) {
             luceneDocument.add(new StringField("document_id", file.getDocumentId(), Field.Store.YES));
+            luceneDocument.add(new SortedDocValuesField("document_id", new BytesRef(file.getDocumentId())));
         }
         if (file.getContent() != null) {
-            luceneDocument.add(new TextField("content", file.getContent(), Field.Store.YES));
+            luceneDocument.add(new Field("content", file.getContent(), CONTENT_FIELD_TYPE));
         }
 
         return luceneDocument;
     }
 
     /**
-     * Returns a valid directory reader.
-     * Take care of reopening the reader if the index has changed
-     * and closing the previous one.
+     * Acquire an up-to-date searcher.
+     * The searcher must be released with {@link #releaseSearcher(IndexSearcher)}.
      *
-     * @return the directoryReader
+     * @return Index searcher
+     * @throws IOException e
      */
-    private DirectoryReader getDirectoryReader() {
-        if (directoryReader == null) {
+    private IndexSearcher acquireSearcher() throws IOException {
+        if (reopenThread == null && indexLock.readLock().tryLock()) {
+            // No background refresh, make the latest changes visible right now,
+            // unless the index is being replaced: the current searcher is used until the rebuilt index is published
             try {
-                if (!DirectoryReader.indexExists(directory)) {
-                    return null;
-                }
-                directoryReader = DirectoryReader.open(directory);
-            } catch (IOException e) {
-                log.error("Error creating the directory reader", e);
-            }
-        } else {
-            try {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(directoryReader);
-                if (newReader != null) {
-                    directoryReader.close();
-                    directoryReader = newReader;
-                }
-            } catch (IOException e) {
-                log.error("Error while reopening the directory reader", e);
+                searcherManager.maybeRefreshBlocking();
+            } finally {
+                indexLock.readLock().unlock();
             }
         }
-        return directoryReader;
+        return searcherManager.acquire();
+    }
+
+    /**
+     * Release a searcher acquired with {@link #acquireSearcher()}.
+     *
+     * @param searcher Index searcher
+     */
+    private void releaseSearcher(IndexSearcher searcher) {
+        try {
+            searcherManager.release(searcher);
+        } catch (IOException e) {
+            log.error("Error releasing the index searcher", e);
+        }
     }
 
     /**
      * Encapsulate a process into a Lucene context.
+     * The operation is counted as pending until the next commit.
      *
      * @param runnable Runnable
      */
     private void handle(LuceneRunnable runnable) {
+        indexLock.readLock().lock();
         try {
             runnable.run(indexWriter);
         } catch (Exception e) {
             log.error("Error in running index writing", e);
+        } finally {
+            indexLock.readLock().unlock();
         }
 
-        try {
-            indexWriter.commit();
-        } catch (IOException e) {
-            log.error("Cannot commit index writer", e);
+        // Changes are visible to search after the next refresh, commit only when enough operations are pending
+        if (pendingOperationCount.incrementAndGet() >= commitOperationCount) {
+            commit();
+        }
+    }
+
+    /**
+     * Collector of the IDs of the documents owning the hits.
+     * Document IDs are read from doc values, or from stored fields in segments indexed without them.
+     */
+    private static class DocumentIdCollector extends SimpleCollector {
+        /**
+         * Matching document IDs.
+         */
+        private final Set<String> documentIdSet = new HashSet<>();
+
+        /**
+         * Document IDs of the current segment.
+         */
+        private SortedDocValues documentIdValues;
+
+        /**
+         * Current segment reader.
+         */
+        private LeafReader reader;
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            reader = context.reader();
+            documentIdValues = DocValues.getSorted(reader, "document_id");
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (documentIdValues.advanceExact(doc)) {
+                documentIdSet.add(documentIdValues.binaryValue().utf8ToString());
+                return;
+            }
+
+            // No doc values in this segment
+            org.apache.lucene.document.Document document = reader.document(doc, STORED_ID_FIELDS);
+            String documentId = "document".equals(document.get("doctype")) ? document.get("id") : document.get("document_id");
+            if (documentId != null) {
+                documentIdSet.add(documentId);
+            }
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+
+        /**
+         * Getter of documentIdSet.
+         *
+         * @return documentIdSet
+         */
+        Set<String> getDocumentIdSet() {
+            return documentIdSet;
+        }
+    }
+
+    /**
+     * Collector of the documents having one of some IDs.
+     * The IDs are matched on the ordinals of the doc values of each segment, or on the stored ID in segments indexed without them.
+     */
+    private static class DocumentIdFilterCollector extends FilterCollector {
+        /**
+         * Matching document IDs.
+         */
+        private final Set<String> documentIdSet;
+
+        /**
+         * Create the collector.
+         *
+         * @param collector Collector of the matching documents
+         * @param documentIdSet Matching document IDs
+         */
+        DocumentIdFilterCollector(Collector collector, Set<String> documentIdSet) {
+            super(collector);
+            this.documentIdSet = documentIdSet;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            LeafReader reader = context.reader();
+            SortedDocValues documentIdValues = DocValues.getSorted(reader, "document_id");
+            FixedBitSet matchingOrdSet = new FixedBitSet(Math.max(1, documentIdValues.getValueCount()));
+            if (documentIdValues.getValueCount() > 0) {
+                for (String documentId : documentIdSet) {
+                    int ord = documentIdValues.lookupTerm(new BytesRef(documentId));
+                    if (ord >= 0) {
+                        matchingOrdSet.set(ord);
+                    }
+                }
+            }
+
+            return new FilterLeafCollector(super.getLeafCollector(context)) {
+                @Override
+                public void collect(int doc) throws IOException {
+                    boolean matching;
+                    if (documentIdValues.advanceExact(doc)) {
+                        matching = matchingOrdSet.get(documentIdValues.ordValue());
+                    } else {
+                        // No doc values in this segment
+                        matching = documentIdSet.contains(reader.document(doc, STORED_ID_FIELDS).get("id"));
+                    }
+                    if (matching) {
+                        super.collect(doc);
+                    }
+                }
+            };
         }
     }
 
@@ -0,0 +1,237 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.sismics.docs.core.model.jpa.Document;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Search terms suggester, built from the terms of the documents titles.
+ * The suggester is stored in its own Lucene directory and updated
+ * when documents are indexed, instead of being rebuilt for each lookup.
+ * Each document has its own suggestions, with the targets allowed to read it as contexts,
+ * so that a lookup only suggests the terms of the documents readable by the user.
+ */
+class TitleSuggester implements Closeable {
+    /**
+     * Number of suggestions looked up for each returned suggestion,
+     * the same term is suggested once for each document containing it.
+     */
+    private static final int LOOKUP_FACTOR = 10;
+
+    /**
+     * Analyzer used to extract the terms from the titles.
+     */
+    private final Analyzer analyzer = new StandardAnalyzer();
+
+    /**
+     * Suggester.
+     */
+    private final DocumentSuggester suggester;
+
+    /**
+     * True if suggestions were changed since the last refresh.
+     */
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    /**
+     * True if suggestions were changed since the last commit.
+     */
+    private final AtomicBoolean uncommitted = new AtomicBoolean();
+
+    /**
+     * Open the suggester.
+     *
+     * @param directory Suggester directory, closed with the suggester
+     * @throws IOException e
+     */
+    TitleSuggester(Directory directory) throws IOException {
+        suggester = new DocumentSuggester(directory, analyzer);
+    }
+
+    /**
+     * Returns true if the suggester doesn't contain any suggestion.
+     *
+     * @return True if empty
+     * @throws IOException e
+     */
+    boolean isEmpty() throws IOException {
+        return suggester.getCount() == 0;
+    }
+
+    /**
+     * Remove all suggestions.
+     *
+     * @throws IOException e
+     */
+    void clear() throws IOException {
+        suggester.build(InputIterator.EMPTY);
+    }
+
+    /**
+     * Replace the suggestions of a document by the terms of its title.
+     *
+     * @param document Document
+     * @param filterFields Filtering data of the document
+     * @throws IOException e
+     */
+    void update(Document document, DocumentFilterFields filterFields) throws IOException {
+        suggester.delete(getDocumentContext(document.getId()));
+
+        Set<BytesRef> contextSet = new HashSet<>();
+        contextSet.add(getDocumentContext(document.getId()));
+        for (String targetId : filterFields.getAclTargetIdList(document.getId())) {
+            contextSet.add(getAclContext(targetId));
+        }
+        for (String tagId : filterFields.getTagIdList(document.getId())) {
+            contextSet.add(getTagContext(tagId));
+        }
+
+        Set<String> termSet = new HashSet<>();
+        try (TokenStream tokenStream = analyzer.tokenStream("title", document.getTitle())) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                termSet.add(termAttribute.toString());
+            }
+            tokenStream.end();
+        }
+        for (String term : termSet) {
+            suggester.add(new BytesRef(term), contextSet, 1, null);
+        }
+        changed();
+    }
+
+    /**
+     * Remove the suggestions of a document.
+     *
+     * @param documentId Document ID
+     * @throws IOException e
+     */
+    void delete(String documentId) throws IOException {
+        suggester.delete(getDocumentContext(documentId));
+        changed();
+    }
+
+    /**
+     * Suggest terms starting with the last word of a query.
+     *
+     * @param search Search query
+     * @param targetIdList List of targets of the user, null to suggest the terms of all documents
+     * @param tagIdList List of tags readable by the user
+     * @param count Maximum number of suggestions
+     * @return Suggestions
+     * @throws IOException e
+     */
+    List<String> lookup(String search, List<String> targetIdList, List<String> tagIdList, int count) throws IOException {
+        List<String> suggestionList = new ArrayList<>();
+        String suggestQuery = search.substring(search.lastIndexOf(' ') + 1);
+        if (suggestQuery.isEmpty()) {
+            return suggestionList;
+        }
+
+        if (dirty.getAndSet(false)) {
+            suggester.refresh();
+        }
+        if (isEmpty()) {
+            return suggestionList;
+        }
+
+        // Read permission on the document or on one of its tags is enough
+        Set<BytesRef> contextSet = null;
+        if (targetIdList != null) {
+            contextSet = new HashSet<>();
+            for (String targetId : targetIdList) {
+                contextSet.add(getAclContext(targetId));
+            }
+            for (String tagId : tagIdList) {
+                contextSet.add(getTagContext(tagId));
+            }
+        }
+        Set<String> suggestionSet = new LinkedHashSet<>();
+        for (Lookup.LookupResult lookupResult : suggester.lookup(suggestQuery, contextSet, count * LOOKUP_FACTOR, true, false)) {
+            suggestionSet.add(lookupResult.key.toString());
+            if (suggestionSet.size() == count) {
+                break;
+            }
+        }
+        suggestionList.addAll(suggestionSet);
+        return suggestionList;
+    }
+
+    /**
+     * Commit the suggestions changed since the last commit.
+     *
+     * @throws IOException e
+     */
+    void commit() throws IOException {
+        if (uncommitted.getAndSet(false)) {
+            suggester.commit();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        suggester.close();
+    }
+
+    private void changed() {
+        dirty.set(true);
+        uncommitted.set(true);
+    }
+
+    private static BytesRef getDocumentContext(String documentId) {
+        return new BytesRef("document:" + documentId);
+    }
+
+    private static BytesRef getAclContext(String targetId) {
+        return new BytesRef("acl:" + targetId);
+    }
+
+    private static BytesRef getTagContext(String tagId) {
+        return new BytesRef("tag:" + tagId);
+    }
+
+    /**
+     * Suggester able to delete the suggestions having a context.
+     * The writer is used with the lock the suggester holds to open or replace it, so it can't be swapped during a delete.
+     */
+    private static class DocumentSuggester extends AnalyzingInfixSuggester {
+        DocumentSuggester(Directory directory, Analyzer analyzer) throws IOException {
+            super(directory, analyzer, analyzer, DEFAULT_MIN_PREFIX_CHARS, true, true, false, false);
+        }
+
+        /**
+         * Delete the suggestions having a context.
+         *
+         * @param context Context
+         * @throws IOException e
+         */
+        void delete(BytesRef context) throws IOException {
+            synchronized (searcherMgrLock) {
+                if (writer == null) {
+                    // The writer is opened by the first change, this empty suggestion is deleted with the others
+                    add(new BytesRef(""), Collections.singleton(context), 0, null);
+                }
+                writer.deleteDocuments(new Term(CONTEXTS_FIELD_NAME, context));
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.sismics.docs.core.util.indexing;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Searcher factory warming new searchers before they are published.
+ * The most recent user queries are replayed against each new searcher,
+ * so the first searches after a refresh don't pay for loading the new segments.
+ */
+class WarmingSearcherFactory extends SearcherFactory {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(WarmingSearcherFactory.class);
+
+    /**
+     * Maximum number of queries replayed on each new searcher.
+     */
+    private static final int MAX_WARMING_QUERIES = 10;
+
+    /**
+     * Most recent queries, newest first.
+     */
+    private final Deque<Query> recentQueryDeque = new ArrayDeque<>();
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+        IndexSearcher searcher = super.newSearcher(reader, previousReader);
+        if (previousReader == null) {
+            // Nothing to warm on the first searcher
+            return searcher;
+        }
+
+        long startTime = System.currentTimeMillis();
+        List<Query> queryList;
+        synchronized (recentQueryDeque) {
+            queryList = new ArrayList<>(recentQueryDeque);
+        }
+        for (Query query : queryList) {
+            searcher.search(query, 10);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Searcher warmed with {} queries in {}ms", queryList.size(), System.currentTimeMillis() - startTime);
+        }
+        return searcher;
+    }
+
+    /**
+     * Record a user query to be replayed on the next searchers.
+     *
+     * @param query Query
+     */
+    void addRecentQuery(Query query) {
+        synchronized (recentQueryDeque) {
+            recentQueryDeque.remove(query);
+            recentQueryDeque.addFirst(query);
+            while (recentQueryDeque.size() > MAX_WARMING_QUERIES) {
+                recentQueryDeque.removeLast();
+            }
+        }
+    }
+}
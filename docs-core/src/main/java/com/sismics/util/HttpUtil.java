@@ -24,4 +24,60 @@ public class HttpUtil {
     public static String buildExpiresHeader(long futureTime) {
         return EXPIRES_FORMAT.format(new Date().getTime() + futureTime);
     }
+
+    /**
+     * Parse a Range HTTP header.
+     * Only single byte ranges are supported, other ranges are ignored.
+     *
+     * @param range Range header value
+     * @param length Length of the whole content
+     * @return First and last byte positions (inclusive), empty if the range is not satisfiable, null if the range is ignored
+     */
+    public static long[] parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+        String value = range.substring("bytes=".length()).trim();
+        int dashIndex = value.indexOf('-');
+        if (dashIndex < 0) {
+            return null;
+        }
+
+        long start;
+        long end;
+        try {
+            String startValue = value.substring(0, dashIndex).trim();
+            String endValue = value.substring(dashIndex + 1).trim();
+            if (startValue.isEmpty()) {
+                // Suffix range: the last bytes
+                if (endValue.isEmpty()) {
+                    return null;
+                }
+                long suffixLength = Long.parseLong(endValue);
+                if (suffixLength == 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, length - suffixLength);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(startValue);
+                end = length - 1;
+                if (!endValue.isEmpty()) {
+                    long last = Long.parseLong(endValue);
+                    if (last < start) {
+                        // Invalid range
+                        return null;
+                    }
+                    end = Math.min(last, end);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (start >= length || start < 0) {
+            return new long[0];
+        }
+        return new long[] { start, end };
+    }
 }
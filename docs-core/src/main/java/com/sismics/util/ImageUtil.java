@@ -4,8 +4,11 @@ import com.google.common.hash.Hashing;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -13,6 +16,7 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Iterator;
 
 /**
@@ -66,6 +70,49 @@ public class ImageUtil {
         }
     }
     
+    /**
+     * Read an image, decoding only the pixels needed for a given size.
+     * Every n-th pixel is decoded, keeping at least twice the requested size so that the downscaling stays smooth.
+     *
+     * @param file Image file
+     * @param size Minimum size of the larger side
+     * @return Image, null if the format is unknown
+     * @throws IOException e
+     */
+    public static BufferedImage readImage(Path file, int size) throws IOException {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(file.toFile())) {
+            if (imageInputStream == null) {
+                return null;
+            }
+            Iterator<ImageReader> iter = ImageIO.getImageReaders(imageInputStream);
+            if (!iter.hasNext()) {
+                return null;
+            }
+            ImageReader reader = iter.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), size);
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Returns the subsampling factor to decode an image for a given size.
+     *
+     * @param width Image width
+     * @param height Image height
+     * @param size Minimum size of the larger side
+     * @return Subsampling factor
+     */
+    static int getSubsampling(int width, int height, int size) {
+        return Math.max(1, Math.max(width, height) / (2 * size));
+    }
+
     /**
      * Compute Gravatar hash.
      * See https://en.gravatar.com/site/implement/hash/.
@@ -4,7 +4,6 @@ import com.google.common.collect.Lists;
 import com.sismics.docs.core.model.context.AppContext;
 
 import jakarta.persistence.EntityManager;
-import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -28,6 +27,16 @@ public class ThreadLocalContext {
      */
     private List<Object> asyncEventList = Lists.newArrayList();
 
+    /**
+     * List of actions to run once the current transaction is committed.
+     */
+    private List<Runnable> afterCommitActionList = Lists.newArrayList();
+
+    /**
+     * Number of SQL statements executed during this request.
+     */
+    private int statementCount;
+
     /**
      * Private constructor.
      */
@@ -58,16 +67,24 @@ public class ThreadLocalContext {
     
     /**
      * Getter of entityManager.
+     * The persistence context lasts for the whole request: the changes are flushed
+     * at commit, or before the queries depending on them.
      *
      * @return entityManager
      */
     public EntityManager getEntityManager() {
+        return entityManager;
+    }
+
+    /**
+     * Write the pending changes and detach all the entities.
+     * Must be called after bulk statements, which bypass the persistence context and leave the loaded entities stale.
+     */
+    public void clearEntityManager() {
         if (entityManager != null && entityManager.isOpen()) {
-            // This disables the L1 cache
             entityManager.flush();
             entityManager.clear();
         }
-        return entityManager;
     }
 
     /**
@@ -79,6 +96,46 @@ public class ThreadLocalContext {
         this.entityManager = entityManager;
     }
 
+    /**
+     * Count a SQL statement executed by the current thread, if it has a context.
+     */
+    public static void countStatement() {
+        ThreadLocalContext context = threadLocalContext.get();
+        if (context != null) {
+            context.statementCount++;
+        }
+    }
+
+    /**
+     * Getter of statementCount.
+     *
+     * @return statementCount
+     */
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * Add an action to run once the current transaction is committed.
+     * The actions of a rolled back transaction are discarded with the context.
+     *
+     * @param action Action
+     */
+    public void addAfterCommitAction(Runnable action) {
+        afterCommitActionList.add(action);
+    }
+
+    /**
+     * Run the actions waiting for the commit of the current transaction.
+     */
+    public void runAfterCommitActions() {
+        List<Runnable> actionList = afterCommitActionList;
+        afterCommitActionList = Lists.newArrayList();
+        for (Runnable action : actionList) {
+            action.run();
+        }
+    }
+
     /**
      * Add an async event to the queue to be fired after the current request.
      *
@@ -88,15 +145,59 @@ public class ThreadLocalContext {
         asyncEventList.add(asyncEvent);
     }
 
+    /**
+     * Returns the number of pending async events.
+     *
+     * @return Number of pending async events
+     */
+    public int getAsyncEventCount() {
+        return asyncEventList.size();
+    }
+
+    /**
+     * Remove the pending async events added since a given count.
+     *
+     * @param count Number of pending async events to keep
+     * @return Removed async events
+     */
+    public List<Object> removeAsyncEvents(int count) {
+        List<Object> removedList = asyncEventList.subList(count, asyncEventList.size());
+        List<Object> eventList = Lists.newArrayList(removedList);
+        removedList.clear();
+        return eventList;
+    }
+
+    /**
+     * Fire the pending async events added since a given count, once their changes are committed.
+     * A listener processing an event in this thread runs in its own context, not in the transaction
+     * of the current request, which is restored afterwards.
+     *
+     * @param count Number of pending async events to keep
+     * @param interactive True if the events are fired by a user request, they are processed before the background events
+     */
+    public void fireAsyncEvents(int count, boolean interactive) {
+        List<Object> eventList = removeAsyncEvents(count);
+        threadLocalContext.remove();
+        try {
+            for (Object asyncEvent : eventList) {
+                AppContext.getInstance().postAsyncEvent(asyncEvent, interactive);
+            }
+        } finally {
+            threadLocalContext.set(this);
+        }
+    }
+
     /**
      * Fire all pending async events.
+     *
+     * @param interactive True if the events are fired by a user request, they are processed before the background events
      */
-    public void fireAllAsyncEvents() {
-        Iterator<Object> iterator = asyncEventList.iterator();
-        while (iterator.hasNext()) {
-            Object asyncEvent = iterator.next();
-            iterator.remove();
-            AppContext.getInstance().getAsyncEventBus().post(asyncEvent);
+    public void fireAllAsyncEvents(boolean interactive) {
+        // A full pool processes the event in this thread, which may add new events to this context
+        List<Object> eventList = asyncEventList;
+        asyncEventList = Lists.newArrayList();
+        for (Object asyncEvent : eventList) {
+            AppContext.getInstance().postAsyncEvent(asyncEvent, interactive);
         }
     }
 }
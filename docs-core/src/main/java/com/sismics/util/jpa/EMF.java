@@ -3,6 +3,7 @@ package com.sismics.util.jpa;
 import com.google.common.base.Strings;
 import com.sismics.docs.core.util.DirectoryUtil;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.internal.util.config.ConfigurationHelper;
 import org.hibernate.service.ServiceRegistry;
 import org.slf4j.Logger;
@@ -52,7 +53,9 @@ public final class EMF {
             };
             openHelper.open();
             
-            emfInstance = Persistence.createEntityManagerFactory("transactions-optional", getEntityManagerProperties());
+            Properties emfProperties = getEntityManagerProperties();
+            emfProperties.putIfAbsent(AvailableSettings.STATEMENT_INSPECTOR, StatementCounter.class.getName());
+            emfInstance = Persistence.createEntityManagerFactory("transactions-optional", emfProperties);
             
         } catch (Throwable t) {
             log.error("Error creating EMF", t);
@@ -0,0 +1,15 @@
+package com.sismics.util.jpa;
+
+import com.sismics.util.context.ThreadLocalContext;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements prepared by Hibernate in the current request context.
+ */
+public class StatementCounter implements StatementInspector {
+    @Override
+    public String inspect(String sql) {
+        ThreadLocalContext.countStatement();
+        return sql;
+    }
+}
@@ -0,0 +1,4 @@
+create cached table T_AUDIT_LOG_ROLLUP ( ALR_DAY_D date not null, ALR_IDUSER_C varchar(36) not null, ALR_CLASSENTITY_C varchar(50) not null, ALR_CREATE_N int not null, ALR_UPDATE_N int not null, ALR_DELETE_N int not null, ALR_FIRSTDATE_D datetime not null, ALR_LASTDATE_D datetime not null, primary key (ALR_DAY_D, ALR_IDUSER_C, ALR_CLASSENTITY_C) );
+create index IDX_LOG_CREATEDATE_D on T_AUDIT_LOG (LOG_CREATEDATE_D, LOG_ID_C);
+insert into T_CONFIG(CFG_ID_C, CFG_VALUE_C) values('AUDIT_LOG_ROLLUP_DATE', '0');
+update T_CONFIG set CFG_VALUE_C = '33' where CFG_ID_C = 'DB_VERSION';
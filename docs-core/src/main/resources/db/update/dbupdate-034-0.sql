@@ -0,0 +1,3 @@
+create cached table T_ASYNC_JOB ( JOB_KEY_C varchar(100) not null, JOB_TYPE_C varchar(50) not null, JOB_TARGETID_C varchar(36) not null, JOB_PAYLOAD_C varchar(4000), JOB_VERSION_N int not null, JOB_ATTEMPT_N int not null, JOB_NEXTRUN_D datetime, JOB_LEASEOWNER_C varchar(100), JOB_LEASEEXPIRE_D datetime, JOB_ERROR_C varchar(4000), JOB_CREATEDATE_D datetime not null, primary key (JOB_KEY_C) );
+create index IDX_JOB_NEXTRUN_D on T_ASYNC_JOB (JOB_NEXTRUN_D);
+update T_CONFIG set CFG_VALUE_C = '34' where CFG_ID_C = 'DB_VERSION';
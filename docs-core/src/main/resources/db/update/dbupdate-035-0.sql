@@ -0,0 +1,3 @@
+create cached table T_DOCUMENT_EXPORT ( EXP_ID_C varchar(36) not null, EXP_IDUSER_C varchar(36) not null, EXP_SEARCH_C varchar(4000), EXP_TARGETIDS_C varchar(4000) not null, EXP_STATE_C varchar(20) not null, EXP_CURSOR_C varchar(36), EXP_LENGTH_N bigint not null default 0, EXP_DOCUMENTCOUNT_N int not null default 0, EXP_FILECOUNT_N int not null default 0, EXP_TOTAL_N int, EXP_ERROR_C varchar(4000), EXP_CREATEDATE_D datetime not null, EXP_ENDDATE_D datetime, primary key (EXP_ID_C) );
+create index IDX_EXP_IDUSER_C on T_DOCUMENT_EXPORT (EXP_IDUSER_C);
+update T_CONFIG set CFG_VALUE_C = '35' where CFG_ID_C = 'DB_VERSION';
@@ -0,0 +1,5 @@
+alter table T_AUDIT_LOG add column LOG_IDROLLUP_C varchar(36);
+create index IDX_LOG_IDROLLUP_C on T_AUDIT_LOG (LOG_IDROLLUP_C, LOG_CREATEDATE_D);
+delete from T_AUDIT_LOG_ROLLUP;
+delete from T_CONFIG where CFG_ID_C = 'AUDIT_LOG_ROLLUP_DATE';
+update T_CONFIG set CFG_VALUE_C = '37' where CFG_ID_C = 'DB_VERSION';
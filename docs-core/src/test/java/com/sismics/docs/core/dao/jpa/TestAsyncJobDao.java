@@ -0,0 +1,72 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AsyncJobType;
+import com.sismics.docs.core.dao.AsyncJobDao;
+import com.sismics.docs.core.dao.dto.AsyncJobDto;
+import com.sismics.docs.core.util.AsyncJobUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests the durable asynchronous job DAO.
+ */
+public class TestAsyncJobDao extends BaseTransactionalTest {
+    @Test
+    public void testLease() {
+        AsyncJobDao asyncJobDao = new AsyncJobDao();
+        Date expiredDate = new Date(System.currentTimeMillis() - 1000);
+        Date leaseExpireDate = AsyncJobUtil.getLeaseExpireDate();
+
+        // The same job queued twice is one job with a new version
+        Assert.assertEquals(1, asyncJobDao.enqueue(AsyncJobType.FILE_PROCESSING, "file1", "eng", "node1", leaseExpireDate));
+        Assert.assertEquals(2, asyncJobDao.enqueue(AsyncJobType.FILE_PROCESSING, "file1", "fra", "node1", leaseExpireDate));
+        AsyncJobDto job = asyncJobDao.getByKey(AsyncJobDao.getKey(AsyncJobType.FILE_PROCESSING, "file1"));
+        Assert.assertEquals("file1", job.getTargetId());
+        Assert.assertEquals("fra", job.getPayload());
+        Assert.assertEquals(2, job.getVersion());
+
+        // A job leased by a live node can't be leased
+        Assert.assertTrue(asyncJobDao.lease("node2", leaseExpireDate, 10).isEmpty());
+
+        // Once its lease has expired, it is leased by one node only
+        asyncJobDao.renewLeases("node1", AsyncJobType.FILE_PROCESSING, List.of("file1"), expiredDate);
+        List<AsyncJobDto> jobList = asyncJobDao.lease("node2", leaseExpireDate, 10);
+        Assert.assertEquals(1, jobList.size());
+        Assert.assertEquals(2, jobList.get(0).getVersion());
+        Assert.assertTrue(asyncJobDao.lease("node1", leaseExpireDate, 10).isEmpty());
+
+        // An older version is not completed
+        Assert.assertFalse(asyncJobDao.complete(job.getKey(), 1));
+        Assert.assertTrue(asyncJobDao.complete(job.getKey(), 2));
+        Assert.assertNull(asyncJobDao.getByKey(job.getKey()));
+    }
+
+    @Test
+    public void testRetry() {
+        AsyncJobDao asyncJobDao = new AsyncJobDao();
+        int version = AsyncJobUtil.enqueue(AsyncJobType.FILE_PROCESSING, "file2", null);
+        String key = AsyncJobDao.getKey(AsyncJobType.FILE_PROCESSING, "file2");
+        Assert.assertNull(asyncJobDao.getByKey(key).getPayload());
+        Assert.assertTrue(asyncJobDao.findPendingTargetIdList(AsyncJobType.FILE_PROCESSING).contains("file2"));
+
+        // A failed job is released and retried later
+        AsyncJobUtil.fail(AsyncJobType.FILE_PROCESSING, "file2", version, "Error");
+        Assert.assertEquals(1, asyncJobDao.getByKey(key).getAttempt());
+        Assert.assertTrue(asyncJobDao.lease("node2", AsyncJobUtil.getLeaseExpireDate(), 10).isEmpty());
+
+        // After too many attempts, it is not retried
+        for (int i = 1; i < AsyncJobUtil.MAX_ATTEMPTS; i++) {
+            AsyncJobUtil.fail(AsyncJobType.FILE_PROCESSING, "file2", version, "Error");
+        }
+        Assert.assertEquals(AsyncJobUtil.MAX_ATTEMPTS, asyncJobDao.getByKey(key).getAttempt());
+        Assert.assertFalse(asyncJobDao.findPendingTargetIdList(AsyncJobType.FILE_PROCESSING).contains("file2"));
+
+        // Queued again, it starts over
+        AsyncJobUtil.enqueue(AsyncJobType.FILE_PROCESSING, "file2", null);
+        Assert.assertEquals(0, asyncJobDao.getByKey(key).getAttempt());
+    }
+}
@@ -0,0 +1,70 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.GroupDao;
+import com.sismics.docs.core.dao.criteria.GroupCriteria;
+import com.sismics.docs.core.dao.dto.GroupDto;
+import com.sismics.docs.core.model.jpa.Group;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.model.jpa.UserGroup;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Test of the group DAO.
+ */
+public class TestGroupDao extends BaseTransactionalTest {
+    @Test
+    public void testGroupClosure() throws Exception {
+        // Create a group hierarchy, the user is in g112
+        GroupDao groupDao = new GroupDao();
+        String g1Id = createGroup("closure_g1", null);
+        String g11Id = createGroup("closure_g11", g1Id);
+        String g12Id = createGroup("closure_g12", g1Id);
+        String g112Id = createGroup("closure_g112", g11Id);
+        User user = createUser("closure_user");
+        UserGroup userGroup = new UserGroup();
+        userGroup.setGroupId(g112Id);
+        userGroup.setUserId(user.getId());
+        groupDao.addMember(userGroup);
+        Assert.assertEquals(Set.of("closure_g1", "closure_g11", "closure_g112"), getGroupNameSet(user));
+        Assert.assertTrue(groupDao.isAncestor(g1Id, g112Id));
+        Assert.assertTrue(groupDao.isAncestor(g112Id, g112Id));
+        Assert.assertFalse(groupDao.isAncestor(g112Id, g1Id));
+        Assert.assertFalse(groupDao.isAncestor(g12Id, g112Id));
+
+        // Move g11 and its subgroup under g12
+        groupDao.update(new Group().setId(g11Id).setName("closure_g11").setParentId(g12Id), "admin");
+        Assert.assertEquals(Set.of("closure_g1", "closure_g12", "closure_g11", "closure_g112"), getGroupNameSet(user));
+        Assert.assertTrue(groupDao.isAncestor(g12Id, g112Id));
+
+        // Move g11 to the root
+        groupDao.update(new Group().setId(g11Id).setName("closure_g11"), "admin");
+        Assert.assertEquals(Set.of("closure_g11", "closure_g112"), getGroupNameSet(user));
+        Assert.assertFalse(groupDao.isAncestor(g1Id, g112Id));
+
+        // Delete g11, g112 becomes a root
+        groupDao.update(new Group().setId(g11Id).setName("closure_g11").setParentId(g1Id), "admin");
+        groupDao.delete(g11Id, "admin");
+        Assert.assertEquals(Set.of("closure_g112"), getGroupNameSet(user));
+        Assert.assertFalse(groupDao.isAncestor(g11Id, g112Id));
+        Assert.assertFalse(groupDao.isAncestor(g11Id, g11Id));
+    }
+
+    private String createGroup(String name, String parentId) {
+        Group group = new Group();
+        group.setName(name);
+        group.setParentId(parentId);
+        return new GroupDao().create(group, "admin");
+    }
+
+    private Set<String> getGroupNameSet(User user) {
+        return new GroupDao().findByCriteria(new GroupCriteria().setUserId(user.getId()).setRecursive(true), null)
+                .stream()
+                .map(GroupDto::getName)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,120 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.google.common.collect.Lists;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.FileDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.authentication.InternalAuthenticationHandler;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+
+/**
+ * Tests the request scoped persistence context:
+ * the entities are loaded once per request, and the changes are visible to the following queries.
+ */
+public class TestPersistenceContext extends BaseTransactionalTest {
+    @Test
+    public void testEntitiesLoadedOnce() throws Exception {
+        User user = createUser("persistence_loaded");
+        UserDao userDao = new UserDao();
+
+        // The second lookup is served by the persistence context
+        User userDb = userDao.getById(user.getId());
+        int statementCount = ThreadLocalContext.get().getStatementCount();
+        Assert.assertSame(userDb, userDao.getById(user.getId()));
+        Assert.assertEquals(statementCount, ThreadLocalContext.get().getStatementCount());
+
+        // Queries return the managed entities
+        Assert.assertSame(userDb, userDao.getActiveByUsername("persistence_loaded"));
+        Assert.assertTrue(ThreadLocalContext.get().getStatementCount() > statementCount);
+    }
+
+    @Test
+    public void testPendingChangesVisible() throws Exception {
+        User user = createUser("persistence_pending");
+        Document document = createDocument(user, "Pending title");
+        createAcl(document, user);
+
+        // Native queries see the pending inserts and updates
+        DocumentDto documentDto = new DocumentDao().getDocument(document.getId(), PermType.READ, Lists.newArrayList(user.getId()));
+        Assert.assertNotNull(documentDto);
+        Assert.assertEquals("Pending title", documentDto.getTitle());
+        Assert.assertEquals(user.getUsername(), documentDto.getCreator());
+
+        document.setTitle("Updated title");
+        documentDto = new DocumentDao().getDocument(document.getId(), PermType.READ, Lists.newArrayList(user.getId()));
+        Assert.assertEquals("Updated title", documentDto.getTitle());
+
+        // JPQL queries see the pending updates
+        UserDao userDao = new UserDao();
+        User userDb = userDao.getById(user.getId());
+        userDb.setEmail("pending@docs.com");
+        Assert.assertEquals(1, ThreadLocalContext.get().getEntityManager()
+                .createQuery("select u from User u where u.email = :email")
+                .setParameter("email", "pending@docs.com")
+                .getResultList().size());
+    }
+
+    @Test
+    public void testBulkStatements() throws Exception {
+        User user = createUser("persistence_bulk");
+        Document document = createDocument(user, "Bulk");
+        File file = createFile(user, 1000L);
+        file.setDocumentId(document.getId());
+
+        createAcl(document, user);
+
+        // The entities changed by the bulk statements are loaded again
+        FileDao fileDao = new FileDao();
+        Assert.assertSame(file, fileDao.getActiveById(file.getId()));
+        new DocumentDao().delete(document.getId(), user.getId());
+        Assert.assertNull(fileDao.getActiveById(file.getId()));
+        Assert.assertNull(fileDao.getFile(file.getId(), user.getId()));
+        Assert.assertTrue(new AclDao().getByTargetId(user.getId()).isEmpty());
+        Assert.assertNotNull(ThreadLocalContext.get().getEntityManager().find(File.class, file.getId()).getDeleteDate());
+    }
+
+    @Test
+    public void testUpdatePassword() throws Exception {
+        createUser("persistence_password");
+        UserDao userDao = new UserDao();
+
+        // The password set on the managed user is hashed once
+        User user = userDao.getActiveByUsername("persistence_password");
+        user.setPassword("87654321");
+        userDao.updatePassword(user, user.getId());
+        Assert.assertNotNull(new InternalAuthenticationHandler().authenticate("persistence_password", "87654321"));
+        Assert.assertNull(new InternalAuthenticationHandler().authenticate("persistence_password", "12345678"));
+    }
+
+    private Document createDocument(User user, String title) {
+        Document document = new Document();
+        document.setUserId(user.getId());
+        document.setTitle(title);
+        document.setLanguage("eng");
+        document.setCreateDate(new Date());
+        new DocumentDao().create(document, user.getId());
+        return document;
+    }
+
+    private void createAcl(Document document, User user) {
+        Acl acl = new Acl();
+        acl.setPerm(PermType.READ);
+        acl.setType(AclType.USER);
+        acl.setSourceId(document.getId());
+        acl.setTargetId(user.getId());
+        new AclDao().create(acl, user.getId());
+    }
+}
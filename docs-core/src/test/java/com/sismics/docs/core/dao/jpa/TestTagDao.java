@@ -0,0 +1,109 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.PermType;
+import com.sismics.docs.core.dao.AclDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.TagDao;
+import com.sismics.docs.core.dao.criteria.TagCriteria;
+import com.sismics.docs.core.dao.dto.TagDto;
+import com.sismics.docs.core.model.jpa.Acl;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.Tag;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.jpa.SortCriteria;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Test of the tag DAO.
+ */
+public class TestTagDao extends BaseTransactionalTest {
+    @Test
+    public void testFindByDocumentIdList() throws Exception {
+        User user = createUser("tag_batch");
+        User otherUser = createUser("tag_batch_other");
+        List<String> targetIdList = Lists.newArrayList(user.getId());
+        String tag1Id = createTag("Tag1", user);
+        String tag2Id = createTag("Tag2", user);
+        String privateTagId = createTag("Private", otherUser);
+
+        // Documents with 0 to 3 tags, the private tag is not readable by the user
+        TagDao tagDao = new TagDao();
+        List<String> documentIdList = Lists.newArrayList();
+        for (int i = 0; i < 100; i++) {
+            Document document = new Document();
+            document.setUserId(user.getId());
+            document.setTitle("Document " + i);
+            document.setLanguage("eng");
+            document.setCreateDate(new Date());
+            String documentId = new DocumentDao().create(document, user.getId());
+            List<String> tagIdList = Lists.newArrayList(tag1Id, tag2Id, privateTagId).subList(0, i % 4);
+            tagDao.updateTagList(documentId, Sets.newHashSet(tagIdList));
+            documentIdList.add(documentId);
+        }
+        Assert.assertTrue(tagDao.findByDocumentIdList(Collections.emptyList(), targetIdList).isEmpty());
+
+        // Same tags as the query by document
+        Map<String, List<TagDto>> tagDtoMap = tagDao.findByDocumentIdList(documentIdList, targetIdList);
+        for (String documentId : documentIdList) {
+            List<TagDto> tagDtoList = tagDao.findByCriteria(new TagCriteria()
+                    .setTargetIdList(targetIdList)
+                    .setDocumentId(documentId), new SortCriteria(1, true));
+            Assert.assertEquals(getTagIdList(tagDtoList), getTagIdList(tagDtoMap.getOrDefault(documentId, Collections.emptyList())));
+        }
+        Assert.assertEquals(Lists.newArrayList(tag1Id, tag2Id), getTagIdList(tagDtoMap.get(documentIdList.get(3))));
+        Assert.assertEquals("Tag1", tagDtoMap.get(documentIdList.get(1)).get(0).getName());
+        Assert.assertEquals("tag_batch", tagDtoMap.get(documentIdList.get(1)).get(0).getCreator());
+
+        // Without ACL check, all the tags are returned
+        Assert.assertEquals(3, tagDao.findByDocumentIdList(documentIdList, null).get(documentIdList.get(3)).size());
+
+        // One query by document, one query for the whole page
+        ThreadLocalContext.get().getEntityManager().flush();
+        for (int pageSize : new int[] { 10, 50, 100 }) {
+            List<String> pageIdList = documentIdList.subList(0, pageSize);
+            int statementCount = ThreadLocalContext.get().getStatementCount();
+            for (String documentId : pageIdList) {
+                tagDao.findByCriteria(new TagCriteria()
+                        .setTargetIdList(targetIdList)
+                        .setDocumentId(documentId), new SortCriteria(1, true));
+            }
+            Assert.assertEquals(pageSize, ThreadLocalContext.get().getStatementCount() - statementCount);
+
+            statementCount = ThreadLocalContext.get().getStatementCount();
+            tagDao.findByDocumentIdList(pageIdList, targetIdList);
+            Assert.assertEquals(1, ThreadLocalContext.get().getStatementCount() - statementCount);
+        }
+    }
+
+    private String createTag(String name, User user) {
+        Tag tag = new Tag();
+        tag.setName(name);
+        tag.setColor("#ff0000");
+        tag.setUserId(user.getId());
+        String tagId = new TagDao().create(tag, user.getId());
+
+        Acl acl = new Acl();
+        acl.setPerm(PermType.READ);
+        acl.setType(AclType.USER);
+        acl.setSourceId(tagId);
+        acl.setTargetId(user.getId());
+        new AclDao().create(acl, user.getId());
+        return tagId;
+    }
+
+    private List<String> getTagIdList(List<TagDto> tagDtoList) {
+        return tagDtoList.stream().map(TagDto::getId).collect(Collectors.toList());
+    }
+}
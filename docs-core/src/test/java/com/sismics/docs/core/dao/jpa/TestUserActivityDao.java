@@ -0,0 +1,129 @@
+package com.sismics.docs.core.dao.jpa;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AuditLogType;
+import com.sismics.docs.core.dao.AuditLogDao;
+import com.sismics.docs.core.dao.UserActivityDao;
+import com.sismics.docs.core.dao.dto.UserActivityDayDto;
+import com.sismics.docs.core.dao.dto.UserActivityDto;
+import com.sismics.docs.core.model.jpa.AuditLog;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.service.UserActivityService;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests the user activity DAO.
+ */
+public class TestUserActivityDao extends BaseTransactionalTest {
+    @Test
+    public void testRollup() throws Exception {
+        User user = createUser("testRollup");
+        createAuditLog(user, "Document", AuditLogType.CREATE, date(1, 10));
+        createAuditLog(user, "Document", AuditLogType.UPDATE, date(1, 11));
+        createAuditLog(user, "Document", AuditLogType.UPDATE, date(1, 12));
+        createAuditLog(user, "Tag", AuditLogType.CREATE, date(1, 12));
+        createAuditLog(user, "Document", AuditLogType.DELETE, date(2, 9));
+
+        // Before, during and after the rollup, the daily activities are the same
+        UserActivityDao userActivityDao = new UserActivityDao();
+        UserActivityService userActivityService = new UserActivityService();
+        assertDays(userActivityDao.findByDay(date(1, 0), user.getId()), 1);
+        userActivityService.rollup(date(1, 11));
+        Assert.assertEquals(date(1, 12), userActivityDao.getNextLogDate());
+        assertDays(userActivityDao.findByDay(date(1, 0), user.getId()), 1);
+        userActivityService.rollup(date(3, 0));
+        Assert.assertNull(userActivityDao.getNextLogDate());
+        assertDays(userActivityDao.findByDay(date(1, 0), user.getId()), 1);
+
+        // The days before the date range are excluded
+        List<UserActivityDayDto> dayDtoList = userActivityDao.findByDay(date(2, 0), user.getId());
+        Assert.assertEquals(date(2, 0), dayDtoList.get(0).getDay());
+
+        // An audit log committed after the rollup of its date is rolled up by the next one
+        createAuditLog(user, "Tag", AuditLogType.CREATE, date(1, 9));
+        Assert.assertEquals(date(1, 9), userActivityDao.getNextLogDate());
+        assertDays(userActivityDao.findByDay(date(1, 0), user.getId()), 2);
+        userActivityService.rollup(date(3, 0));
+        Assert.assertNull(userActivityDao.getNextLogDate());
+        assertDays(userActivityDao.findByDay(date(1, 0), user.getId()), 2);
+    }
+
+    @Test
+    public void testFindByCursor() throws Exception {
+        User user = createUser("testFindByCursor");
+        List<String> idList = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            // Some activities have the same date
+            idList.add(createAuditLog(user, "Document", AuditLogType.UPDATE, date(1, 10 + i / 2)));
+        }
+
+        // The pages don't overlap and cover all the activities, in both directions
+        UserActivityDao userActivityDao = new UserActivityDao();
+        for (boolean asc : new boolean[] { true, false }) {
+            List<String> pageIdList = new ArrayList<>();
+            UserActivityDto cursor = null;
+            while (true) {
+                List<UserActivityDto> activityDtoList = userActivityDao.findByCursor(date(1, 0), user.getId(), cursor, asc, 3);
+                for (UserActivityDto activityDto : activityDtoList) {
+                    Assert.assertEquals("testFindByCursor", activityDto.getUsername());
+                    pageIdList.add(activityDto.getId());
+                }
+                if (activityDtoList.size() < 3) {
+                    break;
+                }
+                cursor = activityDtoList.get(activityDtoList.size() - 1);
+            }
+            Assert.assertEquals(7, pageIdList.size());
+            Assert.assertEquals(new HashSet<>(idList), new HashSet<>(pageIdList));
+        }
+    }
+
+    private void assertDays(List<UserActivityDayDto> dayDtoList, int tagCount) {
+        Assert.assertEquals(3, dayDtoList.size());
+        UserActivityDayDto dayDto = dayDtoList.get(0);
+        Assert.assertEquals(date(1, 0), dayDto.getDay());
+        Assert.assertEquals("Document", dayDto.getEntityClass());
+        Assert.assertEquals("testRollup", dayDto.getUsername());
+        Assert.assertEquals(1, dayDto.getCreateCount());
+        Assert.assertEquals(2, dayDto.getUpdateCount());
+        Assert.assertEquals(0, dayDto.getDeleteCount());
+        Assert.assertEquals(date(1, 10), dayDto.getFirstDate());
+        Assert.assertEquals(date(1, 12), dayDto.getLastDate());
+        dayDto = dayDtoList.get(1);
+        Assert.assertEquals(date(1, 0), dayDto.getDay());
+        Assert.assertEquals("Tag", dayDto.getEntityClass());
+        Assert.assertEquals(tagCount, dayDto.getCount());
+        dayDto = dayDtoList.get(2);
+        Assert.assertEquals(date(2, 0), dayDto.getDay());
+        Assert.assertEquals("Document", dayDto.getEntityClass());
+        Assert.assertEquals(1, dayDto.getDeleteCount());
+        Assert.assertEquals(1, dayDto.getCount());
+    }
+
+    private String createAuditLog(User user, String entityClass, AuditLogType type, Date createDate) {
+        AuditLog auditLog = new AuditLog();
+        auditLog.setUserId(user.getId());
+        auditLog.setEntityId(user.getId());
+        auditLog.setEntityClass(entityClass);
+        auditLog.setType(type);
+        String id = new AuditLogDao().create(auditLog);
+        auditLog.setCreateDate(createDate);
+        ThreadLocalContext.get().getEntityManager().flush();
+        return id;
+    }
+
+    private static Date date(int day, int hour) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2001, Calendar.JANUARY, day, hour, 0);
+        return calendar.getTime();
+    }
+}
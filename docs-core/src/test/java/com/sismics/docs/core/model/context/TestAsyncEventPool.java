@@ -0,0 +1,121 @@
+package com.sismics.docs.core.model.context;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestAsyncEventPool {
+    /**
+     * Listener recording the events and the threads processing them.
+     * The event "block" waits for the latch.
+     */
+    public static class RecordingListener {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final List<String> eventList = new CopyOnWriteArrayList<>();
+        private final List<String> threadList = new CopyOnWriteArrayList<>();
+
+        @Subscribe
+        @AllowConcurrentEvents
+        public void on(String event) throws InterruptedException {
+            if (event.equals("block")) {
+                started.countDown();
+                latch.await(10, TimeUnit.SECONDS);
+            }
+            eventList.add(event);
+            threadList.add(Thread.currentThread().getName());
+        }
+    }
+
+    @Test
+    public void priorityTest() throws Exception {
+        AsyncEventPool eventPool = new AsyncEventPool("test", 1, 10);
+        RecordingListener listener = new RecordingListener();
+        eventPool.register(listener);
+        Assert.assertTrue(eventPool.accept("event"));
+        Assert.assertFalse(eventPool.accept(1L));
+
+        // The interactive events go before the queued background events
+        eventPool.post("block", false);
+        Assert.assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+        eventPool.post("background1", false);
+        eventPool.post("background2", false);
+        eventPool.post("interactive", true);
+        Assert.assertEquals(3, eventPool.getQueueSize());
+        Assert.assertEquals(1, eventPool.getActiveCount());
+        listener.latch.countDown();
+        eventPool.shutDown(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(List.of("block", "interactive", "background1", "background2"), listener.eventList);
+        Assert.assertEquals(4, eventPool.getCompletedCount());
+        Assert.assertEquals(0, eventPool.getCallerRunCount());
+        Assert.assertEquals(4, sum(eventPool.getWaitHistogram()));
+        Assert.assertEquals(4, sum(eventPool.getRunHistogram()));
+    }
+
+    @Test
+    public void callerRunsTest() throws Exception {
+        AsyncEventPool eventPool = new AsyncEventPool("test", 1, 1);
+        RecordingListener listener = new RecordingListener();
+        eventPool.register(listener);
+
+        // The queue is full, the posting thread processes the last event
+        eventPool.post("block", false);
+        Assert.assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+        eventPool.post("queued", false);
+        eventPool.post("rejected", false);
+        Assert.assertEquals(List.of("rejected"), listener.eventList);
+        Assert.assertEquals(Thread.currentThread().getName(), listener.threadList.get(0));
+        Assert.assertEquals(1, eventPool.getCallerRunCount());
+        listener.latch.countDown();
+        eventPool.shutDown(10, TimeUnit.SECONDS);
+        Assert.assertEquals(3, eventPool.getCompletedCount());
+    }
+
+    @Test
+    public void overflowTest() throws Exception {
+        AsyncEventPool eventPool = new AsyncEventPool("test", 1, 1);
+        RecordingListener listener = new RecordingListener();
+        eventPool.register(listener);
+        List<Object> deferredList = new CopyOnWriteArrayList<>();
+        eventPool.setOverflowHandler(deferredList::add);
+
+        // The queue is full, the last event is handed to the overflow handler instead of being processed
+        eventPool.post("block", false);
+        Assert.assertTrue(listener.started.await(10, TimeUnit.SECONDS));
+        eventPool.post("queued", false);
+        eventPool.post("deferred", false);
+        Assert.assertEquals(List.of("deferred"), deferredList);
+        Assert.assertTrue(listener.eventList.isEmpty());
+        Assert.assertEquals(0, eventPool.getCallerRunCount());
+        Assert.assertEquals(1, eventPool.getDeferredCount());
+        listener.latch.countDown();
+        eventPool.shutDown(10, TimeUnit.SECONDS);
+        Assert.assertEquals(List.of("block", "queued"), listener.eventList);
+        Assert.assertEquals(2, eventPool.getCompletedCount());
+    }
+
+    @Test
+    public void synchronousTest() throws Exception {
+        AsyncEventPool eventPool = new AsyncEventPool("test", 0, 1);
+        RecordingListener listener = new RecordingListener();
+        eventPool.register(listener);
+        eventPool.post("event", false);
+        Assert.assertEquals(List.of("event"), listener.eventList);
+        Assert.assertEquals(0, eventPool.getThreadCount());
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+}
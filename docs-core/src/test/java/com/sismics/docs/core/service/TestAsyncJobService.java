@@ -0,0 +1,35 @@
+package com.sismics.docs.core.service;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.constant.AsyncJobType;
+import com.sismics.docs.core.dao.AsyncJobDao;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+
+public class TestAsyncJobService extends BaseTransactionalTest {
+
+    @Test
+    public void resumeTest() throws Exception {
+        User user = createUser("resumeTest");
+        File file = createFile(user, File.UNKNOWN_SIZE);
+
+        // A file processing interrupted on another node
+        AsyncJobDao asyncJobDao = new AsyncJobDao();
+        asyncJobDao.enqueue(AsyncJobType.FILE_PROCESSING, file.getId(), "eng", "stopped", new Date(System.currentTimeMillis() - 1000));
+
+        // The job is resumed, and completed by the processing
+        AsyncJobService asyncJobService = new AsyncJobService();
+        Assert.assertEquals(1, asyncJobService.resumeJobs());
+        Assert.assertTrue(FileUtil.isProcessingFile(file.getId()));
+        Assert.assertEquals(0, asyncJobService.resumeJobs());
+        ThreadLocalContext.get().fireAllAsyncEvents(false);
+        Assert.assertFalse(FileUtil.isProcessingFile(file.getId()));
+        Assert.assertNull(asyncJobDao.getByKey(AsyncJobDao.getKey(AsyncJobType.FILE_PROCESSING, file.getId())));
+    }
+}
@@ -0,0 +1,84 @@
+package com.sismics.docs.core.service;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.CommentDao;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.model.jpa.Comment;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+public class TestCleanStorageService extends BaseTransactionalTest {
+
+    @Test
+    public void cleanTest() throws Exception {
+        User user = createUser("cleanTest");
+        File file = createFile(user, File.UNKNOWN_SIZE);
+        Path storageDir = DirectoryUtil.getStorageDirectory();
+
+        // Old and recent orphan stored files
+        String orphanId = UUID.randomUUID().toString();
+        FileTime oldTime = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+        Path orphanFile = Files.write(storageDir.resolve(orphanId), new byte[] { 1 });
+        Path orphanWebFile = Files.write(storageDir.resolve(orphanId + "_web"), new byte[] { 1 });
+        Files.setLastModifiedTime(orphanFile, oldTime);
+        Files.setLastModifiedTime(orphanWebFile, oldTime);
+        Path recentFile = Files.write(storageDir.resolve(UUID.randomUUID().toString()), new byte[] { 1 });
+
+        // Comments on a deleted document
+        DocumentDao documentDao = new DocumentDao();
+        Document document = new Document();
+        document.setUserId(user.getId());
+        document.setTitle("Deleted document");
+        document.setLanguage("eng");
+        document.setCreateDate(new Date());
+        String documentId = documentDao.create(document, user.getId());
+        CommentDao commentDao = new CommentDao();
+        List<String> commentIdList = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Comment comment = new Comment();
+            comment.setDocumentId(documentId);
+            comment.setUserId(user.getId());
+            comment.setContent("Orphan comment " + i);
+            commentIdList.add(commentDao.create(comment, user.getId()));
+        }
+        documentDao.delete(documentId, user.getId());
+        ThreadLocalContext.get().getEntityManager().flush();
+
+        // Clean by batches of 2
+        CleanStorageService cleanStorageService = new CleanStorageService(2, 0);
+        CleanStorageStatus status = new CleanStorageStatus();
+        cleanStorageService.clean(status);
+        Assert.assertEquals(CleanStorageStatus.State.COMPLETED, status.getState());
+        Assert.assertNull(status.getError());
+        Assert.assertNotNull(status.getEndDate());
+        Assert.assertTrue(status.getCheckedFileCount() >= 4);
+        Assert.assertTrue(status.getDeletedCountMap().get("orphan stored files") >= 2);
+        Assert.assertEquals(3L, (long) status.getDeletedCountMap().get("orphan comments"));
+        Assert.assertTrue(status.getDeletedCountMap().get("soft deleted comments") >= 3);
+
+        Assert.assertFalse(Files.exists(orphanFile));
+        Assert.assertFalse(Files.exists(orphanWebFile));
+        Assert.assertTrue(Files.exists(recentFile));
+        Assert.assertTrue(Files.exists(storageDir.resolve(file.getId())));
+        ThreadLocalContext.get().clearEntityManager();
+        for (String commentId : commentIdList) {
+            Assert.assertNull(ThreadLocalContext.get().getEntityManager().find(Comment.class, commentId));
+        }
+        Assert.assertNull(ThreadLocalContext.get().getEntityManager().find(Document.class, documentId));
+        Files.delete(recentFile);
+    }
+}
@@ -0,0 +1,39 @@
+package com.sismics.docs.core.service;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.AuthenticationTokenDao;
+import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+
+public class TestLastConnectionService extends BaseTransactionalTest {
+
+    @Test
+    public void flushTest() throws Exception {
+        User user = createUser("flushTest");
+        AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
+        String tokenId = authenticationTokenDao.create(new AuthenticationToken()
+                .setUserId(user.getId())
+                .setLongLasted(false));
+
+        // The connections are written once, with the last date
+        LastConnectionService lastConnectionService = new LastConnectionService();
+        Date beforeDate = new Date();
+        lastConnectionService.recordConnection(tokenId);
+        lastConnectionService.recordConnection(tokenId);
+        ThreadLocalContext.get().getEntityManager().flush();
+        int statementCount = ThreadLocalContext.get().getStatementCount();
+        lastConnectionService.flush();
+        lastConnectionService.flush();
+        Assert.assertEquals(1, ThreadLocalContext.get().getStatementCount() - statementCount);
+
+        ThreadLocalContext.get().clearEntityManager();
+        Date lastConnectionDate = authenticationTokenDao.get(tokenId).getLastConnectionDate();
+        Assert.assertNotNull(lastConnectionDate);
+        Assert.assertFalse(lastConnectionDate.before(beforeDate));
+    }
+}
@@ -1,4 +1,4 @@
-package com.sismics.docs.rest.util;
+package com.sismics.docs.core.util;
 
 import com.sismics.docs.core.dao.TagDao;
 import com.sismics.docs.core.dao.criteria.DocumentCriteria;
@@ -6,7 +6,7 @@ import com.sismics.docs.core.dao.criteria.TagCriteria;
 import com.sismics.docs.core.dao.dto.TagDto;
 import com.sismics.docs.core.model.jpa.Tag;
 import com.sismics.docs.core.model.jpa.User;
-import com.sismics.docs.rest.BaseTransactionalTest;
+import com.sismics.docs.BaseTransactionalTest;
 import com.sismics.util.mime.MimeType;
 import org.apache.poi.ss.formula.functions.T;
 import org.joda.time.DateTime;
@@ -1,6 +1,7 @@
 package com.sismics.docs.core.util;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
 import com.google.common.io.ByteStreams;
 import com.sismics.BaseTest;
 import org.junit.Assert;
@@ -8,7 +9,12 @@ import org.junit.Test;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 /**
  * Test of the encryption utilities.
@@ -48,4 +54,75 @@ public class TestEncryptUtil extends BaseTest {
         
         Assert.assertEquals(encryptedData.length, assertData.length);
     }
+
+    @Test
+    public void decryptStreamOffsetTest() throws Exception {
+        byte[] data = ByteStreams.toByteArray(EncryptionUtil.decryptInputStream(
+                getSystemResourceAsStream(FILE_PDF_ENCRYPTED), "OnceUponATime"));
+
+        // Decrypt from block aligned and unaligned offsets
+        for (int offset : new int[] { 0, 16, 37, 100, data.length - 1 }) {
+            InputStream encryptedStream = getSystemResourceAsStream(FILE_PDF_ENCRYPTED);
+            ByteStreams.skipFully(encryptedStream, offset);
+            byte[] partialData = ByteStreams.toByteArray(EncryptionUtil.decryptInputStream(encryptedStream, "OnceUponATime", offset));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, offset, data.length), partialData);
+        }
+    }
+
+    @Test
+    public void encryptStreamOffsetTest() throws Exception {
+        byte[] data = ByteStreams.toByteArray(getSystemResourceAsStream(FILE_PDF));
+        byte[] iv = EncryptionUtil.generateIv();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (OutputStream encryptedStream = EncryptionUtil.encryptOutputStream(outputStream, "OnceUponATime", iv, 0)) {
+            encryptedStream.write(data);
+        }
+        byte[] encryptedData = outputStream.toByteArray();
+
+        // The IV is not the one of the stored files
+        byte[] storedData = ByteStreams.toByteArray(new CipherInputStream(new ByteArrayInputStream(data),
+                EncryptionUtil.getEncryptionCipher("OnceUponATime")));
+        Assert.assertFalse(Arrays.equals(storedData, encryptedData));
+
+        // Append to the encrypted data from a block aligned offset
+        outputStream = new ByteArrayOutputStream();
+        outputStream.write(encryptedData, 0, 512);
+        try (OutputStream encryptedStream = EncryptionUtil.encryptOutputStream(outputStream, "OnceUponATime", iv, 512)) {
+            encryptedStream.write(data, 512, data.length - 512);
+        }
+        Assert.assertArrayEquals(encryptedData, outputStream.toByteArray());
+
+        // Decrypt from block aligned and unaligned offsets
+        for (int offset : new int[] { 0, 16, 37, data.length - 1 }) {
+            byte[] partialData = ByteStreams.toByteArray(EncryptionUtil.decryptInputStream(
+                    new ByteArrayInputStream(encryptedData, offset, encryptedData.length - offset), "OnceUponATime", iv, offset));
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, offset, data.length), partialData);
+        }
+
+        try {
+            EncryptionUtil.encryptOutputStream(new ByteArrayOutputStream(), "OnceUponATime", iv, 37);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // NOP
+        }
+    }
+
+    @Test
+    public void keyCacheTest() throws Exception {
+        // The key is derived once, then read from the cache
+        EncryptionUtil.invalidateKey("OnceUponATime");
+        CacheStats stats = EncryptionUtil.getKeyCacheStats();
+        SecretKey key = EncryptionUtil.getKey("OnceUponATime");
+        Assert.assertSame(key, EncryptionUtil.getKey("OnceUponATime"));
+        EncryptionUtil.decryptInputStream(getSystemResourceAsStream(FILE_PDF_ENCRYPTED), "OnceUponATime").close();
+        CacheStats delta = EncryptionUtil.getKeyCacheStats().minus(stats);
+        Assert.assertEquals(1, delta.loadCount());
+        Assert.assertEquals(2, delta.hitCount());
+
+        // An invalidated key is derived again
+        EncryptionUtil.invalidateKey("OnceUponATime");
+        stats = EncryptionUtil.getKeyCacheStats();
+        Assert.assertNotSame(key, EncryptionUtil.getKey("OnceUponATime"));
+        Assert.assertEquals(1, EncryptionUtil.getKeyCacheStats().minus(stats).loadCount());
+    }
 }
@@ -0,0 +1,103 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.sismics.BaseTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Test of the extraction cache.
+ */
+public class TestExtractionCache extends BaseTest {
+    @Test
+    public void getPutTest() throws Exception {
+        Path directory = Files.createTempDirectory("extraction-cache");
+        ExtractionCache extractionCache = new ExtractionCache(directory, 1000);
+        byte[] contentHash = ExtractionCache.hash(Paths.get(getResource(FILE_PDF).toURI()));
+        Assert.assertEquals(32, contentHash.length);
+
+        // Miss, then hit
+        String contentItem = ExtractionCache.getContentItem("eng", true);
+        Assert.assertEquals("content_eng_ocr", contentItem);
+        Assert.assertNull(extractionCache.getContent(contentHash, contentItem));
+        extractionCache.putContent(contentHash, contentItem, "Some content");
+        Assert.assertEquals("Some content", extractionCache.getContent(contentHash, contentItem));
+        Assert.assertNull(extractionCache.getContent(contentHash, ExtractionCache.getContentItem("eng", false)));
+        Assert.assertEquals(1, extractionCache.getHitCount());
+        Assert.assertEquals(2, extractionCache.getMissCount());
+        Assert.assertEquals(28, extractionCache.getSize());
+
+        // The item is stored encrypted, in a directory not named after the content hash
+        List<Path> fileList = listFiles(directory);
+        Assert.assertEquals(1, fileList.size());
+        Assert.assertNotEquals("Some content", Files.readString(fileList.get(0), StandardCharsets.ISO_8859_1));
+        Assert.assertFalse(fileList.get(0).toString().contains(BaseEncoding.base16().lowerCase().encode(contentHash)));
+
+        // The size is computed again on startup
+        Assert.assertEquals(28, new ExtractionCache(directory, 1000).getSize());
+
+        // Each write has its own IV
+        byte[] itemData = Files.readAllBytes(fileList.get(0));
+        extractionCache.putContent(contentHash, contentItem, "Some content");
+        Assert.assertFalse(Arrays.equals(itemData, Files.readAllBytes(fileList.get(0))));
+        Assert.assertEquals("Some content", extractionCache.getContent(contentHash, contentItem));
+        Assert.assertEquals(28, extractionCache.getSize());
+    }
+
+    @Test
+    public void evictionTest() throws Exception {
+        Path directory = Files.createTempDirectory("extraction-cache");
+        ExtractionCache extractionCache = new ExtractionCache(directory, 300);
+        byte[][] contentHashes = new byte[3][];
+        for (int i = 0; i < 3; i++) {
+            contentHashes[i] = Hashing.sha256().hashInt(i).asBytes();
+        }
+
+        extractionCache.put(contentHashes[0], ExtractionCache.WEB, new byte[100]);
+        extractionCache.put(contentHashes[1], ExtractionCache.WEB, new byte[100]);
+        setLastModifiedTimes(directory, 1000);
+
+        // The first entry is used, the second one is evicted
+        Assert.assertNotNull(extractionCache.get(contentHashes[0], ExtractionCache.WEB));
+        extractionCache.put(contentHashes[2], ExtractionCache.WEB, new byte[100]);
+        Assert.assertEquals(1, extractionCache.getEvictionCount());
+        Assert.assertEquals(232, extractionCache.getSize());
+        Assert.assertNotNull(extractionCache.get(contentHashes[0], ExtractionCache.WEB));
+        Assert.assertNull(extractionCache.get(contentHashes[1], ExtractionCache.WEB));
+        Assert.assertNotNull(extractionCache.get(contentHashes[2], ExtractionCache.WEB));
+
+        // Disabled cache
+        extractionCache = new ExtractionCache(directory, 0);
+        extractionCache.put(contentHashes[1], ExtractionCache.WEB, new byte[100]);
+        Assert.assertNull(extractionCache.get(contentHashes[0], ExtractionCache.WEB));
+        Assert.assertEquals(0, extractionCache.getMissCount());
+    }
+
+    /**
+     * Set the entries as last used in the past, before the next accesses.
+     */
+    private static void setLastModifiedTimes(Path directory, long time) throws Exception {
+        try (Stream<Path> pathStream = Files.list(directory)) {
+            for (Path entryDirectory : pathStream.collect(Collectors.toList())) {
+                Files.setLastModifiedTime(entryDirectory, FileTime.fromMillis(time));
+            }
+        }
+    }
+
+    private static List<Path> listFiles(Path directory) throws Exception {
+        try (Stream<Path> pathStream = Files.walk(directory)) {
+            return pathStream.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+}
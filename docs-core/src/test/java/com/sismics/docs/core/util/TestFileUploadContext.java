@@ -0,0 +1,72 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.io.ByteStreams;
+import com.sismics.BaseTest;
+import com.sismics.util.mime.MimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Test of the file upload context.
+ */
+public class TestFileUploadContext extends BaseTest {
+    @Test
+    public void receiveTest() throws Exception {
+        String privateKey = EncryptionUtil.generatePrivateKey();
+        byte[] data = ByteStreams.toByteArray(getSystemResourceAsStream(FILE_JPG));
+        String fileId = UUID.randomUUID().toString();
+
+        Path unencryptedFile;
+        try (FileUploadContext upload = FileUploadContext.receive(getSystemResourceAsStream(FILE_JPG), "apollo.jpg", privateKey)) {
+            // Sized, hashed and typed once
+            unencryptedFile = upload.getUnencryptedFile();
+            Assert.assertEquals((long) FILE_JPG_SIZE, upload.getSize());
+            Assert.assertArrayEquals(ExtractionCache.hash(Paths.get(getResource(FILE_JPG).toURI())), upload.getContentHash());
+            Assert.assertEquals(MimeType.IMAGE_JPEG, upload.getMimeType());
+            Assert.assertArrayEquals(data, Files.readAllBytes(unencryptedFile));
+
+            // The encrypted copy is moved in the storage
+            upload.store(fileId, privateKey);
+            Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
+            try (InputStream inputStream = EncryptionUtil.decryptInputStream(Files.newInputStream(storedFile), privateKey)) {
+                Assert.assertArrayEquals(data, ByteStreams.toByteArray(inputStream));
+            }
+            Files.delete(storedFile);
+
+            // Still used by another stage
+            upload.retain().close();
+            Assert.assertTrue(Files.exists(unencryptedFile));
+        }
+
+        // Released by all the stages
+        Assert.assertFalse(Files.exists(unencryptedFile));
+    }
+
+    @Test
+    public void ofTest() throws Exception {
+        String privateKey = EncryptionUtil.generatePrivateKey();
+        Path file = Paths.get(getResource(FILE_JPG).toURI());
+        String fileId = UUID.randomUUID().toString();
+        try (FileUploadContext upload = FileUploadContext.of(file, FILE_JPG)) {
+            Assert.assertEquals((long) FILE_JPG_SIZE, upload.getSize());
+            Assert.assertNull(upload.getContentHash());
+
+            // Encrypted from the file, hashed in the same pass
+            upload.store(fileId, privateKey);
+            Assert.assertArrayEquals(ExtractionCache.hash(file), upload.getContentHash());
+            Path storedFile = DirectoryUtil.getStorageDirectory().resolve(fileId);
+            Assert.assertFalse(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(storedFile)));
+            Files.delete(storedFile);
+        }
+
+        // The file is left in place
+        Assert.assertTrue(Files.exists(file));
+    }
+}
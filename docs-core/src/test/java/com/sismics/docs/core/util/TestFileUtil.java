@@ -4,15 +4,18 @@ import com.google.common.collect.Lists;
 import com.google.common.io.Resources;
 import com.sismics.BaseTest;
 import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.util.format.*;
 import com.sismics.util.mime.MimeType;
 import com.sismics.util.mime.MimeTypeUtil;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -75,6 +78,30 @@ public class TestFileUtil extends BaseTest {
         Assert.assertTrue(content.contains("All human beings are born free and equal in dignity and rights."));
     }
 
+    @Test
+    public void ocrScannedPdfTest() throws Exception {
+        Assume.assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+
+        // A fake Tesseract stands in for the real one
+        Path tesseract = Files.createTempFile("tesseract", ".sh");
+        Files.write(tesseract, "#!/bin/sh\nsleep 0.2\necho \"Fake OCR content\"\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(tesseract.toFile().setExecutable(true));
+        FileUtil.setTesseractCommand(tesseract.toAbsolutePath().toString());
+        try {
+            long ocrCount = FileUtil.getOcrCount();
+            Path path = Paths.get(getResource("scanned.pdf").toURI());
+            String content = new PdfFormatHandler().extractContent("eng", path);
+
+            // Each of the 3 pages is OCR-ized once, in its own process
+            Assert.assertEquals(3, content.split("Fake OCR content", -1).length - 1);
+            Assert.assertEquals(3, FileUtil.getOcrCount() - ocrCount);
+            Assert.assertEquals(0, FileUtil.getOcrRunningCount());
+        } finally {
+            FileUtil.setTesseractCommand("tesseract");
+            Files.delete(tesseract);
+        }
+    }
+
     @Test
     public void convertToPdfTest() throws Exception {
         try (InputStream inputStream0 = getSystemResourceAsStream(FILE_JPG2);
@@ -138,6 +165,13 @@ public class TestFileUtil extends BaseTest {
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
             PdfUtil.convertToPdf(documentDto, Lists.newArrayList(file0, file1, file2, file3, file4, file5), true, true, 10, outputStream);
             Assert.assertTrue(outputStream.toByteArray().length > 0);
+
+            // The encrypted file is merged from its cached fragment
+            long hitCount = AppContext.getInstance().getPdfCache().getHitCount();
+            outputStream = new ByteArrayOutputStream();
+            PdfUtil.convertToPdf(documentDto, Lists.newArrayList(file0, file1, file2, file3, file4, file5), true, true, 10, outputStream);
+            Assert.assertTrue(outputStream.toByteArray().length > 0);
+            Assert.assertEquals(hitCount + 1, AppContext.getInstance().getPdfCache().getHitCount());
         }
     }
 }
@@ -0,0 +1,75 @@
+package com.sismics.docs.core.util;
+
+import com.sismics.BaseTest;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Test of the PDF cache.
+ */
+public class TestPdfCache extends BaseTest {
+    @Test
+    public void loadPutTest() throws Exception {
+        Path directory = Files.createTempDirectory("pdf-cache");
+        PdfCache pdfCache = new PdfCache(directory, 1000000);
+        String privateKey = EncryptionUtil.generatePrivateKey();
+        MemoryUsageSetting memUsageSettings = MemoryUsageSetting.setupMainMemoryOnly();
+        String item = PdfCache.getItem(true, 10);
+        Assert.assertEquals("fit_10.pdf", item);
+
+        // Miss, then hit
+        Assert.assertNull(pdfCache.load("file1", privateKey, item, memUsageSettings));
+        try (PDDocument fragment = new PDDocument()) {
+            fragment.addPage(new PDPage());
+            fragment.addPage(new PDPage());
+            pdfCache.put("file1", privateKey, item, fragment);
+        }
+        try (PDDocument fragment = pdfCache.load("file1", privateKey, item, memUsageSettings)) {
+            Assert.assertNotNull(fragment);
+            Assert.assertEquals(2, fragment.getNumberOfPages());
+        }
+        Assert.assertNull(pdfCache.load("file1", privateKey, PdfCache.getItem(false, 10), memUsageSettings));
+        Assert.assertEquals(1, pdfCache.getHitCount());
+        Assert.assertEquals(2, pdfCache.getMissCount());
+        Assert.assertTrue(pdfCache.getSize() > 0);
+
+        // The fragment is stored encrypted
+        Path itemFile = directory.resolve("file1").resolve(item);
+        Assert.assertFalse(Files.readString(itemFile, StandardCharsets.ISO_8859_1).startsWith("%PDF"));
+
+        // Each write has its own IV
+        byte[] itemData = Files.readAllBytes(itemFile);
+        try (PDDocument fragment = pdfCache.load("file1", privateKey, item, memUsageSettings)) {
+            pdfCache.put("file1", privateKey, item, fragment);
+        }
+        Assert.assertFalse(Arrays.equals(Arrays.copyOf(itemData, EncryptionUtil.IV_LENGTH),
+                Arrays.copyOf(Files.readAllBytes(itemFile), EncryptionUtil.IV_LENGTH)));
+        try (PDDocument fragment = pdfCache.load("file1", privateKey, item, memUsageSettings)) {
+            Assert.assertEquals(2, fragment.getNumberOfPages());
+        }
+
+        // The size is computed again on startup
+        Assert.assertEquals(pdfCache.getSize(), new PdfCache(directory, 1000000).getSize());
+
+        // Invalidated with the file
+        pdfCache.invalidate("file1");
+        Assert.assertEquals(0, pdfCache.getSize());
+        Assert.assertNull(pdfCache.load("file1", privateKey, item, memUsageSettings));
+
+        // Not cached without a private key, or if disabled
+        try (PDDocument fragment = new PDDocument()) {
+            fragment.addPage(new PDPage());
+            pdfCache.put("file2", null, item, fragment);
+            new PdfCache(directory, 0).put("file2", privateKey, item, fragment);
+        }
+        Assert.assertFalse(Files.exists(directory.resolve("file2").resolve(item)));
+    }
+}
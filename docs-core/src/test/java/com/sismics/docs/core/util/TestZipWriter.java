@@ -0,0 +1,85 @@
+package com.sismics.docs.core.util;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.sismics.BaseTest;
+import com.sismics.docs.core.model.jpa.File;
+import com.sismics.util.mime.MimeType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.crypto.CipherOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Test of the ZIP writer.
+ */
+public class TestZipWriter extends BaseTest {
+    @Test
+    public void putFilesTest() throws Exception {
+        String privateKey = EncryptionUtil.generatePrivateKey();
+        byte[] jpg = ByteStreams.toByteArray(getSystemResourceAsStream(FILE_JPG));
+        byte[] txt = ByteStreams.toByteArray(getSystemResourceAsStream(FILE_TXT));
+
+        // More files than decrypted ahead
+        List<File> fileList = Lists.newArrayList();
+        List<String> nameList = Lists.newArrayList();
+        for (int i = 0; i < 8; i++) {
+            boolean image = i % 2 == 0;
+            File file = new File();
+            file.setId(UUID.randomUUID().toString());
+            file.setMimeType(image ? MimeType.IMAGE_JPEG : MimeType.TEXT_PLAIN);
+            file.setPrivateKey(privateKey);
+            try (InputStream inputStream = new ByteArrayInputStream(image ? jpg : txt);
+                 OutputStream outputStream = new CipherOutputStream(Files.newOutputStream(DirectoryUtil.getStorageDirectory().resolve(file.getId())),
+                         EncryptionUtil.getEncryptionCipher(privateKey))) {
+                ByteStreams.copy(inputStream, outputStream);
+            }
+            fileList.add(file);
+            nameList.add(i + (image ? ".jpg" : ".txt"));
+        }
+
+        // A file without private key is skipped, its encrypted content is not written
+        File keylessFile = new File();
+        keylessFile.setId(UUID.randomUUID().toString());
+        keylessFile.setMimeType(MimeType.TEXT_PLAIN);
+        fileList.add(3, keylessFile);
+        nameList.add(3, "keyless.txt");
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ZipWriter zipWriter = new ZipWriter(outputStream)) {
+            zipWriter.putEntry("metadata.json", "{}".getBytes(StandardCharsets.UTF_8));
+            zipWriter.putFiles(fileList, nameList);
+            Assert.assertEquals(2 + 4L * jpg.length + 4L * txt.length, zipWriter.getByteCount());
+        }
+
+        // The images are stored, the texts are compressed
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            ZipEntry zipEntry = zipInputStream.getNextEntry();
+            Assert.assertEquals("metadata.json", zipEntry.getName());
+            nameList.remove(3);
+            for (int i = 0; i < 8; i++) {
+                boolean image = i % 2 == 0;
+                zipEntry = zipInputStream.getNextEntry();
+                Assert.assertEquals(nameList.get(i), zipEntry.getName());
+                Assert.assertEquals(image ? ZipEntry.STORED : ZipEntry.DEFLATED, zipEntry.getMethod());
+                Assert.assertArrayEquals(image ? jpg : txt, ByteStreams.toByteArray(zipInputStream));
+            }
+            Assert.assertNull(zipInputStream.getNextEntry());
+        }
+
+        fileList.remove(3);
+        for (File file : fileList) {
+            Files.delete(DirectoryUtil.getStorageDirectory().resolve(file.getId()));
+        }
+    }
+}
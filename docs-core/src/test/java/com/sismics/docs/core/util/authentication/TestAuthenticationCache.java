@@ -0,0 +1,158 @@
+package com.sismics.docs.core.util.authentication;
+
+import com.google.common.collect.Sets;
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.AuthenticationTokenDao;
+import com.sismics.docs.core.dao.GroupDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.model.jpa.AuthenticationToken;
+import com.sismics.docs.core.model.jpa.Group;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.model.jpa.UserGroup;
+import com.sismics.util.context.ThreadLocalContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test of the authenticated users cache.
+ */
+public class TestAuthenticationCache extends BaseTransactionalTest {
+    @Test
+    public void testExpiry() {
+        AuthenticationCache.put("expired_token", newAuthenticatedUser("expired_user"), System.currentTimeMillis() - 1, AuthenticationCache.getVersion());
+        Assert.assertNull(AuthenticationCache.get("expired_token"));
+
+        AuthenticatedUser authenticatedUser = newAuthenticatedUser("valid_user");
+        AuthenticationCache.put("valid_token", authenticatedUser, System.currentTimeMillis() + 60000, AuthenticationCache.getVersion());
+        Assert.assertSame(authenticatedUser, AuthenticationCache.get("valid_token"));
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        User user = createUser("cache_user");
+        User otherUser = createUser("cache_other");
+        String token1 = createToken(user);
+        String token2 = createToken(user);
+        String otherToken = createToken(otherUser);
+
+        // Token deletion
+        cache(token1, user);
+        cache(token2, user);
+        new AuthenticationTokenDao().delete(token1);
+        Assert.assertNotNull(AuthenticationCache.get(token1));
+        commit();
+        Assert.assertNull(AuthenticationCache.get(token1));
+        Assert.assertNotNull(AuthenticationCache.get(token2));
+
+        // Group membership
+        Group group = new Group();
+        group.setName("cache_group");
+        GroupDao groupDao = new GroupDao();
+        String groupId = groupDao.create(group, "admin");
+        cache(token2, user);
+        cache(otherToken, otherUser);
+        UserGroup userGroup = new UserGroup();
+        userGroup.setGroupId(groupId);
+        userGroup.setUserId(user.getId());
+        groupDao.addMember(userGroup);
+        commit();
+        Assert.assertNull(AuthenticationCache.get(token2));
+        Assert.assertNotNull(AuthenticationCache.get(otherToken));
+
+        cache(token2, user);
+        groupDao.removeMember(groupId, user.getId());
+        commit();
+        Assert.assertNull(AuthenticationCache.get(token2));
+        Assert.assertNotNull(AuthenticationCache.get(otherToken));
+
+        // Group hierarchy
+        Group parentGroup = new Group();
+        parentGroup.setName("cache_parent_group");
+        String parentGroupId = groupDao.create(parentGroup, "admin");
+        cache(token2, user);
+        groupDao.update(new Group().setId(groupId).setName("cache_group"), "admin");
+        commit();
+        Assert.assertNotNull(AuthenticationCache.get(token2));
+        groupDao.update(new Group().setId(groupId).setName("cache_group").setParentId(parentGroupId), "admin");
+        commit();
+        Assert.assertNull(AuthenticationCache.get(token2));
+        Assert.assertNull(AuthenticationCache.get(otherToken));
+
+        // User disabled and deleted
+        UserDao userDao = new UserDao();
+        cache(token2, user);
+        cache(otherToken, otherUser);
+        user.setDisableDate(new Date());
+        userDao.update(user, "admin");
+        commit();
+        Assert.assertNull(AuthenticationCache.get(token2));
+        Assert.assertNotNull(AuthenticationCache.get(otherToken));
+
+        userDao.delete("cache_other", "admin");
+        commit();
+        Assert.assertNull(AuthenticationCache.get(otherToken));
+    }
+
+    @Test
+    public void testConcurrentLoad() throws Exception {
+        User user = createUser("cache_race");
+        String token = createToken(user);
+
+        // A request loads the user while its change is not committed yet
+        CountDownLatch loaded = new CountDownLatch(1);
+        CountDownLatch committed = new CountDownLatch(1);
+        Thread request = new Thread(() -> {
+            long version = AuthenticationCache.getVersion();
+            AuthenticatedUser staleUser = newAuthenticatedUser(user.getId());
+            loaded.countDown();
+            try {
+                committed.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            AuthenticationCache.put(token, staleUser, System.currentTimeMillis() + 60000, version);
+        });
+        request.start();
+        Assert.assertTrue(loaded.await(10, TimeUnit.SECONDS));
+
+        // The change is committed and invalidates the cache before the request caches the user it loaded
+        user.setDisableDate(new Date());
+        new UserDao().update(user, "admin");
+        commit();
+        committed.countDown();
+        request.join(10000);
+
+        // The stale user is not cached, the next request loads the committed state
+        Assert.assertNull(AuthenticationCache.get(token));
+        cache(token, user);
+        Assert.assertNotNull(AuthenticationCache.get(token));
+    }
+
+    /**
+     * Run the invalidations waiting for the commit, the transaction of the test is rolled back at the end.
+     */
+    private void commit() {
+        ThreadLocalContext.get().runAfterCommitActions();
+    }
+
+    private String createToken(User user) {
+        AuthenticationToken authenticationToken = new AuthenticationToken()
+                .setUserId(user.getId())
+                .setLongLasted(true);
+        return new AuthenticationTokenDao().create(authenticationToken);
+    }
+
+    private void cache(String authTokenId, User user) {
+        AuthenticationCache.put(authTokenId, new AuthenticatedUser(user.getId(), user.getUsername(), user.getEmail(),
+                Collections.emptySet(), Sets.newHashSet("admin")), System.currentTimeMillis() + 60000, AuthenticationCache.getVersion());
+    }
+
+    private AuthenticatedUser newAuthenticatedUser(String userId) {
+        return new AuthenticatedUser(userId, userId, null, Collections.emptySet(), Collections.emptySet());
+    }
+}
@@ -0,0 +1,138 @@
+package com.sismics.docs.core.util.format;
+
+import com.sismics.util.ImageUtil;
+import com.sismics.util.Scalr;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.MessageFormat;
+import java.util.concurrent.Callable;
+
+/**
+ * Benchmark of the thumbnail generation, comparing the full resolution decoding
+ * with the subsampled decoding and the chained downscaling.
+ * Not run with the unit tests, run it with: mvn test -Dtest=ThumbnailBenchmark
+ */
+public class ThumbnailBenchmark {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailBenchmark.class);
+
+    /**
+     * Warmup iterations.
+     */
+    private static final int WARMUP_ITERATIONS = 3;
+
+    /**
+     * Measured iterations.
+     */
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void benchmark() throws Exception {
+        benchmark("apollo_landscape.jpg", getResource("apollo_landscape.jpg"), new ImageFormatHandler());
+        benchmark("image.png", getResource("image.png"), new ImageFormatHandler());
+        benchmark("udhr.pdf", getResource("udhr.pdf"), new PdfFormatHandler());
+        benchmark("photo_24mp.jpg", generatePhoto(6000, 4000), new ImageFormatHandler());
+    }
+
+    /**
+     * Benchmark a sample file.
+     *
+     * @param name Sample name
+     * @param file Sample file
+     * @param formatHandler Format handler
+     * @throws Exception e
+     */
+    private void benchmark(String name, Path file, FormatHandler formatHandler) throws Exception {
+        // Previous pipeline: full decoding (PDF rendered at 72 DPI), both images scaled from the full image
+        report(name, "full decoding", measure(() -> {
+            BufferedImage image;
+            if (formatHandler instanceof ImageFormatHandler) {
+                try (InputStream inputStream = Files.newInputStream(file)) {
+                    image = ImageIO.read(inputStream);
+                }
+            } else {
+                image = formatHandler.generateThumbnail(file, 842);
+            }
+            Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 1280);
+            Scalr.resize(image, Scalr.Method.ULTRA_QUALITY, Scalr.Mode.AUTOMATIC, 256);
+            return null;
+        }));
+
+        // Current pipeline: decoding for the web size, the thumbnail scaled from the web image
+        report(name, "sized decoding", measure(() -> {
+            BufferedImage image = formatHandler.generateThumbnail(file, 1280);
+            BufferedImage web = Scalr.resize(image, Scalr.Method.QUALITY, Scalr.Mode.AUTOMATIC, 1280);
+            Scalr.resize(web, Scalr.Method.QUALITY, Scalr.Mode.AUTOMATIC, 256);
+            return null;
+        }));
+    }
+
+    /**
+     * Measure the time and the memory allocated by an operation, on this thread.
+     *
+     * @param operation Operation
+     * @return Average time in milliseconds and allocated bytes
+     * @throws Exception e
+     */
+    private long[] measure(Callable<Void> operation) throws Exception {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            operation.call();
+        }
+        long startTime = System.nanoTime();
+        long startAllocated = threadMXBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.call();
+        }
+        long allocated = threadMXBean.getCurrentThreadAllocatedBytes() - startAllocated;
+        long time = System.nanoTime() - startTime;
+        return new long[] { time / ITERATIONS / 1_000_000, allocated / ITERATIONS };
+    }
+
+    private static void report(String name, String pipeline, long[] result) {
+        log.info(MessageFormat.format("{0} ({1}): {2} ms/op, {3} MB allocated/op",
+                name, pipeline, result[0], result[1] / 1024 / 1024));
+    }
+
+    private static Path getResource(String name) throws Exception {
+        return Paths.get(ClassLoader.getSystemResource("file/" + name).toURI());
+    }
+
+    /**
+     * Generate a large JPEG, the samples are small.
+     *
+     * @param width Width
+     * @param height Height
+     * @return JPEG file
+     * @throws Exception e
+     */
+    private static Path generatePhoto(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, width, height, Color.ORANGE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        Path file = Files.createTempFile("photo", ".jpg");
+        file.toFile().deleteOnExit();
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+            ImageUtil.writeJpeg(image, outputStream);
+            Files.write(file, outputStream.toByteArray());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,69 @@
+package com.sismics.docs.core.util.indexing;
+
+import com.sismics.docs.BaseTransactionalTest;
+import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.jpa.Document;
+import com.sismics.docs.core.model.jpa.User;
+import com.sismics.util.context.ThreadLocalContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NoLockFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Test of the index rebuild.
+ */
+public class TestLuceneIndexRebuild extends BaseTransactionalTest {
+    @Test
+    public void resumeTest() throws Exception {
+        User user = createUser("resumeTest");
+        DocumentDao documentDao = new DocumentDao();
+        Document document = new Document();
+        document.setUserId(user.getId());
+        document.setTitle("Old title");
+        document.setLanguage("eng");
+        document.setCreateDate(new Date());
+        String documentId = documentDao.create(document, user.getId());
+        ThreadLocalContext.get().getEntityManager().flush();
+
+        LuceneIndexingHandler indexingHandler = (LuceneIndexingHandler) AppContext.getInstance().getIndexingHandler();
+        Path path = Files.createTempDirectory("lucene-rebuild");
+
+        // The document is indexed, then edited after the checkpoint
+        LuceneIndexRebuild rebuild = new LuceneIndexRebuild(indexingHandler, new NIOFSDirectory(path, NoLockFactory.INSTANCE), path);
+        rebuild.addDocuments(Collections.singletonList(document));
+        rebuild.checkpoint(IndexRebuild.Phase.DOCUMENTS, documentId);
+        document.setTitle("New title");
+        documentDao.update(document, user.getId());
+        ThreadLocalContext.get().getEntityManager().flush();
+        rebuild.touch(documentId);
+        rebuild.abort();
+
+        // The resumed rebuild indexes the edited document again
+        rebuild = new LuceneIndexRebuild(indexingHandler, new NIOFSDirectory(path, NoLockFactory.INSTANCE), path);
+        Assert.assertEquals(IndexRebuild.Phase.DOCUMENTS, rebuild.getPhase());
+        Assert.assertEquals(documentId, rebuild.getCursor());
+        Assert.assertTrue(rebuild.getTouchedIdSet().contains(documentId));
+        rebuild.reindexTouched();
+        rebuild.close();
+        try (Directory directory = new NIOFSDirectory(path, NoLockFactory.INSTANCE);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            Assert.assertEquals(1, searcher.count(new TermQuery(new Term("id", documentId))));
+            Assert.assertEquals(1, searcher.count(new TermQuery(new Term("title_raw", "New title"))));
+            Assert.assertEquals(0, searcher.count(new TermQuery(new Term("title_raw", "Old title"))));
+        }
+        rebuild.delete();
+    }
+}
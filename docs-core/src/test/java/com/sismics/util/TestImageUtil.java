@@ -3,6 +3,11 @@ package com.sismics.util;
 import org.junit.Assert;
 import org.junit.Test;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
 /**
  * Test of the image utilities.
  * 
@@ -14,4 +19,23 @@ public class TestImageUtil {
     public void computeGravatarTest() {
         Assert.assertEquals("0bc83cb571cd1c50ba6f3e8a78ef1346", ImageUtil.computeGravatar("MyEmailAddress@example.com "));
     }
+
+    @Test
+    public void readImageTest() throws Exception {
+        Assert.assertEquals(1, ImageUtil.getSubsampling(2000, 1000, 1280));
+        Assert.assertEquals(3, ImageUtil.getSubsampling(6000, 8000, 1280));
+
+        // Decoded at full size, smaller than twice the requested size
+        Path file = Paths.get(ClassLoader.getSystemResource("file/apollo_landscape.jpg").toURI());
+        BufferedImage fullImage = ImageIO.read(file.toFile());
+        BufferedImage image = ImageUtil.readImage(file, 256);
+        Assert.assertEquals(fullImage.getWidth(), image.getWidth());
+
+        // Subsampled
+        image = ImageUtil.readImage(file, fullImage.getWidth() / 4);
+        Assert.assertEquals((fullImage.getWidth() + 1) / 2, image.getWidth());
+
+        // Unknown format
+        Assert.assertNull(ImageUtil.readImage(Paths.get(ClassLoader.getSystemResource("file/document.txt").toURI()), 256));
+    }
 }
@@ -0,0 +1,232 @@
+package com.sismics.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JWT verifiers built from the JSON Web Key Sets of the issuers, by issuer and key ID.
+ * The key sets are refreshed in the background, and fetched again when a token is signed by an unknown key,
+ * at most once per interval to protect the issuer.
+ * Verifiers are thread safe and shared by all the requests.
+ */
+public class JwksKeyCache {
+    /**
+     * Logger.
+     */
+    private static final Logger log = LoggerFactory.getLogger(JwksKeyCache.class);
+
+    /**
+     * HTTP client.
+     */
+    private final OkHttpClient client;
+
+    /**
+     * Minimum interval between two fetches caused by unknown keys, in milliseconds.
+     */
+    private final long forcedRefreshInterval;
+
+    /**
+     * Key sets, by issuer.
+     */
+    private final LoadingCache<String, KeySet> keySetCache;
+
+    /**
+     * Constructor of JwksKeyCache.
+     *
+     * @param client HTTP client
+     * @param refreshAfter Age of a key set refreshed in the background, in milliseconds
+     * @param expireAfter Age of a key set fetched again before use, if the background refresh failed, in milliseconds
+     * @param forcedRefreshInterval Minimum interval between two fetches caused by unknown keys, in milliseconds
+     */
+    public JwksKeyCache(OkHttpClient client, long refreshAfter, long expireAfter, long forcedRefreshInterval) {
+        this.client = client;
+        this.forcedRefreshInterval = forcedRefreshInterval;
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        keySetCache = CacheBuilder.newBuilder()
+                .maximumSize(100)
+                .refreshAfterWrite(refreshAfter, TimeUnit.MILLISECONDS)
+                .expireAfterWrite(expireAfter, TimeUnit.MILLISECONDS)
+                .build(CacheLoader.asyncReloading(new CacheLoader<String, KeySet>() {
+                    @Override
+                    public KeySet load(String issuer) throws Exception {
+                        return fetch(issuer, null);
+                    }
+
+                    @Override
+                    public ListenableFuture<KeySet> reload(String issuer, KeySet oldKeySet) throws Exception {
+                        return Futures.immediateFuture(fetch(issuer, oldKeySet));
+                    }
+                }, executor));
+    }
+
+    /**
+     * Returns the verifier of the tokens signed by a key.
+     *
+     * @param issuer Issuer
+     * @param keyId Key ID
+     * @return JWT verifier, null if the issuer has no such key
+     */
+    public JWTVerifier getVerifier(String issuer, String keyId) {
+        if (issuer == null || keyId == null) {
+            return null;
+        }
+
+        KeySet keySet;
+        try {
+            keySet = keySetCache.get(issuer);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            log.error("Error getting the keys of the jwt issuer: " + issuer, e.getCause());
+            return null;
+        }
+        JWTVerifier verifier = keySet.verifierMap.get(keyId);
+        if (verifier != null) {
+            return verifier;
+        }
+
+        // The issuer may have rotated its keys
+        synchronized (keySet) {
+            long now = System.currentTimeMillis();
+            if (now - keySet.fetchTime < forcedRefreshInterval) {
+                return null;
+            }
+            keySet.fetchTime = now;
+        }
+        try {
+            keySet = fetch(issuer, keySet);
+        } catch (Exception e) {
+            log.error("Error getting the keys of the jwt issuer: " + issuer, e);
+            return null;
+        }
+        keySetCache.put(issuer, keySet);
+        return keySet.verifierMap.get(keyId);
+    }
+
+    /**
+     * Fetch the key set of an issuer.
+     *
+     * @param issuer Issuer
+     * @param oldKeySet Previous key set, its verifiers are kept for the unchanged keys
+     * @return Key set
+     * @throws Exception e
+     */
+    private KeySet fetch(String issuer, KeySet oldKeySet) throws Exception {
+        String jwtIssuerCerts = issuer + "/protocol/openid-connect/certs";
+        Request request = new Request.Builder()
+                .url(jwtIssuerCerts)
+                .get()
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            log.info("Successfully called the jwt issuer at: " + jwtIssuerCerts + " - " + response.code());
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("Unexpected response from the jwt issuer: " + response.code());
+            }
+
+            KeySet keySet = new KeySet();
+            try (Reader reader = response.body().charStream();
+                 JsonReader jsonReader = Json.createReader(reader)) {
+                for (JsonValue keyValue : jsonReader.readObject().getJsonArray("keys")) {
+                    JsonObject key = keyValue.asJsonObject();
+                    if (!"RSA".equals(key.getString("kty", null)) || !key.containsKey("kid")) {
+                        continue;
+                    }
+                    try {
+                        String keyId = key.getString("kid");
+                        RSAPublicKey publicKey = getPublicKey(key);
+                        JWTVerifier verifier = null;
+                        if (oldKeySet != null && publicKey.equals(oldKeySet.publicKeyMap.get(keyId))) {
+                            verifier = oldKeySet.verifierMap.get(keyId);
+                        }
+                        if (verifier == null) {
+                            verifier = JWT.require(Algorithm.RSA256(publicKey, null)).build();
+                        }
+                        keySet.publicKeyMap.put(keyId, publicKey);
+                        keySet.verifierMap.put(keyId, verifier);
+                    } catch (Exception e) {
+                        log.error("Error reading the key " + key.getString("kid") + " of the jwt issuer: " + issuer, e);
+                    }
+                }
+            }
+            return keySet;
+        }
+    }
+
+    /**
+     * Returns the public key of a JSON Web Key, from its modulus and exponent or from its certificate.
+     *
+     * @param key JSON Web Key
+     * @return Public key
+     * @throws Exception e
+     */
+    private static RSAPublicKey getPublicKey(JsonObject key) throws Exception {
+        if (key.containsKey("n") && key.containsKey("e")) {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            RSAPublicKeySpec keySpec = new RSAPublicKeySpec(
+                    new BigInteger(1, decoder.decode(key.getString("n"))),
+                    new BigInteger(1, decoder.decode(key.getString("e"))));
+            return (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(keySpec);
+        }
+
+        byte[] certificate = Base64.getDecoder().decode(key.getJsonArray("x5c").getString(0));
+        PublicKey publicKey = CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(certificate))
+                .getPublicKey();
+        return (RSAPublicKey) publicKey;
+    }
+
+    /**
+     * Key set of an issuer.
+     */
+    private static class KeySet {
+        /**
+         * Public keys, by key ID.
+         */
+        private final Map<String, RSAPublicKey> publicKeyMap = new HashMap<>();
+
+        /**
+         * Verifiers, by key ID.
+         */
+        private final Map<String, JWTVerifier> verifierMap = new HashMap<>();
+
+        /**
+         * Time of the last fetch.
+         */
+        private long fetchTime = System.currentTimeMillis();
+    }
+}
@@ -7,6 +7,7 @@ import com.sismics.util.EnvironmentUtil;
 import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.jpa.EMF;
 import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.ws.rs.core.HttpHeaders;
 import org.apache.log4j.Level;
@@ -118,6 +119,7 @@ public class RequestContextFilter implements Filter {
                 if (statusClass == 2 || statusClass == 3) {
                     try {
                         em.getTransaction().commit();
+                        context.runAfterCommitActions();
                     } catch (Exception e) {
                         log.error("Error during commit", e);
                         r.sendError(500);
@@ -134,9 +136,15 @@ public class RequestContextFilter implements Filter {
             }
         }
 
+        if (log.isDebugEnabled()) {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            log.debug(MessageFormat.format("{0} {1}: {2} SQL statements", httpRequest.getMethod(),
+                    httpRequest.getRequestURI(), context.getStatementCount()));
+        }
+
         // Fire all pending async events after request transaction commit.
         // This way, all modifications done during this request are available in the listeners.
-        context.fireAllAsyncEvents();
+        context.fireAllAsyncEvents(true);
 
         ThreadLocalContext.cleanup();
     }
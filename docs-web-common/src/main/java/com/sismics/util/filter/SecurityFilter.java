@@ -7,6 +7,7 @@ import com.sismics.docs.core.dao.RoleBaseFunctionDao;
 import com.sismics.docs.core.dao.criteria.GroupCriteria;
 import com.sismics.docs.core.dao.dto.GroupDto;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.authentication.AuthenticatedUser;
 import com.sismics.security.AnonymousPrincipal;
 import com.sismics.security.UserPrincipal;
 import org.joda.time.DateTimeZone;
@@ -50,28 +51,16 @@ public abstract class SecurityFilter implements Filter {
     }
 
     /**
-     * Injects the given user into the request, with the appropriate authentication state.
+     * Loads the groups and base functions of a user.
      *
-     * @param request HTTP request
-     * @param user nullable User to inject
+     * @param user nullable User
+     * @return Authenticated user, null if the user is not valid
      */
-    private void injectUser(HttpServletRequest request, User user) {
+    protected AuthenticatedUser loadAuthenticatedUser(User user) {
         // Check if the user is still valid
-        if (user != null && user.getDeleteDate() == null && user.getDisableDate() == null) {
-            injectAuthenticatedUser(request, user);
-        } else {
-            injectAnonymousUser(request);
+        if (user == null || user.getDeleteDate() != null || user.getDisableDate() != null) {
+            return null;
         }
-    }
-
-    /**
-     * Inject an authenticated user into the request attributes.
-     *
-     * @param request HTTP request
-     * @param user User to inject
-     */
-    private void injectAuthenticatedUser(HttpServletRequest request, User user) {
-        UserPrincipal userPrincipal = new UserPrincipal(user.getId(), user.getUsername());
 
         // Add groups
         GroupDao groupDao = new GroupDao();
@@ -86,16 +75,26 @@ public abstract class SecurityFilter implements Filter {
                 groupRoleIdSet.add(groupDto.getRoleId());
             }
         }
-        userPrincipal.setGroupIdSet(groupIdSet);
 
         // Add base functions
         groupRoleIdSet.add(user.getRoleId());
         RoleBaseFunctionDao userBaseFunction = new RoleBaseFunctionDao();
         Set<String> baseFunctionSet = userBaseFunction.findByRoleId(groupRoleIdSet);
-        userPrincipal.setBaseFunctionSet(baseFunctionSet);
 
-        // Add email
-        userPrincipal.setEmail(user.getEmail());
+        return new AuthenticatedUser(user.getId(), user.getUsername(), user.getEmail(), groupIdSet, baseFunctionSet);
+    }
+
+    /**
+     * Inject an authenticated user into the request attributes.
+     *
+     * @param request HTTP request
+     * @param authenticatedUser Authenticated user to inject
+     */
+    private void injectAuthenticatedUser(HttpServletRequest request, AuthenticatedUser authenticatedUser) {
+        UserPrincipal userPrincipal = new UserPrincipal(authenticatedUser.getId(), authenticatedUser.getUsername());
+        userPrincipal.setGroupIdSet(authenticatedUser.getGroupIdSet());
+        userPrincipal.setBaseFunctionSet(authenticatedUser.getBaseFunctionSet());
+        userPrincipal.setEmail(authenticatedUser.getEmail());
 
         request.setAttribute(PRINCIPAL_ATTRIBUTE, userPrincipal);
     }
@@ -127,13 +126,27 @@ public abstract class SecurityFilter implements Filter {
         HttpServletRequest request = (HttpServletRequest) req;
 
         if (!hasIdentifiedUser(request)) {
-            User user = authenticate(request);
-            injectUser(request, user);
+            AuthenticatedUser authenticatedUser = getAuthenticatedUser(request);
+            if (authenticatedUser != null) {
+                injectAuthenticatedUser(request, authenticatedUser);
+            } else {
+                injectAnonymousUser(request);
+            }
         }
 
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * Authenticates an user from the given request parameters, with its groups and base functions.
+     *
+     * @param request HTTP request
+     * @return nullable authenticated user
+     */
+    protected AuthenticatedUser getAuthenticatedUser(HttpServletRequest request) {
+        return loadAuthenticatedUser(authenticate(request));
+    }
+
     /**
      * Authenticates an user from the given request parameters.
      *
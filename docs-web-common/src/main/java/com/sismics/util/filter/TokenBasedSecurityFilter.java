@@ -4,6 +4,8 @@ import com.sismics.docs.core.dao.AuthenticationTokenDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.model.jpa.AuthenticationToken;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.authentication.AuthenticatedUser;
+import com.sismics.docs.core.util.authentication.AuthenticationCache;
 
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
@@ -67,40 +69,81 @@ public class TokenBasedSecurityFilter extends SecurityFilter {
     }
 
     /**
-     * Returns true if the token is expired.
+     * Returns the expiry time of a token.
      * 
      * @param authenticationToken Authentication token
-     * @return Token expired
+     * @return Expiry time (timestamp)
      */
-    private boolean isTokenExpired(AuthenticationToken authenticationToken) {
-        final long now = new Date().getTime();
+    private long getExpiryTime(AuthenticationToken authenticationToken) {
         final long creationDate = authenticationToken.getCreationDate().getTime();
         if (authenticationToken.isLongLasted()) {
-            return now >= creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
+            return creationDate + ((long) TOKEN_LONG_LIFETIME) * 1000L;
         } else {
             long date = authenticationToken.getLastConnectionDate() != null ?
                     authenticationToken.getLastConnectionDate().getTime() : creationDate;
-            return now >= date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
+            return date + ((long) TOKEN_SESSION_LIFETIME) * 1000L;
         }
     }
 
+    /**
+     * Returns a valid server token, expired tokens are deleted.
+     *
+     * @param authTokenId Auth token ID
+     * @return nullable Authentication token
+     */
+    private AuthenticationToken getValidToken(String authTokenId) {
+        AuthenticationTokenDao authTokenDao = new AuthenticationTokenDao();
+        AuthenticationToken authToken = authTokenDao.get(authTokenId);
+        if (authToken == null) {
+            return null;
+        }
+
+        if (new Date().getTime() >= getExpiryTime(authToken)) {
+            handleExpiredToken(authTokenDao, authTokenId);
+            return null;
+        }
+
+        return authToken;
+    }
+
     @Override
-    protected User authenticate(HttpServletRequest request) {
+    protected AuthenticatedUser getAuthenticatedUser(HttpServletRequest request) {
         // Get the value of the client authentication token
         String authTokenId = extractAuthToken(request.getCookies());
         if (authTokenId == null) {
             return null;
         }
 
-        // Get the corresponding server token
-        AuthenticationTokenDao authTokenDao = new AuthenticationTokenDao();
-        AuthenticationToken authToken = authTokenDao.get(authTokenId);
+        // Cached until the token expires or the user data changes
+        AuthenticatedUser authenticatedUser = AuthenticationCache.get(authTokenId);
+        if (authenticatedUser != null) {
+            return authenticatedUser;
+        }
+
+        long cacheVersion = AuthenticationCache.getVersion();
+        AuthenticationToken authToken = getValidToken(authTokenId);
         if (authToken == null) {
             return null;
         }
 
-        if (isTokenExpired(authToken)) {
-            handleExpiredToken(authTokenDao, authTokenId);
+        authenticatedUser = loadAuthenticatedUser(new UserDao().getById(authToken.getUserId()));
+        if (authenticatedUser != null) {
+            AuthenticationCache.put(authTokenId, authenticatedUser, getExpiryTime(authToken), cacheVersion);
+        }
+        return authenticatedUser;
+    }
+
+    @Override
+    protected User authenticate(HttpServletRequest request) {
+        // Get the value of the client authentication token
+        String authTokenId = extractAuthToken(request.getCookies());
+        if (authTokenId == null) {
+            return null;
+        }
+
+        // Get the corresponding server token
+        AuthenticationToken authToken = getValidToken(authTokenId);
+        if (authToken == null) {
             return null;
         }
 
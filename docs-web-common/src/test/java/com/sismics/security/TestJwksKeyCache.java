@@ -0,0 +1,198 @@
+package com.sismics.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test of the JWKS key cache, against a local JWKS server.
+ */
+public class TestJwksKeyCache {
+    /**
+     * Local JWKS server.
+     */
+    private HttpServer server;
+
+    /**
+     * Issuer served by the local server.
+     */
+    private String issuer;
+
+    /**
+     * Number of calls to the local server.
+     */
+    private final AtomicInteger callCount = new AtomicInteger();
+
+    /**
+     * Key pairs published by the local server, by key ID.
+     */
+    private final Map<String, KeyPair> keyPairMap = new LinkedHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        keyPairMap.put("key1", generateKeyPair());
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/realms/docs/protocol/openid-connect/certs", exchange -> {
+            callCount.incrementAndGet();
+            JsonArrayBuilder keys = Json.createArrayBuilder();
+            synchronized (keyPairMap) {
+                for (Map.Entry<String, KeyPair> entry : keyPairMap.entrySet()) {
+                    RSAPublicKey publicKey = (RSAPublicKey) entry.getValue().getPublic();
+                    keys.add(Json.createObjectBuilder()
+                            .add("kid", entry.getKey())
+                            .add("kty", "RSA")
+                            .add("alg", "RS256")
+                            .add("n", encode(publicKey.getModulus()))
+                            .add("e", encode(publicKey.getPublicExponent())));
+                }
+            }
+            byte[] body = Json.createObjectBuilder().add("keys", keys).build().toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        issuer = "http://localhost:" + server.getAddress().getPort() + "/realms/docs";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSteadyState() throws Exception {
+        JwksKeyCache keyCache = new JwksKeyCache(new OkHttpClient(), 60000, 3600000, 60000);
+
+        // The key set is fetched once, then the same verifier is used for all the tokens
+        JWTVerifier verifier = keyCache.getVerifier(issuer, "key1");
+        Assert.assertNotNull(verifier);
+        Assert.assertEquals(1, callCount.get());
+        for (int i = 0; i < 1000; i++) {
+            String token = sign("key1", "user" + i);
+            JWTVerifier cachedVerifier = keyCache.getVerifier(issuer, "key1");
+            Assert.assertSame(verifier, cachedVerifier);
+            Assert.assertEquals("user" + i, cachedVerifier.verify(token).getSubject());
+        }
+        Assert.assertEquals(1, callCount.get());
+
+        // A token signed by another key is rejected
+        KeyPair otherKeyPair = generateKeyPair();
+        String otherToken = JWT.create()
+                .withKeyId("key1")
+                .withIssuer(issuer)
+                .sign(Algorithm.RSA256((RSAPublicKey) otherKeyPair.getPublic(), (RSAPrivateKey) otherKeyPair.getPrivate()));
+        try {
+            verifier.verify(otherToken);
+            Assert.fail();
+        } catch (SignatureVerificationException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void testUnknownKey() throws Exception {
+        KeyPair keyPair2 = generateKeyPair();
+        JwksKeyCache keyCache = new JwksKeyCache(new OkHttpClient(), 60000, 3600000, 1000);
+        Assert.assertNotNull(keyCache.getVerifier(issuer, "key1"));
+
+        // Unknown keys don't cause a fetch until the interval is elapsed
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNull(keyCache.getVerifier(issuer, "unknown"));
+        }
+        Assert.assertEquals(1, callCount.get());
+
+        // The rotated key is found by the next forced refresh
+        synchronized (keyPairMap) {
+            keyPairMap.put("key2", keyPair2);
+        }
+        Assert.assertNull(keyCache.getVerifier(issuer, "key2"));
+        Thread.sleep(1100);
+        JWTVerifier verifier = keyCache.getVerifier(issuer, "key2");
+        Assert.assertNotNull(verifier);
+        Assert.assertEquals(2, callCount.get());
+        verifier.verify(sign("key2", "user"));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNull(keyCache.getVerifier(issuer, "unknown"));
+        }
+        Assert.assertEquals(2, callCount.get());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        JwksKeyCache keyCache = new JwksKeyCache(new OkHttpClient(), 200, 3600000, 3600000);
+        JWTVerifier verifier = keyCache.getVerifier(issuer, "key1");
+        Assert.assertNotNull(verifier);
+        synchronized (keyPairMap) {
+            keyPairMap.put("key2", generateKeyPair());
+        }
+
+        // An old key set is still used while it is refreshed in the background
+        Thread.sleep(250);
+        Assert.assertSame(verifier, keyCache.getVerifier(issuer, "key1"));
+        for (int i = 0; i < 50 && callCount.get() < 2; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(2, callCount.get());
+        for (int i = 0; i < 50 && keyCache.getVerifier(issuer, "key2") == null; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertNotNull(keyCache.getVerifier(issuer, "key2"));
+        Assert.assertEquals(2, callCount.get());
+    }
+
+    @Test
+    public void testUnreachableIssuer() {
+        JwksKeyCache keyCache = new JwksKeyCache(new OkHttpClient(), 60000, 3600000, 60000);
+        Assert.assertNull(keyCache.getVerifier("http://localhost:1/realms/docs", "key1"));
+        Assert.assertNull(keyCache.getVerifier(null, "key1"));
+    }
+
+    private String sign(String keyId, String subject) {
+        KeyPair keyPair = keyPairMap.get(keyId);
+        return JWT.create()
+                .withKeyId(keyId)
+                .withIssuer(issuer)
+                .withSubject(subject)
+                .sign(Algorithm.RSA256((RSAPublicKey) keyPair.getPublic(), (RSAPrivateKey) keyPair.getPrivate()));
+    }
+
+    private static KeyPair generateKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static String encode(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -5,15 +5,18 @@ import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
 import com.sismics.docs.core.dao.ConfigDao;
 import com.sismics.docs.core.dao.DocumentDao;
-import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.UserDao;
 import com.sismics.docs.core.event.RebuildIndexAsyncEvent;
 import com.sismics.docs.core.model.context.AppContext;
+import com.sismics.docs.core.model.context.AsyncEventPool;
 import com.sismics.docs.core.model.jpa.Config;
-import com.sismics.docs.core.model.jpa.File;
+import com.sismics.docs.core.service.CleanStorageStatus;
 import com.sismics.docs.core.service.InboxService;
 import com.sismics.docs.core.util.ConfigUtil;
-import com.sismics.docs.core.util.DirectoryUtil;
+import com.sismics.docs.core.util.ExtractionCache;
+import com.sismics.docs.core.util.FileUtil;
+import com.sismics.docs.core.util.PdfCache;
+import com.sismics.docs.core.util.indexing.IndexingHandler;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.rest.constant.BaseFunction;
@@ -29,8 +32,6 @@ import com.sismics.util.log4j.MemoryAppender;
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObjectBuilder;
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.Query;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Response;
 import org.apache.commons.lang3.StringUtils;
@@ -39,9 +40,6 @@ import org.apache.log4j.Level;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.text.MessageFormat;
 import java.util.*;
 
@@ -68,6 +66,36 @@ public class AppResource extends BaseResource {
      * @apiSuccess {Boolean} guest_login True if guest login is enabled
      * @apiSuccess {String} default_language Default platform language
      * @apiSuccess {Number} queued_tasks Number of queued tasks waiting to be processed
+     * @apiSuccess {Object[]} async_pools Asynchronous event pools
+     * @apiSuccess {String} async_pools.name Pool name
+     * @apiSuccess {Number} async_pools.threads Number of threads
+     * @apiSuccess {Number} async_pools.active_threads Number of threads processing an event
+     * @apiSuccess {Number} async_pools.queue_size Number of events waiting in the queue
+     * @apiSuccess {Number} async_pools.queue_capacity Maximum number of events in the queue
+     * @apiSuccess {Number} async_pools.completed Number of processed events
+     * @apiSuccess {Number} async_pools.caller_runs Number of events processed by the posting thread because the queue was full
+     * @apiSuccess {Number} async_pools.deferred Number of events left to their durable job because the queue was full
+     * @apiSuccess {Object[]} async_pools.wait_histogram Time spent in the queue
+     * @apiSuccess {Number} async_pools.wait_histogram.max Upper bound of the bucket (in milliseconds), absent for the last bucket
+     * @apiSuccess {Number} async_pools.wait_histogram.count Number of events
+     * @apiSuccess {Object[]} async_pools.run_histogram Processing time, same format as wait_histogram
+     * @apiSuccess {Number} ocr_running_processes Number of OCR processes running
+     * @apiSuccess {Number} ocr_processes Number of OCR processes run since the startup
+     * @apiSuccess {Number} ocr_time Time spent in OCR processes since the startup (in milliseconds)
+     * @apiSuccess {Object} extraction_cache Cache of the extracted thumbnails and contents
+     * @apiSuccess {Number} extraction_cache.size Current size (in bytes)
+     * @apiSuccess {Number} extraction_cache.max_size Maximum size (in bytes), 0 if the cache is disabled
+     * @apiSuccess {Number} extraction_cache.hits Number of items found in the cache since the startup
+     * @apiSuccess {Number} extraction_cache.misses Number of items not found in the cache since the startup
+     * @apiSuccess {Number} extraction_cache.evictions Number of entries evicted since the startup
+     * @apiSuccess {Object} pdf_cache Cache of the PDF fragments of the files
+     * @apiSuccess {Number} pdf_cache.size Current size (in bytes)
+     * @apiSuccess {Number} pdf_cache.max_size Maximum size (in bytes), 0 if the cache is disabled
+     * @apiSuccess {Number} pdf_cache.hits Number of fragments found in the cache since the startup
+     * @apiSuccess {Number} pdf_cache.misses Number of fragments not found in the cache since the startup
+     * @apiSuccess {Number} pdf_cache.evictions Number of entries evicted since the startup
+     * @apiSuccess {Number} index_pending_operations Number of index operations not yet committed
+     * @apiSuccess {Number} index_last_commit_age Time since the last index commit (in milliseconds)
      * @apiSuccess {String} total_memory Allocated JVM memory (in bytes)
      * @apiSuccess {String} free_memory Free JVM memory (in bytes)
      * @apiSuccess {String} document_count Number of documents
@@ -89,6 +117,9 @@ public class AppResource extends BaseResource {
         String defaultLanguage = ConfigUtil.getConfigStringValue(ConfigType.DEFAULT_LANGUAGE);
         UserDao userDao = new UserDao();
         DocumentDao documentDao = new DocumentDao();
+        IndexingHandler indexingHandler = AppContext.getInstance().getIndexingHandler();
+        ExtractionCache extractionCache = AppContext.getInstance().getExtractionCache();
+        PdfCache pdfCache = AppContext.getInstance().getPdfCache();
         String globalQuotaStr = System.getenv(Constants.GLOBAL_QUOTA_ENV);
         long globalQuota = 0;
         if (!Strings.isNullOrEmpty(globalQuotaStr)) {
@@ -102,6 +133,24 @@ public class AppResource extends BaseResource {
                 .add("ocr_enabled", ocrEnabled)
                 .add("default_language", defaultLanguage)
                 .add("queued_tasks", AppContext.getInstance().getQueuedTaskCount())
+                .add("async_pools", getAsyncPools())
+                .add("ocr_running_processes", FileUtil.getOcrRunningCount())
+                .add("ocr_processes", FileUtil.getOcrCount())
+                .add("ocr_time", FileUtil.getOcrTime())
+                .add("extraction_cache", Json.createObjectBuilder()
+                        .add("size", extractionCache.getSize())
+                        .add("max_size", extractionCache.getMaxSize())
+                        .add("hits", extractionCache.getHitCount())
+                        .add("misses", extractionCache.getMissCount())
+                        .add("evictions", extractionCache.getEvictionCount()))
+                .add("pdf_cache", Json.createObjectBuilder()
+                        .add("size", pdfCache.getSize())
+                        .add("max_size", pdfCache.getMaxSize())
+                        .add("hits", pdfCache.getHitCount())
+                        .add("misses", pdfCache.getMissCount())
+                        .add("evictions", pdfCache.getEvictionCount()))
+                .add("index_pending_operations", indexingHandler.getPendingOperationCount())
+                .add("index_last_commit_age", System.currentTimeMillis() - indexingHandler.getLastCommitDate())
                 .add("total_memory", Runtime.getRuntime().totalMemory())
                 .add("free_memory", Runtime.getRuntime().freeMemory())
                 .add("document_count", documentDao.getDocumentCount())
@@ -114,6 +163,47 @@ public class AppResource extends BaseResource {
         return Response.ok().entity(response.build()).build();
     }
 
+    /**
+     * Returns the metrics of the asynchronous event pools.
+     *
+     * @return JSON array
+     */
+    private JsonArrayBuilder getAsyncPools() {
+        JsonArrayBuilder pools = Json.createArrayBuilder();
+        for (AsyncEventPool eventPool : AppContext.getInstance().getAsyncEventPoolList()) {
+            pools.add(Json.createObjectBuilder()
+                    .add("name", eventPool.getName())
+                    .add("threads", eventPool.getThreadCount())
+                    .add("active_threads", eventPool.getActiveCount())
+                    .add("queue_size", eventPool.getQueueSize())
+                    .add("queue_capacity", eventPool.getQueueCapacity())
+                    .add("completed", eventPool.getCompletedCount())
+                    .add("caller_runs", eventPool.getCallerRunCount())
+                    .add("deferred", eventPool.getDeferredCount())
+                    .add("wait_histogram", getHistogram(eventPool.getWaitHistogram()))
+                    .add("run_histogram", getHistogram(eventPool.getRunHistogram())));
+        }
+        return pools;
+    }
+
+    /**
+     * Returns a latency histogram.
+     *
+     * @param counts Number of events by bucket
+     * @return JSON array
+     */
+    private JsonArrayBuilder getHistogram(long[] counts) {
+        JsonArrayBuilder histogram = Json.createArrayBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            JsonObjectBuilder bucket = Json.createObjectBuilder();
+            if (AsyncEventPool.LATENCY_BUCKETS[i] != Long.MAX_VALUE) {
+                bucket.add("max", AsyncEventPool.LATENCY_BUCKETS[i]);
+            }
+            histogram.add(bucket.add("count", counts[i]));
+        }
+        return histogram;
+    }
+
     /**
      * Enable/disable guest login.
      *
@@ -634,13 +724,14 @@ public class AppResource extends BaseResource {
 
     /**
      * Clean storage.
+     * The cleaning runs in the background, its progress is returned by GET /app/batch/clean_storage.
      *
      * @api {post} /app/batch/clean_storage Clean the file and DB storage
      * @apiName PostAppBatchCleanStorage
      * @apiGroup App
      * @apiSuccess {String} status Status OK
      * @apiError (client) ForbiddenError Access denied
-     * @apiError (server) FileError Error deleting orphan files
+     * @apiError (client) AlreadyRunning A storage cleaning is already running
      * @apiPermission admin
      * @apiVersion 1.5.0
      *
@@ -654,102 +745,67 @@ public class AppResource extends BaseResource {
         }
         checkBaseFunction(BaseFunction.ADMIN);
 
-        // Get all files
-        FileDao fileDao = new FileDao();
-        List<File> fileList = fileDao.findAll(0, Integer.MAX_VALUE);
-        Map<String, File> fileMap = new HashMap<>();
-        for (File file : fileList) {
-            fileMap.put(file.getId(), file);
-        }
-        log.info("Checking {} files", fileMap.size());
-
-        // Check if each stored file is valid
-        try (DirectoryStream<java.nio.file.Path> storedFileList = Files.newDirectoryStream(DirectoryUtil.getStorageDirectory())) {
-            for (java.nio.file.Path storedFile : storedFileList) {
-                String fileName = storedFile.getFileName().toString();
-                String[] fileNameArray = fileName.split("_");
-                if (!fileMap.containsKey(fileNameArray[0])) {
-                    log.info("Deleting orphan files at this location: {}", storedFile);
-                    Files.delete(storedFile);
-                }
-            }
-        } catch (IOException e) {
-            throw new ServerException("FileError", "Error deleting orphan files", e);
-        }
-
-        // Hard delete orphan audit logs
-        EntityManager em = ThreadLocalContext.get().getEntityManager();
-        StringBuilder sb = new StringBuilder("delete from T_AUDIT_LOG al where al.LOG_ID_C in (select al.LOG_ID_C from T_AUDIT_LOG al ");
-        sb.append(" left join T_DOCUMENT d on d.DOC_ID_C = al.LOG_IDENTITY_C and d.DOC_DELETEDATE_D is null ");
-        sb.append(" left join T_ACL a on a.ACL_ID_C = al.LOG_IDENTITY_C and a.ACL_DELETEDATE_D is null ");
-        sb.append(" left join T_COMMENT c on c.COM_ID_C = al.LOG_IDENTITY_C and c.COM_DELETEDATE_D is null ");
-        sb.append(" left join T_FILE f on f.FIL_ID_C = al.LOG_IDENTITY_C and f.FIL_DELETEDATE_D is null ");
-        sb.append(" left join T_TAG t on t.TAG_ID_C = al.LOG_IDENTITY_C and t.TAG_DELETEDATE_D is null ");
-        sb.append(" left join T_USER u on u.USE_ID_C = al.LOG_IDENTITY_C and u.USE_DELETEDATE_D is null ");
-        sb.append(" left join T_GROUP g on g.GRP_ID_C = al.LOG_IDENTITY_C and g.GRP_DELETEDATE_D is null ");
-        sb.append(" where d.DOC_ID_C is null and a.ACL_ID_C is null and c.COM_ID_C is null and f.FIL_ID_C is null and t.TAG_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null)");
-        Query q = em.createNativeQuery(sb.toString());
-        log.info("Deleting {} orphan audit logs", q.executeUpdate());
-
-        // Soft delete orphan ACLs
-        sb = new StringBuilder("update T_ACL a set ACL_DELETEDATE_D = :dateNow where a.ACL_ID_C in (select a.ACL_ID_C from T_ACL a ");
-        sb.append(" left join T_SHARE s on s.SHA_ID_C = a.ACL_TARGETID_C ");
-        sb.append(" left join T_USER u on u.USE_ID_C = a.ACL_TARGETID_C ");
-        sb.append(" left join T_GROUP g on g.GRP_ID_C = a.ACL_TARGETID_C ");
-        sb.append(" left join T_DOCUMENT d on d.DOC_ID_C = a.ACL_SOURCEID_C ");
-        sb.append(" left join T_TAG t on t.TAG_ID_C = a.ACL_SOURCEID_C ");
-        sb.append(" where s.SHA_ID_C is null and u.USE_ID_C is null and g.GRP_ID_C is null or d.DOC_ID_C is null and t.TAG_ID_C is null)");
-        q = em.createNativeQuery(sb.toString());
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan ACLs", q.executeUpdate());
-
-        // Soft delete orphan comments
-        q = em.createNativeQuery("update T_COMMENT set COM_DELETEDATE_D = :dateNow where COM_ID_C in (select c.COM_ID_C from T_COMMENT c left join T_DOCUMENT d on d.DOC_ID_C = c.COM_IDDOC_C and d.DOC_DELETEDATE_D is null where d.DOC_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan comments", q.executeUpdate());
-
-        // Soft delete orphan document tag links
-        q = em.createNativeQuery("update T_DOCUMENT_TAG set DOT_DELETEDATE_D = :dateNow where DOT_ID_C in (select dt.DOT_ID_C from T_DOCUMENT_TAG dt left join T_DOCUMENT d on dt.DOT_IDDOCUMENT_C = d.DOC_ID_C and d.DOC_DELETEDATE_D is null left join T_TAG t on t.TAG_ID_C = dt.DOT_IDTAG_C and t.TAG_DELETEDATE_D is null where d.DOC_ID_C is null or t.TAG_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan document tag links", q.executeUpdate());
-
-        // Soft delete orphan shares
-        q = em.createNativeQuery("update T_SHARE set SHA_DELETEDATE_D = :dateNow where SHA_ID_C in (select s.SHA_ID_C from T_SHARE s left join T_ACL a on a.ACL_TARGETID_C = s.SHA_ID_C and a.ACL_DELETEDATE_D is null where a.ACL_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan shares", q.executeUpdate());
-
-        // Soft delete orphan tags
-        q = em.createNativeQuery("update T_TAG set TAG_DELETEDATE_D = :dateNow where TAG_ID_C in (select t.TAG_ID_C from T_TAG t left join T_USER u on u.USE_ID_C = t.TAG_IDUSER_C and u.USE_DELETEDATE_D is null where u.USE_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan tags", q.executeUpdate());
-
-        // Soft delete orphan documents
-        q = em.createNativeQuery("update T_DOCUMENT set DOC_DELETEDATE_D = :dateNow where DOC_ID_C in (select d.DOC_ID_C from T_DOCUMENT d left join T_USER u on u.USE_ID_C = d.DOC_IDUSER_C and u.USE_DELETEDATE_D is null where u.USE_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan documents", q.executeUpdate());
-
-        // Soft delete orphan files
-        q = em.createNativeQuery("update T_FILE set FIL_DELETEDATE_D = :dateNow where FIL_ID_C in (select f.FIL_ID_C from T_FILE f left join T_USER u on u.USE_ID_C = f.FIL_IDUSER_C and u.USE_DELETEDATE_D is null where u.USE_ID_C is null)");
-        q.setParameter("dateNow", new Date());
-        log.info("Deleting {} orphan files", q.executeUpdate());
-
-        // Hard delete softly deleted data
-        log.info("Deleting {} soft deleted document tag links", em.createQuery("delete DocumentTag where deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted ACLs", em.createQuery("delete Acl where deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted shares", em.createQuery("delete Share where deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted tags", em.createQuery("delete Tag where deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted comments", em.createQuery("delete Comment where deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted files", em.createQuery("delete File where deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted documents", em.createQuery("delete Document where deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted users", em.createQuery("delete User where deleteDate is not null").executeUpdate());
-        log.info("Deleting {} soft deleted groups", em.createQuery("delete Group where deleteDate is not null").executeUpdate());
+        if (AppContext.getInstance().getCleanStorageService().start() == null) {
+            throw new ClientException("AlreadyRunning", "A storage cleaning is already running");
+        }
 
-        // Always return OK
         JsonObjectBuilder response = Json.createObjectBuilder()
                 .add("status", "ok");
         return Response.ok().entity(response.build()).build();
     }
 
+    /**
+     * Get the progress of the storage cleaning.
+     *
+     * @api {get} /app/batch/clean_storage Get the progress of the storage cleaning
+     * @apiName GetAppBatchCleanStorage
+     * @apiGroup App
+     * @apiSuccess {String="NONE","RUNNING","COMPLETED","FAILED","CANCELLED"} state State of the last cleaning
+     * @apiSuccess {String} step Current step
+     * @apiSuccess {Number} start_date Start date (timestamp)
+     * @apiSuccess {Number} end_date End date (timestamp)
+     * @apiSuccess {Number} checked_files Number of stored files checked
+     * @apiSuccess {Object[]} steps Steps started
+     * @apiSuccess {String} steps.name Step description
+     * @apiSuccess {Number} steps.deleted Number of deleted files or rows
+     * @apiSuccess {String} error Error message
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission admin
+     * @apiVersion 1.5.0
+     *
+     * @return Response
+     */
+    @GET
+    @Path("batch/clean_storage")
+    public Response batchCleanStorageStatus() {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+        checkBaseFunction(BaseFunction.ADMIN);
+
+        CleanStorageStatus status = AppContext.getInstance().getCleanStorageService().getStatus();
+        JsonObjectBuilder response = Json.createObjectBuilder();
+        if (status == null) {
+            response.add("state", "NONE");
+            return Response.ok().entity(response.build()).build();
+        }
+
+        JsonArrayBuilder steps = Json.createArrayBuilder();
+        for (Map.Entry<String, Long> entry : status.getDeletedCountMap().entrySet()) {
+            steps.add(Json.createObjectBuilder()
+                    .add("name", entry.getKey())
+                    .add("deleted", entry.getValue()));
+        }
+        response.add("state", status.getState().name())
+                .add("step", JsonUtil.nullable(status.getStep()))
+                .add("start_date", status.getStartDate().getTime())
+                .add("end_date", JsonUtil.nullable(status.getEndDate() == null ? null : status.getEndDate().getTime()))
+                .add("checked_files", status.getCheckedFileCount())
+                .add("steps", steps)
+                .add("error", JsonUtil.nullable(status.getError()));
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Get the LDAP authentication configuration.
      *
@@ -1,13 +1,17 @@
 package com.sismics.docs.rest.resource;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.sismics.docs.core.constant.AclType;
+import com.sismics.docs.core.constant.AsyncJobType;
 import com.sismics.docs.core.constant.ConfigType;
 import com.sismics.docs.core.constant.Constants;
+import com.sismics.docs.core.constant.DocumentExportState;
 import com.sismics.docs.core.constant.PermType;
 import com.sismics.docs.core.dao.AclDao;
 import com.sismics.docs.core.dao.ContributorDao;
 import com.sismics.docs.core.dao.DocumentDao;
+import com.sismics.docs.core.dao.DocumentExportDao;
 import com.sismics.docs.core.dao.FileDao;
 import com.sismics.docs.core.dao.RelationDao;
 import com.sismics.docs.core.dao.RouteStepDao;
@@ -18,6 +22,7 @@ import com.sismics.docs.core.dao.criteria.TagCriteria;
 import com.sismics.docs.core.dao.dto.AclDto;
 import com.sismics.docs.core.dao.dto.ContributorDto;
 import com.sismics.docs.core.dao.dto.DocumentDto;
+import com.sismics.docs.core.dao.dto.DocumentExportDto;
 import com.sismics.docs.core.dao.dto.RelationDto;
 import com.sismics.docs.core.dao.dto.RouteStepDto;
 import com.sismics.docs.core.dao.dto.TagDto;
@@ -29,15 +34,20 @@ import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.Document;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.User;
+import com.sismics.docs.core.util.AsyncJobUtil;
 import com.sismics.docs.core.util.ConfigUtil;
+import com.sismics.docs.core.util.DocumentExportUtil;
+import com.sismics.docs.core.util.DocumentImportUtil;
+import com.sismics.docs.core.util.DocumentSearchCriteriaUtil;
 import com.sismics.docs.core.util.DocumentUtil;
+import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.FileUploadContext;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.MetadataUtil;
 import com.sismics.docs.core.util.PdfUtil;
 import com.sismics.docs.core.util.jpa.PaginatedList;
 import com.sismics.docs.core.util.jpa.PaginatedLists;
 import com.sismics.docs.core.util.jpa.SortCriteria;
-import com.sismics.docs.rest.util.DocumentSearchCriteriaUtil;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.exception.ServerException;
@@ -45,26 +55,35 @@ import com.sismics.rest.util.AclUtil;
 import com.sismics.rest.util.RestUtil;
 import com.sismics.rest.util.ValidationUtil;
 import com.sismics.util.EmailUtil;
+import com.sismics.util.HttpUtil;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.mime.MimeType;
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.FormParam;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.HEAD;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.StreamingOutput;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataParam;
@@ -75,6 +94,11 @@ import javax.mail.Session;
 import javax.mail.internet.MimeMessage;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
@@ -82,12 +106,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * Document REST resources.
@@ -332,14 +358,8 @@ public class DocumentResource extends BaseResource {
 
         // Get files
         FileDao fileDao = new FileDao();
-        UserDao userDao = new UserDao();
         final List<File> fileList = fileDao.getByDocumentId(null, documentId);
-        for (File file : fileList) {
-            // A file is always encrypted by the creator of it
-            // Store its private key to decrypt it
-            User user = userDao.getById(file.getUserId());
-            file.setPrivateKey(user.getPrivateKey());
-        }
+        FileUtil.loadPrivateKeys(fileList);
 
         // Convert to PDF
         StreamingOutput stream = outputStream -> {
@@ -500,11 +520,12 @@ public class DocumentResource extends BaseResource {
             filesCountByDocument = fileDao.countByDocumentsIds(documentsIds);
         }
 
+        // Find the tags accessible by the current user on the documents
+        Map<String, List<TagDto>> tagDtoMap = tagDao.findByDocumentIdList(
+                Lists.newArrayList(documentsIds), getTargetIdList(null));
+
         for (DocumentDto documentDto : paginatedList.getResultList()) {
-            // Get tags accessible by the current user on this document
-            List<TagDto> tagDtoList = tagDao.findByCriteria(new TagCriteria()
-                    .setTargetIdList(getTargetIdList(null))
-                    .setDocumentId(documentDto.getId()), new SortCriteria(1, true));
+            List<TagDto> tagDtoList = tagDtoMap.getOrDefault(documentDto.getId(), Collections.emptyList());
 
             Long filesCount;
             Collection<File> filesOfDocument = null;
@@ -610,6 +631,48 @@ public class DocumentResource extends BaseResource {
         );
     }
 
+    /**
+     * Suggest search terms.
+     *
+     * @api {get} /document/suggest Suggest search terms
+     * @apiDescription The last word of the search query is completed with terms from the titles of the readable documents
+     * @apiName GetDocumentSuggest
+     * @apiGroup Document
+     * @apiParam {String} search Search query
+     * @apiSuccess {String[]} suggestions List of search suggestions
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (server) SearchError Error searching in documents
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param search Search query
+     * @return Response
+     */
+    @GET
+    @Path("suggest")
+    public Response suggest(@QueryParam("search") String search) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        List<String> suggestionList = Lists.newArrayList();
+        if (StringUtils.isNotBlank(search)) {
+            try {
+                AppContext.getInstance().getIndexingHandler().suggest(search, getTargetIdList(null), suggestionList);
+            } catch (Exception e) {
+                throw new ServerException("SearchError", "Error searching in documents", e);
+            }
+        }
+
+        JsonArrayBuilder suggestions = Json.createArrayBuilder();
+        for (String suggestion : suggestionList) {
+            suggestions.add(suggestion);
+        }
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("suggestions", suggestions);
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Creates a new document.
      *
@@ -957,8 +1020,9 @@ public class DocumentResource extends BaseResource {
         // Add files to the document
         try {
             for (EmailUtil.FileContent fileContent : mailContent.getFileContentList()) {
-                FileUtil.createFile(fileContent.getName(), null, fileContent.getFile(), fileContent.getSize(),
-                        document.getLanguage(), principal.getId(), document.getId());
+                try (FileUploadContext upload = FileUploadContext.of(fileContent.getFile(), fileContent.getName())) {
+                    FileUtil.createFile(upload, null, document.getLanguage(), principal.getId(), document.getId());
+                }
             }
         } catch (IOException e) {
             throw new ClientException(e.getMessage(), e.getMessage(), e);
@@ -971,6 +1035,196 @@ public class DocumentResource extends BaseResource {
         return Response.ok().entity(response.build()).build();
     }
 
+    /**
+     * Import documents in bulk.
+     *
+     * @api {put} /document/import Import documents in bulk
+     * @apiDescription The documents are created by chunks, each chunk in its own transaction.
+     * An error on a document does not stop the import of the others.
+     * This resource accepts only multipart/form-data.
+     * @apiName PutDocumentImport
+     * @apiGroup Document
+     * @apiParam {String} documents Documents to import, one JSON object per line with: title, description, language, create_date (timestamp), tags (tag IDs) and files (names of the file parts)
+     * @apiParam {String[]} file Files data
+     * @apiSuccess {Object[]} documents Result of each document, in the input order
+     * @apiSuccess {String="ok","error"} documents.status Status
+     * @apiSuccess {String} documents.id Document ID
+     * @apiSuccess {String[]} documents.file_ids File IDs, in the document order
+     * @apiSuccess {String} documents.type Error type
+     * @apiSuccess {String} documents.message Error message
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) ValidationError Validation error
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param documents Documents to import
+     * @param fileBodyPartList Files of the documents
+     * @return Response
+     */
+    @PUT
+    @Path("import")
+    @Consumes("multipart/form-data")
+    public Response importDocuments(
+            @FormDataParam("documents") String documents,
+            @FormDataParam("file") List<FormDataBodyPart> fileBodyPartList) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        // Validate input data
+        ValidationUtil.validateRequired(documents, "documents");
+        List<String> lineList = documents.lines()
+                .filter(line -> !line.isBlank())
+                .collect(Collectors.toList());
+
+        // File parts by name, the names sent several times are ambiguous
+        Map<String, FormDataBodyPart> fileBodyPartMap = new HashMap<>();
+        Set<String> duplicateFileNameSet = new HashSet<>();
+        if (fileBodyPartList != null) {
+            for (FormDataBodyPart fileBodyPart : fileBodyPartList) {
+                if (fileBodyPart.getContentDisposition() != null && fileBodyPart.getContentDisposition().getFileName() != null) {
+                    String fileName = URLDecoder.decode(fileBodyPart.getContentDisposition().getFileName(), StandardCharsets.UTF_8);
+                    if (fileBodyPartMap.putIfAbsent(fileName, fileBodyPart) != null) {
+                        duplicateFileNameSet.add(fileName);
+                    }
+                }
+            }
+        }
+
+        // Tags visible by the importer
+        Set<String> tagIdSet = new HashSet<>();
+        for (TagDto tagDto : new TagDao().findByCriteria(new TagCriteria().setTargetIdList(getTargetIdList(null)), null)) {
+            tagIdSet.add(tagDto.getId());
+        }
+
+        User user = new UserDao().getById(principal.getId());
+        JsonArrayBuilder items = Json.createArrayBuilder();
+        for (List<String> chunk : Lists.partition(lineList, DocumentImportUtil.CHUNK_SIZE)) {
+            List<DocumentImportUtil.Item> itemList = Lists.newArrayList();
+            try {
+                for (String line : chunk) {
+                    DocumentImportUtil.Item item = new DocumentImportUtil.Item();
+                    itemList.add(item);
+                    try {
+                        readImportItem(line, item, tagIdSet, fileBodyPartMap, duplicateFileNameSet, user.getPrivateKey());
+                    } catch (ClientException e) {
+                        JsonObject error = (JsonObject) e.getResponse().getEntity();
+                        item.setError(error.getString("type"), error.getString("message"));
+                    }
+                }
+
+                DocumentImportUtil.importChunk(itemList, principal.getId());
+            } finally {
+                // The file processing keeps its own reference on the uploads
+                for (DocumentImportUtil.Item item : itemList) {
+                    for (FileUploadContext upload : item.getUploadList()) {
+                        upload.close();
+                    }
+                }
+            }
+
+            for (DocumentImportUtil.Item item : itemList) {
+                if (item.getError() == null) {
+                    JsonArrayBuilder fileIds = Json.createArrayBuilder();
+                    for (String fileId : item.getFileIdList()) {
+                        fileIds.add(fileId);
+                    }
+                    items.add(Json.createObjectBuilder()
+                            .add("status", "ok")
+                            .add("id", item.getDocument().getId())
+                            .add("file_ids", fileIds));
+                } else {
+                    items.add(Json.createObjectBuilder()
+                            .add("status", "error")
+                            .add("type", item.getError())
+                            .add("message", item.getErrorMessage()));
+                }
+            }
+        }
+
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("documents", items);
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Read a document to import, and receive its files.
+     *
+     * @param line Document as JSON
+     * @param item Item to fill
+     * @param tagIdSet Tags visible by the importer
+     * @param fileBodyPartMap File parts not imported yet, by name
+     * @param duplicateFileNameSet Names of the file parts sent several times
+     * @param privateKey Private key of the importer
+     */
+    private void readImportItem(String line, DocumentImportUtil.Item item, Set<String> tagIdSet,
+                                Map<String, FormDataBodyPart> fileBodyPartMap, Set<String> duplicateFileNameSet, String privateKey) {
+        String title, description, language;
+        Date createDate = null;
+        List<String> tagList = new ArrayList<>();
+        List<String> fileNameList = new ArrayList<>();
+        try (JsonReader reader = Json.createReader(new StringReader(line))) {
+            JsonObject json = reader.readObject();
+            title = json.getString("title", null);
+            description = json.getString("description", null);
+            language = json.getString("language", ConfigUtil.getConfigStringValue(ConfigType.DEFAULT_LANGUAGE));
+            if (json.containsKey("create_date") && !json.isNull("create_date")) {
+                createDate = new Date(json.getJsonNumber("create_date").longValue());
+            }
+            if (json.containsKey("tags")) {
+                for (JsonString tag : json.getJsonArray("tags").getValuesAs(JsonString.class)) {
+                    tagList.add(tag.getString());
+                }
+            }
+            if (json.containsKey("files")) {
+                for (JsonString file : json.getJsonArray("files").getValuesAs(JsonString.class)) {
+                    fileNameList.add(file.getString());
+                }
+            }
+        } catch (JsonException | ClassCastException e) {
+            throw new ClientException("ValidationError", "Invalid document: " + e.getMessage());
+        }
+
+        // Validate the document
+        title = ValidationUtil.validateLength(title, "title", 1, 100, false);
+        language = ValidationUtil.validateLength(language, "language", 3, 7, false);
+        description = ValidationUtil.validateLength(description, "description", 0, 4000, true);
+        if (!Constants.SUPPORTED_LANGUAGES.contains(language)) {
+            throw new ClientException("ValidationError", MessageFormat.format("{0} is not a supported language", language));
+        }
+        for (String tagId : tagList) {
+            if (!tagIdSet.contains(tagId)) {
+                throw new ClientException("TagNotFound", MessageFormat.format("Tag not found: {0}", tagId));
+            }
+        }
+        for (String fileName : fileNameList) {
+            if (duplicateFileNameSet.contains(fileName)) {
+                throw new ClientException("ImportError", MessageFormat.format("Duplicate file name: {0}", fileName));
+            }
+        }
+
+        Document document = new Document();
+        document.setTitle(title);
+        document.setDescription(description);
+        document.setLanguage(language);
+        document.setCreateDate(createDate == null ? new Date() : createDate);
+        item.setDocument(document);
+        item.setTagIdSet(new HashSet<>(tagList));
+
+        // Receive the files, encrypted in the same pass, each part is imported once
+        for (String fileName : fileNameList) {
+            FormDataBodyPart fileBodyPart = fileBodyPartMap.remove(fileName);
+            if (fileBodyPart == null) {
+                throw new ClientException("FileNotFound", MessageFormat.format("File not found: {0}", fileName));
+            }
+            try {
+                item.getUploadList().add(FileUploadContext.receive(fileBodyPart.getValueAs(InputStream.class), fileName, privateKey));
+            } catch (Exception e) {
+                throw new ClientException("StreamError", "Error reading the input file", e);
+            }
+        }
+    }
+
     /**
      * Deletes a document.
      *
@@ -1028,6 +1282,214 @@ public class DocumentResource extends BaseResource {
         return Response.ok().entity(response.build()).build();
     }
 
+    /**
+     * Export the documents matching a search.
+     *
+     * @api {post} /document/export Export documents
+     * @apiDescription The documents, their metadata and their files are written to a TAR archive in the background.
+     * Each page of documents is described by a <code>documents-*.ndjson</code> entry, one JSON document per line,
+     * followed by its files under <code>files/</code>. An interrupted export resumes from its last page.
+     * @apiName PostDocumentExport
+     * @apiGroup Document
+     * @apiParam {String} [search] Search query (see "Document search syntax" on the top of the page for explanations), all the visible documents if empty
+     * @apiSuccess {String} id Export ID
+     * @apiError (client) ForbiddenError Access denied
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param search Search query
+     * @return Response
+     */
+    @POST
+    @Path("export")
+    public Response export(@FormParam("search") String search) {
+        if (!authenticate() || principal.isGuest()) {
+            throw new ForbiddenClientException();
+        }
+
+        // The documents visible now are exported, even if the export is resumed later
+        String exportId = new DocumentExportDao().create(principal.getId(), search, getTargetIdList(null));
+        DocumentExportUtil.startExport(exportId, null);
+
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("id", exportId);
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Returns the progress of a document export.
+     *
+     * @api {get} /document/export/:id Get a document export
+     * @apiName GetDocumentExport
+     * @apiGroup Document
+     * @apiParam {String} id Export ID
+     * @apiSuccess {String} id Export ID
+     * @apiSuccess {String="RUNNING","COMPLETED","FAILED"} state State
+     * @apiSuccess {Number} document_count Number of exported documents
+     * @apiSuccess {Number} file_count Number of exported files
+     * @apiSuccess {Number} total Total number of documents to export, absent until the first page is exported
+     * @apiSuccess {Number} length Size of the archive in bytes
+     * @apiSuccess {String} error Error message if the export failed
+     * @apiSuccess {Number} create_date Create date (timestamp)
+     * @apiSuccess {Number} end_date End date (timestamp)
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) NotFound Export not found
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param id Export ID
+     * @return Response
+     */
+    @GET
+    @Path("export/{id: [a-z0-9\\-]+}")
+    public Response getExport(@PathParam("id") String id) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        DocumentExportDto export = findExport(id);
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("id", export.getId())
+                .add("state", export.getState())
+                .add("document_count", export.getDocumentCount())
+                .add("file_count", export.getFileCount())
+                .add("total", JsonUtil.nullable(export.getTotal()))
+                .add("length", export.getLength())
+                .add("error", JsonUtil.nullable(export.getError()))
+                .add("create_date", export.getCreateTimestamp())
+                .add("end_date", JsonUtil.nullable(export.getEndTimestamp()));
+        return Response.ok().entity(response.build()).build();
+    }
+
+    /**
+     * Returns the archive of a completed document export.
+     *
+     * @api {get} /document/export/:id/data Get a document export archive
+     * @apiName GetDocumentExportData
+     * @apiGroup Document
+     * @apiParam {String} id Export ID
+     * @apiHeader {String} [Range] Single byte range to return
+     * @apiHeader {String} [If-Range] ETag the range is conditional to
+     * @apiSuccess {Object} file The TAR archive is the whole response, or the requested range with a 206 status
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) NotFound Export not found or not completed
+     * @apiError (client) RangeNotSatisfiable The range starts after the end of the archive
+     * @apiError (server) ServiceUnavailable Error reading the archive
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param id Export ID
+     * @param rangeHeader Range header
+     * @param ifRangeHeader If-Range header
+     * @return Response
+     */
+    @GET
+    @Path("export/{id: [a-z0-9\\-]+}/data")
+    public Response getExportData(
+            @PathParam("id") String id,
+            @HeaderParam("Range") String rangeHeader,
+            @HeaderParam("If-Range") String ifRangeHeader) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        DocumentExportDto export = findExport(id);
+        if (!DocumentExportState.COMPLETED.name().equals(export.getState())) {
+            throw new NotFoundException();
+        }
+
+        // A completed archive never changes, its ID is a strong validator
+        long length = export.getLength();
+        EntityTag entityTag = new EntityTag(export.getId());
+        long[] range = HttpUtil.parseRange(rangeHeader, length);
+        if (range != null && ifRangeHeader != null && !ifRangeHeader.equals("\"" + entityTag.getValue() + "\"")) {
+            range = null;
+        }
+        if (range != null && range.length == 0) {
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + length)
+                    .build();
+        }
+        long offset = range == null ? 0 : range[0];
+        long count = range == null ? length : range[1] - range[0] + 1;
+
+        // Decrypt the archive directly from the requested offset
+        StreamingOutput stream;
+        SeekableByteChannel channel = null;
+        try {
+            User user = new UserDao().getById(export.getUserId());
+            channel = Files.newByteChannel(DocumentExportUtil.getArchive(export.getId()));
+            byte[] iv = DocumentExportUtil.readIv(channel);
+            channel.position(EncryptionUtil.IV_LENGTH + offset);
+            final InputStream responseInputStream = ByteStreams.limit(
+                    EncryptionUtil.decryptInputStream(Channels.newInputStream(channel), user.getPrivateKey(), iv, offset), count);
+            stream = outputStream -> {
+                try (InputStream inputStream = responseInputStream) {
+                    ByteStreams.copy(inputStream, outputStream);
+                }
+            };
+        } catch (Exception e) {
+            // The stream owns the channel only once it is built
+            IOUtils.closeQuietly(channel);
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        Response.ResponseBuilder builder;
+        if (range == null) {
+            builder = Response.ok(stream);
+        } else {
+            builder = Response.status(Response.Status.PARTIAL_CONTENT).entity(stream)
+                    .header("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        }
+        return builder.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"export-" + export.getId() + ".tar\"")
+                .header(HttpHeaders.CONTENT_TYPE, "application/x-tar")
+                .header(HttpHeaders.CONTENT_LENGTH, count)
+                .header("Accept-Ranges", "bytes")
+                .tag(entityTag)
+                .build();
+    }
+
+    /**
+     * Deletes a document export, and stops it if it is running.
+     *
+     * @api {delete} /document/export/:id Delete a document export
+     * @apiName DeleteDocumentExport
+     * @apiGroup Document
+     * @apiParam {String} id Export ID
+     * @apiSuccess {String} status Status OK
+     * @apiError (client) ForbiddenError Access denied
+     * @apiError (client) NotFound Export not found
+     * @apiPermission user
+     * @apiVersion 1.12.0
+     *
+     * @param id Export ID
+     * @return Response
+     */
+    @DELETE
+    @Path("export/{id: [a-z0-9\\-]+}")
+    public Response deleteExport(@PathParam("id") String id) {
+        if (!authenticate()) {
+            throw new ForbiddenClientException();
+        }
+
+        // An export running on this node notices the deletion at its next page, and deletes its archive
+        DocumentExportDto export = findExport(id);
+        new DocumentExportDao().delete(export.getId());
+        AsyncJobUtil.cancel(AsyncJobType.DOCUMENT_EXPORT, export.getId());
+        if (!DocumentExportUtil.getRunningExportIdSet().contains(export.getId())) {
+            try {
+                Files.deleteIfExists(DocumentExportUtil.getArchive(export.getId()));
+            } catch (IOException e) {
+                throw new ServerException("DeleteError", "Error deleting the export archive", e);
+            }
+        }
+
+        // Always return OK
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("status", "ok");
+        return Response.ok().entity(response.build()).build();
+    }
+
     /**
      * Update tags list on a document.
      *
@@ -1075,6 +1537,20 @@ public class DocumentResource extends BaseResource {
         }
     }
 
+    /**
+     * Find a document export of the current user.
+     *
+     * @param id Export ID
+     * @return Export
+     */
+    private DocumentExportDto findExport(String id) {
+        DocumentExportDto export = new DocumentExportDao().getById(id);
+        if (export == null || !export.getUserId().equals(principal.getId())) {
+            throw new NotFoundException();
+        }
+        return export;
+    }
+
     private JsonObjectBuilder createDocumentObjectBuilder(DocumentDto documentDto) {
         return Json.createObjectBuilder()
                 .add("create_date", documentDto.getCreateTimestamp())
@@ -4,17 +4,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.glassfish.jersey.media.multipart.FormDataBodyPart;
 import org.glassfish.jersey.media.multipart.FormDataParam;
 import org.slf4j.Logger;
@@ -35,14 +39,15 @@ import com.sismics.docs.core.dao.dto.TagDto;
 import com.sismics.docs.core.event.DocumentUpdatedAsyncEvent;
 import com.sismics.docs.core.event.FileDeletedAsyncEvent;
 import com.sismics.docs.core.event.FileUpdatedAsyncEvent;
-import com.sismics.docs.core.model.context.AppContext;
 import com.sismics.docs.core.model.jpa.File;
 import com.sismics.docs.core.model.jpa.Tag;
 import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.docs.core.util.EncryptionUtil;
+import com.sismics.docs.core.util.FileUploadContext;
 import com.sismics.docs.core.util.FileUtil;
 import com.sismics.docs.core.util.LLMUtil;
+import com.sismics.docs.core.util.ZipWriter;
 import com.sismics.docs.core.util.format.FormatHandler;
 import com.sismics.docs.core.util.format.FormatHandlerUtil;
 import com.sismics.rest.exception.ClientException;
@@ -54,7 +59,6 @@ import com.sismics.util.HttpUtil;
 import com.sismics.util.JsonUtil;
 import com.sismics.util.context.ThreadLocalContext;
 import com.sismics.util.mime.MimeType;
-import com.sismics.util.mime.MimeTypeUtil;
 
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
@@ -63,6 +67,7 @@ import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.FormParam;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.PUT;
@@ -71,8 +76,11 @@ import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import jakarta.ws.rs.core.StreamingOutput;
@@ -142,37 +150,32 @@ public class FileResource extends BaseResource {
             }
         }
         
-        // Keep unencrypted data temporary on disk
+        // Keep unencrypted data temporary on disk, encrypted for the uploading user in the same pass
         String name = fileBodyPart.getContentDisposition() != null ?
                 URLDecoder.decode(fileBodyPart.getContentDisposition().getFileName(), StandardCharsets.UTF_8) : null;
-        java.nio.file.Path unencryptedFile;
-        long fileSize;
+        FileUploadContext upload;
         try {
-            unencryptedFile = AppContext.getInstance().getFileService().createTemporaryFile(name);
-            Files.copy(fileBodyPart.getValueAs(InputStream.class), unencryptedFile, StandardCopyOption.REPLACE_EXISTING);
-            fileSize = Files.size(unencryptedFile);
-        } catch (IOException e) {
+            User user = new UserDao().getById(principal.getId());
+            upload = FileUploadContext.receive(fileBodyPart.getValueAs(InputStream.class), name, user.getPrivateKey());
+        } catch (Exception e) {
             throw new ServerException("StreamError", "Error reading the input file", e);
         }
 
-        try {
-            String fileId = FileUtil.createFile(name, previousFileId, unencryptedFile, fileSize, documentDto == null ?
+        try (upload) {
+            String fileId = FileUtil.createFile(upload, previousFileId, documentDto == null ?
                     null : documentDto.getLanguage(), principal.getId(), documentId);
             
             // 如果有关联的文档，则自动添加标签
             if (documentId != null) {
-                // 获取文件MIME类型
-                String mimeType = MimeTypeUtil.guessMimeType(unencryptedFile, name);
-                
                 // 自动添加标签逻辑
-                autoAddTagByMimeType(documentId, mimeType);
+                autoAddTagByMimeType(documentId, upload.getMimeType(), upload.getUnencryptedFile());
             }
 
             // Always return OK
             JsonObjectBuilder response = Json.createObjectBuilder()
                     .add("status", "ok")
                     .add("id", fileId)
-                    .add("size", fileSize);
+                    .add("size", upload.getSize());
             return Response.ok().entity(response.build()).build();
         } catch (IOException e) {
             throw new ClientException(e.getMessage(), e.getMessage(), e);
@@ -186,8 +189,9 @@ public class FileResource extends BaseResource {
      * 
      * @param documentId 文档ID
      * @param mimeType MIME类型
+     * @param unencryptedFile 未加密的文件
      */
-    private void autoAddTagByMimeType(String documentId, String mimeType) {
+    private void autoAddTagByMimeType(String documentId, String mimeType, java.nio.file.Path unencryptedFile) {
         if (mimeType == null) return;
         
         try {
@@ -219,28 +223,14 @@ public class FileResource extends BaseResource {
                 
                 // 获取文档内容进行分析
                 try {
-                    // 获取与文档关联的文件
-                    FileDao fileDao = new FileDao();
-                    List<File> files = fileDao.getByDocumentId(principal.getId(), documentId);
-                    if (!files.isEmpty()) {
-                        // 对于text类型文件，尝试提取内容
-                        File file = files.get(0); // 使用第一个文件
-                        UserDao userDao = new UserDao();
-                        User user = userDao.getById(file.getUserId());
-
-                        // 获取解密的文件
-                        java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-                        java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
-                        
-                        // 查找适合此MIME类型的格式处理器
-                        FormatHandler formatHandler = FormatHandlerUtil.find(file.getMimeType());
-                        if (formatHandler != null) {
-                            // 提取内容
-                            DocumentDao documentDao = new DocumentDao();
-                            DocumentDto documentDto = documentDao.getDocument(documentId, PermType.READ, getTargetIdList(null));
-                            if (documentDto != null) {
-                                content = formatHandler.extractContent(documentDto.getLanguage(), unencryptedFile);
-                            }
+                    // 查找适合此MIME类型的格式处理器
+                    FormatHandler formatHandler = FormatHandlerUtil.find(mimeType);
+                    if (formatHandler != null) {
+                        // 提取内容
+                        DocumentDao documentDao = new DocumentDao();
+                        DocumentDto documentDto = documentDao.getDocument(documentId, PermType.READ, getTargetIdList(null));
+                        if (documentDto != null) {
+                            content = formatHandler.extractContent(documentDto.getLanguage(), unencryptedFile);
                         }
                     }
                 } catch (Exception e) {
@@ -372,9 +362,18 @@ public class FileResource extends BaseResource {
         file.setOrder(fileDao.getByDocumentId(principal.getId(), documentId).size());
         fileDao.update(file);
         
+        // Decrypt the file once, for the tags and the processing
+        java.nio.file.Path unencryptedFile;
+        try {
+            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
+            unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
+        } catch (Exception e) {
+            throw new ServerException("AttachError", "Error attaching file to document", e);
+        }
+
         // 获取文件MIME类型并添加标签
         try {
-            autoAddTagByMimeType(documentId, file.getMimeType());
+            autoAddTagByMimeType(documentId, file.getMimeType(), unencryptedFile);
         } catch (Exception e) {
             // 添加标签发生错误不影响正常操作
             log.error("Error adding tag when attaching file", e);
@@ -382,15 +381,12 @@ public class FileResource extends BaseResource {
         
         // Raise a new file updated event and document updated event (it wasn't sent during file creation)
         try {
-            java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
-            java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
-            FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent fileUpdatedAsyncEvent = new FileUpdatedAsyncEvent();
             fileUpdatedAsyncEvent.setUserId(principal.getId());
             fileUpdatedAsyncEvent.setLanguage(documentDto.getLanguage());
             fileUpdatedAsyncEvent.setFileId(file.getId());
             fileUpdatedAsyncEvent.setUnencryptedFile(unencryptedFile);
-            ThreadLocalContext.get().addAsyncEvent(fileUpdatedAsyncEvent);
+            FileUtil.startProcessingFile(fileUpdatedAsyncEvent);
             
             DocumentUpdatedAsyncEvent documentUpdatedAsyncEvent = new DocumentUpdatedAsyncEvent();
             documentUpdatedAsyncEvent.setUserId(principal.getId());
@@ -492,13 +488,12 @@ public class FileResource extends BaseResource {
         try {
             java.nio.file.Path storedFile = DirectoryUtil.getStorageDirectory().resolve(id);
             java.nio.file.Path unencryptedFile = EncryptionUtil.decryptFile(storedFile, user.getPrivateKey());
-            FileUtil.startProcessingFile(id);
             FileUpdatedAsyncEvent event = new FileUpdatedAsyncEvent();
             event.setUserId(principal.getId());
             event.setLanguage(documentDto.getLanguage());
             event.setFileId(file.getId());
             event.setUnencryptedFile(unencryptedFile);
-            ThreadLocalContext.get().addAsyncEvent(event);
+            FileUtil.startProcessingFile(event);
         } catch (Exception e) {
             throw new ServerException("ProcessingError", "Error processing this file", e);
         }
@@ -735,15 +730,23 @@ public class FileResource extends BaseResource {
      * @apiParam {String} id File ID
      * @apiParam {String} share Share ID
      * @apiParam {String="web","thumb","content"} [size] Size variation
-     * @apiSuccess {Object} file The file data is the whole response
+     * @apiHeader {String} [Range] Single byte range to return
+     * @apiHeader {String} [If-Range] ETag or Last-Modified date the range is conditional to
+     * @apiSuccess {Object} file The file data is the whole response, or the requested range with a 206 status
      * @apiError (client) SizeError Size must be web or thumb
      * @apiError (client) ForbiddenError Access denied or document not visible
      * @apiError (client) NotFound File not found
+     * @apiError (client) RangeNotSatisfiable The range starts after the end of the file
      * @apiError (server) ServiceUnavailable Error reading the file
      * @apiPermission none
      * @apiVersion 1.5.0
      *
      * @param fileId File ID
+     * @param shareId Share ID
+     * @param size Size variation
+     * @param rangeHeader Range header
+     * @param ifRangeHeader If-Range header
+     * @param jaxrsRequest Request, to evaluate the preconditions
      * @return Response
      */
     @GET
@@ -752,7 +755,10 @@ public class FileResource extends BaseResource {
     public Response data(
             @PathParam("id") final String fileId,
             @QueryParam("share") String shareId,
-            @QueryParam("size") String size) {
+            @QueryParam("size") String size,
+            @HeaderParam("Range") String rangeHeader,
+            @HeaderParam("If-Range") String ifRangeHeader,
+            @Context Request jaxrsRequest) {
         authenticate();
         
         if (size != null && !Lists.newArrayList("web", "thumb", "content").contains(size)) {
@@ -797,13 +803,48 @@ public class FileResource extends BaseResource {
         
         // A file is always encrypted by the creator of it
         User user = userDao.getById(file.getUserId());
-        
-        // Write the decrypted file to the output
+
+        // Validators of the real files, the modification time changes when a file is processed again
+        long length;
+        Date lastModified = null;
+        EntityTag entityTag = null;
         try {
-            InputStream fileInputStream = Files.newInputStream(storedFile);
-            final InputStream responseInputStream = decrypt ?
-                    EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey()) : fileInputStream;
-                    
+            length = Files.size(storedFile);
+            if (decrypt) {
+                long modifiedTime = Files.getLastModifiedTime(storedFile).toMillis() / 1000 * 1000;
+                lastModified = new Date(modifiedTime);
+                entityTag = new EntityTag(storedFile.getFileName() + "-" + Long.toHexString(modifiedTime));
+                Response.ResponseBuilder preconditionBuilder = jaxrsRequest.evaluatePreconditions(lastModified, entityTag);
+                if (preconditionBuilder != null) {
+                    return preconditionBuilder.build();
+                }
+            }
+        } catch (IOException e) {
+            return Response.status(Status.SERVICE_UNAVAILABLE).build();
+        }
+
+        // Requested range, ignored if the file changed since the client got the first part
+        long[] range = HttpUtil.parseRange(rangeHeader, length);
+        if (range != null && ifRangeHeader != null && !matchIfRange(ifRangeHeader, entityTag, lastModified)) {
+            range = null;
+        }
+        if (range != null && range.length == 0) {
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + length)
+                    .build();
+        }
+        long offset = range == null ? 0 : range[0];
+        long count = range == null ? length : range[1] - range[0] + 1;
+
+        // Write the decrypted file to the output, starting directly at the requested offset
+        SeekableByteChannel channel = null;
+        try {
+            channel = Files.newByteChannel(storedFile);
+            channel.position(offset);
+            InputStream fileInputStream = Channels.newInputStream(channel);
+            final InputStream responseInputStream = ByteStreams.limit(decrypt ?
+                    EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey(), offset) : fileInputStream, count);
+
             stream = outputStream -> {
                 try {
                     ByteStreams.copy(responseInputStream, outputStream);
@@ -817,15 +858,27 @@ public class FileResource extends BaseResource {
                 }
             };
         } catch (Exception e) {
+            // The stream owns the channel only once it is built
+            IOUtils.closeQuietly(channel);
             return Response.status(Status.SERVICE_UNAVAILABLE).build();
         }
 
-        Response.ResponseBuilder builder = Response.ok(stream)
-                .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, mimeType);
+        Response.ResponseBuilder builder;
+        if (range == null) {
+            builder = Response.ok(stream);
+        } else {
+            builder = Response.status(Status.PARTIAL_CONTENT).entity(stream)
+                    .header("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        }
+        builder.header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + file.getFullName("data") + "\"")
+                .header(HttpHeaders.CONTENT_TYPE, mimeType)
+                .header(HttpHeaders.CONTENT_LENGTH, count)
+                .header("Accept-Ranges", "bytes");
         if (decrypt) {
             // Cache real files
-            builder.header(HttpHeaders.CACHE_CONTROL, "private")
+            builder.tag(entityTag)
+                    .lastModified(lastModified)
+                    .header(HttpHeaders.CACHE_CONTROL, "private")
                     .header(HttpHeaders.EXPIRES, HttpUtil.buildExpiresHeader(3_600_000L * 24L * 365L));
         } else {
             // Do not cache the temporary thumbnail
@@ -905,32 +958,17 @@ public class FileResource extends BaseResource {
      * Sent the content of a list of files.
      */
     private Response sendZippedFiles(String zipFileName, List<File> fileList) {
-        final UserDao userDao = new UserDao();
+        FileUtil.loadPrivateKeys(fileList);
+        List<String> nameList = Lists.newArrayList();
+        for (int index = 0; index < fileList.size(); index++) {
+            nameList.add(index + "-" + fileList.get(index).getFullName(Integer.toString(index)));
+        }
 
-        // Create the ZIP stream
+        // Create the ZIP stream, the files are decrypted ahead
         StreamingOutput stream = outputStream -> {
-            try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
-                // Add each file to the ZIP stream
-                int index = 0;
-                for (File file : fileList) {
-                    java.nio.file.Path storedfile = DirectoryUtil.getStorageDirectory().resolve(file.getId());
-                    InputStream fileInputStream = Files.newInputStream(storedfile);
-
-                    // Add the decrypted file to the ZIP stream
-                    // Files are encrypted by the creator of them
-                    User user = userDao.getById(file.getUserId());
-                    try (InputStream decryptedStream = EncryptionUtil.decryptInputStream(fileInputStream, user.getPrivateKey())) {
-                        ZipEntry zipEntry = new ZipEntry(index + "-" + file.getFullName(Integer.toString(index)));
-                        zipOutputStream.putNextEntry(zipEntry);
-                        ByteStreams.copy(decryptedStream, zipOutputStream);
-                        zipOutputStream.closeEntry();
-                    } catch (Exception e) {
-                        throw new WebApplicationException(e);
-                    }
-                    index++;
-                }
+            try (ZipWriter zipWriter = new ZipWriter(outputStream)) {
+                zipWriter.putFiles(fileList, nameList);
             }
-            outputStream.close();
         };
         
         // Write to the output
@@ -957,6 +995,28 @@ public class FileResource extends BaseResource {
         return file;
     }
 
+    /**
+     * Returns true if an If-Range header matches the current validators of a file.
+     *
+     * @param ifRangeHeader If-Range header, a strong ETag or a date
+     * @param entityTag Current ETag, null if the file has no validators
+     * @param lastModified Current modification date
+     * @return True if the range can be returned
+     */
+    private static boolean matchIfRange(String ifRangeHeader, EntityTag entityTag, Date lastModified) {
+        if (entityTag == null) {
+            return false;
+        }
+        if (ifRangeHeader.startsWith("\"")) {
+            return ifRangeHeader.equals("\"" + entityTag.getValue() + "\"");
+        }
+        try {
+            return ZonedDateTime.parse(ifRangeHeader, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() == lastModified.getTime();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
 
     /**
      * Find a list of files with access rights checking.
@@ -108,6 +108,7 @@ public class GroupResource extends BaseResource {
      * @apiError (client) ValidationError Validation error
      * @apiError (client) GroupAlreadyExists This group already exists
      * @apiError (client) ParentGroupNotFound Parent group not found
+     * @apiError (client) CircularReference Circular reference in parent group
      * @apiError (client) NotFound Group not found
      * @apiPermission admin
      * @apiVersion 1.5.0
@@ -149,6 +150,9 @@ public class GroupResource extends BaseResource {
                 throw new ClientException("ParentGroupNotFound", MessageFormat.format("This group does not exists: {0}", parentName));
             }
             parentId = parentGroup.getId();
+            if (groupDao.isAncestor(group.getId(), parentId)) {
+                throw new ClientException("CircularReference", "Circular reference in parent group");
+            }
         }
 
         // Check that this group is not used in any workflow in case of renaming
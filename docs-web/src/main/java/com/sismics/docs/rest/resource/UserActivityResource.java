@@ -1,17 +1,23 @@
 package com.sismics.docs.rest.resource;
 
+import com.google.common.base.Strings;
+import com.sismics.docs.core.dao.UserActivityDao;
+import com.sismics.docs.core.dao.UserDao;
+import com.sismics.docs.core.dao.dto.UserActivityDayDto;
+import com.sismics.docs.core.dao.dto.UserActivityDto;
+import com.sismics.docs.core.model.jpa.User;
 import com.sismics.docs.rest.constant.BaseFunction;
 import com.sismics.rest.exception.ClientException;
 import com.sismics.rest.exception.ForbiddenClientException;
 import com.sismics.rest.util.ValidationUtil;
+import com.sismics.util.JsonUtil;
 import jakarta.json.Json;
 import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObjectBuilder;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Response;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
@@ -22,29 +28,53 @@ import java.util.*;
 @Path("/useractivity")
 public class UserActivityResource extends BaseResource {
     /**
-     * Logger.
+     * Default number of activities returned.
      */
-    private static final Logger log = LoggerFactory.getLogger(UserActivityResource.class);
+    private static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * Maximum number of activities returned.
+     */
+    private static final int MAX_LIMIT = 1000;
+
+    /**
+     * Minimum duration of a Gantt task, in minutes.
+     */
+    private static final int MIN_TASK_DURATION = 1;
 
     /**
      * Get user activities.
+     * The activities are paginated with a cursor, the daily counts cover the whole date range.
      *
      * @api {get} /useractivity/list Get user activities
      * @apiName GetUserActivityList
      * @apiGroup UserActivity
      * @apiParam {Number} date_range Date range (in days)
-     * @apiParam {Number} [limit] Maximum number of activities to return
-     * @apiParam {Number} [sort_column] Column number to sort on
+     * @apiParam {Number} [limit] Maximum number of activities to return (default 100, maximum 1000)
+     * @apiParam {Number=0} [sort_column] Column number to sort on, only the creation date is supported
      * @apiParam {Boolean} [asc] If true, sort in ascending order
+     * @apiParam {String} [username] Username for filtering
+     * @apiParam {String} [cursor] Cursor of the next page, from a previous response
      * @apiSuccess {Object[]} activities List of activities
+     * @apiSuccess {String} activities.id ID
      * @apiSuccess {String} activities.username Username
-     * @apiSuccess {String} activities.entity_name Entity name
+     * @apiSuccess {String} activities.entity_id Entity ID
      * @apiSuccess {String} activities.entity_type Entity type
-     * @apiSuccess {String} activities.type Activity type
-     * @apiSuccess {String} activities.create_date Creation date (timestamp)
+     * @apiSuccess {String="CREATE","UPDATE","DELETE"} activities.type Activity type
+     * @apiSuccess {Number} activities.create_date Creation date (timestamp)
      * @apiSuccess {String} activities.message Activity message
+     * @apiSuccess {Object[]} counts Number of activities by day, user and entity type
+     * @apiSuccess {String} counts.date Day (yyyy-MM-dd)
+     * @apiSuccess {String} counts.username Username
+     * @apiSuccess {String} counts.entity_type Entity type
+     * @apiSuccess {Number} counts.create Number of creations
+     * @apiSuccess {Number} counts.update Number of updates
+     * @apiSuccess {Number} counts.delete Number of deletions
+     * @apiSuccess {Number} counts.count Number of activities
+     * @apiSuccess {String} next_cursor Cursor of the next page, null on the last page
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
+     * @apiError (client) NotFound User not found
      * @apiPermission admin
      * @apiVersion 1.5.0
      *
@@ -52,6 +82,8 @@ public class UserActivityResource extends BaseResource {
      * @param limit Maximum number of activities to return
      * @param sortColumn Column number to sort on
      * @param asc If true, sort in ascending order
+     * @param username Username
+     * @param cursor Cursor
      * @return Response
      */
     @GET
@@ -60,104 +92,83 @@ public class UserActivityResource extends BaseResource {
             @QueryParam("date_range") Integer dateRange,
             @QueryParam("limit") Integer limit,
             @QueryParam("sort_column") Integer sortColumn,
-            @QueryParam("asc") Boolean asc) {
+            @QueryParam("asc") Boolean asc,
+            @QueryParam("username") String username,
+            @QueryParam("cursor") String cursor) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
         checkBaseFunction(BaseFunction.ADMIN);
 
         // Validate input
-        ValidationUtil.validateRequired(dateRange, "date_range");
-        if (dateRange <= 0) {
-            throw new ClientException("ValidationError", "date_range must be positive");
+        Date fromDate = getFromDate(dateRange);
+        if (limit == null) {
+            limit = DEFAULT_LIMIT;
         }
-
-        // Generate mock activities for the requested date range
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.DAY_OF_MONTH, -dateRange);
-        Date startDate = calendar.getTime();
-        
-        List<Map<String, Object>> activities = generateMockActivities(startDate, new Date(), 100);
-        
-        // Apply sorting if requested
-        if (sortColumn != null) {
-            final int column = sortColumn;
-            final boolean ascending = asc != null ? asc : false;
-            
-            activities.sort((a1, a2) -> {
-                Object v1 = getValueByColumn(a1, column);
-                Object v2 = getValueByColumn(a2, column);
-                
-                if (v1 == null || v2 == null) {
-                    return 0;
-                }
-                
-                if (v1 instanceof String && v2 instanceof String) {
-                    return ascending ? 
-                            ((String) v1).compareTo((String) v2) : 
-                            ((String) v2).compareTo((String) v1);
-                } else if (v1 instanceof Date && v2 instanceof Date) {
-                    return ascending ? 
-                            ((Date) v1).compareTo((Date) v2) : 
-                            ((Date) v2).compareTo((Date) v1);
-                }
-                
-                return 0;
-            });
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new ClientException("ValidationError", "limit must be between 1 and " + MAX_LIMIT);
         }
-        
-        // Limit results if requested
-        if (limit != null && limit > 0 && activities.size() > limit) {
-            activities = activities.subList(0, limit);
+        if (sortColumn != null && sortColumn != 0) {
+            throw new ClientException("ValidationError", "Activities can only be sorted by date");
         }
+        boolean ascending = asc != null && asc;
+        String userId = getUserId(username);
+        UserActivityDto cursorDto = parseCursor(cursor);
 
-        // Build the response
-        JsonObjectBuilder response = Json.createObjectBuilder();
-        JsonArrayBuilder activitiesArray = Json.createArrayBuilder();
-        
-        for (Map<String, Object> activity : activities) {
-            JsonObjectBuilder activityObj = Json.createObjectBuilder()
-                    .add("username", (String) activity.get("username"))
-                    .add("entity_name", (String) activity.get("entity_name"))
-                    .add("entity_type", (String) activity.get("entity_type"))
-                    .add("type", (String) activity.get("type"))
-                    .add("create_date", ((Date) activity.get("create_date")).getTime())
-                    .add("message", (String) activity.get("message"));
-            
-            activitiesArray.add(activityObj);
+        // Fetch one more activity to know if there is a next page
+        UserActivityDao userActivityDao = new UserActivityDao();
+        List<UserActivityDto> activityDtoList = userActivityDao.findByCursor(fromDate, userId, cursorDto, ascending, limit + 1);
+        String nextCursor = null;
+        if (activityDtoList.size() > limit) {
+            activityDtoList = activityDtoList.subList(0, limit);
+            UserActivityDto lastDto = activityDtoList.get(limit - 1);
+            nextCursor = lastDto.getCreateDate().getTime() + ":" + lastDto.getId();
         }
-        
-        response.add("activities", activitiesArray);
-        
-        return Response.ok().entity(response.build()).build();
-    }
 
-    /**
-     * Get the value from an activity map based on the column index.
-     * 
-     * @param activity Activity map
-     * @param column Column index
-     * @return Value
-     */
-    private Object getValueByColumn(Map<String, Object> activity, int column) {
-        switch (column) {
-            case 0: return activity.get("create_date");
-            case 1: return activity.get("username");
-            case 2: return activity.get("entity_name");
-            case 3: return activity.get("entity_type");
-            case 4: return activity.get("type");
-            case 5: return activity.get("message");
-            default: return null;
+        JsonArrayBuilder activities = Json.createArrayBuilder();
+        for (UserActivityDto activityDto : activityDtoList) {
+            activities.add(Json.createObjectBuilder()
+                    .add("id", activityDto.getId())
+                    .add("username", activityDto.getUsername())
+                    .add("entity_id", activityDto.getEntityId())
+                    .add("entity_type", activityDto.getEntityClass())
+                    .add("type", activityDto.getType())
+                    .add("create_date", activityDto.getCreateDate().getTime())
+                    .add("message", JsonUtil.nullable(activityDto.getMessage())));
         }
+
+        // Daily counts, only with the first page
+        JsonArrayBuilder counts = Json.createArrayBuilder();
+        if (cursorDto == null) {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+            for (UserActivityDayDto dayDto : userActivityDao.findByDay(fromDate, userId)) {
+                counts.add(Json.createObjectBuilder()
+                        .add("date", dayFormat.format(dayDto.getDay()))
+                        .add("username", dayDto.getUsername())
+                        .add("entity_type", dayDto.getEntityClass())
+                        .add("create", dayDto.getCreateCount())
+                        .add("update", dayDto.getUpdateCount())
+                        .add("delete", dayDto.getDeleteCount())
+                        .add("count", dayDto.getCount()));
+            }
+        }
+
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("activities", activities)
+                .add("counts", counts)
+                .add("next_cursor", JsonUtil.nullable(nextCursor));
+        return Response.ok().entity(response.build()).build();
     }
 
     /**
      * Get Gantt chart data.
+     * A task covers the activities of a user on a type of entity during a day.
      *
      * @api {get} /useractivity/gantt Get Gantt chart data
      * @apiName GetUserActivityGantt
      * @apiGroup UserActivity
      * @apiParam {Number} date_range Date range (in days)
+     * @apiParam {String} [username] Username for filtering
      * @apiSuccess {Object[]} tasks List of Gantt tasks
      * @apiSuccess {String} tasks.id Task ID
      * @apiSuccess {String} tasks.text Task text
@@ -165,6 +176,7 @@ public class UserActivityResource extends BaseResource {
      * @apiSuccess {String} tasks.end_date End date (timestamp)
      * @apiSuccess {Number} tasks.duration Task duration (in minutes)
      * @apiSuccess {String} tasks.entity_type Entity type
+     * @apiSuccess {String} tasks.user_id User ID
      * @apiSuccess {String} tasks.username Username
      * @apiSuccess {String} tasks.details Task details
      * @apiSuccess {Object[]} users List of users
@@ -172,194 +184,118 @@ public class UserActivityResource extends BaseResource {
      * @apiSuccess {String} users.name Username
      * @apiError (client) ForbiddenError Access denied
      * @apiError (client) ValidationError Validation error
+     * @apiError (client) NotFound User not found
      * @apiPermission admin
      * @apiVersion 1.5.0
      *
      * @param dateRange Date range in days
+     * @param username Username
      * @return Response
      */
     @GET
     @Path("gantt")
-    public Response gantt(@QueryParam("date_range") Integer dateRange) {
+    public Response gantt(
+            @QueryParam("date_range") Integer dateRange,
+            @QueryParam("username") String username) {
         if (!authenticate()) {
             throw new ForbiddenClientException();
         }
         checkBaseFunction(BaseFunction.ADMIN);
 
         // Validate input
-        ValidationUtil.validateRequired(dateRange, "date_range");
-        if (dateRange <= 0) {
-            throw new ClientException("ValidationError", "date_range must be positive");
-        }
-
-        // Generate mock data for the requested date range
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.DAY_OF_MONTH, -dateRange);
-        Date startDate = calendar.getTime();
-        
-        List<Map<String, Object>> tasks = generateMockGanttTasks(startDate, new Date(), 50);
-        List<Map<String, Object>> users = generateMockUsers();
+        Date fromDate = getFromDate(dateRange);
+        String userId = getUserId(username);
 
-        // Build the response
-        JsonObjectBuilder response = Json.createObjectBuilder();
-        JsonArrayBuilder tasksArray = Json.createArrayBuilder();
-        
-        for (Map<String, Object> task : tasks) {
-            JsonObjectBuilder taskObj = Json.createObjectBuilder()
-                    .add("id", (String) task.get("id"))
-                    .add("text", (String) task.get("text"))
-                    .add("start_date", ((Date) task.get("start_date")).getTime())
-                    .add("end_date", ((Date) task.get("end_date")).getTime())
-                    .add("duration", (Integer) task.get("duration"))
-                    .add("entity_type", (String) task.get("entity_type"))
-                    .add("username", (String) task.get("username"))
-                    .add("details", (String) task.get("details"));
-            
-            tasksArray.add(taskObj);
+        UserActivityDao userActivityDao = new UserActivityDao();
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyy-MM-dd");
+        JsonArrayBuilder tasks = Json.createArrayBuilder();
+        Map<String, String> userMap = new TreeMap<>();
+        for (UserActivityDayDto dayDto : userActivityDao.findByDay(fromDate, userId)) {
+            long startDate = dayDto.getFirstDate().getTime();
+            int duration = Math.max(MIN_TASK_DURATION, (int) ((dayDto.getLastDate().getTime() - startDate) / 60000));
+            String day = dayFormat.format(dayDto.getDay());
+            tasks.add(Json.createObjectBuilder()
+                    .add("id", dayDto.getUserId() + "_" + day + "_" + dayDto.getEntityClass())
+                    .add("text", dayDto.getEntityClass())
+                    .add("start_date", startDate)
+                    .add("end_date", Math.max(dayDto.getLastDate().getTime(), startDate + duration * 60000L))
+                    .add("duration", duration)
+                    .add("entity_type", dayDto.getEntityClass())
+                    .add("user_id", dayDto.getUserId())
+                    .add("username", dayDto.getUsername())
+                    .add("details", dayDto.getCount() + " activities (" + dayDto.getCreateCount() + " created, "
+                            + dayDto.getUpdateCount() + " updated, " + dayDto.getDeleteCount() + " deleted)"));
+            userMap.put(dayDto.getUsername(), dayDto.getUserId());
         }
-        
-        JsonArrayBuilder usersArray = Json.createArrayBuilder();
-        for (Map<String, Object> user : users) {
-            JsonObjectBuilder userObj = Json.createObjectBuilder()
-                    .add("id", (String) user.get("id"))
-                    .add("name", (String) user.get("name"));
-            
-            usersArray.add(userObj);
+
+        JsonArrayBuilder users = Json.createArrayBuilder();
+        for (Map.Entry<String, String> entry : userMap.entrySet()) {
+            users.add(Json.createObjectBuilder()
+                    .add("id", entry.getValue())
+                    .add("name", entry.getKey()));
         }
-        
-        response.add("tasks", tasksArray);
-        response.add("users", usersArray);
-        
+
+        JsonObjectBuilder response = Json.createObjectBuilder()
+                .add("tasks", tasks)
+                .add("users", users);
         return Response.ok().entity(response.build()).build();
     }
 
     /**
-     * Generate mock activities.
-     * 
-     * @param startDate Start date
-     * @param endDate End date
-     * @param count Number of activities to generate
-     * @return List of activities
+     * Returns the start of the date range.
+     *
+     * @param dateRange Date range in days
+     * @return Start of the first day of the range
      */
-    private List<Map<String, Object>> generateMockActivities(Date startDate, Date endDate, int count) {
-        List<Map<String, Object>> activities = new ArrayList<>();
-        
-        String[] usernames = {"admin", "guest", "john.doe", "jane.smith"};
-        String[] entityTypes = {"document", "file", "comment", "tag"};
-        String[] actionTypes = {"created", "updated", "deleted", "viewed", "commented"};
-        
-        Random random = new Random();
-        long startTime = startDate.getTime();
-        long endTime = endDate.getTime();
-        
-        for (int i = 0; i < count; i++) {
-            Map<String, Object> activity = new HashMap<>();
-            
-            String username = usernames[random.nextInt(usernames.length)];
-            String entityType = entityTypes[random.nextInt(entityTypes.length)];
-            String actionType = actionTypes[random.nextInt(actionTypes.length)];
-            String entityName = entityType + "_" + (random.nextInt(20) + 1);
-            
-            long randomTime = startTime + (long) (random.nextDouble() * (endTime - startTime));
-            Date createDate = new Date(randomTime);
-            
-            activity.put("username", username);
-            activity.put("entity_type", entityType);
-            activity.put("entity_name", entityName);
-            activity.put("type", actionType);
-            activity.put("create_date", createDate);
-            activity.put("message", username + " " + actionType + " " + entityType + " " + entityName);
-            
-            activities.add(activity);
+    private Date getFromDate(Integer dateRange) {
+        ValidationUtil.validateRequired(dateRange, "date_range");
+        if (dateRange <= 0) {
+            throw new ClientException("ValidationError", "date_range must be positive");
         }
-        
-        // Sort by date descending by default
-        activities.sort((a1, a2) -> ((Date) a2.get("create_date")).compareTo((Date) a1.get("create_date")));
-        
-        return activities;
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, 1 - dateRange);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTime();
     }
 
     /**
-     * Generate mock Gantt tasks.
-     * 
-     * @param startDate Start date
-     * @param endDate End date
-     * @param count Number of tasks to generate
-     * @return List of tasks
+     * Returns the ID of the user to filter on.
+     *
+     * @param username Username (optional)
+     * @return User ID, null if no filter
      */
-    private List<Map<String, Object>> generateMockGanttTasks(Date startDate, Date endDate, int count) {
-        List<Map<String, Object>> tasks = new ArrayList<>();
-        
-        String[] usernames = {"admin", "guest", "john.doe", "jane.smith"};
-        String[] entityTypes = {"document", "file", "comment", "tag"};
-        
-        Random random = new Random();
-        long startTime = startDate.getTime();
-        long endTime = endDate.getTime();
-        
-        for (int i = 0; i < count; i++) {
-            Map<String, Object> task = new HashMap<>();
-            
-            String username = usernames[random.nextInt(usernames.length)];
-            String entityType = entityTypes[random.nextInt(entityTypes.length)];
-            String taskName = "Task " + (i + 1);
-            
-            // Generate random start and end dates within the range
-            long randomStartTime = startTime + (long) (random.nextDouble() * (endTime - startTime));
-            Date taskStartDate = new Date(randomStartTime);
-            
-            // Task duration between 10 minutes and 3 hours
-            int durationMinutes = 10 + random.nextInt(170);
-            
-            // Calculate end date based on duration
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(taskStartDate);
-            calendar.add(Calendar.MINUTE, durationMinutes);
-            Date taskEndDate = calendar.getTime();
-            
-            task.put("id", "task_" + (i + 1));
-            task.put("text", taskName);
-            task.put("start_date", taskStartDate);
-            task.put("end_date", taskEndDate);
-            task.put("duration", durationMinutes);
-            task.put("entity_type", entityType);
-            task.put("username", username);
-            task.put("details", "User " + username + " working on " + entityType);
-            
-            tasks.add(task);
+    private String getUserId(String username) {
+        if (Strings.isNullOrEmpty(username)) {
+            return null;
         }
-        
-        return tasks;
+        User user = new UserDao().getActiveByUsername(username);
+        if (user == null) {
+            throw new NotFoundException();
+        }
+        return user.getId();
     }
 
     /**
-     * Generate mock users.
-     * 
-     * @return List of users
+     * Parse a cursor returned by a previous page.
+     *
+     * @param cursor Cursor (optional)
+     * @return Last activity of the previous page, null if no cursor
      */
-    private List<Map<String, Object>> generateMockUsers() {
-        List<Map<String, Object>> users = new ArrayList<>();
-        
-        Map<String, Object> user1 = new HashMap<>();
-        user1.put("id", "user1");
-        user1.put("name", "admin");
-        users.add(user1);
-        
-        Map<String, Object> user2 = new HashMap<>();
-        user2.put("id", "user2");
-        user2.put("name", "guest");
-        users.add(user2);
-        
-        Map<String, Object> user3 = new HashMap<>();
-        user3.put("id", "user3");
-        user3.put("name", "john.doe");
-        users.add(user3);
-        
-        Map<String, Object> user4 = new HashMap<>();
-        user4.put("id", "user4");
-        user4.put("name", "jane.smith");
-        users.add(user4);
-        
-        return users;
+    private UserActivityDto parseCursor(String cursor) {
+        if (Strings.isNullOrEmpty(cursor)) {
+            return null;
+        }
+        int index = cursor.indexOf(':');
+        try {
+            UserActivityDto cursorDto = new UserActivityDto();
+            cursorDto.setCreateDate(new Date(Long.parseLong(cursor.substring(0, index))));
+            cursorDto.setId(cursor.substring(index + 1));
+            return cursorDto;
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new ClientException("ValidationError", "cursor is not valid");
+        }
     }
-} 
\ No newline at end of file
+}
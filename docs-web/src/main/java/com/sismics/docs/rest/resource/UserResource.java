@@ -590,8 +590,9 @@ public class UserResource extends BaseResource {
         } else {
             // Update the last connection date
             String authToken = getAuthToken();
-            AuthenticationTokenDao authenticationTokenDao = new AuthenticationTokenDao();
-            authenticationTokenDao.updateLastConnectionDate(authToken);
+            if (authToken != null) {
+                AppContext.getInstance().getLastConnectionService().recordConnection(authToken);
+            }
             
             // Build the response
             response.add("anonymous", false);
@@ -1042,7 +1043,7 @@ public class UserResource extends BaseResource {
         PasswordLostEvent passwordLostEvent = new PasswordLostEvent();
         passwordLostEvent.setUser(user);
         passwordLostEvent.setPasswordRecovery(passwordRecovery);
-        AppContext.getInstance().getMailEventBus().post(passwordLostEvent);
+        AppContext.getInstance().postMailEvent(passwordLostEvent);
 
         // Always return OK
         return response;
@@ -24,7 +24,7 @@ angular.module('docs').controller('SettingsUserActivity', function($scope, $http
       date_range: $scope.selectedDateRange.value
     }).then(function(data) {
       $scope.activities = data.activities;
-      $scope.renderActivityChart(data.activities);
+      $scope.renderActivityChart(data.counts);
     });
   };
   
@@ -44,8 +44,8 @@ angular.module('docs').controller('SettingsUserActivity', function($scope, $http
   /**
    * Render activity chart using Chart.js.
    */
-  $scope.renderActivityChart = function(activities) {
-    if (!activities || activities.length === 0) return;
+  $scope.renderActivityChart = function(counts) {
+    if (!counts || counts.length === 0) return;
     
     // Prepare data for the chart
     var userActivities = {};
@@ -57,35 +57,33 @@ angular.module('docs').controller('SettingsUserActivity', function($scope, $http
     for (var i = $scope.selectedDateRange.value - 1; i >= 0; i--) {
       var date = new Date(today);
       date.setDate(date.getDate() - i);
-      labels.push(date.toISOString().substring(0, 10));
+      labels.push(date.getFullYear() + '-' + ('0' + (date.getMonth() + 1)).slice(-2) + '-' + ('0' + date.getDate()).slice(-2));
     }
     
     // Initialize data
-    activities.forEach(function(activity) {
+    counts.forEach(function(count) {
       // User activities count
-      if (!userActivities[activity.username]) {
-        userActivities[activity.username] = {};
+      if (!userActivities[count.username]) {
+        userActivities[count.username] = {};
         labels.forEach(function(label) {
-          userActivities[activity.username][label] = 0;
+          userActivities[count.username][label] = 0;
         });
       }
       
       // Entity activities count
-      if (!entityActivities[activity.entity_name]) {
-        entityActivities[activity.entity_name] = {};
+      if (!entityActivities[count.entity_type]) {
+        entityActivities[count.entity_type] = {};
         labels.forEach(function(label) {
-          entityActivities[activity.entity_name][label] = 0;
+          entityActivities[count.entity_type][label] = 0;
         });
       }
     });
     
-    // Count activities by date
-    activities.forEach(function(activity) {
-      var activityDate = new Date(activity.create_date).toISOString().substring(0, 10);
-      
-      if (labels.includes(activityDate)) {
-        userActivities[activity.username][activityDate]++;
-        entityActivities[activity.entity_name][activityDate]++;
+    // Sum the daily counts
+    counts.forEach(function(count) {
+      if (labels.includes(count.date)) {
+        userActivities[count.username][count.date] += count.count;
+        entityActivities[count.entity_type][count.date] += count.count;
       }
     });
     
@@ -230,7 +228,7 @@ angular.module('docs').controller('SettingsUserActivity', function($scope, $http
       
       userGroups[task.user_id].children.push({
         id: task.id,
-        text: task.entity_name,
+        text: task.entity_type,
         start_date: new Date(parseInt(task.start_date)),
         end_date: new Date(parseInt(task.end_date)),
         details: task.details
@@ -39,7 +39,19 @@ angular.module('docs').controller('Document', function ($scope, $rootScope, $tim
         .then(function (data) {
           $scope.documents = data.documents;
           $scope.totalDocuments = data.total;
-          $scope.suggestions = data.suggestions;
+        });
+  };
+
+  /**
+   * Get search suggestions.
+   */
+  $scope.getSuggestions = function (search) {
+    return Restangular.one('document/suggest')
+        .get({
+          search: search
+        })
+        .then(function (data) {
+          return data.suggestions;
         });
   };
   
@@ -57,6 +57,12 @@ public class TestAppResource extends BaseJerseyTest {
         Long totalMemory = json.getJsonNumber("total_memory").longValue();
         Assert.assertTrue(totalMemory > 0 && totalMemory > freeMemory);
         Assert.assertEquals(0, json.getJsonNumber("queued_tasks").intValue());
+        JsonArray asyncPools = json.getJsonArray("async_pools");
+        Assert.assertEquals(5, asyncPools.size());
+        Assert.assertEquals("processing", asyncPools.getJsonObject(0).getString("name"));
+        Assert.assertEquals(6, asyncPools.getJsonObject(0).getJsonArray("wait_histogram").size());
+        Assert.assertTrue(json.getJsonObject("extraction_cache").getJsonNumber("max_size").longValue() > 0);
+        Assert.assertTrue(json.getJsonObject("pdf_cache").getJsonNumber("max_size").longValue() > 0);
         Assert.assertFalse(json.getBoolean("guest_login"));
         Assert.assertFalse(json.getBoolean("ocr_enabled"));
         Assert.assertEquals("eng", json.getString("default_language"));
@@ -98,6 +104,39 @@ public class TestAppResource extends BaseJerseyTest {
         Assert.assertEquals("eng", json.getString("default_language"));
     }
 
+    /**
+     * Test the storage cleaning.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testCleanStorage() throws Exception {
+        // Login admin
+        String adminToken = adminToken();
+
+        // Clean storage
+        Response response = target().path("/app/batch/clean_storage").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()));
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+
+        // Wait for the storage cleaning
+        JsonObject json = null;
+        for (int i = 0; i < 100; i++) {
+            json = target().path("/app/batch/clean_storage").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                    .get(JsonObject.class);
+            if (!"RUNNING".equals(json.getString("state"))) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        Assert.assertEquals("COMPLETED", json.getString("state"));
+        Assert.assertTrue(json.isNull("error"));
+        Assert.assertFalse(json.isNull("end_date"));
+        Assert.assertEquals("orphan stored files", json.getJsonArray("steps").getJsonObject(0).getString("name"));
+    }
+
     /**
      * Test the log resource.
      */
@@ -4,6 +4,8 @@ import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
 import com.sismics.docs.core.util.DirectoryUtil;
 import com.sismics.util.filter.TokenBasedSecurityFilter;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
 import org.glassfish.jersey.media.multipart.file.StreamDataBodyPart;
@@ -11,14 +13,20 @@ import org.joda.time.format.DateTimeFormat;
 import org.junit.Assert;
 import org.junit.Test;
 
+import jakarta.json.Json;
 import jakarta.json.JsonArray;
 import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.core.Form;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -188,6 +196,20 @@ public class TestDocumentResource extends BaseJerseyTest {
                 .get(JsonObject.class);
         String suggestion = json.getJsonArray("suggestions").getString(0);
         Assert.assertEquals("document", suggestion);
+        json = target().path("/document/suggest")
+                .queryParam("search", "my docu")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals("document", json.getJsonArray("suggestions").getString(0));
+
+        // The terms of the documents not readable by the user are not suggested
+        json = target().path("/document/suggest")
+                .queryParam("search", "supe")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document3Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(0, json.getJsonArray("suggestions").size());
 
         // Search documents
         Assert.assertEquals(1, searchDocuments("full:uranium full:einstein", document1Token));
@@ -405,12 +427,28 @@ public class TestDocumentResource extends BaseJerseyTest {
         relations = json.getJsonArray("relations");
         Assert.assertEquals(0, relations.size());
         
+        // The new title is suggested
+        json = target().path("/document/suggest")
+                .queryParam("search", "ne")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals("new", json.getJsonArray("suggestions").getString(0));
+
         // Deletes a document
         json = target().path("/document/" + document1Id).request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
                 .delete(JsonObject.class);
         Assert.assertEquals("ok", json.getString("status"));
 
+        // The terms of the deleted document are not suggested anymore
+        json = target().path("/document/suggest")
+                .queryParam("search", "ne")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
+                .get(JsonObject.class);
+        Assert.assertEquals(0, json.getJsonArray("suggestions").size());
+
         // Deletes a non-existing document
         response = target().path("/document/69b79238-84bb-4263-a32f-9cbdf8c92188").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, document1Token)
@@ -999,4 +1037,213 @@ public class TestDocumentResource extends BaseJerseyTest {
         Assert.assertEquals("BOOLEAN", meta.getString("type"));
         Assert.assertTrue(meta.getBoolean("value"));
     }
+
+    /**
+     * Test the document export.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testExport() throws Exception {
+        // Login document_export
+        clientUtil.createUser("document_export");
+        String documentExportToken = clientUtil.login("document_export");
+
+        // Create two documents, one with a file
+        String document1Id = clientUtil.createDocument(documentExportToken);
+        String document2Id = clientUtil.createDocument(documentExportToken);
+        clientUtil.addFileToDocument(FILE_DOCUMENT_TXT, documentExportToken, document1Id);
+
+        // Export all the documents, the export is synchronous in the tests
+        JsonObject json = target().path("/document/export").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentExportToken)
+                .post(Entity.form(new Form()), JsonObject.class);
+        String exportId = json.getString("id");
+
+        // Get the export progress
+        json = target().path("/document/export/" + exportId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentExportToken)
+                .get(JsonObject.class);
+        Assert.assertEquals("COMPLETED", json.getString("state"));
+        Assert.assertEquals(2, json.getInt("document_count"));
+        Assert.assertEquals(1, json.getInt("file_count"));
+        Assert.assertEquals(2, json.getInt("total"));
+        long length = json.getJsonNumber("length").longValue();
+        Assert.assertEquals(0, length % 512);
+
+        // The export is not visible to the other users
+        clientUtil.createUser("document_export2");
+        String documentExport2Token = clientUtil.login("document_export2");
+        Response response = target().path("/document/export/" + exportId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentExport2Token)
+                .get();
+        Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
+
+        // Download the archive
+        response = target().path("/document/export/" + exportId + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentExportToken)
+                .get();
+        Assert.assertEquals(Status.OK, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("application/x-tar", response.getHeaderString("Content-Type"));
+        byte[] archiveBytes = ByteStreams.toByteArray((InputStream) response.getEntity());
+        Assert.assertEquals(length, archiveBytes.length);
+
+        // The manifest, then the files of the documents
+        try (TarArchiveInputStream tarInputStream = new TarArchiveInputStream(new ByteArrayInputStream(archiveBytes))) {
+            TarArchiveEntry entry = tarInputStream.getNextTarEntry();
+            Assert.assertEquals("documents-00000000.ndjson", entry.getName());
+            String[] lines = new String(ByteStreams.toByteArray(tarInputStream), StandardCharsets.UTF_8).split("\n");
+            Assert.assertEquals(2, lines.length);
+            JsonObject document = null;
+            for (String line : lines) {
+                try (JsonReader jsonReader = Json.createReader(new StringReader(line))) {
+                    JsonObject manifestDocument = jsonReader.readObject();
+                    Assert.assertTrue(manifestDocument.getString("id").equals(document1Id) || manifestDocument.getString("id").equals(document2Id));
+                    if (manifestDocument.getString("id").equals(document1Id)) {
+                        document = manifestDocument;
+                    }
+                }
+            }
+            Assert.assertNotNull(document);
+            Assert.assertEquals("Document Title", document.getString("title"));
+            Assert.assertFalse(document.getJsonArray("acls").isEmpty());
+            JsonObject file = document.getJsonArray("files").getJsonObject(0);
+            Assert.assertEquals("text/plain", file.getString("mimetype"));
+
+            entry = tarInputStream.getNextTarEntry();
+            Assert.assertEquals(file.getString("path"), entry.getName());
+            Assert.assertArrayEquals(Resources.toByteArray(Resources.getResource(FILE_DOCUMENT_TXT)), ByteStreams.toByteArray(tarInputStream));
+            Assert.assertNull(tarInputStream.getNextTarEntry());
+        }
+
+        // Download a range of the archive
+        response = target().path("/document/export/" + exportId + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentExportToken)
+                .header("Range", "bytes=500-1099")
+                .get();
+        Assert.assertEquals(Status.PARTIAL_CONTENT, Status.fromStatusCode(response.getStatus()));
+        Assert.assertEquals("bytes 500-1099/" + length, response.getHeaderString("Content-Range"));
+        Assert.assertArrayEquals(Arrays.copyOfRange(archiveBytes, 500, 1100), ByteStreams.toByteArray((InputStream) response.getEntity()));
+
+        // Delete the export
+        target().path("/document/export/" + exportId).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentExportToken)
+                .delete(JsonObject.class);
+        response = target().path("/document/export/" + exportId + "/data").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentExportToken)
+                .get();
+        Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
+    }
+
+    /**
+     * Test the bulk document import.
+     *
+     * @throws Exception e
+     */
+    @Test
+    public void testImport() throws Exception {
+        // Login document_import
+        clientUtil.createUser("document_import");
+        String documentImportToken = clientUtil.login("document_import");
+
+        // Create a tag
+        JsonObject json = target().path("/tag").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentImportToken)
+                .put(Entity.form(new Form()
+                        .param("name", "ImportTag")
+                        .param("color", "#ffff00")), JsonObject.class);
+        String tagId = json.getString("id");
+
+        // Import five documents, three of them are invalid
+        String documents = "{\"title\": \"Import 1\", \"language\": \"eng\", \"tags\": [\"" + tagId + "\"], \"files\": [\"document.txt\", \"PIA00452.jpg\"]}\n" +
+                "{\"title\": \"Import 2\", \"description\": \"Imported\", \"create_date\": 1519222261000}\n" +
+                "{\"title\": \"\", \"language\": \"eng\"}\n" +
+                "{\"title\": \"Import 4\", \"files\": [\"missing.txt\"]}\n" +
+                "{\"title\": \"Import 5\", \"tags\": [\"unknown\"]}\n";
+        try (InputStream is0 = Resources.getResource(FILE_DOCUMENT_TXT).openStream();
+             InputStream is1 = Resources.getResource(FILE_PIA_00452_JPG).openStream();
+             FormDataMultiPart multiPart = new FormDataMultiPart()) {
+            multiPart.field("documents", documents)
+                    .bodyPart(new StreamDataBodyPart("file", is0, "document.txt"))
+                    .bodyPart(new StreamDataBodyPart("file", is1, "PIA00452.jpg"));
+            json = target()
+                    .register(MultiPartFeature.class)
+                    .path("/document/import").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentImportToken)
+                    .put(Entity.entity(multiPart, MediaType.MULTIPART_FORM_DATA_TYPE), JsonObject.class);
+        }
+        JsonArray results = json.getJsonArray("documents");
+        Assert.assertEquals(5, results.size());
+        Assert.assertEquals("ok", results.getJsonObject(0).getString("status"));
+        Assert.assertEquals(2, results.getJsonObject(0).getJsonArray("file_ids").size());
+        Assert.assertEquals("ok", results.getJsonObject(1).getString("status"));
+        Assert.assertEquals(0, results.getJsonObject(1).getJsonArray("file_ids").size());
+        Assert.assertEquals("ValidationError", results.getJsonObject(2).getString("type"));
+        Assert.assertEquals("FileNotFound", results.getJsonObject(3).getString("type"));
+        Assert.assertEquals("TagNotFound", results.getJsonObject(4).getString("type"));
+        String document1Id = results.getJsonObject(0).getString("id");
+        String document2Id = results.getJsonObject(1).getString("id");
+
+        // Get the first document
+        json = target().path("/document/" + document1Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentImportToken)
+                .get(JsonObject.class);
+        Assert.assertEquals("Import 1", json.getString("title"));
+        Assert.assertEquals(tagId, json.getJsonArray("tags").getJsonObject(0).getString("id"));
+
+        // Get the files of the first document, in order
+        json = target().path("/file/list")
+                .queryParam("id", document1Id)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentImportToken)
+                .get(JsonObject.class);
+        JsonArray files = json.getJsonArray("files");
+        Assert.assertEquals(2, files.size());
+        Assert.assertEquals("document.txt", files.getJsonObject(0).getString("name"));
+        Assert.assertEquals("text/plain", files.getJsonObject(0).getString("mimetype"));
+        Assert.assertEquals("PIA00452.jpg", files.getJsonObject(1).getString("name"));
+        Assert.assertEquals("image/jpeg", files.getJsonObject(1).getString("mimetype"));
+
+        // Get the second document, in the default language
+        json = target().path("/document/" + document2Id).request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentImportToken)
+                .get(JsonObject.class);
+        Assert.assertEquals("Imported", json.getString("description"));
+        Assert.assertEquals("eng", json.getString("language"));
+        Assert.assertEquals(1519222261000L, json.getJsonNumber("create_date").longValue());
+
+        // The imported documents are indexed
+        json = target().path("/document/list")
+                .queryParam("search", "Import")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentImportToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(2, json.getJsonArray("documents").size());
+
+        // The quota counts the imported files
+        json = target().path("/user").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentImportToken)
+                .get(JsonObject.class);
+        Assert.assertEquals(Resources.toByteArray(Resources.getResource(FILE_DOCUMENT_TXT)).length
+                + Resources.toByteArray(Resources.getResource(FILE_PIA_00452_JPG)).length,
+                json.getJsonNumber("storage_current").longValue());
+
+        // Two file parts with the same name are refused
+        try (InputStream is0 = Resources.getResource(FILE_DOCUMENT_TXT).openStream();
+             InputStream is1 = Resources.getResource(FILE_DOCUMENT_TXT).openStream();
+             FormDataMultiPart multiPart = new FormDataMultiPart()) {
+            multiPart.field("documents", "{\"title\": \"Import 6\", \"files\": [\"document.txt\"]}\n")
+                    .bodyPart(new StreamDataBodyPart("file", is0, "document.txt"))
+                    .bodyPart(new StreamDataBodyPart("file", is1, "document.txt"));
+            json = target()
+                    .register(MultiPartFeature.class)
+                    .path("/document/import").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, documentImportToken)
+                    .put(Entity.entity(multiPart, MediaType.MULTIPART_FORM_DATA_TYPE), JsonObject.class);
+        }
+        results = json.getJsonArray("documents");
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("error", results.getJsonObject(0).getString("status"));
+        Assert.assertEquals("ImportError", results.getJsonObject(0).getString("type"));
+    }
 }
@@ -142,6 +142,16 @@ public class TestGroupResource extends BaseJerseyTest {
         JsonArray members = json.getJsonArray("members");
         Assert.assertEquals(1, members.size());
         Assert.assertEquals("group1", members.getString(0));
+
+        // A group cannot be moved below its own subgroup
+        Response response = target().path("/group/g1").request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .post(Entity.form(new Form()
+                        .param("name", "g1")
+                        .param("parent", "g12new")));
+        Assert.assertEquals(Response.Status.BAD_REQUEST, Response.Status.fromStatusCode(response.getStatus()));
+        json = response.readEntity(JsonObject.class);
+        Assert.assertEquals("CircularReference", json.getString("type"));
         
         // Remove group1 from g12new
         target().path("/group/g12new/group1").request()
@@ -168,7 +178,7 @@ public class TestGroupResource extends BaseJerseyTest {
                 .delete(JsonObject.class);
 
         // Delete group administrators
-        Response response = target().path("/group/administrators").request()
+        response = target().path("/group/administrators").request()
                 .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
                 .delete();
         Assert.assertEquals(Response.Status.BAD_REQUEST, Response.Status.fromStatusCode(response.getStatus()));
@@ -0,0 +1,119 @@
+package com.sismics.docs.rest;
+
+import com.sismics.util.filter.TokenBasedSecurityFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.core.Form;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Test the user activity resource.
+ */
+public class TestUserActivityResource extends BaseJerseyTest {
+    /**
+     * Test the user activity resource.
+     */
+    @Test
+    public void testUserActivityResource() {
+        // Login activity1 and create some tags
+        clientUtil.createUser("activity1");
+        String activity1Token = clientUtil.login("activity1");
+        for (int i = 0; i < 3; i++) {
+            target().path("/tag").request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, activity1Token)
+                    .put(Entity.form(new Form()
+                            .param("name", "ActivityTag" + i)
+                            .param("color", "#ff0000")), JsonObject.class);
+        }
+
+        // Only admins can see the activities
+        Response response = target().path("/useractivity/list")
+                .queryParam("date_range", 7)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, activity1Token)
+                .get();
+        Assert.assertEquals(Status.FORBIDDEN, Status.fromStatusCode(response.getStatus()));
+
+        // Unsupported sort column
+        String adminToken = adminToken();
+        response = target().path("/useractivity/list")
+                .queryParam("date_range", 7)
+                .queryParam("sort_column", 1)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get();
+        Assert.assertEquals(Status.BAD_REQUEST, Status.fromStatusCode(response.getStatus()));
+
+        // Daily counts of activity1, a tag is created with its ACLs
+        JsonObject json = target().path("/useractivity/list")
+                .queryParam("date_range", 7)
+                .queryParam("username", "activity1")
+                .queryParam("limit", 4)
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        JsonArray counts = json.getJsonArray("counts");
+        Assert.assertEquals(2, counts.size());
+        Assert.assertEquals("activity1", counts.getJsonObject(0).getString("username"));
+        Assert.assertEquals("Acl", counts.getJsonObject(0).getString("entity_type"));
+        Assert.assertEquals(6, counts.getJsonObject(0).getInt("create"));
+        Assert.assertEquals("Tag", counts.getJsonObject(1).getString("entity_type"));
+        Assert.assertEquals(3, counts.getJsonObject(1).getInt("create"));
+        Assert.assertEquals(3, counts.getJsonObject(1).getInt("count"));
+
+        // List the activities of activity1, four by four
+        Set<String> idSet = new HashSet<>();
+        int pageCount = 0;
+        while (true) {
+            JsonArray activities = json.getJsonArray("activities");
+            for (int i = 0; i < activities.size(); i++) {
+                Assert.assertEquals("activity1", activities.getJsonObject(i).getString("username"));
+                idSet.add(activities.getJsonObject(i).getString("id"));
+            }
+            pageCount++;
+            if (json.isNull("next_cursor")) {
+                break;
+            }
+            json = target().path("/useractivity/list")
+                    .queryParam("date_range", 7)
+                    .queryParam("username", "activity1")
+                    .queryParam("limit", 4)
+                    .queryParam("cursor", json.getString("next_cursor"))
+                    .request()
+                    .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                    .get(JsonObject.class);
+            Assert.assertEquals(0, json.getJsonArray("counts").size());
+        }
+        Assert.assertEquals(3, pageCount);
+        Assert.assertEquals(9, idSet.size());
+
+        // Get the Gantt chart of activity1
+        json = target().path("/useractivity/gantt")
+                .queryParam("date_range", 7)
+                .queryParam("username", "activity1")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get(JsonObject.class);
+        JsonArray tasks = json.getJsonArray("tasks");
+        Assert.assertEquals(2, tasks.size());
+        Assert.assertEquals("Tag", tasks.getJsonObject(1).getString("entity_type"));
+        Assert.assertEquals(1, tasks.getJsonObject(1).getInt("duration"));
+        Assert.assertEquals(1, json.getJsonArray("users").size());
+
+        // Unknown user
+        response = target().path("/useractivity/gantt")
+                .queryParam("date_range", 7)
+                .queryParam("username", "unknown")
+                .request()
+                .cookie(TokenBasedSecurityFilter.COOKIE_NAME, adminToken)
+                .get();
+        Assert.assertEquals(Status.NOT_FOUND, Status.fromStatusCode(response.getStatus()));
+    }
+}